@@ -0,0 +1,100 @@
+package io.oasp.ide.eclipse.configurator.benchmarks;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.core.Resolver;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Copy of the original {@link Resolver} implementation that compiles the regular expression on every call. Only used
+ * as baseline for the benchmarks.
+ */
+public class LegacyResolver {
+
+  /** @see Resolver#getReplacementPatterns() */
+  private final Properties replacementPatterns;
+
+  /** @see Resolver#getReplacementRegEx() */
+  private final String replacementRegEx;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param replacementPatterns - containing variables and their replacement.
+   * @param regEx - regEx to look for to find variables.
+   */
+  public LegacyResolver(Properties replacementPatterns, String regEx) {
+
+    super();
+    this.replacementPatterns = replacementPatterns;
+    this.replacementRegEx = regEx;
+  }
+
+  /**
+   * @see Resolver#resolveVariables(String)
+   *
+   * @param data - the string to be resolved.
+   * @return the resolved string.
+   */
+  public String resolveVariables(String data) {
+
+    if (this.replacementPatterns.isEmpty()) {
+      return data;
+    }
+    Pattern p = Pattern.compile(this.replacementRegEx);
+    Matcher m = p.matcher(data);
+    String resolvedData = data;
+    StringBuffer sb = new StringBuffer();
+    while (m.find()) {
+      String match = m.group(1);
+      String replacement = resolveVariable(match);
+      if (replacement != null) {
+        m.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+      }
+    }
+    m.appendTail(sb);
+    resolvedData = sb.toString();
+    return resolvedData;
+  }
+
+  /**
+   * @param variableName Name of the variable
+   * @return Replacement for the variable or null if not found.
+   */
+  protected String resolveVariable(String variableName) {
+
+    String result = null;
+    if (this.replacementPatterns.get(variableName) != null) {
+      result = this.replacementPatterns.get(variableName).toString();
+    } else {
+      result = System.getProperty(variableName);
+      if (result == null) {
+        result = System.getenv(variableName);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @see Resolver#reResolveVariables(String)
+   *
+   * @param data - String to be re resolved.
+   * @return the re resolved String.
+   */
+  public String reResolveVariables(String data) {
+
+    if (this.replacementPatterns.isEmpty()) {
+      return data;
+    }
+    String reResolvedData = data;
+    for (Map.Entry<Object, Object> entry : this.replacementPatterns.entrySet()) {
+      reResolvedData = reResolvedData.replaceAll(Pattern.quote(entry.getValue().toString()),
+          Matcher.quoteReplacement(Strings.PATTERN_PREFIX + entry.getKey().toString() + Strings.PATTERN_SUFFIX));
+    }
+    return reResolvedData;
+  }
+
+}
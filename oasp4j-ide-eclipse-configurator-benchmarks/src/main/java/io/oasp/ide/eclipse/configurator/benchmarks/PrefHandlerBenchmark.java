@@ -0,0 +1,149 @@
+package io.oasp.ide.eclipse.configurator.benchmarks;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.core.PrefHandler;
+import io.oasp.ide.eclipse.configurator.entity.PreferenceMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of {@link PrefHandler#update(File, File, File)} and {@link PrefHandler#update(File, PreferenceMap,
+ * PreferenceMap)} for a single {@link SyntheticWorkspace synthetic} .prefs file of variable size. The workspace file
+ * either does not exist (initial setup, always written) or is already up-to-date (typical update, only read and
+ * compared).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrefHandlerBenchmark {
+
+  /** The number of preferences in the update template. */
+  @Param({ "100", "1000", "10000" })
+  public int keys;
+
+  /** The generated templates and workspace. */
+  private SyntheticWorkspace workspace;
+
+  /** The {@link PrefHandler} to benchmark. */
+  private PrefHandler prefHandler;
+
+  /** The setup template. */
+  private File setupFile;
+
+  /** The update template. */
+  private File updateFile;
+
+  /** The resolved properties of the {@link #setupFile}. */
+  private PreferenceMap setupProperties;
+
+  /** The resolved properties of the {@link #updateFile}. */
+  private PreferenceMap updateProperties;
+
+  /** The workspace file that is up-to-date. */
+  private File existingFile;
+
+  /** The workspace file that is deleted before every invocation. */
+  private File newFile;
+
+  /**
+   * Generates the .prefs templates and the up-to-date workspace file.
+   *
+   * @throws IOException on error.
+   */
+  @Setup
+  public void setup() throws IOException {
+
+    this.workspace = new SyntheticWorkspace(Files.createTempDirectory("prefs-benchmark").toFile());
+    this.workspace.setPrefsFiles(1);
+    this.workspace.setKeysPerFile(this.keys);
+    this.workspace.setXmlFiles(0);
+    this.workspace.setDatFiles(0);
+    this.workspace.generate();
+    String relativePath = SyntheticWorkspace.getPrefsPath(0);
+    this.setupFile = new File(new File(this.workspace.getTemplatesPath(), Strings.FOLDER_SETUP), relativePath);
+    this.updateFile = new File(new File(this.workspace.getTemplatesPath(), Strings.FOLDER_UPDATE), relativePath);
+    this.prefHandler = new PrefHandler(SyntheticWorkspace.createResolver());
+    this.setupProperties = this.prefHandler.loadResolvedProperties(this.setupFile);
+    this.updateProperties = this.prefHandler.loadResolvedProperties(this.updateFile);
+    this.existingFile = new File(this.workspace.createWorkspace(), relativePath);
+    this.newFile = new File(this.workspace.createWorkspace(), relativePath);
+    this.prefHandler.update(this.existingFile, this.setupFile, this.updateFile);
+  }
+
+  /**
+   * Deletes the {@link #newFile} so every invocation creates it.
+   */
+  @Setup(Level.Invocation)
+  public void deleteNewFile() {
+
+    this.newFile.delete();
+  }
+
+  /**
+   * Deletes the generated files.
+   *
+   * @throws IOException on error.
+   */
+  @TearDown
+  public void tearDown() throws IOException {
+
+    SyntheticWorkspace.delete(this.workspace.getRootDirectory());
+  }
+
+  /**
+   * @throws IOException on error.
+   */
+  @Benchmark
+  public void updateExisting() throws IOException {
+
+    this.prefHandler.update(this.existingFile, this.setupFile, this.updateFile);
+  }
+
+  /**
+   * @throws IOException on error.
+   */
+  @Benchmark
+  public void updateExistingPreloaded() throws IOException {
+
+    this.prefHandler.update(this.existingFile, this.setupProperties, this.updateProperties);
+  }
+
+  /**
+   * @throws IOException on error.
+   */
+  @Benchmark
+  public void createNew() throws IOException {
+
+    this.prefHandler.update(this.newFile, this.setupFile, this.updateFile);
+  }
+
+  /**
+   * @throws IOException on error.
+   */
+  @Benchmark
+  public void createNewPreloaded() throws IOException {
+
+    this.prefHandler.update(this.newFile, this.setupProperties, this.updateProperties);
+  }
+
+}
@@ -0,0 +1,144 @@
+package io.oasp.ide.eclipse.configurator.benchmarks;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.core.Resolver;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of {@link Resolver#resolveVariables(String)} and {@link Resolver#reResolveVariables(String)} compared to the
+ * original implementation ({@link LegacyResolver}) on realistic .prefs and launch configuration values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverBenchmark {
+
+  /** The {@link Resolver} to benchmark. */
+  private Resolver resolver;
+
+  /** The {@link LegacyResolver} as baseline. */
+  private LegacyResolver legacyResolver;
+
+  /** The {@link SampleData#PREFS_VALUES} with resolved variables. */
+  private String[] resolvedPrefsValues;
+
+  /** The {@link SampleData#LAUNCH_VALUES} with resolved variables. */
+  private String[] resolvedLaunchValues;
+
+  /**
+   * Creates the resolvers.
+   */
+  @Setup
+  public void setup() {
+
+    this.resolver = new Resolver(SampleData.createReplacementPatterns(), Strings.REPLACEMENT_REG_EX);
+    this.legacyResolver = new LegacyResolver(SampleData.createReplacementPatterns(), Strings.REPLACEMENT_REG_EX);
+    this.resolvedPrefsValues = SampleData.resolve(SampleData.PREFS_VALUES);
+    this.resolvedLaunchValues = SampleData.resolve(SampleData.LAUNCH_VALUES);
+  }
+
+  /**
+   * @param blackhole is the {@link Blackhole}.
+   */
+  @Benchmark
+  public void resolvePrefs(Blackhole blackhole) {
+
+    for (String value : SampleData.PREFS_VALUES) {
+      blackhole.consume(this.resolver.resolveVariables(value));
+    }
+  }
+
+  /**
+   * @param blackhole is the {@link Blackhole}.
+   */
+  @Benchmark
+  public void resolvePrefsLegacy(Blackhole blackhole) {
+
+    for (String value : SampleData.PREFS_VALUES) {
+      blackhole.consume(this.legacyResolver.resolveVariables(value));
+    }
+  }
+
+  /**
+   * @param blackhole is the {@link Blackhole}.
+   */
+  @Benchmark
+  public void resolveLaunch(Blackhole blackhole) {
+
+    for (String value : SampleData.LAUNCH_VALUES) {
+      blackhole.consume(this.resolver.resolveVariables(value));
+    }
+  }
+
+  /**
+   * @param blackhole is the {@link Blackhole}.
+   */
+  @Benchmark
+  public void resolveLaunchLegacy(Blackhole blackhole) {
+
+    for (String value : SampleData.LAUNCH_VALUES) {
+      blackhole.consume(this.legacyResolver.resolveVariables(value));
+    }
+  }
+
+  /**
+   * @param blackhole is the {@link Blackhole}.
+   */
+  @Benchmark
+  public void reResolvePrefs(Blackhole blackhole) {
+
+    for (String value : this.resolvedPrefsValues) {
+      blackhole.consume(this.resolver.reResolveVariables(value));
+    }
+  }
+
+  /**
+   * @param blackhole is the {@link Blackhole}.
+   */
+  @Benchmark
+  public void reResolvePrefsLegacy(Blackhole blackhole) {
+
+    for (String value : this.resolvedPrefsValues) {
+      blackhole.consume(this.legacyResolver.reResolveVariables(value));
+    }
+  }
+
+  /**
+   * @param blackhole is the {@link Blackhole}.
+   */
+  @Benchmark
+  public void reResolveLaunch(Blackhole blackhole) {
+
+    for (String value : this.resolvedLaunchValues) {
+      blackhole.consume(this.resolver.reResolveVariables(value));
+    }
+  }
+
+  /**
+   * @param blackhole is the {@link Blackhole}.
+   */
+  @Benchmark
+  public void reResolveLaunchLegacy(Blackhole blackhole) {
+
+    for (String value : this.resolvedLaunchValues) {
+      blackhole.consume(this.legacyResolver.reResolveVariables(value));
+    }
+  }
+
+}
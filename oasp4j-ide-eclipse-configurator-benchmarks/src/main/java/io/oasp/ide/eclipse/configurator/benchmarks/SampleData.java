@@ -0,0 +1,83 @@
+package io.oasp.ide.eclipse.configurator.benchmarks;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.entity.SortedProperties;
+
+/**
+ * Realistic input data for the benchmarks taken from the templates of <code>oasp4j-ide-settings</code>.
+ */
+public final class SampleData {
+
+  /** The value of {@link Strings#CLIENT_ENV_HOME_VARIABLE} used for the benchmarks. */
+  public static final String CLIENT_ENV_HOME = "/home/devon/projects/my-project";
+
+  /** Typical values of .prefs files. Most of them do not contain variables. */
+  public static final String[] PREFS_VALUES = {
+      "insert", "do not insert", "16", "true", "end_of_line", "120",
+      "org.eclipse.jdt.core.formatter.insert_space_after_comma_in_type_arguments",
+      "${client.env.home}/software/java/jre/lib/rt.jar", "${client.env.home}/software/eclipse/", "${M2_REPO}",
+      "${client.env.home}/conf/.m2/settings.xml",
+      "${client.env.home}/${SETTINGS_PATH}/eclipse/lifecycle-mapping-metadata.xml",
+      "#${task.key} - ${task.description} \r\nTODO", "explorer.exe /select,${resource_path}",
+      "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\r\n<runtimes>\r\n  <runtime id=\"Tomcat\" "
+          + "location=\"${client.env.home}/software/tomcat\" name=\"Tomcat\" "
+          + "runtime-type-id=\"org.eclipse.jst.server.tomcat.runtime.70\" timestamp=\"0\"/>\r\n</runtimes>\r\n" };
+
+  /** Typical attribute values of launch configurations with a large classpath. */
+  public static final String[] LAUNCH_VALUES = {
+      "org.eclipse.jdt.launching.localJavaApplication",
+      "io.oasp.gastronomy.restaurant.SpringBootApp", "-Xmx1024m -Dspring.profiles.active=junit", "false",
+      createClasspath(40) };
+
+  /**
+   * The constructor.
+   */
+  private SampleData() {
+
+    super();
+  }
+
+  /**
+   * @param entries is the number of classpath entries.
+   * @return a classpath value of a launch configuration.
+   */
+  private static String createClasspath(int entries) {
+
+    StringBuilder buffer = new StringBuilder();
+    for (int i = 0; i < entries; i++) {
+      buffer.append("<runtimeClasspathEntry externalArchive=\"${client.env.home}/conf/.m2/repository/org/lib");
+      buffer.append(i);
+      buffer.append("/1.0/lib");
+      buffer.append(i);
+      buffer.append("-1.0.jar\" path=\"3\" type=\"2\"/>\n");
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * @return the replacement patterns as configured by a typical project.
+   */
+  public static SortedProperties createReplacementPatterns() {
+
+    SortedProperties replacements = new SortedProperties();
+    replacements.put(Strings.CLIENT_ENV_HOME_VARIABLE, CLIENT_ENV_HOME);
+    replacements.put("SETTINGS_PATH", "workspaces/main/development/settings");
+    replacements.put("M2_REPO", CLIENT_ENV_HOME + "/conf/.m2/repository");
+    return replacements;
+  }
+
+  /**
+   * @param values are the values with variables.
+   * @return the given values with all known variables resolved as input for the reverse resolution.
+   */
+  public static String[] resolve(String[] values) {
+
+    LegacyResolver resolver = new LegacyResolver(createReplacementPatterns(), Strings.REPLACEMENT_REG_EX);
+    String[] resolved = new String[values.length];
+    for (int i = 0; i < values.length; i++) {
+      resolved[i] = resolver.resolveVariables(values[i]);
+    }
+    return resolved;
+  }
+
+}
@@ -0,0 +1,363 @@
+package io.oasp.ide.eclipse.configurator.benchmarks;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.core.Resolver;
+import io.oasp.ide.eclipse.configurator.core.WorkspaceTemplates;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * Generator of synthetic eclipse workspace templates (the {@link Strings#FOLDER_SETUP setup} and
+ * {@link Strings#FOLDER_UPDATE update} trees) that can scale the number and size of .prefs, XML and other (copied)
+ * files far beyond the real templates of <code>oasp4j-ide-settings</code>. The content is derived from
+ * {@link SampleData} and deterministic so results of different runs are comparable. Can also be used standalone via
+ * {@link #main(String[])} to generate a tree for manual tests.
+ */
+public class SyntheticWorkspace {
+
+  /** The relative path of the folder with the .prefs files. */
+  private static final String SETTINGS_PATH = ".metadata/.plugins/org.eclipse.core.runtime/.settings/";
+
+  /** The relative path of the folder with the plugin folders containing the XML and .dat files. */
+  private static final String PLUGINS_PATH = ".metadata/.plugins/";
+
+  /** The seed for the content of the .dat files. */
+  private static final long SEED = 4711;
+
+  /** @see #getRootDirectory() */
+  private final File rootDirectory;
+
+  /** @see #setPrefsFiles(int) */
+  private int prefsFiles;
+
+  /** @see #setKeysPerFile(int) */
+  private int keysPerFile;
+
+  /** @see #setXmlFiles(int) */
+  private int xmlFiles;
+
+  /** @see #setXmlSize(int) */
+  private int xmlSize;
+
+  /** @see #setDatFiles(int) */
+  private int datFiles;
+
+  /** @see #setDatSize(int) */
+  private int datSize;
+
+  /** The number of workspaces created by {@link #createWorkspace()}. */
+  private int workspaceCount;
+
+  /**
+   * Creates a new instance with the same shape as the real templates (about 50 files).
+   *
+   * @param rootDirectory is the {@link #getRootDirectory() root directory}.
+   */
+  public SyntheticWorkspace(File rootDirectory) {
+
+    super();
+    this.rootDirectory = rootDirectory;
+    this.prefsFiles = 40;
+    this.keysPerFile = 100;
+    this.xmlFiles = 10;
+    this.xmlSize = 8 * 1024;
+    this.datFiles = 2;
+    this.datSize = 16 * 1024;
+  }
+
+  /**
+   * @return the root directory containing the generated templates and workspaces.
+   */
+  public File getRootDirectory() {
+
+    return this.rootDirectory;
+  }
+
+  /**
+   * @return the path to the generated eclipse workspace templates as expected by
+   *         {@link WorkspaceTemplates#WorkspaceTemplates(String, Resolver)}.
+   */
+  public String getTemplatesPath() {
+
+    return new File(this.rootDirectory, "templates").getPath();
+  }
+
+  /**
+   * @param prefsFiles is the number of .prefs files to generate.
+   */
+  public void setPrefsFiles(int prefsFiles) {
+
+    this.prefsFiles = prefsFiles;
+  }
+
+  /**
+   * @param keysPerFile is the number of preferences per .prefs file. Half of the preferences of the setup template
+   *        are also contained in the update template.
+   */
+  public void setKeysPerFile(int keysPerFile) {
+
+    this.keysPerFile = keysPerFile;
+  }
+
+  /**
+   * @param xmlFiles is the number of XML files (launch configurations) to generate.
+   */
+  public void setXmlFiles(int xmlFiles) {
+
+    this.xmlFiles = xmlFiles;
+  }
+
+  /**
+   * @param xmlSize is the approximate size of each XML file in bytes.
+   */
+  public void setXmlSize(int xmlSize) {
+
+    this.xmlSize = xmlSize;
+  }
+
+  /**
+   * @param datFiles is the number of binary files (that are copied and not merged) to generate.
+   */
+  public void setDatFiles(int datFiles) {
+
+    this.datFiles = datFiles;
+  }
+
+  /**
+   * @param datSize is the size of each binary file in bytes.
+   */
+  public void setDatSize(int datSize) {
+
+    this.datSize = datSize;
+  }
+
+  /**
+   * @return a new {@link Resolver} with the {@link SampleData#createReplacementPatterns() replacement patterns} used
+   *         by the generated templates.
+   */
+  public static Resolver createResolver() {
+
+    return new Resolver(SampleData.createReplacementPatterns(), Strings.REPLACEMENT_REG_EX);
+  }
+
+  /**
+   * Generates the templates.
+   *
+   * @throws IOException if a file could not be written.
+   */
+  public void generate() throws IOException {
+
+    File templates = new File(getTemplatesPath());
+    File setup = new File(templates, Strings.FOLDER_SETUP);
+    File update = new File(templates, Strings.FOLDER_UPDATE);
+    for (int i = 0; i < this.prefsFiles; i++) {
+      String path = getPrefsPath(i);
+      write(new File(update, path), createPrefs(i, 0, this.keysPerFile));
+      write(new File(setup, path), createPrefs(i, this.keysPerFile / 2, this.keysPerFile));
+    }
+    for (int i = 0; i < this.xmlFiles; i++) {
+      write(new File(update, getXmlPath(i)), createXml(i, this.xmlSize));
+    }
+    Random random = new Random(SEED);
+    for (int i = 0; i < this.datFiles; i++) {
+      byte[] data = new byte[this.datSize];
+      random.nextBytes(data);
+      write(new File(update, getDatPath(i)), data);
+    }
+  }
+
+  /**
+   * @param index is the number of the file.
+   * @return the relative path of the generated .prefs file with the given number.
+   */
+  public static String getPrefsPath(int index) {
+
+    return SETTINGS_PATH + "org.example.plugin" + index + ".prefs";
+  }
+
+  /**
+   * @param index is the number of the file.
+   * @return the relative path of the generated XML file with the given number.
+   */
+  public static String getXmlPath(int index) {
+
+    return PLUGINS_PATH + "org.example.plugin" + index + "/launch" + index + ".launch";
+  }
+
+  /**
+   * @param index is the number of the file.
+   * @return the relative path of the generated .dat file with the given number.
+   */
+  public static String getDatPath(int index) {
+
+    return PLUGINS_PATH + "org.example.plugin" + index + "/state" + index + ".dat";
+  }
+
+  /**
+   * @return the path to a new and empty workspace in the {@link #getRootDirectory() root directory}.
+   */
+  public String createWorkspace() {
+
+    File workspace = new File(this.rootDirectory, "workspace" + this.workspaceCount++);
+    if (!workspace.mkdirs()) {
+      throw new IllegalStateException("Could not create workspace " + workspace.getPath());
+    }
+    return workspace.getPath();
+  }
+
+  /**
+   * @param file is the prefs file number.
+   * @param offset is the number of the first key.
+   * @param count is the number of keys.
+   * @return the content of the .prefs file.
+   * @throws IOException if encoding failed.
+   */
+  private static byte[] createPrefs(int file, int offset, int count) throws IOException {
+
+    StringBuilder buffer = new StringBuilder("eclipse.preferences.version=1\n");
+    for (int i = offset; i < offset + count; i++) {
+      String value = SampleData.PREFS_VALUES[(file + i) % SampleData.PREFS_VALUES.length];
+      buffer.append("org.example.plugin").append(file).append(".key").append(i).append('=');
+      for (int c = 0; c < value.length(); c++) {
+        char ch = value.charAt(c);
+        if (ch == '\r') {
+          buffer.append("\\r");
+        } else if (ch == '\n') {
+          buffer.append("\\n");
+        } else {
+          if ((ch == ':') || (ch == '=') || (ch == '\\')) {
+            buffer.append('\\');
+          }
+          buffer.append(ch);
+        }
+      }
+      buffer.append('\n');
+    }
+    return buffer.toString().getBytes("ISO-8859-1");
+  }
+
+  /**
+   * @param file is the XML file number.
+   * @param size is the approximate size in bytes.
+   * @return the content of the launch configuration.
+   * @throws IOException if encoding failed.
+   */
+  private static byte[] createXml(int file, int size) throws IOException {
+
+    StringBuilder buffer = new StringBuilder(size + 512);
+    buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+    buffer.append("<launchConfiguration type=\"org.eclipse.jdt.launching.localJavaApplication\">\n");
+    buffer.append("<stringAttribute key=\"org.eclipse.jdt.launching.MAIN_TYPE\" value=\"org.example.App");
+    buffer.append(file).append("\"/>\n");
+    buffer.append("<listAttribute key=\"org.eclipse.jdt.launching.CLASSPATH\">\n");
+    int entry = 0;
+    while (buffer.length() < size) {
+      buffer.append("<listEntry value=\"&lt;runtimeClasspathEntry externalArchive=&quot;${M2_REPO}/org/lib");
+      buffer.append(entry).append("/1.0/lib").append(entry);
+      buffer.append("-1.0.jar&quot; path=&quot;3&quot; type=&quot;2&quot;/&gt;\"/>\n");
+      entry++;
+    }
+    buffer.append("</listAttribute>\n");
+    buffer.append("<stringAttribute key=\"org.eclipse.jdt.launching.WORKING_DIRECTORY\" ");
+    buffer.append("value=\"${client.env.home}\"/>\n</launchConfiguration>\n");
+    return buffer.toString().getBytes("UTF-8");
+  }
+
+  /**
+   * @param file is the {@link File} to write.
+   * @param content is the content to write.
+   * @throws IOException if the file could not be written.
+   */
+  private static void write(File file, byte[] content) throws IOException {
+
+    File directory = file.getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory.getPath());
+    }
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Recursively deletes the given directory.
+   *
+   * @param directory is the directory to delete. Ignored if it does not exist.
+   * @throws IOException if a file could not be deleted.
+   */
+  public static void delete(File directory) throws IOException {
+
+    if (!directory.exists()) {
+      return;
+    }
+    Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+
+        if (e != null) {
+          throw e;
+        }
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * Generates synthetic templates for manual tests.
+   *
+   * @param args - the target directory followed by the optional number of .prefs files, keys per file, XML files, XML
+   *        size, .dat files and .dat size.
+   * @throws IOException if the templates could not be generated.
+   */
+  public static void main(String[] args) throws IOException {
+
+    if (args.length < 1) {
+      System.err.println("Usage: " + SyntheticWorkspace.class.getSimpleName()
+          + " <directory> [prefsFiles [keysPerFile [xmlFiles [xmlSize [datFiles [datSize]]]]]]");
+      System.exit(1);
+    }
+    SyntheticWorkspace workspace = new SyntheticWorkspace(new File(args[0]));
+    if (args.length > 1) {
+      workspace.setPrefsFiles(Integer.parseInt(args[1]));
+    }
+    if (args.length > 2) {
+      workspace.setKeysPerFile(Integer.parseInt(args[2]));
+    }
+    if (args.length > 3) {
+      workspace.setXmlFiles(Integer.parseInt(args[3]));
+    }
+    if (args.length > 4) {
+      workspace.setXmlSize(Integer.parseInt(args[4]));
+    }
+    if (args.length > 5) {
+      workspace.setDatFiles(Integer.parseInt(args[5]));
+    }
+    if (args.length > 6) {
+      workspace.setDatSize(Integer.parseInt(args[6]));
+    }
+    workspace.generate();
+    System.out.println("Generated templates in " + workspace.getTemplatesPath());
+  }
+
+}
@@ -0,0 +1,190 @@
+package io.oasp.ide.eclipse.configurator.benchmarks;
+
+import io.oasp.ide.eclipse.configurator.core.Configurator;
+import io.oasp.ide.eclipse.configurator.core.MergeFailure;
+import io.oasp.ide.eclipse.configurator.core.WorkspaceTemplates;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of a full {@link Configurator#updateWorkspace()} on {@link SyntheticWorkspace synthetic} templates. The
+ * number of files is scaled via {@link #scale} (1 is about the size of the real templates). The
+ * {@link #setup(NewWorkspace, Blackhole) initial setup} uses a {@link NewWorkspace new workspace} for every invocation
+ * while {@link #update(Blackhole) update} and {@link #updateIncremental(Blackhole) incremental update} run on a
+ * workspace that is already up-to-date. The templates are scanned once per trial and shared like with <code>-b</code>,
+ * except for {@link #scanAndUpdate(Blackhole)} that measures a complete run including the template scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkspaceBenchmark {
+
+  /** The factor for the number of generated files. */
+  @Param({ "1", "10", "100" })
+  public int scale;
+
+  /** The maximum number of files merged concurrently (see {@link Configurator#setParallelism(int)}). */
+  @Param({ "1", "4" })
+  public int parallelism;
+
+  /** The generated templates and workspaces. */
+  private SyntheticWorkspace workspace;
+
+  /** The scanned templates. */
+  private WorkspaceTemplates templates;
+
+  /** The path of the up-to-date workspace. */
+  private String existingWorkspacePath;
+
+  /**
+   * Generates the templates and the up-to-date workspace.
+   *
+   * @throws IOException on error.
+   */
+  @Setup
+  public void generate() throws IOException {
+
+    this.workspace = new SyntheticWorkspace(Files.createTempDirectory("workspace-benchmark").toFile());
+    this.workspace.setPrefsFiles(40 * this.scale);
+    this.workspace.setXmlFiles(10 * this.scale);
+    this.workspace.setDatFiles(2 * this.scale);
+    this.workspace.generate();
+    this.templates = new WorkspaceTemplates(this.workspace.getTemplatesPath(), SyntheticWorkspace.createResolver());
+    this.existingWorkspacePath = this.workspace.createWorkspace();
+    createConfigurator(this.existingWorkspacePath).updateWorkspace();
+  }
+
+  /**
+   * Deletes the generated files.
+   *
+   * @throws IOException on error.
+   */
+  @TearDown
+  public void tearDown() throws IOException {
+
+    SyntheticWorkspace.delete(this.workspace.getRootDirectory());
+  }
+
+  /**
+   * @param workspacePath is the path to the workspace.
+   * @return the {@link Configurator} for the given workspace and the shared {@link #templates}.
+   */
+  private Configurator createConfigurator(String workspacePath) {
+
+    Configurator configurator = new Configurator(workspacePath, this.templates);
+    configurator.setParallelism(this.parallelism);
+    return configurator;
+  }
+
+  /**
+   * @param failures are the {@link MergeFailure}s of a run.
+   * @param blackhole is the {@link Blackhole}.
+   */
+  private static void consume(List<MergeFailure> failures, Blackhole blackhole) {
+
+    if (!failures.isEmpty()) {
+      throw new IllegalStateException(failures.size() + " file(s) could not be merged: " + failures);
+    }
+    blackhole.consume(failures);
+  }
+
+  /**
+   * @param newWorkspace is the {@link NewWorkspace}.
+   * @param blackhole is the {@link Blackhole}.
+   */
+  @Benchmark
+  public void setup(NewWorkspace newWorkspace, Blackhole blackhole) {
+
+    consume(createConfigurator(newWorkspace.path).updateWorkspace(), blackhole);
+  }
+
+  /**
+   * @param blackhole is the {@link Blackhole}.
+   */
+  @Benchmark
+  public void update(Blackhole blackhole) {
+
+    consume(createConfigurator(this.existingWorkspacePath).updateWorkspace(), blackhole);
+  }
+
+  /**
+   * @param blackhole is the {@link Blackhole}.
+   */
+  @Benchmark
+  public void updateIncremental(Blackhole blackhole) {
+
+    Configurator configurator = createConfigurator(this.existingWorkspacePath);
+    configurator.setIncremental(true);
+    consume(configurator.updateWorkspace(), blackhole);
+  }
+
+  /**
+   * @param blackhole is the {@link Blackhole}.
+   */
+  @Benchmark
+  public void scanAndUpdate(Blackhole blackhole) {
+
+    WorkspaceTemplates scannedTemplates =
+        new WorkspaceTemplates(this.workspace.getTemplatesPath(), SyntheticWorkspace.createResolver());
+    Configurator configurator = new Configurator(this.existingWorkspacePath, scannedTemplates);
+    configurator.setParallelism(this.parallelism);
+    consume(configurator.updateWorkspace(), blackhole);
+  }
+
+  /**
+   * @param blackhole is the {@link Blackhole}.
+   */
+  @Benchmark
+  public void plan(Blackhole blackhole) {
+
+    blackhole.consume(createConfigurator(this.existingWorkspacePath).planWorkspace());
+  }
+
+  /**
+   * The empty workspace for an invocation of {@link WorkspaceBenchmark#setup(NewWorkspace, Blackhole)}.
+   */
+  @State(Scope.Thread)
+  public static class NewWorkspace {
+
+    /** The path of the empty workspace. */
+    private String path;
+
+    /**
+     * Creates a new workspace and deletes the one of the previous invocation.
+     *
+     * @param benchmark is the {@link WorkspaceBenchmark} with the generated templates.
+     * @throws IOException on error.
+     */
+    @Setup(Level.Invocation)
+    public void create(WorkspaceBenchmark benchmark) throws IOException {
+
+      if (this.path != null) {
+        SyntheticWorkspace.delete(new File(this.path));
+      }
+      this.path = benchmark.workspace.createWorkspace();
+    }
+  }
+
+}
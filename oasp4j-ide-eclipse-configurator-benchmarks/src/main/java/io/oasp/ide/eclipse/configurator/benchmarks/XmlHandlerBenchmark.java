@@ -0,0 +1,109 @@
+package io.oasp.ide.eclipse.configurator.benchmarks;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.core.XmlHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of {@link XmlHandler#update(File, File)} and {@link XmlHandler#resolve(File)} for a single
+ * {@link SyntheticWorkspace synthetic} launch configuration of variable size with the streaming and the DOM based
+ * implementation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlHandlerBenchmark {
+
+  /** The approximate size of the XML file in bytes. */
+  @Param({ "8192", "262144", "4194304" })
+  public int size;
+
+  /** @see XmlHandler#setStreaming(boolean) */
+  @Param({ "true", "false" })
+  public boolean streaming;
+
+  /** The generated templates and workspace. */
+  private SyntheticWorkspace workspace;
+
+  /** The {@link XmlHandler} to benchmark. */
+  private XmlHandler xmlHandler;
+
+  /** The XML template. */
+  private File xmlFile;
+
+  /** The workspace file to write. */
+  private File destination;
+
+  /**
+   * Generates the XML template.
+   *
+   * @throws IOException on error.
+   */
+  @Setup
+  public void setup() throws IOException {
+
+    this.workspace = new SyntheticWorkspace(Files.createTempDirectory("xml-benchmark").toFile());
+    this.workspace.setPrefsFiles(0);
+    this.workspace.setXmlFiles(1);
+    this.workspace.setXmlSize(this.size);
+    this.workspace.setDatFiles(0);
+    this.workspace.generate();
+    String relativePath = SyntheticWorkspace.getXmlPath(0);
+    this.xmlFile = new File(new File(this.workspace.getTemplatesPath(), Strings.FOLDER_UPDATE), relativePath);
+    this.destination = new File(this.workspace.createWorkspace(), relativePath);
+    this.xmlHandler = new XmlHandler(SyntheticWorkspace.createResolver());
+    this.xmlHandler.setStreaming(this.streaming);
+  }
+
+  /**
+   * Deletes the generated files.
+   *
+   * @throws IOException on error.
+   */
+  @TearDown
+  public void tearDown() throws IOException {
+
+    SyntheticWorkspace.delete(this.workspace.getRootDirectory());
+  }
+
+  /**
+   * @throws IOException on error.
+   */
+  @Benchmark
+  public void update() throws IOException {
+
+    this.xmlHandler.update(this.xmlFile, this.destination);
+  }
+
+  /**
+   * @param blackhole is the {@link Blackhole}.
+   * @throws IOException on error.
+   */
+  @Benchmark
+  public void resolve(Blackhole blackhole) throws IOException {
+
+    blackhole.consume(this.xmlHandler.resolve(this.xmlFile));
+  }
+
+}
@@ -75,4 +75,28 @@ public abstract class Strings {
   /** {@link System#getenv(String) Name of environment variable} for eclipse configuration templates path. */
   public static final String ECLIPSE_TEMPLATES_PATH = "ECLIPSE_TEMPLATES_PATH";
 
+  /** {@link System#getenv(String) Name of environment variable} for the folder containing all eclipse workspaces. */
+  public static final String WORKSPACES_PATH = "WORKSPACES_PATH";
+
+  /** {@link System#getenv(String) Name of environment variable} for the maximum number of files merged concurrently. */
+  public static final String CONFIGURATOR_PARALLELISM = "CONFIGURATOR_PARALLELISM";
+
+  /** {@link System#getenv(String) Name of environment variable} for the mode to copy templates that are not merged. */
+  public static final String CONFIGURATOR_COPY_MODE = "CONFIGURATOR_COPY_MODE";
+
+  /** {@link System#getenv(String) Name of environment variable} for the directory of the blob store. */
+  public static final String CONFIGURATOR_BLOB_STORE_PATH = "CONFIGURATOR_BLOB_STORE_PATH";
+
+  /** {@link System#getenv(String) Name of environment variable} for the report file of a dry-run. */
+  public static final String CONFIGURATOR_PLAN_FILE = "CONFIGURATOR_PLAN_FILE";
+
+  /** {@link System#getenv(String) Name of environment variable} for the JSON export of the run metrics. */
+  public static final String CONFIGURATOR_METRICS_FILE = "CONFIGURATOR_METRICS_FILE";
+
+  /** {@link System#getenv(String) Name of environment variable} for the log file(s) to write. */
+  public static final String CONFIGURATOR_LOG_MODE = "CONFIGURATOR_LOG_MODE";
+
+  /** {@link System#getenv(String) Name of environment variable} for the directory of the compiled template cache. */
+  public static final String CONFIGURATOR_CACHE_PATH = "CONFIGURATOR_CACHE_PATH";
+
 }
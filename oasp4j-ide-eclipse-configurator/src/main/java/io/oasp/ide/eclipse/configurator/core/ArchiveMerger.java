@@ -0,0 +1,324 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.entity.FilePlan;
+import io.oasp.ide.eclipse.configurator.logging.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * This is the {@link TemplateMerger} for zipped templates (e.g. <code>.metadata/.mylyn/repositories.xml.zip</code>).
+ * Instead of copying the archive as opaque binary, the variables in its entries are resolved on the fly: the template
+ * is streamed from a {@link ZipInputStream} through the {@link Resolver} into a {@link ZipOutputStream} of the
+ * workspace file without extracting anything to disk. Entries containing NUL bytes are considered binary and passed
+ * through as is. Text entries are resolved in UTF-8 or, if they are no valid UTF-8, in ISO-8859-1. The CRCs of the
+ * resolved entries are compared with the central directory of the existing workspace file, so the archive is only
+ * rewritten if an entry changed.
+ */
+public class ArchiveMerger implements TemplateMerger {
+
+  /** The size of the buffer to read entries. */
+  private static final int BUFFER_SIZE = 8192;
+
+  /** {@link Charset} for UTF-8. */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** {@link Charset} for ISO-8859-1 that can decode any bytes. */
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  /**
+   * The constructor.
+   */
+  public ArchiveMerger() {
+
+    super();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public FilePlan plan(Configurator.EclipseWorkspaceFile file, WorkspaceTemplates templates) throws IOException {
+
+    File source = getSource(file);
+    FilePlan.Action action;
+    if (source == null) {
+      action = FilePlan.Action.UNCHANGED;
+    } else if (!file.getWorkspaceFile().exists()) {
+      action = FilePlan.Action.CREATE;
+    } else if (isUpToDate(source, templates, file.getWorkspaceFile())) {
+      action = FilePlan.Action.UNCHANGED;
+    } else {
+      action = FilePlan.Action.COPY;
+    }
+    return new FilePlan(file.getRelativePath(), action);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void merge(Configurator.EclipseWorkspaceFile file, WorkspaceTemplates templates, AtomicFileWriter fileWriter)
+      throws IOException {
+
+    File source = getSource(file);
+    if (source == null) {
+      return;
+    }
+    File workspaceFile = file.getWorkspaceFile();
+    if (workspaceFile.exists() && isUpToDate(source, templates, workspaceFile)) {
+      return;
+    }
+    AtomicFileWriter.Output out = fileWriter.open(workspaceFile);
+    try {
+      transfer(source, templates, out, null);
+      out.commit();
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @param file is the {@link Configurator.EclipseWorkspaceFile}.
+   * @return the template to apply or <code>null</code> if there is nothing to do.
+   */
+  private static File getSource(Configurator.EclipseWorkspaceFile file) {
+
+    if (file.getEntry().getUpdate() != null) {
+      return file.getUpdateFile();
+    } else if ((file.getEntry().getSetup() != null) && !file.getWorkspaceFile().exists()) {
+      return file.getSetupFile();
+    }
+    return null;
+  }
+
+  /**
+   * @param source is the template archive.
+   * @param templates are the {@link WorkspaceTemplates}.
+   * @param workspaceFile is the existing archive in the workspace.
+   * @return <code>true</code> if the workspace archive has the same entries with the same CRCs as the resolved
+   *         template, <code>false</code> otherwise.
+   * @throws IOException if the template could not be read.
+   */
+  private static boolean isUpToDate(File source, WorkspaceTemplates templates, File workspaceFile) throws IOException {
+
+    Map<String, Long> checksums = readChecksums(workspaceFile);
+    if (checksums == null) {
+      return false;
+    }
+    return transfer(source, templates, null, checksums);
+  }
+
+  /**
+   * Streams the entries of the given template archive decompressed and collects the variables they reference. Binary
+   * entries are skipped like when they are {@link #merge(Configurator.EclipseWorkspaceFile, WorkspaceTemplates,
+   * AtomicFileWriter) merged}.
+   *
+   * @param source is the template archive.
+   * @param templates are the {@link WorkspaceTemplates}.
+   * @param variables is the {@link Set} where to add the names of the variables.
+   * @throws IOException if the archive could not be read.
+   */
+  static void collectVariables(File source, WorkspaceTemplates templates, Set<String> variables) throws IOException {
+
+    ZipInputStream zipIn = new ZipInputStream(openTemplate(source, templates));
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      ZipEntry entry = zipIn.getNextEntry();
+      while (entry != null) {
+        byte[] content = readEntry(zipIn, buffer);
+        Charset charset = getCharset(content);
+        if (charset != null) {
+          templates.getResolver().collectVariables(new String(content, charset), variables);
+        }
+        entry = zipIn.getNextEntry();
+      }
+    } finally {
+      zipIn.close();
+    }
+  }
+
+  /**
+   * @param archive is the archive {@link File}.
+   * @return the CRCs of the entries by name read from the central directory or <code>null</code> if the given
+   *         {@link File} is no valid archive.
+   * @throws IOException if the archive could not be read.
+   */
+  private static Map<String, Long> readChecksums(File archive) throws IOException {
+
+    long start = Metrics.start();
+    ZipFile zipFile;
+    try {
+      zipFile = new ZipFile(archive);
+    } catch (ZipException e) {
+      Metrics.stop(Metrics.Phase.READ, start);
+      return null;
+    }
+    try {
+      Map<String, Long> checksums = new HashMap<String, Long>();
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        checksums.put(entry.getName(), Long.valueOf(entry.getCrc()));
+      }
+      return checksums;
+    } finally {
+      zipFile.close();
+      Metrics.stop(Metrics.Phase.READ, start);
+    }
+  }
+
+  /**
+   * Streams the entries of the given template archive and resolves them.
+   *
+   * @param source is the template archive.
+   * @param templates are the {@link WorkspaceTemplates}.
+   * @param out is the {@link OutputStream} where to write the resolved archive or <code>null</code> to only compare.
+   *        Will not be closed.
+   * @param checksums are the CRCs of the existing archive to compare with or <code>null</code>.
+   * @return <code>true</code> if the given <code>checksums</code> match the resolved entries exactly,
+   *         <code>false</code> otherwise.
+   * @throws IOException if the archive could not be read or written.
+   */
+  private static boolean transfer(File source, WorkspaceTemplates templates, OutputStream out,
+      Map<String, Long> checksums) throws IOException {
+
+    boolean matches = (checksums != null);
+    int count = 0;
+    long start = Metrics.start();
+    ZipInputStream zipIn = new ZipInputStream(openTemplate(source, templates));
+    try {
+      ZipOutputStream zipOut = null;
+      if (out != null) {
+        zipOut = new ZipOutputStream(out);
+      }
+      byte[] buffer = new byte[BUFFER_SIZE];
+      ZipEntry entry = zipIn.getNextEntry();
+      while (entry != null) {
+        count++;
+        byte[] content = resolve(readEntry(zipIn, buffer), templates.getResolver());
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if (matches) {
+          Long checksum = checksums.get(entry.getName());
+          matches = (checksum != null) && (checksum.longValue() == crc.getValue());
+          if (!matches && (zipOut == null)) {
+            return false;
+          }
+        }
+        if (zipOut != null) {
+          ZipEntry resolvedEntry = new ZipEntry(entry.getName());
+          if (entry.getTime() != -1) {
+            resolvedEntry.setTime(entry.getTime());
+          }
+          resolvedEntry.setComment(entry.getComment());
+          resolvedEntry.setExtra(entry.getExtra());
+          zipOut.putNextEntry(resolvedEntry);
+          zipOut.write(content);
+          zipOut.closeEntry();
+        }
+        entry = zipIn.getNextEntry();
+      }
+      if (zipOut != null) {
+        zipOut.finish();
+      }
+    } finally {
+      zipIn.close();
+      Metrics.stop(Metrics.Phase.RESOLVE, start);
+    }
+    return matches && (count == checksums.size());
+  }
+
+  /**
+   * @param source is the template archive.
+   * @param templates are the {@link WorkspaceTemplates}.
+   * @return the {@link InputStream} to read the template from its {@link WorkspaceTemplates#getBundle() bundle} or
+   *         file.
+   * @throws IOException if the template could not be opened.
+   */
+  private static InputStream openTemplate(File source, WorkspaceTemplates templates) throws IOException {
+
+    ByteBuffer content = templates.getContent(source);
+    if (content != null) {
+      Metrics.addBytesRead(content.remaining());
+      return new ByteBufferInputStream(content);
+    }
+    Metrics.addBytesRead(source.length());
+    return new BufferedInputStream(new FileInputStream(source), BUFFER_SIZE);
+  }
+
+  /**
+   * @param zipIn is the {@link ZipInputStream} positioned at the entry to read.
+   * @param buffer is the buffer to use.
+   * @return the content of the current entry.
+   * @throws IOException if the entry could not be read.
+   */
+  private static byte[] readEntry(ZipInputStream zipIn, byte[] buffer) throws IOException {
+
+    ByteArrayOutputStream entryContent = new ByteArrayOutputStream(BUFFER_SIZE);
+    int length = zipIn.read(buffer);
+    while (length != -1) {
+      entryContent.write(buffer, 0, length);
+      length = zipIn.read(buffer);
+    }
+    return entryContent.toByteArray();
+  }
+
+  /**
+   * @param content is the content of an entry.
+   * @param resolver is the {@link Resolver}.
+   * @return the content with resolved variables or the given content if binary or without variables.
+   */
+  private static byte[] resolve(byte[] content, Resolver resolver) {
+
+    Charset charset = getCharset(content);
+    if (charset == null) {
+      return content;
+    }
+    String text = new String(content, charset);
+    String resolved = resolver.resolveVariables(text);
+    if (resolved.equals(text)) {
+      return content;
+    }
+    return resolved.getBytes(charset);
+  }
+
+  /**
+   * @param content is the content of an entry.
+   * @return the {@link Charset} to decode the entry as text (UTF-8 or ISO-8859-1 if no valid UTF-8) or
+   *         <code>null</code> if the entry is binary (contains NUL bytes).
+   */
+  private static Charset getCharset(byte[] content) {
+
+    for (byte b : content) {
+      if (b == 0) {
+        return null;
+      }
+    }
+    try {
+      UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT)
+          .decode(ByteBuffer.wrap(content));
+      return UTF_8;
+    } catch (CharacterCodingException e) {
+      return ISO_8859_1;
+    }
+  }
+
+}
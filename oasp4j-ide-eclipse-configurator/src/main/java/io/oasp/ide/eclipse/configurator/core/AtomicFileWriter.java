@@ -0,0 +1,341 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.logging.Log;
+import io.oasp.ide.eclipse.configurator.logging.Metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * This class writes files crash-safe: the content is written to a temporary file in the same directory that is
+ * {@link java.io.FileDescriptor#sync() synced} and then atomically renamed to the destination. A killed run therefore
+ * either leaves the previous or the new file but never a truncated one. The rename also has to be synced by syncing
+ * the directory. If {@link #isBatchDirectorySync() batched}, the directories are collected and synced once via
+ * {@link #syncDirectories()} instead of once per file. Instances are thread-safe and may be shared by multiple
+ * threads.
+ */
+public class AtomicFileWriter {
+
+  /** The suffix of the temporary files. Leftovers of a killed run are ignored as templates. */
+  public static final String TEMP_SUFFIX = ".configurator-tmp";
+
+  /** @see #isBatchDirectorySync() */
+  private final boolean batchDirectorySync;
+
+  /** The directories with renamed files that have not yet been synced. */
+  private final Set<File> pendingDirectories;
+
+  /**
+   * Creates a new instance that syncs the directory after every file.
+   */
+  public AtomicFileWriter() {
+
+    this(false);
+  }
+
+  /**
+   * Creates a new instance.
+   *
+   * @param batchDirectorySync - see {@link #isBatchDirectorySync()}.
+   */
+  public AtomicFileWriter(boolean batchDirectorySync) {
+
+    super();
+    this.batchDirectorySync = batchDirectorySync;
+    this.pendingDirectories = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+  }
+
+  /**
+   * @return <code>true</code> if directories are only synced by {@link #syncDirectories()} (once per directory for
+   *         many files), <code>false</code> if the directory is synced after every file.
+   */
+  public boolean isBatchDirectorySync() {
+
+    return this.batchDirectorySync;
+  }
+
+  /**
+   * Opens an {@link Output} for the given file. The file is only replaced on {@link Output#commit() commit}. If the
+   * {@link Output} is {@link Output#close() closed} without commit, the file remains untouched.
+   *
+   * @param file is the destination {@link File} to write.
+   * @return the {@link Output} to write the new content to.
+   * @throws IOException if the parent directories or the temporary file could not be created.
+   */
+  public Output open(File file) throws IOException {
+
+    File directory = file.getAbsoluteFile().getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create required directories for file: " + file.getAbsolutePath());
+    }
+    File tempFile = File.createTempFile("." + file.getName() + ".", TEMP_SUFFIX, directory);
+    return new Output(file, tempFile);
+  }
+
+  /**
+   * Writes the given content atomically to the given file.
+   *
+   * @param file is the destination {@link File} to write.
+   * @param content is the new content.
+   * @throws IOException if the file could not be written.
+   */
+  public void write(File file, byte[] content) throws IOException {
+
+    write(file, content, 0, content.length);
+  }
+
+  /**
+   * Writes the given content atomically to the given file.
+   *
+   * @param file is the destination {@link File} to write.
+   * @param content is the buffer with the new content.
+   * @param offset is the index of the first byte of the new content in the buffer.
+   * @param length is the number of bytes of the new content.
+   * @throws IOException if the file could not be written.
+   */
+  public void write(File file, byte[] content, int offset, int length) throws IOException {
+
+    long start = Metrics.start();
+    Output out = open(file);
+    try {
+      out.write(content, offset, length);
+      Metrics.stop(Metrics.Phase.WRITE, start);
+      out.commit();
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Atomically replaces the given file with a hard link to the given source file. Afterwards both paths share the same
+   * content so a modification of one also modifies the other.
+   *
+   * @param file is the destination {@link File} to replace.
+   * @param source is the existing {@link File} to link to.
+   * @throws IOException if the link could not be created (e.g. as the files are on different file systems or the file
+   *         system does not support hard links).
+   */
+  public void link(File file, File source) throws IOException {
+
+    File directory = file.getAbsoluteFile().getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create required directories for file: " + file.getAbsolutePath());
+    }
+    File tempFile = File.createTempFile("." + file.getName() + ".", TEMP_SUFFIX, directory);
+    try {
+      Files.delete(tempFile.toPath());
+      Files.createLink(tempFile.toPath(), source.toPath());
+      move(tempFile, file);
+    } catch (IOException e) {
+      delete(tempFile);
+      throw e;
+    } catch (RuntimeException e) {
+      // UnsupportedOperationException or SecurityException
+      delete(tempFile);
+      IOException ioException = new IOException("Could not link " + file.getPath() + " to " + source.getPath());
+      ioException.initCause(e);
+      throw ioException;
+    }
+    committed(directory);
+  }
+
+  /**
+   * Syncs all directories with files written since the last call. Only needed if {@link #isBatchDirectorySync()
+   * batched}.
+   */
+  public void syncDirectories() {
+
+    List<File> directories = new ArrayList<File>(this.pendingDirectories);
+    this.pendingDirectories.removeAll(directories);
+    for (File directory : directories) {
+      syncDirectory(directory);
+    }
+  }
+
+  /**
+   * @param directory is the directory with a file that has just been replaced. It is synced or recorded for
+   *        {@link #syncDirectories()} if {@link #isBatchDirectorySync() batched}.
+   */
+  private void committed(File directory) {
+
+    if (this.batchDirectorySync) {
+      this.pendingDirectories.add(directory);
+    } else {
+      syncDirectory(directory);
+    }
+  }
+
+  /**
+   * @param directory is the directory to sync so the renames of the contained files are durable.
+   */
+  private static void syncDirectory(File directory) {
+
+    try {
+      FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+      try {
+        channel.force(true);
+      } finally {
+        channel.close();
+      }
+    } catch (IOException e) {
+      // not supported on every platform (e.g. windows), the rename is still atomic
+      Log.LOGGER.log(Level.FINE, "Could not sync directory " + directory.getPath(), e);
+    }
+  }
+
+  /**
+   * The {@link OutputStream} for the new content of a file {@link AtomicFileWriter#open(File) opened} for writing.
+   */
+  public final class Output extends OutputStream {
+
+    /** The destination file. */
+    private final File file;
+
+    /** The temporary file. */
+    private final File tempFile;
+
+    /** The {@link FileOutputStream} of the {@link #tempFile}. */
+    private final FileOutputStream out;
+
+    /** <code>true</code> once {@link #close()} or {@link #commit()} has been called. */
+    private boolean closed;
+
+    /**
+     * The constructor.
+     *
+     * @param file is the destination file.
+     * @param tempFile is the temporary file.
+     * @throws IOException if the temporary file could not be opened.
+     */
+    private Output(File file, File tempFile) throws IOException {
+
+      super();
+      this.file = file;
+      this.tempFile = tempFile;
+      this.out = new FileOutputStream(tempFile);
+    }
+
+    /**
+     * @return the {@link FileChannel} of the temporary file.
+     */
+    public FileChannel getChannel() {
+
+      return this.out.getChannel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+
+      this.out.write(b);
+      Metrics.addBytesWritten(1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+      this.out.write(b, off, len);
+      Metrics.addBytesWritten(len);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+
+      this.out.flush();
+    }
+
+    /**
+     * Syncs the new content and atomically replaces the destination file with it.
+     *
+     * @throws IOException if the content could not be synced or the destination could not be replaced (e.g. as it is
+     *         locked by another process).
+     */
+    public void commit() throws IOException {
+
+      if (this.closed) {
+        throw new IOException("Already closed: " + this.file.getPath());
+      }
+      this.closed = true;
+      long start = Metrics.start();
+      try {
+        try {
+          this.out.getFD().sync();
+        } finally {
+          this.out.close();
+        }
+        move(this.tempFile, this.file);
+      } catch (IOException e) {
+        delete(this.tempFile);
+        throw e;
+      } finally {
+        Metrics.stop(Metrics.Phase.WRITE, start);
+      }
+      committed(this.tempFile.getParentFile());
+    }
+
+    /**
+     * Closes this output. If it has not been {@link #commit() committed}, the temporary file is deleted and the
+     * destination file remains untouched.
+     */
+    @Override
+    public void close() {
+
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      try {
+        this.out.close();
+      } catch (IOException e) {
+        Log.LOGGER.log(Level.FINE, "Could not close " + this.tempFile.getPath(), e);
+      }
+      delete(this.tempFile);
+    }
+  }
+
+  /**
+   * @param source is the (temporary) {@link File} to move.
+   * @param target is the destination {@link File} to replace.
+   * @throws IOException if the file could not be moved.
+   */
+  private static void move(File source, File target) throws IOException {
+
+    try {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * @param file is the {@link File} to delete.
+   */
+  private static void delete(File file) {
+
+    if (file.exists() && !file.delete()) {
+      Log.LOGGER.warning("Could not delete temporary file: " + file.getAbsolutePath());
+    }
+  }
+
+}
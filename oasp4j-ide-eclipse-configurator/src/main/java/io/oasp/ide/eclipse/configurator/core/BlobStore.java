@@ -0,0 +1,137 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.logging.Log;
+import io.oasp.ide.eclipse.configurator.logging.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+/**
+ * This is a content-addressed store for templates that can not be merged (e.g. binary eclipse state like
+ * <code>.root/1.tree</code> or <code>.safetable</code>). Every distinct content is stored once as blob named by its
+ * {@link FingerprintIndex#hash(File) content hash} in a directory shared by all workspaces (by default
+ * <code>.blobs</code> in the folder containing the workspaces). The workspace files are then hard links to the blobs
+ * (see {@link FileCopier.Mode#STORE}), so disk usage and copy time do not grow with the number of workspaces. Each blob
+ * is verified against its hash once per instance before it is handed out, so a blob that has been modified in place
+ * (via one of its links) is replaced instead of being spread to further workspaces. Instances are thread-safe and
+ * should be shared by all workspaces of a run.
+ */
+public class BlobStore {
+
+  /** The name of the default store directory within the folder containing the workspaces. */
+  public static final String FOLDER_BLOBS = ".blobs";
+
+  /** @see #getDirectory() */
+  private final File directory;
+
+  /** The {@link AtomicFileWriter} to create blobs. */
+  private final AtomicFileWriter fileWriter;
+
+  /** The hashes of the blobs that have been verified or created by this instance. */
+  private final Set<String> verifiedHashes;
+
+  /** The locks by hash so concurrent workspaces create a blob only once. */
+  private final ConcurrentMap<String, Object> locks;
+
+  /**
+   * The constructor.
+   *
+   * @param directory is the {@link #getDirectory() directory} of the store. Will be created on demand.
+   */
+  public BlobStore(File directory) {
+
+    super();
+    this.directory = directory;
+    this.fileWriter = new AtomicFileWriter();
+    this.verifiedHashes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    this.locks = new ConcurrentHashMap<String, Object>();
+  }
+
+  /**
+   * @return the directory containing the blobs. Has to be on the same file system as the workspaces so they can be
+   *         linked.
+   */
+  public File getDirectory() {
+
+    return this.directory;
+  }
+
+  /**
+   * Gets the blob for the given template and creates it if it does not yet exist (or has been modified).
+   *
+   * @param hash is the {@link WorkspaceTemplates#getHash(File) content hash} of the template.
+   * @param source is the template {@link File}.
+   * @param content is the content of the template from a {@link TemplateBundle} or <code>null</code> to read the
+   *        <code>source</code>.
+   * @param lastModified is the modification time of the template applied to a new blob.
+   * @return the blob {@link File} with the content of the template.
+   * @throws IOException if the blob could not be created.
+   */
+  public File getBlob(String hash, File source, ByteBuffer content, long lastModified) throws IOException {
+
+    File blob = new File(new File(this.directory, hash.substring(0, 2)), hash);
+    if (this.verifiedHashes.contains(hash)) {
+      return blob;
+    }
+    Object lock = new Object();
+    Object existingLock = this.locks.putIfAbsent(hash, lock);
+    if (existingLock != null) {
+      lock = existingLock;
+    }
+    synchronized (lock) {
+      if (!this.verifiedHashes.contains(hash)) {
+        if (!blob.isFile() || !hash.equals(FingerprintIndex.hash(blob))) {
+          Log.LOGGER.fine("Storing blob " + hash + " of " + source.getPath());
+          write(source, content, blob);
+          try {
+            Files.setLastModifiedTime(blob.toPath(), FileTime.fromMillis(lastModified));
+          } catch (IOException e) {
+            // only an optimization to skip up-to-date workspace files
+            Log.LOGGER.log(Level.FINE, "Could not set modification time of " + blob.getPath(), e);
+          }
+        }
+        this.verifiedHashes.add(hash);
+      }
+    }
+    return blob;
+  }
+
+  /**
+   * @param source is the template {@link File}.
+   * @param content is the content of the template or <code>null</code> to read the <code>source</code>.
+   * @param blob is the blob {@link File} to write atomically.
+   * @throws IOException if the blob could not be written.
+   */
+  private void write(File source, ByteBuffer content, File blob) throws IOException {
+
+    AtomicFileWriter.Output out = this.fileWriter.open(blob);
+    try {
+      long size;
+      if (content == null) {
+        size = Files.copy(source.toPath(), out);
+      } else {
+        ByteBuffer buffer = content.duplicate();
+        size = buffer.remaining();
+        FileChannel channel = out.getChannel();
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        Metrics.addBytesWritten(size);
+      }
+      Metrics.addBytesRead(size);
+      out.commit();
+    } finally {
+      out.close();
+    }
+  }
+
+}
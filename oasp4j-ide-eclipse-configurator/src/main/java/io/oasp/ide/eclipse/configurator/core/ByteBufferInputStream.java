@@ -0,0 +1,76 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This is an {@link InputStream} reading the content of a {@link ByteBuffer} (e.g. the memory mapped content of a
+ * {@link TemplateBundle}). The stream reads from a {@link ByteBuffer#duplicate() duplicate} so the given buffer can be
+ * read again.
+ */
+class ByteBufferInputStream extends InputStream {
+
+  /** The {@link ByteBuffer} to read from. */
+  private final ByteBuffer buffer;
+
+  /**
+   * The constructor.
+   *
+   * @param buffer is the {@link ByteBuffer} to read from. Its position is not modified.
+   */
+  ByteBufferInputStream(ByteBuffer buffer) {
+
+    super();
+    this.buffer = buffer.duplicate();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int read() {
+
+    if (!this.buffer.hasRemaining()) {
+      return -1;
+    }
+    return this.buffer.get() & 0xFF;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int read(byte[] bytes, int offset, int length) {
+
+    if (length == 0) {
+      return 0;
+    }
+    int count = Math.min(length, this.buffer.remaining());
+    if (count == 0) {
+      return -1;
+    }
+    this.buffer.get(bytes, offset, count);
+    return count;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long skip(long count) {
+
+    int skipped = (int) Math.min(Math.max(count, 0), this.buffer.remaining());
+    this.buffer.position(this.buffer.position() + skipped);
+    return skipped;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int available() {
+
+    return this.buffer.remaining();
+  }
+
+}
@@ -0,0 +1,351 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.entity.PreferenceMap;
+import io.oasp.ide.eclipse.configurator.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * This class caches compiled templates, i.e. the resolved {@link PreferenceMap} of a .prefs template or the resolved
+ * bytes of an XML template. Unlike the parsed templates of {@link WorkspaceTemplates} that are bound to a path, an
+ * entry is keyed by the {@link FingerprintIndex#hash(File) content hash} of the template and the
+ * {@link WorkspaceTemplates#getReplacementPatternsHash() hash of the replacement patterns} as well as the
+ * {@link WorkspaceTemplates#getVariablesHash(File) values of the referenced variables} (that may also come from system
+ * properties or environment variables), because the result only depends on these. It can therefore be reused for all
+ * workspaces sharing the same replacement patterns, by {@link WorkspaceTemplates#refresh(java.util.Collection)
+ * refreshed} templates and (if a {@link #getDirectory() directory} is given) by later runs. The memory is bounded by
+ * evicting the least recently used entries. Entries on disk are never evicted as they are only few kilobytes per
+ * template and replacement set and can be deleted at any time.
+ */
+public class CompiledTemplateCache {
+
+  /** The default {@link #getMaxSize() maximum size} (32 MB). */
+  public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+
+  /** The estimated overhead of an entry in bytes. */
+  private static final int ENTRY_OVERHEAD = 64;
+
+  /** The file extension of persisted .prefs templates. */
+  private static final String PREFS_EXTENSION = ".prefs";
+
+  /** The file extension of persisted XML templates. */
+  private static final String XML_EXTENSION = ".xml";
+
+  /** @see #getDirectory() */
+  private final File directory;
+
+  /** @see #isReadOnly() */
+  private final boolean readOnly;
+
+  /** @see #getMaxSize() */
+  private final long maxSize;
+
+  /** The cached entries in the order of their last access. Guarded by synchronizing on this map. */
+  private final LinkedHashMap<String, Sized> entries;
+
+  /** The estimated size of the {@link #entries} in bytes. Guarded by synchronizing on the {@link #entries}. */
+  private long size;
+
+  /** @see #getHits() */
+  private final AtomicLong hits;
+
+  /** @see #getMisses() */
+  private final AtomicLong misses;
+
+  /**
+   * The constructor.
+   *
+   * @param directory is the {@link #getDirectory() directory} or <code>null</code> to only cache in memory.
+   * @param maxSize is the {@link #getMaxSize() maximum size}.
+   */
+  public CompiledTemplateCache(File directory, long maxSize) {
+
+    this(directory, maxSize, false);
+  }
+
+  /**
+   * The constructor.
+   *
+   * @param directory is the {@link #getDirectory() directory} or <code>null</code> to only cache in memory.
+   * @param maxSize is the {@link #getMaxSize() maximum size}.
+   * @param readOnly - see {@link #isReadOnly()}.
+   */
+  public CompiledTemplateCache(File directory, long maxSize, boolean readOnly) {
+
+    super();
+    this.directory = directory;
+    this.readOnly = readOnly;
+    this.maxSize = maxSize;
+    this.entries = new LinkedHashMap<String, Sized>(64, 0.75f, true);
+    this.hits = new AtomicLong();
+    this.misses = new AtomicLong();
+  }
+
+  /**
+   * @return the directory where compiled templates are persisted to be reused by later runs or <code>null</code> if
+   *         only cached in memory.
+   */
+  public File getDirectory() {
+
+    return this.directory;
+  }
+
+  /**
+   * @return <code>true</code> if compiled templates persisted in the {@link #getDirectory() directory} are only read
+   *         but new ones are not written (e.g. for a dry-run), <code>false</code> otherwise.
+   */
+  public boolean isReadOnly() {
+
+    return this.readOnly;
+  }
+
+  /**
+   * @return the maximum estimated size in bytes of the compiled templates kept in memory.
+   */
+  public long getMaxSize() {
+
+    return this.maxSize;
+  }
+
+  /**
+   * @return the number of lookups that found a compiled template (in memory or on disk).
+   */
+  public long getHits() {
+
+    return this.hits.get();
+  }
+
+  /**
+   * @return the number of lookups that had to compile the template.
+   */
+  public long getMisses() {
+
+    return this.misses.get();
+  }
+
+  /**
+   * @param templateHash is the {@link FingerprintIndex#hash(File) content hash} of the template.
+   * @param replacementPatternsHash is the {@link WorkspaceTemplates#getReplacementPatternsHash() hash of the
+   *        replacement patterns}.
+   * @param variablesHash is the {@link WorkspaceTemplates#getVariablesHash(File) hash of the variables} referenced by
+   *        the template.
+   * @return the key of the compiled template.
+   */
+  public static String createKey(String templateHash, String replacementPatternsHash, String variablesHash) {
+
+    return FingerprintIndex.hash(templateHash, replacementPatternsHash, variablesHash);
+  }
+
+  /**
+   * @param key is the {@link #createKey(String, String, String) key}.
+   * @return the cached resolved {@link PreferenceMap} or <code>null</code> if not cached. Shared by all callers and
+   *         must therefore not be modified.
+   */
+  public PreferenceMap getProperties(String key) {
+
+    PreferenceMap properties = (PreferenceMap) get(PREFS_EXTENSION + key);
+    if (properties == null) {
+      File file = getFile(key, PREFS_EXTENSION);
+      if ((file != null) && file.isFile()) {
+        try {
+          properties = new PreferenceMap();
+          PrefCodec.read(file, properties);
+          put(PREFS_EXTENSION + key, properties, estimateSize(properties));
+        } catch (IOException e) {
+          Log.LOGGER.log(Level.FINE, "Could not read compiled template " + file.getPath(), e);
+          properties = null;
+        }
+      }
+    }
+    count(properties != null);
+    return properties;
+  }
+
+  /**
+   * @param key is the {@link #createKey(String, String, String) key}.
+   * @param properties is the resolved {@link PreferenceMap} to cache. Must not be modified afterwards.
+   */
+  public void putProperties(String key, PreferenceMap properties) {
+
+    put(PREFS_EXTENSION + key, properties, estimateSize(properties));
+    File file = getFile(key, PREFS_EXTENSION);
+    if ((file != null) && !this.readOnly) {
+      persist(file, PrefCodec.encode(properties));
+    }
+  }
+
+  /**
+   * @param key is the {@link #createKey(String, String, String) key}.
+   * @return the cached resolved XML or <code>null</code> if not cached. Shared by all callers and must therefore not
+   *         be modified.
+   */
+  public byte[] getXml(String key) {
+
+    byte[] xml = (byte[]) get(XML_EXTENSION + key);
+    if (xml == null) {
+      File file = getFile(key, XML_EXTENSION);
+      if ((file != null) && file.isFile()) {
+        try {
+          xml = Files.readAllBytes(file.toPath());
+          put(XML_EXTENSION + key, xml, xml.length + ENTRY_OVERHEAD);
+        } catch (IOException e) {
+          Log.LOGGER.log(Level.FINE, "Could not read compiled template " + file.getPath(), e);
+        }
+      }
+    }
+    count(xml != null);
+    return xml;
+  }
+
+  /**
+   * @param key is the {@link #createKey(String, String, String) key}.
+   * @param xml is the resolved XML to cache. Must not be modified afterwards.
+   */
+  public void putXml(String key, byte[] xml) {
+
+    put(XML_EXTENSION + key, xml, xml.length + ENTRY_OVERHEAD);
+    File file = getFile(key, XML_EXTENSION);
+    if ((file != null) && !this.readOnly) {
+      persist(file, xml);
+    }
+  }
+
+  /**
+   * @param hit - <code>true</code> for a hit, <code>false</code> for a miss.
+   */
+  private void count(boolean hit) {
+
+    if (hit) {
+      this.hits.incrementAndGet();
+    } else {
+      this.misses.incrementAndGet();
+    }
+  }
+
+  /**
+   * @param entryKey is the key of the entry.
+   * @return the cached value or <code>null</code>.
+   */
+  private Object get(String entryKey) {
+
+    synchronized (this.entries) {
+      Sized sized = this.entries.get(entryKey);
+      if (sized == null) {
+        return null;
+      }
+      return sized.value;
+    }
+  }
+
+  /**
+   * Adds an entry and evicts the least recently used entries if the {@link #getMaxSize() maximum size} is exceeded.
+   *
+   * @param entryKey is the key of the entry.
+   * @param value is the value to cache.
+   * @param valueSize is the estimated size of the value in bytes.
+   */
+  private void put(String entryKey, Object value, long valueSize) {
+
+    if (valueSize > this.maxSize) {
+      return;
+    }
+    synchronized (this.entries) {
+      Sized old = this.entries.put(entryKey, new Sized(value, valueSize));
+      if (old != null) {
+        this.size = this.size - old.size;
+      }
+      this.size = this.size + valueSize;
+      Iterator<Sized> iterator = this.entries.values().iterator();
+      while ((this.size > this.maxSize) && iterator.hasNext()) {
+        Sized eldest = iterator.next();
+        iterator.remove();
+        this.size = this.size - eldest.size;
+      }
+    }
+  }
+
+  /**
+   * @param key is the {@link #createKey(String, String, String) key}.
+   * @param extension is the file extension.
+   * @return the {@link File} where the compiled template is persisted or <code>null</code> if not persisted.
+   */
+  private File getFile(String key, String extension) {
+
+    if ((this.directory == null) || key.startsWith(FingerprintIndex.HASH_MISSING)) {
+      return null;
+    }
+    try {
+      return new File(this.directory, FingerprintIndex.hash(key.getBytes("UTF-8")) + extension);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Writes a compiled template to disk. Failures are only logged as the cache is optional.
+   *
+   * @param file is the {@link File} to write.
+   * @param content is the content to write.
+   */
+  private void persist(File file, byte[] content) {
+
+    if (file.isFile()) {
+      return;
+    }
+    try {
+      File parent = file.getParentFile();
+      if (!parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Could not create directory " + parent.getPath());
+      }
+      new AtomicFileWriter().write(file, content);
+    } catch (IOException e) {
+      Log.LOGGER.log(Level.WARNING, "Could not persist compiled template " + file.getPath(), e);
+    }
+  }
+
+  /**
+   * @param properties is the {@link PreferenceMap}.
+   * @return the estimated size of the given {@link PreferenceMap} in bytes.
+   */
+  private static long estimateSize(PreferenceMap properties) {
+
+    long estimate = ENTRY_OVERHEAD;
+    for (Map.Entry<String, String> entry : properties.entrySet()) {
+      estimate = estimate + ENTRY_OVERHEAD + 2 * (entry.getKey().length() + entry.getValue().length());
+    }
+    return estimate;
+  }
+
+  /**
+   * A cached value with its estimated size.
+   */
+  private static final class Sized {
+
+    /** The cached value. */
+    private final Object value;
+
+    /** The estimated size in bytes. */
+    private final long size;
+
+    /**
+     * The constructor.
+     *
+     * @param value is the cached value.
+     * @param size is the estimated size in bytes.
+     */
+    private Sized(Object value, long size) {
+
+      super();
+      this.value = value;
+      this.size = size;
+    }
+  }
+
+}
@@ -1,21 +1,41 @@
 package io.oasp.ide.eclipse.configurator.core;
 
 import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.entity.FilePlan;
+import io.oasp.ide.eclipse.configurator.entity.PreferenceChanges;
 import io.oasp.ide.eclipse.configurator.entity.SortedProperties;
+import io.oasp.ide.eclipse.configurator.entity.WorkspacePlan;
 import io.oasp.ide.eclipse.configurator.logging.Log;
+import io.oasp.ide.eclipse.configurator.logging.LogContext;
+import io.oasp.ide.eclipse.configurator.logging.Metrics;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
-import java.nio.channels.FileChannel;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 /**
@@ -36,6 +56,12 @@ public class Configurator {
    */
   private final XmlHandler xmlHandler;
 
+  /**
+   * The name of the folder in the workspace's {@link Strings#FOLDER_METADATA .metadata} folder with the XML update
+   * templates as they were last applied (see {@link #mergeXml(EclipseWorkspaceFile, XmlHandler)}).
+   */
+  private static final String FOLDER_APPLIED_TEMPLATES = ".oasp-configurator.templates";
+
   /**
    * Path to the eclipse workspace.
    */
@@ -51,6 +77,56 @@ public class Configurator {
    */
   private final String pluginsUpdateDirectoryPath;
 
+  /**
+   * {@link Resolver} shared by all handlers.
+   */
+  private final Resolver resolver;
+
+  /**
+   * The {@link WorkspaceTemplates} to apply.
+   */
+  private final WorkspaceTemplates templates;
+
+  /**
+   * The {@link AtomicFileWriter} shared by all handlers. Directories are synced once at the end of a run.
+   */
+  private final AtomicFileWriter fileWriter;
+
+  /**
+   * The {@link FileCopier} for templates that can not be merged.
+   */
+  private FileCopier fileCopier;
+
+  /**
+   * The {@link BlobStore} for {@link FileCopier.Mode#STORE} or <code>null</code>.
+   */
+  private BlobStore blobStore;
+
+  /**
+   * The {@link TemplateMergerRegistry} with the {@link TemplateMerger}s taking precedence over the built-in handling.
+   */
+  private TemplateMergerRegistry mergerRegistry;
+
+  /**
+   * The {@link XmlElementMerger} shared by all {@link XmlHandler}s.
+   */
+  private final XmlElementMerger xmlElementMerger;
+
+  /**
+   * The maximum number of files merged concurrently by {@link #updateWorkspace()}.
+   */
+  private int parallelism;
+
+  /**
+   * The {@link FingerprintIndex} of the workspace or <code>null</code> if not {@link #isIncremental() incremental}.
+   */
+  private FingerprintIndex index;
+
+  /**
+   * The number of files skipped by the current {@link #updateWorkspace() update} as they are up-to-date.
+   */
+  private final AtomicInteger skippedFiles;
+
   /**
    * Creates a new {@link Configurator} with the given paths.
    *
@@ -60,34 +136,557 @@ public class Configurator {
    */
   public Configurator(String workspacePath, String replacementPatternsPath, String eclipseTemplatesPath) {
 
+    this(workspacePath, new WorkspaceTemplates(eclipseTemplatesPath, createResolver(replacementPatternsPath,
+        Strings.REPLACEMENT_REG_EX)));
+  }
+
+  /**
+   * Creates a new {@link Configurator} for the given workspace using the given (potentially shared)
+   * {@link WorkspaceTemplates}.
+   *
+   * @param workspacePath - relative path to the workspace's plug-ins folder
+   * @param templates - the {@link WorkspaceTemplates} to apply.
+   */
+  public Configurator(String workspacePath, WorkspaceTemplates templates) {
+
     this.workspacePath = workspacePath;
-    Resolver resolver = createResolver(replacementPatternsPath, Strings.REPLACEMENT_REG_EX);
-    this.prefHandler = new PrefHandler(resolver);
-    this.xmlHandler = new XmlHandler(resolver);
-    this.pluginsSetupDirectoryPath = eclipseTemplatesPath + Strings.FILE_SEPARATOR + Strings.FOLDER_SETUP;
-    this.pluginsUpdateDirectoryPath = eclipseTemplatesPath + Strings.FILE_SEPARATOR + Strings.FOLDER_UPDATE;
+    this.templates = templates;
+    this.resolver = templates.getResolver();
+    this.fileWriter = new AtomicFileWriter(true);
+    this.fileCopier = new FileCopier(templates, this.fileWriter, FileCopier.Mode.COPY);
+    this.mergerRegistry = TemplateMergerRegistry.createDefault();
+    this.xmlElementMerger = new XmlElementMerger();
+    this.prefHandler = createPrefHandler();
+    this.xmlHandler = createXmlHandler();
+    this.parallelism = 1;
+    this.skippedFiles = new AtomicInteger();
+    this.pluginsSetupDirectoryPath = templates.getSetupDirectoryPath();
+    this.pluginsUpdateDirectoryPath = templates.getUpdateDirectoryPath();
   }
 
   /**
-   * Creates/updates the workspace. See {@link #mergeFiles(EclipseWorkspaceFile)} for further details.
+   * @return the maximum number of files merged concurrently by {@link #updateWorkspace()}.
    */
-  public void updateWorkspace() {
+  public int getParallelism() {
 
-    for (EclipseWorkspaceFile file : collectWorkspaceFiles()) {
-      mergeFiles(file);
+    return this.parallelism;
+  }
+
+  /**
+   * @param parallelism is the maximum number of files merged concurrently by {@link #updateWorkspace()}. A value of
+   *        <code>1</code> (default) merges all files sequentially in the calling thread.
+   */
+  public void setParallelism(int parallelism) {
+
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism has to be positive: " + parallelism);
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * @return <code>true</code> if {@link #updateWorkspace()} only merges files whose templates, replacement patterns,
+   *         referenced variables or workspace file changed since the last update, <code>false</code> otherwise
+   *         (default).
+   */
+  public boolean isIncremental() {
+
+    return (this.index != null);
+  }
+
+  /**
+   * @param incremental - <code>true</code> to only merge files whose inputs changed since the last update (tracked in
+   *        a {@link FingerprintIndex} in the workspace's {@link Strings#FOLDER_METADATA .metadata} folder),
+   *        <code>false</code> to always merge all files.
+   */
+  public void setIncremental(boolean incremental) {
+
+    if (incremental) {
+      if (this.index == null) {
+        this.index = new FingerprintIndex(this.workspacePath);
+      }
+    } else {
+      this.index = null;
+    }
+  }
+
+  /**
+   * @return the {@link TemplateMergerRegistry} with the {@link TemplateMerger}s for specific types of files.
+   */
+  public TemplateMergerRegistry getMergerRegistry() {
+
+    return this.mergerRegistry;
+  }
+
+  /**
+   * @param mergerRegistry is the {@link TemplateMergerRegistry} with the {@link TemplateMerger}s for specific types of
+   *        files. Default is {@link TemplateMergerRegistry#createDefault()}.
+   */
+  public void setMergerRegistry(TemplateMergerRegistry mergerRegistry) {
+
+    if (mergerRegistry == null) {
+      throw new NullPointerException("mergerRegistry");
+    }
+    this.mergerRegistry = mergerRegistry;
+  }
+
+  /**
+   * @return the {@link XmlElementMerger} used to merge XML update templates into existing workspace files. Use it to
+   *         {@link XmlElementMerger#addIdentityKey(String) add identity keys}.
+   */
+  public XmlElementMerger getXmlElementMerger() {
+
+    return this.xmlElementMerger;
+  }
+
+  /**
+   * @return the {@link FileCopier.Mode} how templates that can not be merged are transferred into the workspace.
+   */
+  public FileCopier.Mode getCopyMode() {
+
+    return this.fileCopier.getMode();
+  }
+
+  /**
+   * @param copyMode is the {@link FileCopier.Mode} how templates that can not be merged are transferred into the
+   *        workspace. Default is {@link FileCopier.Mode#COPY}. {@link FileCopier.Mode#STORE} requires a
+   *        {@link #setBlobStore(BlobStore) blob store}.
+   */
+  public void setCopyMode(FileCopier.Mode copyMode) {
+
+    if (copyMode == null) {
+      throw new IllegalArgumentException("Copy mode must not be null");
+    }
+    this.fileCopier = new FileCopier(this.templates, this.fileWriter, copyMode, this.blobStore);
+  }
+
+  /**
+   * @return the {@link BlobStore} for {@link FileCopier.Mode#STORE} or <code>null</code> if not set.
+   */
+  public BlobStore getBlobStore() {
+
+    return this.blobStore;
+  }
+
+  /**
+   * @param blobStore is the {@link BlobStore} (shared by all workspaces) for {@link FileCopier.Mode#STORE}.
+   */
+  public void setBlobStore(BlobStore blobStore) {
+
+    this.blobStore = blobStore;
+    this.fileCopier = new FileCopier(this.templates, this.fileWriter, this.fileCopier.getMode(), blobStore);
+  }
+
+  /**
+   * Creates/updates the workspace. See {@link #mergeFiles(EclipseWorkspaceFile)} for further details. If
+   * {@link #getParallelism() parallelism} is greater than one, the files are merged by a bounded pool of worker threads
+   * each having its own {@link PrefHandler} and {@link XmlHandler}. A file that fails to merge does not abort the run.
+   *
+   * @return the {@link List} of {@link MergeFailure}s for all files that could not be merged. Will be empty on success.
+   */
+  public List<MergeFailure> updateWorkspace() {
+
+    LogContext previousContext = LogContext.enter(this.workspacePath, null);
+    try {
+      return update(collectWorkspaceFiles());
+    } finally {
+      LogContext.restore(previousContext);
+    }
+  }
+
+  /**
+   * Like {@link #updateWorkspace()} but only merges the configuration files with the given relative paths. Paths
+   * without template are ignored.
+   *
+   * @param relativePaths are the paths of the configuration files relative to the workspace.
+   * @return the {@link List} of {@link MergeFailure}s for all files that could not be merged. Will be empty on success.
+   */
+  public List<MergeFailure> updateFiles(Collection<String> relativePaths) {
+
+    LogContext previousContext = LogContext.enter(this.workspacePath, null);
+    try {
+      List<EclipseWorkspaceFile> files = new ArrayList<EclipseWorkspaceFile>(relativePaths.size());
+      TemplateManifest manifest = this.templates.getManifest();
+      for (String relativePath : relativePaths) {
+        TemplateManifest.Entry entry = manifest.getEntry(relativePath);
+        if (entry != null) {
+          files.add(new EclipseWorkspaceFile(entry));
+        }
+      }
+      return update(files);
+    } finally {
+      LogContext.restore(previousContext);
+    }
+  }
+
+  /**
+   * @see #updateWorkspace()
+   *
+   * @param files are the {@link EclipseWorkspaceFile}s to merge.
+   * @return the {@link List} of {@link MergeFailure}s for all files that could not be merged.
+   */
+  private List<MergeFailure> update(List<EclipseWorkspaceFile> files) {
+
+    if (this.index != null) {
+      this.index.load();
+    }
+    this.skippedFiles.set(0);
+    Queue<EclipseWorkspaceFile> queue = new ConcurrentLinkedQueue<EclipseWorkspaceFile>(files);
+    List<MergeFailure> failures = Collections.synchronizedList(new ArrayList<MergeFailure>());
+    int workerCount = Math.min(this.parallelism, queue.size());
+    if (workerCount <= 1) {
+      new MergeWorker(queue, failures, this.prefHandler, this.xmlHandler).run();
+    } else {
+      ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+      try {
+        List<Future<?>> futures = new ArrayList<Future<?>>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+          futures.add(executor.submit(new MergeWorker(queue, failures, createPrefHandler(), createXmlHandler())));
+        }
+        for (Future<?> future : futures) {
+          awaitWorker(future);
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+    this.fileWriter.syncDirectories();
+    if (this.index != null) {
+      Log.LOGGER.info("Skipped " + this.skippedFiles.get() + " unchanged configuration files.");
+      try {
+        this.index.save();
+      } catch (IOException e) {
+        Log.LOGGER.log(Level.WARNING, "Could not save index " + this.index.getIndexFile().getPath(), e);
+      }
+    }
+    reportFailures(failures);
+    return failures;
+  }
+
+  /**
+   * Computes what {@link #updateWorkspace()} would do without writing anything: for every configuration file it
+   * determines if it would be created, merged, copied or left alone and for .prefs files which preferences would be
+   * added or changed. This only reads the templates and the workspace, so it is safe to run while eclipse is open.
+   *
+   * @return the {@link WorkspacePlan} of this workspace.
+   */
+  public WorkspacePlan planWorkspace() {
+
+    LogContext previousContext = LogContext.enter(this.workspacePath, null);
+    try {
+      List<FilePlan> files = new ArrayList<FilePlan>();
+      for (EclipseWorkspaceFile file : collectWorkspaceFiles()) {
+        LogContext workspaceContext = LogContext.enter(this.workspacePath, file.relativePath);
+        long start = Metrics.startFile(file.relativePath);
+        try {
+          files.add(planFile(file));
+        } catch (Exception e) {
+          Log.LOGGER.log(Level.WARNING, "Failed to plan " + file, e);
+          files.add(FilePlan.failed(file.relativePath, e));
+        } finally {
+          Metrics.stopFile(file.relativePath, start);
+          LogContext.restore(workspaceContext);
+        }
+      }
+      WorkspacePlan plan = new WorkspacePlan(this.workspacePath, files);
+      Log.LOGGER.info("Planned " + plan);
+      return plan;
+    } finally {
+      LogContext.restore(previousContext);
+    }
+  }
+
+  /**
+   * @see #planWorkspace()
+   *
+   * @param file is the {@link EclipseWorkspaceFile}.
+   * @return the {@link FilePlan} with what {@link #mergeTemplates(EclipseWorkspaceFile, PrefHandler, XmlHandler)}
+   *         would do.
+   * @throws IOException if a file could not be read.
+   */
+  private FilePlan planFile(EclipseWorkspaceFile file) throws IOException {
+
+    TemplateMerger merger = this.mergerRegistry.getMerger(file.relativePath, file.kind);
+    if (merger != null) {
+      return merger.plan(file, this.templates);
+    }
+    if (file.kind == TemplateBundle.Kind.PREFS) {
+      return this.prefHandler.plan(file.workspaceFile, this.templates.getProperties(file.setupFile),
+          this.templates.getProperties(file.updateFile), file.relativePath);
+    }
+    boolean exists = file.workspaceFile.exists();
+    File source;
+    TemplateManifest.FileInfo sourceInfo;
+    if (file.entry.getUpdate() != null) {
+      source = file.updateFile;
+      sourceInfo = file.entry.getUpdate();
+    } else if ((file.entry.getSetup() != null) && !exists) {
+      source = file.setupFile;
+      sourceInfo = file.entry.getSetup();
+    } else {
+      return new FilePlan(file.relativePath, FilePlan.Action.UNCHANGED);
+    }
+    if (!exists) {
+      return new FilePlan(file.relativePath, FilePlan.Action.CREATE);
+    }
+    boolean upToDate;
+    FilePlan.Action action;
+    if (file.kind == TemplateBundle.Kind.XML) {
+      byte[] content;
+      if (sourceInfo.getSize() > WorkspaceTemplates.MAX_CACHED_XML_LENGTH) {
+        content = this.xmlHandler.resolve(source, this.templates.getContent(source));
+      } else {
+        content = this.templates.getXml(source);
+      }
+      // the existing file is only changed where it differs from the update template
+      upToDate = this.xmlHandler.hasContent(content, file.workspaceFile)
+          || (this.xmlHandler.merge(content, readAppliedTemplate(file), file.workspaceFile) == null);
+      action = FilePlan.Action.MERGE;
+    } else {
+      upToDate = this.fileCopier.isUpToDate(source, sourceInfo, file.workspaceFile);
+      action = FilePlan.Action.COPY;
     }
+    if (upToDate) {
+      action = FilePlan.Action.UNCHANGED;
+    }
+    return new FilePlan(file.relativePath, action);
+  }
+
+  /**
+   * @return a new {@link PrefHandler} writing via the shared {@link AtomicFileWriter}.
+   */
+  private PrefHandler createPrefHandler() {
+
+    PrefHandler handler = new PrefHandler(this.resolver);
+    handler.setFileWriter(this.fileWriter);
+    return handler;
   }
 
   /**
-   * Saves changes in the workspace .pref files into the update .pref files.
+   * @return a new {@link XmlHandler} writing via the shared {@link AtomicFileWriter}.
+   */
+  private XmlHandler createXmlHandler() {
+
+    XmlHandler handler = new XmlHandler(this.resolver);
+    handler.setFileWriter(this.fileWriter);
+    handler.setElementMerger(this.xmlElementMerger);
+    return handler;
+  }
+
+  /**
+   * Waits until the given worker has completed.
+   *
+   * @param future is the {@link Future} of the {@link MergeWorker}.
+   */
+  private static void awaitWorker(Future<?> future) {
+
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while updating workspace.", e);
+    } catch (ExecutionException e) {
+      // MergeWorker already collects failures per file so this is an unexpected error
+      throw new IllegalStateException("Merge worker failed.", e.getCause());
+    }
+  }
+
+  /**
+   * Logs the given {@link MergeFailure}s.
+   *
+   * @param failures is the {@link List} of {@link MergeFailure}s to report.
+   */
+  private static void reportFailures(List<MergeFailure> failures) {
+
+    if (failures.isEmpty()) {
+      return;
+    }
+    synchronized (failures) {
+      for (MergeFailure failure : failures) {
+        Log.LOGGER.log(Level.SEVERE, "Failed to merge " + failure.getFile(), failure.getCause());
+      }
+    }
+    Log.LOGGER.severe(failures.size() + " configuration file(s) could not be merged.");
+  }
+
+  /**
+   * Creates/updates multiple workspaces within this JVM. The given {@link WorkspaceTemplates} are scanned and parsed
+   * only once and then applied to all workspaces. The workspaces are updated concurrently.
+   *
+   * @param workspacePaths - the paths to the workspace's plug-ins folders.
+   * @param templates - the {@link WorkspaceTemplates} to apply.
+   * @param parallelism - the maximum number of workspaces updated concurrently.
+   * @param incremental - see {@link #setIncremental(boolean)}.
+   * @param copyMode - see {@link #setCopyMode(FileCopier.Mode)}.
+   * @return a {@link Map} with the {@link List} of {@link MergeFailure}s for each workspace path that failed. Will be
+   *         empty on success.
+   */
+  public static Map<String, List<MergeFailure>> updateWorkspaces(List<String> workspacePaths,
+      WorkspaceTemplates templates, int parallelism, boolean incremental, FileCopier.Mode copyMode) {
+
+    return updateWorkspaces(workspacePaths, templates, parallelism, incremental, copyMode, null);
+  }
+
+  /**
+   * Creates/updates multiple workspaces within this JVM like
+   * {@link #updateWorkspaces(List, WorkspaceTemplates, int, boolean, FileCopier.Mode)}.
+   *
+   * @param workspacePaths - the paths to the workspace's plug-ins folders.
+   * @param templates - the {@link WorkspaceTemplates} to apply.
+   * @param parallelism - the maximum number of workspaces updated concurrently.
+   * @param incremental - see {@link #setIncremental(boolean)}.
+   * @param copyMode - see {@link #setCopyMode(FileCopier.Mode)}.
+   * @param blobStore - the {@link BlobStore} shared by all workspaces (see {@link #setBlobStore(BlobStore)}) or
+   *        <code>null</code>.
+   * @return a {@link Map} with the {@link List} of {@link MergeFailure}s for each workspace path that failed. Will be
+   *         empty on success.
+   */
+  public static Map<String, List<MergeFailure>> updateWorkspaces(List<String> workspacePaths,
+      final WorkspaceTemplates templates, int parallelism, final boolean incremental, final FileCopier.Mode copyMode,
+      final BlobStore blobStore) {
+
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism has to be positive: " + parallelism);
+    }
+    Map<String, Future<List<MergeFailure>>> futures = new LinkedHashMap<String, Future<List<MergeFailure>>>();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, workspacePaths.size())));
+    try {
+      for (final String path : workspacePaths) {
+        futures.put(path, executor.submit(new Callable<List<MergeFailure>>() {
+
+          public List<MergeFailure> call() throws Exception {
+
+            Log.LOGGER.info("Updating workspace " + path);
+            Configurator configurator = new Configurator(path, templates);
+            configurator.setIncremental(incremental);
+            configurator.setBlobStore(blobStore);
+            configurator.setCopyMode(copyMode);
+            return configurator.updateWorkspace();
+          }
+        }));
+      }
+      Map<String, List<MergeFailure>> result = new LinkedHashMap<String, List<MergeFailure>>();
+      for (Map.Entry<String, Future<List<MergeFailure>>> entry : futures.entrySet()) {
+        List<MergeFailure> failures = awaitWorkspace(entry.getValue());
+        if (!failures.isEmpty()) {
+          result.put(entry.getKey(), failures);
+        }
+      }
+      return result;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * {@link #planWorkspace() Plans} multiple workspaces within this JVM. The given {@link WorkspaceTemplates} are
+   * scanned and parsed only once and the workspaces are planned concurrently. Nothing is written.
+   *
+   * @param workspacePaths - the paths to the workspace's plug-ins folders.
+   * @param templates - the {@link WorkspaceTemplates} to apply.
+   * @param parallelism - the maximum number of workspaces planned concurrently.
+   * @return the {@link List} with the {@link WorkspacePlan} of each workspace in the order of the given paths.
+   */
+  public static List<WorkspacePlan> planWorkspaces(List<String> workspacePaths, final WorkspaceTemplates templates,
+      int parallelism) {
+
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism has to be positive: " + parallelism);
+    }
+    List<Future<WorkspacePlan>> futures = new ArrayList<Future<WorkspacePlan>>(workspacePaths.size());
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, workspacePaths.size())));
+    try {
+      for (final String path : workspacePaths) {
+        futures.add(executor.submit(new Callable<WorkspacePlan>() {
+
+          public WorkspacePlan call() throws Exception {
+
+            return new Configurator(path, templates).planWorkspace();
+          }
+        }));
+      }
+      List<WorkspacePlan> result = new ArrayList<WorkspacePlan>(futures.size());
+      for (Future<WorkspacePlan> future : futures) {
+        result.add(awaitWorkspace(future));
+      }
+      return result;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Waits until the processing of a workspace has completed.
+   *
+   * @param <T> is the generic type of the result.
+   * @param future is the {@link Future} of the workspace update or plan.
+   * @return the result of the workspace (e.g. the {@link List} of {@link MergeFailure}s).
+   */
+  private static <T> T awaitWorkspace(Future<T> future) {
+
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while processing workspaces.", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Workspace processing failed.", e.getCause());
+    }
+  }
+
+  /**
+   * @param workspacesPath is the path to the folder containing the workspaces.
+   * @return the sorted {@link List} with the paths of all workspaces (sub-folders) in the given folder.
+   */
+  public static List<String> discoverWorkspaces(String workspacesPath) {
+
+    File workspacesFolder = new File(workspacesPath);
+    File[] children = workspacesFolder.listFiles();
+    if (children == null) {
+      throw new IllegalArgumentException("Expected directory: " + workspacesFolder.getPath());
+    }
+    List<String> workspacePaths = new ArrayList<String>();
+    for (File child : children) {
+      if (child.isDirectory()) {
+        workspacePaths.add(child.getPath());
+      }
+    }
+    Collections.sort(workspacePaths);
+    return workspacePaths;
+  }
+
+  /**
+   * Saves changes in the workspace .pref files into the update .pref files. Not supported for templates of a
+   * {@link TemplateBundle}.
    *
    * @param saveNewProperties - specifies if new properties are saved as well.
    */
   public void saveChangesInWorkspace(boolean saveNewProperties) {
 
+    if (this.templates.getBundle() != null) {
+      throw new IllegalStateException("Can not save changes into template bundle "
+          + this.templates.getBundle().getFile().getPath() + ", use the template directories instead.");
+    }
+    int changedKeys = 0;
+    int addedKeys = 0;
+    int writtenFiles = 0;
     for (EclipseWorkspaceFile file : collectWorkspaceFiles()) {
-      saveChanges(file.workspaceFile, file.updateFile, saveNewProperties);
+      LogContext previousContext = LogContext.enter(this.workspacePath, file.relativePath);
+      long start = Metrics.startFile(file.relativePath);
+      PreferenceChanges changes = saveChanges(file.workspaceFile, file.updateFile, saveNewProperties);
+      Metrics.stopFile(file.relativePath, start);
+      LogContext.restore(previousContext);
+      if (changes != null) {
+        changedKeys = changedKeys + changes.getChangedKeys().size();
+        addedKeys = addedKeys + changes.getAddedKeys().size();
+        if (changes.isWritten()) {
+          writtenFiles++;
+        }
+      }
     }
+    this.fileWriter.syncDirectories();
+    Log.LOGGER.info("Saved " + changedKeys + " changed and " + addedKeys + " new properties in " + writtenFiles
+        + " files.");
   }
 
   /**
@@ -96,66 +695,177 @@ public class Configurator {
    * with the updateFile.
    *
    * @param file is the {@link EclipseWorkspaceFile}.
+   * @throws IOException if the file could not be merged.
    */
-  protected void mergeFiles(EclipseWorkspaceFile file) {
+  protected void mergeFiles(EclipseWorkspaceFile file) throws IOException {
 
-    if (file.relativePath.endsWith(".prefs")) {
-      this.prefHandler.update(file.workspaceFile, file.setupFile, file.updateFile);
+    mergeFiles(file, this.prefHandler, this.xmlHandler);
+  }
+
+  /**
+   * @see #mergeFiles(EclipseWorkspaceFile)
+   *
+   * @param file is the {@link EclipseWorkspaceFile}.
+   * @param filePrefHandler is the {@link PrefHandler} to use.
+   * @param fileXmlHandler is the {@link XmlHandler} to use.
+   * @throws IOException if the file could not be merged.
+   */
+  private void mergeFiles(EclipseWorkspaceFile file, PrefHandler filePrefHandler, XmlHandler fileXmlHandler)
+      throws IOException {
+
+    LogContext previousContext = LogContext.enter(this.workspacePath, file.relativePath);
+    long start = Metrics.startFile(file.relativePath);
+    try {
+      if (this.index == null) {
+        mergeTemplates(file, filePrefHandler, fileXmlHandler);
+      } else {
+        String inputHash =
+            FingerprintIndex.hash(this.templates.getHash(file.setupFile), this.templates.getHash(file.updateFile),
+                this.templates.getReplacementPatternsHash(), this.templates.getVariablesHash(file.setupFile),
+                this.templates.getVariablesHash(file.updateFile));
+        if (this.index.isUpToDate(file.relativePath, inputHash, file.workspaceFile)) {
+          this.skippedFiles.incrementAndGet();
+        } else {
+          mergeTemplates(file, filePrefHandler, fileXmlHandler);
+          this.index.update(file.relativePath, inputHash, file.workspaceFile);
+        }
+      }
+    } finally {
+      Metrics.stopFile(file.relativePath, start);
+      LogContext.restore(previousContext);
+    }
+  }
+
+  /**
+   * Merges the templates of the given {@link EclipseWorkspaceFile} into the workspace.
+   *
+   * @see #mergeFiles(EclipseWorkspaceFile)
+   *
+   * @param file is the {@link EclipseWorkspaceFile}.
+   * @param filePrefHandler is the {@link PrefHandler} to use.
+   * @param fileXmlHandler is the {@link XmlHandler} to use.
+   * @throws IOException if the file could not be merged.
+   */
+  private void mergeTemplates(EclipseWorkspaceFile file, PrefHandler filePrefHandler, XmlHandler fileXmlHandler)
+      throws IOException {
+
+    TemplateMerger merger = this.mergerRegistry.getMerger(file.relativePath, file.kind);
+    if (merger != null) {
+      merger.merge(file, this.templates, this.fileWriter);
+    } else if (file.kind == TemplateBundle.Kind.PREFS) {
+      filePrefHandler.update(file.workspaceFile, this.templates.getProperties(file.setupFile),
+          this.templates.getProperties(file.updateFile));
     } else {
       File source;
-      if (file.updateFile.exists()) {
+      TemplateManifest.FileInfo sourceInfo;
+      if (file.entry.getUpdate() != null) {
         source = file.updateFile;
-      } else if (file.setupFile.exists() && !file.workspaceFile.exists()) {
+        sourceInfo = file.entry.getUpdate();
+      } else if ((file.entry.getSetup() != null) && !file.workspaceFile.exists()) {
         source = file.setupFile;
+        sourceInfo = file.entry.getSetup();
       } else {
         return;
       }
-      if ((file.relativePath.endsWith(".xml")) || (file.relativePath.endsWith(".xmi"))
-          || (file.relativePath.endsWith(".launch"))) {
-        this.xmlHandler.update(source, file.workspaceFile);
+      if (file.kind == TemplateBundle.Kind.XML) {
+        boolean update = (sourceInfo == file.entry.getUpdate());
+        if (update && file.workspaceFile.exists()) {
+          mergeXml(file, fileXmlHandler);
+        } else if (sourceInfo.getSize() > WorkspaceTemplates.MAX_CACHED_XML_LENGTH) {
+          fileXmlHandler.update(source, this.templates.getContent(source), file.workspaceFile);
+          if (update) {
+            writeAppliedTemplate(file, null, readAppliedTemplate(file));
+          }
+        } else {
+          byte[] content = this.templates.getXml(source);
+          fileXmlHandler.write(content, file.workspaceFile);
+          if (update) {
+            writeAppliedTemplate(file, content, readAppliedTemplate(file));
+          }
+        }
       } else {
         // if (!file.relativePath.endsWith(".dat")) {
         // Log.LOGGER.warning("Unknown filetype: " + file.relativePath);
         // }
-        copy(source, file.workspaceFile);
+        this.fileCopier.copy(source, sourceInfo, file.workspaceFile);
       }
     }
   }
 
   /**
-   * Copies the {@link File} <code>source</code> to <code>destination</code>. Will overwrite <code>destination</code>
-   * without warning.
+   * Merges the update template of the given XML {@link EclipseWorkspaceFile} into the existing workspace file. Only
+   * the changed elements are applied so additions of the user are kept and an up-to-date file is not rewritten.
+   *
+   * @see XmlElementMerger
    *
-   * @param source is the source file to copy.
-   * @param destination is the destination file to copy.
+   * @param file is the {@link EclipseWorkspaceFile}.
+   * @param fileXmlHandler is the {@link XmlHandler} to use.
+   * @throws IOException if the file could not be merged.
    */
-  private void copy(File source, File destination) {
+  private void mergeXml(EclipseWorkspaceFile file, XmlHandler fileXmlHandler) throws IOException {
 
-    destination.getParentFile().mkdirs();
-    try {
-      FileInputStream sourceStream = new FileInputStream(source);
-      try {
-        FileOutputStream destinationStream = new FileOutputStream(destination);
-        try {
-          FileChannel sourceChannel = sourceStream.getChannel();
-          sourceChannel.transferTo(0, sourceChannel.size(), destinationStream.getChannel());
-        } finally {
-          try {
-            destinationStream.close();
-          } catch (Exception e) {
-            Log.LOGGER.warning("Failed to close file: " + destination.getAbsolutePath());
-          }
-        }
-      } finally {
-        try {
-          sourceStream.close();
-        } catch (Exception e) {
-          Log.LOGGER.warning("Failed to close file: " + source.getAbsolutePath());
-        }
+    byte[] content;
+    if (file.entry.getUpdate().getSize() > WorkspaceTemplates.MAX_CACHED_XML_LENGTH) {
+      content = fileXmlHandler.resolve(file.updateFile, this.templates.getContent(file.updateFile));
+    } else {
+      content = this.templates.getXml(file.updateFile);
+    }
+    byte[] previousContent = readAppliedTemplate(file);
+    if (!fileXmlHandler.hasContent(content, file.workspaceFile)) {
+      byte[] merged = fileXmlHandler.merge(content, previousContent, file.workspaceFile);
+      if (merged != null) {
+        fileXmlHandler.write(merged, file.workspaceFile);
       }
-    } catch (IOException e) {
-      Log.LOGGER.severe("Failed to copy file into workspace: " + source.getAbsolutePath() + ", error: " + e.toString());
-      e.printStackTrace();
+    }
+    writeAppliedTemplate(file, content, previousContent);
+  }
+
+  /**
+   * @param file is the XML {@link EclipseWorkspaceFile}.
+   * @return the file with the update template as it was last applied to the workspace file.
+   */
+  private File getAppliedTemplateFile(EclipseWorkspaceFile file) {
+
+    File metadataFolder = FingerprintIndex.getMetadataFolder(new File(this.workspacePath));
+    return new File(new File(metadataFolder, FOLDER_APPLIED_TEMPLATES), file.relativePath);
+  }
+
+  /**
+   * @param file is the XML {@link EclipseWorkspaceFile}.
+   * @return the resolved update template as it was last applied to the workspace file or <code>null</code> if
+   *         unknown.
+   * @throws IOException if the file could not be read.
+   */
+  private byte[] readAppliedTemplate(EclipseWorkspaceFile file) throws IOException {
+
+    File appliedFile = getAppliedTemplateFile(file);
+    if (!appliedFile.isFile()) {
+      return null;
+    }
+    byte[] content = Files.readAllBytes(appliedFile.toPath());
+    Metrics.addBytesRead(content.length);
+    return content;
+  }
+
+  /**
+   * Records the resolved update template applied to the workspace file, so elements removed from the template can be
+   * removed from the workspace file by the next {@link #mergeXml(EclipseWorkspaceFile, XmlHandler) merge}.
+   *
+   * @param file is the XML {@link EclipseWorkspaceFile}.
+   * @param content is the applied update template or <code>null</code> if not available (the record is deleted).
+   * @param previousContent is the content recorded before or <code>null</code> if none.
+   * @throws IOException if the file could not be written.
+   */
+  private void writeAppliedTemplate(EclipseWorkspaceFile file, byte[] content, byte[] previousContent)
+      throws IOException {
+
+    File appliedFile = getAppliedTemplateFile(file);
+    if (content == null) {
+      if (previousContent != null) {
+        Files.delete(appliedFile.toPath());
+      }
+    } else if (!Arrays.equals(content, previousContent)) {
+      this.fileWriter.write(appliedFile, content);
     }
   }
 
@@ -165,12 +875,14 @@ public class Configurator {
    * @param workspaceFile - the workspace pref file (new pref file).
    * @param updateFile - the updated pref file (pref file to be updated).
    * @param saveNewProperties - specifies if new properties are saved as well.
+   * @return the {@link PreferenceChanges} or <code>null</code> if the workspaceFile is no existing pref file.
    */
-  private void saveChanges(File workspaceFile, File updateFile, boolean saveNewProperties) {
+  private PreferenceChanges saveChanges(File workspaceFile, File updateFile, boolean saveNewProperties) {
 
     if (workspaceFile.exists() && workspaceFile.getName().endsWith(".prefs")) {
-      this.prefHandler.saveChanges(workspaceFile, updateFile, saveNewProperties);
+      return this.prefHandler.saveChanges(workspaceFile, updateFile, saveNewProperties);
     }
+    return null;
   }
 
   /**
@@ -181,7 +893,7 @@ public class Configurator {
    * @param regEx - regEx to search for.
    * @return the created resolver.
    */
-  private Resolver createResolver(String replacementPatternsPath, String regEx) {
+  static Resolver createResolver(String replacementPatternsPath, String regEx) {
 
     SortedProperties replacements =
         readReplacementsConfig(Strings.CURRENT_WORKING_DIRECTORY + Strings.FILE_SEPARATOR + replacementPatternsPath);
@@ -196,7 +908,7 @@ public class Configurator {
    * @param configPath - path to the pref file containing the replacement patterns.
    * @return {@link Properties} containing the replacement patterns.
    */
-  private SortedProperties readReplacementsConfig(String configPath) {
+  private static SortedProperties readReplacementsConfig(String configPath) {
 
     File replacementsConfig = new File(configPath);
     SortedProperties replacements = new SortedProperties();
@@ -207,8 +919,7 @@ public class Configurator {
         Reader reader = new InputStreamReader(is, "UTF-8");
         replacements.load(reader);
       } catch (Exception e) {
-        Log.LOGGER.log(Level.WARNING, "Could not read replacement properties, continuing without these.",
-            e.getStackTrace());
+        Log.LOGGER.log(Level.WARNING, "Could not read replacement properties, continuing without these.", e);
       }
     }
     return replacements;
@@ -229,58 +940,236 @@ public class Configurator {
     return value;
   }
 
+  /**
+   * @param defaultValue is the value to use if the variable is not set.
+   * @return the value of the optional {@link Strings#CONFIGURATOR_PARALLELISM} variable or <code>defaultValue</code> if
+   *         not set.
+   */
+  private static int getParallelismVariable(int defaultValue) {
+
+    String value = System.getenv(Strings.CONFIGURATOR_PARALLELISM);
+    if ((value == null) || (value.trim().length() == 0)) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      System.err.println("Variable '" + Strings.CONFIGURATOR_PARALLELISM + "' has to be a positive number but was '"
+          + value + "'.");
+      System.exit(-1);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * @return the value of the optional {@link Strings#CONFIGURATOR_COPY_MODE} variable or {@link FileCopier.Mode#COPY}
+   *         if not set.
+   */
+  private static FileCopier.Mode getCopyModeVariable() {
+
+    String value = System.getenv(Strings.CONFIGURATOR_COPY_MODE);
+    if ((value == null) || (value.trim().length() == 0)) {
+      return FileCopier.Mode.COPY;
+    }
+    try {
+      return FileCopier.Mode.valueOf(value.trim().toUpperCase(Locale.US));
+    } catch (IllegalArgumentException e) {
+      System.err.println("Variable '" + Strings.CONFIGURATOR_COPY_MODE
+          + "' has to be 'copy', 'link' or 'store' but was '" + value + "'.");
+      System.exit(-1);
+      return FileCopier.Mode.COPY;
+    }
+  }
+
+  /**
+   * @param copyMode is the {@link #getCopyModeVariable() copy mode}.
+   * @return the {@link BlobStore} in the directory given by the optional {@link Strings#CONFIGURATOR_BLOB_STORE_PATH}
+   *         variable (default is {@link BlobStore#FOLDER_BLOBS} in {@link Strings#WORKSPACES_PATH}) for
+   *         {@link FileCopier.Mode#STORE} or <code>null</code> for other modes.
+   */
+  private static BlobStore getBlobStoreVariable(FileCopier.Mode copyMode) {
+
+    if (copyMode != FileCopier.Mode.STORE) {
+      return null;
+    }
+    String value = System.getenv(Strings.CONFIGURATOR_BLOB_STORE_PATH);
+    if ((value != null) && (value.trim().length() > 0)) {
+      return new BlobStore(new File(value.trim()));
+    }
+    String workspaces = System.getenv(Strings.WORKSPACES_PATH);
+    if ((workspaces == null) || (workspaces.trim().length() == 0)) {
+      System.err.println("Copy mode 'store' requires variable '" + Strings.CONFIGURATOR_BLOB_STORE_PATH + "' or '"
+          + Strings.WORKSPACES_PATH + "'.");
+      System.exit(-1);
+      return null;
+    }
+    return new BlobStore(new File(workspaces.trim(), BlobStore.FOLDER_BLOBS));
+  }
+
+  /**
+   * @return the {@link CompiledTemplateCache} persisted in the directory given by the optional
+   *         {@link Strings#CONFIGURATOR_CACHE_PATH} variable or <code>null</code> if not set.
+   */
+  private static CompiledTemplateCache getCacheVariable() {
+
+    return getCacheVariable(false);
+  }
+
+  /**
+   * @param readOnly - <code>true</code> if nothing shall be persisted (for a dry-run), <code>false</code> otherwise.
+   * @return the {@link CompiledTemplateCache} persisted in the directory given by the optional
+   *         {@link Strings#CONFIGURATOR_CACHE_PATH} variable or <code>null</code> if not set.
+   * @see CompiledTemplateCache#isReadOnly()
+   */
+  private static CompiledTemplateCache getCacheVariable(boolean readOnly) {
+
+    String value = System.getenv(Strings.CONFIGURATOR_CACHE_PATH);
+    if ((value == null) || (value.trim().length() == 0)) {
+      return null;
+    }
+    return new CompiledTemplateCache(new File(value.trim()), CompiledTemplateCache.DEFAULT_MAX_SIZE, readOnly);
+  }
+
+  /**
+   * Determines the suffix to append to the workspace path depending on the layout of the eclipse templates.
+   *
+   * @param eclipseTemplatesPath - relative path to eclipse workspace templates.
+   * @return the suffix to append to the workspace path or <code>null</code> if the templates contain a
+   *         {@link Strings#FOLDER_METADATA .metadata} folder.
+   */
+  private static String getWorkspacePathSuffix(String eclipseTemplatesPath) {
+
+    File eclipseTemplates = new File(Strings.CURRENT_WORKING_DIRECTORY + Strings.FILE_SEPARATOR + eclipseTemplatesPath);
+    if (eclipseTemplates.isFile()) {
+      return getWorkspacePathSuffix(eclipseTemplates);
+    }
+    File pluginsUpdateDirectory = new File(eclipseTemplates, Strings.FOLDER_UPDATE);
+    File metadataFolder = new File(pluginsUpdateDirectory, Strings.FOLDER_METADATA);
+    if (metadataFolder.isDirectory()) {
+      return null;
+    }
+    // Client-PE is suggested to have a ".metadata" folder in setup/update
+    // However old client-PEs directly have the content of ".metadata" or ".plugins" in setup/update
+    // This code allows downward compatibility for legacy format
+    String workspacePathSuffix = Strings.FOLDER_METADATA;
+    File pluginsFolder = new File(pluginsUpdateDirectory, Strings.FOLDER_PLUGINS);
+    if (!pluginsFolder.isDirectory()) {
+      // If not even a ".plugins" folder is present in setup/update, then
+      // expect legacy format with content of ".plugins" folder.
+      workspacePathSuffix = workspacePathSuffix + Strings.FILE_SEPARATOR + Strings.FOLDER_PLUGINS;
+    }
+    Log.LOGGER.info("No .metadata folder found. Relocated to " + workspacePathSuffix);
+    return workspacePathSuffix;
+  }
+
+  /**
+   * Determines the suffix to append to the workspace path like {@link #getWorkspacePathSuffix(String)} for a
+   * {@link TemplateBundle}.
+   *
+   * @param bundleFile - the {@link TemplateBundle} file.
+   * @return the suffix to append to the workspace path or <code>null</code> if the templates contain a
+   *         {@link Strings#FOLDER_METADATA .metadata} folder.
+   */
+  private static String getWorkspacePathSuffix(File bundleFile) {
+
+    TemplateBundle bundle;
+    try {
+      bundle = TemplateBundle.open(bundleFile);
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not open template bundle: " + bundleFile.getPath(), e);
+    }
+    if (bundle.containsDirectory(Strings.FOLDER_UPDATE, Strings.FOLDER_METADATA)) {
+      return null;
+    }
+    String workspacePathSuffix = Strings.FOLDER_METADATA;
+    if (!bundle.containsDirectory(Strings.FOLDER_UPDATE, Strings.FOLDER_PLUGINS)) {
+      workspacePathSuffix = workspacePathSuffix + Strings.FILE_SEPARATOR + Strings.FOLDER_PLUGINS;
+    }
+    Log.LOGGER.info("No .metadata folder found. Relocated to " + workspacePathSuffix);
+    return workspacePathSuffix;
+  }
+
   /**
    * Runs the application. <br>
    * In order run properly this application requires the following system environment variables:
    * <p>
-   * <b>WORKSPACE_PLUGINS_PATH</b> - relative path to the workspace that has to be created. <br>
-   * <b>ECLIPSE_TEMPLATES_PATH</b> - relative path to the eclipse settings templates.
+   * <b>WORKSPACE_PATH</b> - relative path to the workspace that has to be created (not required for "-b"). <br>
+   * <b>ECLIPSE_TEMPLATES_PATH</b> - relative path to the eclipse settings templates (a directory with setup and update
+   * folders or a {@link TemplateBundle} file as built by oasp4j-ide-settings, not supported for "-c", "-cn" and "-d").
    * <p>
    * Optional system environment variables for the application are:
    * <p>
    * <b>REPLACEMENT_PATTERNS_PATH</b> - relative path to the properties file providing additional replacement patterns.
+   * <br>
+   * <b>WORKSPACES_PATH</b> - relative path to the folder containing all workspaces (required for "-b" without
+   * workspace arguments). <br>
+   * <b>CONFIGURATOR_PARALLELISM</b> - maximum number of files (or workspaces for "-b") processed concurrently (default
+   * is 1 or the number of processors for "-b"). <br>
+   * <b>CONFIGURATOR_COPY_MODE</b> - "copy" (default) or "link" to hard link templates that can not be merged (such as
+   * .dat files) into the workspace instead of copying them. See {@link FileCopier.Mode#LINK} before using "link".
+   * "store" hard links them to blobs of a {@link BlobStore} shared by all workspaces. <br>
+   * <b>CONFIGURATOR_BLOB_STORE_PATH</b> - directory of the {@link BlobStore} for "store" (default is .blobs in
+   * WORKSPACES_PATH). <br>
+   * <b>CONFIGURATOR_PLAN_FILE</b> - path to the report file for "-p" and "-bp" (CSV if it ends with ".csv", JSON
+   * otherwise). If omitted the JSON report is printed to standard output. <br>
+   * <b>CONFIGURATOR_METRICS_FILE</b> - path to a JSON file where the metrics of the run (time per phase, file type and
+   * file as well as resolved variables) are exported to. A summary of these metrics is always logged at the end. <br>
+   * <b>CONFIGURATOR_CACHE_PATH</b> - directory where resolved templates are cached by their content and replacement
+   * patterns hash so later runs do not need to resolve unchanged templates again. <br>
+   * <b>CONFIGURATOR_LOG_MODE</b> - "shared" (default) to log to EclipseConfigurator.log, "run" to log to a new file
+   * per run (for concurrent processes) or "workspace" to additionally log to one file per workspace.
    *
    * @param args - main requires one argument: <br>
-   *        args[0] - "-u" for update or "-c" for changes or "-cn" for changes including new properties.
+   *        args[0] - "-u" for update or "-c" for changes or "-cn" for changes including new properties or "-b" for
+   *        updating multiple workspaces given as further arguments (or all workspaces in WORKSPACES_PATH if omitted).
+   *        "-ui" and "-bi" work like "-u" and "-b" but only merge files whose inputs changed since the last update.
+   *        "-p" and "-bp" work like "-u" and "-b" but only report what would be changed without writing anything.
+   *        "-d" works like "-b" but then keeps running as daemon and applies changed templates to the workspaces.
    */
   public static void main(String[] args) {
 
     logCall(args);
-    String workspacePath = getSystemVariable(Strings.ECLIPSE_WORKSPACE_PATH, true);
-    String replacementPatternsPath = getSystemVariable(Strings.REPLACEMENT_PATTERNS_PATH, false);
-    String eclipseTemplatesPath = getSystemVariable(Strings.ECLIPSE_TEMPLATES_PATH, true);
-
     if (args.length <= 0) {
       System.err.println("Too few arguments");
       System.exit(1);
+    } else if (args[0].equals("-b") || args[0].equals("-bi")) {
+      updateAllWorkspaces(Arrays.asList(args).subList(1, args.length), args[0].equals("-bi"));
+    } else if (args[0].equals("-bp")) {
+      planAllWorkspaces(Arrays.asList(args).subList(1, args.length));
+    } else if (args[0].equals("-d")) {
+      watchAllWorkspaces(Arrays.asList(args).subList(1, args.length));
     } else if (args.length > 1) {
       System.err.println("Too many arguments");
       System.exit(1);
     } else {
-      File pluginsUpdateDirectory =
-          new File(Strings.CURRENT_WORKING_DIRECTORY + Strings.FILE_SEPARATOR + eclipseTemplatesPath
-              + Strings.FILE_SEPARATOR + Strings.FOLDER_UPDATE);
-      File metadataFolder = new File(pluginsUpdateDirectory, Strings.FOLDER_METADATA);
-      if (!metadataFolder.isDirectory()) {
-        // Client-PE is suggested to have a ".metadata" folder in setup/update
-        // However old client-PEs directly have the content of ".metadata" or ".plugins" in setup/update
-        // This code allows downward compatibility for legacy format
-        String workspacePathSuffix = Strings.FOLDER_METADATA;
-        File pluginsFolder = new File(pluginsUpdateDirectory, Strings.FOLDER_PLUGINS);
-        if (!pluginsFolder.isDirectory()) {
-          // If not even a ".plugins" folder is present in setup/update, then
-          // expect legacy format with content of ".plugins" folder.
-          workspacePathSuffix = workspacePathSuffix + Strings.FILE_SEPARATOR + Strings.FOLDER_PLUGINS;
-        }
+      String workspacePath = getSystemVariable(Strings.ECLIPSE_WORKSPACE_PATH, true);
+      String replacementPatternsPath = getSystemVariable(Strings.REPLACEMENT_PATTERNS_PATH, false);
+      String eclipseTemplatesPath = getSystemVariable(Strings.ECLIPSE_TEMPLATES_PATH, true);
+      String workspacePathSuffix = getWorkspacePathSuffix(eclipseTemplatesPath);
+      if (workspacePathSuffix != null) {
         workspacePath = workspacePath + Strings.FILE_SEPARATOR + workspacePathSuffix;
-        Log.LOGGER.info("No .metadata folder found. Relocated to " + workspacePathSuffix);
       }
 
-      Configurator configurator = new Configurator(workspacePath, replacementPatternsPath, eclipseTemplatesPath);
+      Configurator configurator = new Configurator(workspacePath, new WorkspaceTemplates(eclipseTemplatesPath,
+          createResolver(replacementPatternsPath, Strings.REPLACEMENT_REG_EX), getCacheVariable(args[0].equals("-p"))));
+      configurator.setParallelism(getParallelismVariable(1));
+      FileCopier.Mode copyMode = getCopyModeVariable();
+      configurator.setBlobStore(getBlobStoreVariable(copyMode));
+      configurator.setCopyMode(copyMode);
 
-      if (args[0].equals("-u")) {
+      if (args[0].equals("-u") || args[0].equals("-ui")) {
         Log.LOGGER.info("Updating workspace");
-        configurator.updateWorkspace();
+        configurator.setIncremental(args[0].equals("-ui"));
+        List<MergeFailure> failures = configurator.updateWorkspace();
+        if (!failures.isEmpty()) {
+          System.err.println(failures.size() + " configuration file(s) could not be merged, see log for details.");
+          reportMetrics();
+          System.exit(1);
+        }
+        Log.LOGGER.info("Completed");
+      } else if (args[0].equals("-p")) {
+        Log.LOGGER.info("Planning workspace update (dry-run)");
+        writePlanReport(Collections.singletonList(configurator.planWorkspace()));
         Log.LOGGER.info("Completed");
       } else if (args[0].equals("-c")) {
         Log.LOGGER.info("Merging workspace changes back into templates (excluding new properties)");
@@ -294,87 +1183,251 @@ public class Configurator {
         System.err.println("Invalid argument:" + args[0]);
       }
     }
+    reportMetrics();
   }
 
-  private static void logCall(String[] args) {
+  /**
+   * Implementation of {@link #main(String[])} for "-b" and "-bi".
+   *
+   * @param workspaces - the workspace paths given as arguments. If empty, all workspaces in
+   *        {@link Strings#WORKSPACES_PATH} are updated.
+   * @param incremental - see {@link #setIncremental(boolean)}.
+   */
+  private static void updateAllWorkspaces(List<String> workspaces, boolean incremental) {
 
-    StringBuilder buffer = new StringBuilder();
-    buffer.append(Configurator.class.getName());
-    for (String arg : args) {
-      buffer.append(' ');
-      buffer.append(arg);
+    String replacementPatternsPath = getSystemVariable(Strings.REPLACEMENT_PATTERNS_PATH, false);
+    String eclipseTemplatesPath = getSystemVariable(Strings.ECLIPSE_TEMPLATES_PATH, true);
+    List<String> workspacePaths = getWorkspacePaths(workspaces, eclipseTemplatesPath);
+
+    Log.LOGGER.info("Updating " + workspacePaths.size() + " workspaces");
+    WorkspaceTemplates templates = new WorkspaceTemplates(eclipseTemplatesPath, createResolver(
+        replacementPatternsPath, Strings.REPLACEMENT_REG_EX), getCacheVariable());
+    int parallelism = getParallelismVariable(Runtime.getRuntime().availableProcessors());
+    FileCopier.Mode copyMode = getCopyModeVariable();
+    Map<String, List<MergeFailure>> failures = updateWorkspaces(workspacePaths, templates, parallelism, incremental,
+        copyMode, getBlobStoreVariable(copyMode));
+    if (!failures.isEmpty()) {
+      for (Map.Entry<String, List<MergeFailure>> entry : failures.entrySet()) {
+        System.err.println(entry.getValue().size() + " configuration file(s) of workspace " + entry.getKey()
+            + " could not be merged, see log for details.");
+      }
+      reportMetrics();
+      System.exit(1);
     }
-    Log.LOGGER.info(buffer.toString());
+    Log.LOGGER.info("Completed");
   }
 
   /**
-   * @return a {@link Collection} with all available {@link EclipseWorkspaceFile}.
+   * Implementation of {@link #main(String[])} for "-bp".
+   *
+   * @param workspaces - the workspace paths given as arguments. If empty, all workspaces in
+   *        {@link Strings#WORKSPACES_PATH} are planned.
    */
-  private Collection<EclipseWorkspaceFile> collectWorkspaceFiles() {
+  private static void planAllWorkspaces(List<String> workspaces) {
 
-    Map<String, EclipseWorkspaceFile> fileMap = new HashMap<String, EclipseWorkspaceFile>();
-    collectWorkspaceFiles(new File(this.pluginsUpdateDirectoryPath), fileMap);
-    collectWorkspaceFiles(new File(this.pluginsSetupDirectoryPath), fileMap);
-    Collection<EclipseWorkspaceFile> values = fileMap.values();
-    Log.LOGGER.info("Collected " + values.size() + " configuration files.");
-    return values;
+    String replacementPatternsPath = getSystemVariable(Strings.REPLACEMENT_PATTERNS_PATH, false);
+    String eclipseTemplatesPath = getSystemVariable(Strings.ECLIPSE_TEMPLATES_PATH, true);
+    List<String> workspacePaths = getWorkspacePaths(workspaces, eclipseTemplatesPath);
+
+    Log.LOGGER.info("Planning update of " + workspacePaths.size() + " workspaces (dry-run)");
+    WorkspaceTemplates templates = new WorkspaceTemplates(eclipseTemplatesPath, createResolver(
+        replacementPatternsPath, Strings.REPLACEMENT_REG_EX), getCacheVariable(true));
+    int parallelism = getParallelismVariable(Runtime.getRuntime().availableProcessors());
+    writePlanReport(planWorkspaces(workspacePaths, templates, parallelism));
+    Log.LOGGER.info("Completed");
   }
 
   /**
-   * This method scans a directory for (configuration template) files and adds them to the given {@link Map}.
+   * Implementation of {@link #main(String[])} for "-d". Runs until the process is terminated.
    *
-   * @param path is the current path of the scan relative to the starting point. Should be the empty string on initial
-   *        call.
-   * @param directory is the current directory to scan.
-   * @param fileMap is the {@link Map} where the {@link File#isFile() files} are collected.
+   * @param workspaces - the workspace paths given as arguments. If empty, all workspaces in
+   *        {@link Strings#WORKSPACES_PATH} are watched.
    */
-  private void collectWorkspaceFiles(File directory, Map<String, EclipseWorkspaceFile> fileMap) {
+  private static void watchAllWorkspaces(List<String> workspaces) {
+
+    String replacementPatternsPath = getSystemVariable(Strings.REPLACEMENT_PATTERNS_PATH, false);
+    String eclipseTemplatesPath = getSystemVariable(Strings.ECLIPSE_TEMPLATES_PATH, true);
+    List<String> workspacePaths = getWorkspacePaths(workspaces, eclipseTemplatesPath);
 
-    if (!directory.isDirectory()) {
-      throw new IllegalArgumentException("Expected directory: " + directory.getPath());
+    Log.LOGGER.info("Watching templates for " + workspacePaths.size() + " workspaces");
+    try {
+      ConfiguratorDaemon daemon =
+          new ConfiguratorDaemon(eclipseTemplatesPath, replacementPatternsPath, workspacePaths, getCacheVariable());
+      daemon.setParallelism(getParallelismVariable(1));
+      FileCopier.Mode copyMode = getCopyModeVariable();
+      daemon.setCopyMode(copyMode);
+      daemon.setBlobStore(getBlobStoreVariable(copyMode));
+      daemon.run();
+    } catch (IOException e) {
+      Log.LOGGER.log(Level.SEVERE, "Could not watch templates in " + eclipseTemplatesPath, e);
+      System.exit(1);
     }
-    collectWorkspaceFiles("", directory, fileMap);
   }
 
   /**
-   * This method recursively scans a directory (eclipse template folder such as {@link Strings#FOLDER_UPDATE} or
-   * {@link Strings#FOLDER_SETUP}) for (configuration template) files and adds them to the given {@link Map}.
+   * @param workspaces - the workspace paths given as arguments. If empty, all workspaces in
+   *        {@link Strings#WORKSPACES_PATH} are used.
+   * @param eclipseTemplatesPath - relative path to eclipse workspace templates.
+   * @return the paths to the workspace's plug-ins folders.
+   */
+  private static List<String> getWorkspacePaths(List<String> workspaces, String eclipseTemplatesPath) {
+
+    List<String> workspacePaths = workspaces;
+    if (workspacePaths.isEmpty()) {
+      workspacePaths = discoverWorkspaces(getSystemVariable(Strings.WORKSPACES_PATH, true));
+    }
+    String workspacePathSuffix = getWorkspacePathSuffix(eclipseTemplatesPath);
+    if (workspacePathSuffix != null) {
+      List<String> relocatedPaths = new ArrayList<String>(workspacePaths.size());
+      for (String path : workspacePaths) {
+        relocatedPaths.add(path + Strings.FILE_SEPARATOR + workspacePathSuffix);
+      }
+      workspacePaths = relocatedPaths;
+    }
+    return workspacePaths;
+  }
+
+  /**
+   * Writes the {@link PlanReport} to the file given by {@link Strings#CONFIGURATOR_PLAN_FILE} or to standard output.
+   * Exits with status 1 if a file could not be planned.
    *
-   * @param path is the current path of the scan relative to the starting point. Should be the empty string on initial
-   *        call.
-   * @param directory is the current directory to scan.
-   * @param fileMap is the {@link Map} where the {@link File#isFile() files} are collected.
+   * @param plans are the {@link WorkspacePlan}s to report.
    */
-  private void collectWorkspaceFiles(String path, File directory, Map<String, EclipseWorkspaceFile> fileMap) {
+  private static void writePlanReport(List<WorkspacePlan> plans) {
 
-    for (File currentFile : directory.listFiles()) {
-      String currentPath;
-      if (path.isEmpty()) {
-        currentPath = currentFile.getName();
+    String reportPath = System.getenv(Strings.CONFIGURATOR_PLAN_FILE);
+    try {
+      if ((reportPath == null) || (reportPath.trim().length() == 0)) {
+        PlanReport.write(plans, PlanReport.Format.JSON, System.out);
       } else {
-        currentPath = path + Strings.FILE_SEPARATOR + currentFile.getName();
+        File reportFile = new File(reportPath.trim());
+        PlanReport.write(plans, reportFile);
+        Log.LOGGER.info("Wrote plan to " + reportFile.getAbsolutePath());
       }
-      if (currentFile.isDirectory()) {
-        collectWorkspaceFiles(currentPath, currentFile, fileMap);
-      } else if (isAcceptFile(currentFile)) {
-        if (!fileMap.containsKey(currentPath)) {
-          fileMap.put(currentPath, new EclipseWorkspaceFile(currentPath));
-        }
+    } catch (IOException e) {
+      Log.LOGGER.log(Level.SEVERE, "Could not write plan report.", e);
+      System.exit(1);
+    }
+    int changedWorkspaces = 0;
+    boolean failed = false;
+    for (WorkspacePlan plan : plans) {
+      if (plan.hasChanges()) {
+        changedWorkspaces++;
       }
+      if (plan.count(FilePlan.Action.FAILED) > 0) {
+        failed = true;
+      }
+    }
+    Log.LOGGER.info(changedWorkspaces + " of " + plans.size() + " workspace(s) would be changed.");
+    if (failed) {
+      System.err.println("Some configuration file(s) could not be planned, see report for details.");
+      reportMetrics();
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Logs the {@link Metrics#getSummary() summary} of the {@link Metrics} and exports them to the file given by
+   * {@link Strings#CONFIGURATOR_METRICS_FILE} if set.
+   */
+  private static void reportMetrics() {
+
+    Log.LOGGER.info(Metrics.getSummary());
+    String metricsPath = System.getenv(Strings.CONFIGURATOR_METRICS_FILE);
+    if ((metricsPath == null) || (metricsPath.trim().length() == 0)) {
+      return;
+    }
+    File metricsFile = new File(metricsPath.trim());
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Writer writer = new OutputStreamWriter(out, "UTF-8");
+      Metrics.writeJson(writer);
+      writer.flush();
+      new AtomicFileWriter().write(metricsFile, out.toByteArray());
+      Log.LOGGER.info("Wrote metrics to " + metricsFile.getAbsolutePath());
+    } catch (IOException e) {
+      Log.LOGGER.log(Level.WARNING, "Could not write metrics to " + metricsFile.getAbsolutePath(), e);
+    }
+  }
+
+  private static void logCall(String[] args) {
+
+    StringBuilder buffer = new StringBuilder();
+    buffer.append(Configurator.class.getName());
+    for (String arg : args) {
+      buffer.append(' ');
+      buffer.append(arg);
     }
+    Log.LOGGER.info(buffer.toString());
+  }
+
+  /**
+   * @return the unmodifiable {@link List} with all available {@link EclipseWorkspaceFile}s sorted by their relative
+   *         path as given by the {@link WorkspaceTemplates#getManifest() manifest} of the templates.
+   */
+  private List<EclipseWorkspaceFile> collectWorkspaceFiles() {
 
+    List<TemplateManifest.Entry> entries = this.templates.getManifest().getEntries();
+    List<EclipseWorkspaceFile> files = new ArrayList<EclipseWorkspaceFile>(entries.size());
+    for (TemplateManifest.Entry entry : entries) {
+      files.add(new EclipseWorkspaceFile(entry));
+    }
+    Log.LOGGER.info("Collected " + files.size() + " configuration files.");
+    return Collections.unmodifiableList(files);
   }
 
   /**
-   * @param currentFile is the {@link File} to check.
-   * @return <code>true</code> if the file is accepted as template, <code>false</code> if the file should be ignored.
+   * This class is a worker that {@link Configurator#mergeFiles(EclipseWorkspaceFile) merges} the
+   * {@link EclipseWorkspaceFile}s from a shared {@link Queue} until it is empty. Each worker has its own
+   * {@link PrefHandler} and {@link XmlHandler}.
    */
-  private boolean isAcceptFile(File currentFile) {
+  private class MergeWorker implements Runnable {
+
+    /** The shared {@link Queue} with the {@link EclipseWorkspaceFile}s to merge. */
+    private final Queue<EclipseWorkspaceFile> queue;
+
+    /** The shared {@link List} where {@link MergeFailure}s are collected. */
+    private final List<MergeFailure> failures;
 
-    if (currentFile.getName().endsWith(".bak")) {
-      return false;
+    /** The {@link PrefHandler} of this worker. */
+    private final PrefHandler workerPrefHandler;
+
+    /** The {@link XmlHandler} of this worker. */
+    private final XmlHandler workerXmlHandler;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param queue is the shared {@link Queue} with the {@link EclipseWorkspaceFile}s to merge.
+     * @param failures is the shared (synchronized) {@link List} where {@link MergeFailure}s are collected.
+     * @param prefHandler is the {@link PrefHandler} of this worker.
+     * @param xmlHandler is the {@link XmlHandler} of this worker.
+     */
+    public MergeWorker(Queue<EclipseWorkspaceFile> queue, List<MergeFailure> failures, PrefHandler prefHandler,
+        XmlHandler xmlHandler) {
+
+      super();
+      this.queue = queue;
+      this.failures = failures;
+      this.workerPrefHandler = prefHandler;
+      this.workerXmlHandler = xmlHandler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void run() {
+
+      EclipseWorkspaceFile file = this.queue.poll();
+      while (file != null) {
+        try {
+          mergeFiles(file, this.workerPrefHandler, this.workerXmlHandler);
+        } catch (Exception e) {
+          this.failures.add(new MergeFailure(file, e));
+        }
+        file = this.queue.poll();
+      }
     }
-    return true;
   }
 
   /**
@@ -396,6 +1449,12 @@ public class Configurator {
     /** The file template for update. */
     private final File updateFile;
 
+    /** The {@link TemplateManifest.Entry} with the {@link TemplateManifest.FileInfo}s of the templates. */
+    private final TemplateManifest.Entry entry;
+
+    /** @see #getKind() */
+    private final TemplateBundle.Kind kind;
+
     /**
      * Creates a new instance.
      *
@@ -404,15 +1463,80 @@ public class Configurator {
      */
     public EclipseWorkspaceFile(String relativePath) {
 
+      this(Configurator.this.templates.getManifest().getEntry(relativePath));
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param entry is the {@link TemplateManifest.Entry} of the templates.
+     */
+    public EclipseWorkspaceFile(TemplateManifest.Entry entry) {
+
       super();
-      if (relativePath == null) {
-        throw new NullPointerException("relativePath");
-      }
-      this.relativePath = relativePath;
-      this.workspaceFile = new File(Configurator.this.workspacePath + Strings.FILE_SEPARATOR + relativePath);
-      this.setupFile = new File(Configurator.this.pluginsSetupDirectoryPath + Strings.FILE_SEPARATOR + relativePath);
-      this.updateFile = new File(Configurator.this.pluginsUpdateDirectoryPath + Strings.FILE_SEPARATOR + relativePath);
-      assert (this.setupFile.exists() || this.updateFile.exists());
+      if (entry == null) {
+        throw new NullPointerException("entry");
+      }
+      this.entry = entry;
+      this.relativePath = entry.getRelativePath();
+      this.workspaceFile = new File(Configurator.this.workspacePath + Strings.FILE_SEPARATOR + this.relativePath);
+      this.setupFile =
+          new File(Configurator.this.pluginsSetupDirectoryPath + Strings.FILE_SEPARATOR + this.relativePath);
+      this.updateFile =
+          new File(Configurator.this.pluginsUpdateDirectoryPath + Strings.FILE_SEPARATOR + this.relativePath);
+      if (entry.getUpdate() != null) {
+        this.kind = Configurator.this.templates.getKind(this.updateFile);
+      } else {
+        this.kind = Configurator.this.templates.getKind(this.setupFile);
+      }
+    }
+
+    /**
+     * @return the path relative to workspace and setup/update directory.
+     */
+    public String getRelativePath() {
+
+      return this.relativePath;
+    }
+
+    /**
+     * @return the file in the eclipse workspace. May not {@link File#exists() exist} on initial setup.
+     */
+    public File getWorkspaceFile() {
+
+      return this.workspaceFile;
+    }
+
+    /**
+     * @return the file template for the initial setup. May not {@link File#exists() exist}.
+     */
+    public File getSetupFile() {
+
+      return this.setupFile;
+    }
+
+    /**
+     * @return the file template for update. May not {@link File#exists() exist}.
+     */
+    public File getUpdateFile() {
+
+      return this.updateFile;
+    }
+
+    /**
+     * @return the {@link TemplateManifest.Entry} with the {@link TemplateManifest.FileInfo}s of the templates.
+     */
+    public TemplateManifest.Entry getEntry() {
+
+      return this.entry;
+    }
+
+    /**
+     * @return the {@link TemplateBundle.Kind} of the templates that determines how they are applied.
+     */
+    public TemplateBundle.Kind getKind() {
+
+      return this.kind;
     }
 
     /**
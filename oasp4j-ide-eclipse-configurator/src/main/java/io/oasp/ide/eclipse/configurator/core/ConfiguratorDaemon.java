@@ -0,0 +1,400 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.logging.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * This class keeps the {@link WorkspaceTemplates} of a set of registered workspaces in memory and watches the template
+ * trees and the replacement patterns file via a {@link WatchService}. When templates change (e.g. after a
+ * <code>git pull</code> of the settings) only the affected configuration files are merged into every registered
+ * workspace again instead of running a complete update per workspace. A change of the replacement patterns applies all
+ * templates again.
+ */
+public class ConfiguratorDaemon implements Closeable {
+
+  /** The milliseconds to wait for further changes before the collected changes are applied. */
+  public static final long DEBOUNCE_MILLIS = 50;
+
+  /** The path to the eclipse workspace templates. */
+  private final String eclipseTemplatesPath;
+
+  /** The path to the replacement patterns file (see {@link Strings#REPLACEMENT_PATTERNS_PATH}). */
+  private final String replacementPatternsPath;
+
+  /** The {@link Path} of the setup templates. */
+  private final Path setupDirectory;
+
+  /** The {@link Path} of the update templates. */
+  private final Path updateDirectory;
+
+  /** The {@link Path} of the replacement patterns file or <code>null</code> if there is none. */
+  private final Path replacementPatternsFile;
+
+  /** @see #getWorkspacePaths() */
+  private final List<String> workspacePaths;
+
+  /** The {@link WatchService}. */
+  private final WatchService watchService;
+
+  /** The watched directories by their {@link WatchKey}. */
+  private final Map<WatchKey, Path> watchedDirectories;
+
+  /** @see #getTemplates() */
+  private volatile WorkspaceTemplates templates;
+
+  /** The {@link CompiledTemplateCache} shared by all {@link #templates}. */
+  private final CompiledTemplateCache cache;
+
+  /** @see Configurator#setParallelism(int) */
+  private int parallelism;
+
+  /** @see Configurator#setCopyMode(FileCopier.Mode) */
+  private FileCopier.Mode copyMode;
+
+  /** @see Configurator#setBlobStore(BlobStore) */
+  private BlobStore blobStore;
+
+  /**
+   * The constructor. Scans the templates and registers the watches.
+   *
+   * @param eclipseTemplatesPath - path to eclipse workspace templates (a {@link TemplateBundle} can not be watched).
+   * @param replacementPatternsPath - path to the replacement patterns file relative to the current working directory.
+   * @param workspacePaths - the paths to the workspace's plug-ins folders to {@link #addWorkspace(String) register}.
+   * @param cache - the {@link CompiledTemplateCache} or <code>null</code> to create one in memory. Templates that are
+   *        changed back or replacement patterns that are restored are then not resolved again.
+   * @throws IOException if the watches could not be registered.
+   */
+  public ConfiguratorDaemon(String eclipseTemplatesPath, String replacementPatternsPath, List<String> workspacePaths,
+      CompiledTemplateCache cache) throws IOException {
+
+    super();
+    if (new File(eclipseTemplatesPath).isFile()) {
+      throw new IllegalArgumentException("Can not watch template bundle " + eclipseTemplatesPath
+          + ", use the template directories instead.");
+    }
+    this.eclipseTemplatesPath = eclipseTemplatesPath;
+    this.replacementPatternsPath = replacementPatternsPath;
+    this.setupDirectory = new File(eclipseTemplatesPath, Strings.FOLDER_SETUP).toPath().toAbsolutePath();
+    this.updateDirectory = new File(eclipseTemplatesPath, Strings.FOLDER_UPDATE).toPath().toAbsolutePath();
+    if (replacementPatternsPath == null) {
+      this.replacementPatternsFile = null;
+    } else {
+      this.replacementPatternsFile =
+          new File(Strings.CURRENT_WORKING_DIRECTORY + Strings.FILE_SEPARATOR + replacementPatternsPath).toPath()
+              .toAbsolutePath().normalize();
+    }
+    this.workspacePaths = new CopyOnWriteArrayList<String>(workspacePaths);
+    if (cache == null) {
+      this.cache = new CompiledTemplateCache(null, CompiledTemplateCache.DEFAULT_MAX_SIZE);
+    } else {
+      this.cache = cache;
+    }
+    this.parallelism = 1;
+    this.copyMode = FileCopier.Mode.COPY;
+    this.watchedDirectories = new HashMap<WatchKey, Path>();
+    this.watchService = FileSystems.getDefault().newWatchService();
+    registerTree(this.setupDirectory);
+    registerTree(this.updateDirectory);
+    if (this.replacementPatternsFile != null) {
+      Path patternsDirectory = this.replacementPatternsFile.getParent();
+      if ((patternsDirectory != null) && Files.isDirectory(patternsDirectory)
+          && !this.watchedDirectories.containsValue(patternsDirectory)) {
+        register(patternsDirectory);
+      }
+    }
+    this.templates = createTemplates();
+  }
+
+  /**
+   * @return the {@link WorkspaceTemplates} reflecting the last applied changes.
+   */
+  public WorkspaceTemplates getTemplates() {
+
+    return this.templates;
+  }
+
+  /**
+   * @return the paths of the registered workspaces.
+   */
+  public List<String> getWorkspacePaths() {
+
+    return this.workspacePaths;
+  }
+
+  /**
+   * Registers a workspace so it receives all further changes. The workspace is not updated by this method.
+   *
+   * @param workspacePath is the path to the workspace's plug-ins folder.
+   */
+  public void addWorkspace(String workspacePath) {
+
+    this.workspacePaths.add(workspacePath);
+  }
+
+  /**
+   * @param parallelism is the maximum number of files merged concurrently per workspace and of workspaces updated
+   *        concurrently by the initial update.
+   */
+  public void setParallelism(int parallelism) {
+
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism has to be positive: " + parallelism);
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * @param copyMode is the {@link FileCopier.Mode} for templates that can not be merged.
+   */
+  public void setCopyMode(FileCopier.Mode copyMode) {
+
+    this.copyMode = copyMode;
+  }
+
+  /**
+   * @param blobStore is the {@link BlobStore} for {@link FileCopier.Mode#STORE}.
+   */
+  public void setBlobStore(BlobStore blobStore) {
+
+    this.blobStore = blobStore;
+  }
+
+  /**
+   * Updates all registered workspaces completely and then applies changes of the templates until {@link #close()
+   * closed}.
+   */
+  public void run() {
+
+    Map<String, List<MergeFailure>> failures = Configurator.updateWorkspaces(this.workspacePaths, this.templates,
+        this.parallelism, false, this.copyMode, this.blobStore);
+    Log.LOGGER.info("Updated " + this.workspacePaths.size() + " workspaces (" + failures.size()
+        + " with failures), watching " + this.eclipseTemplatesPath + " for changes.");
+    try {
+      while (true) {
+        WatchKey key = this.watchService.take();
+        Set<String> changedPaths = new TreeSet<String>();
+        boolean patternsChanged = false;
+        while (key != null) {
+          patternsChanged = collectChanges(key, changedPaths) || patternsChanged;
+          key = this.watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        if (patternsChanged || !changedPaths.isEmpty()) {
+          try {
+            apply(changedPaths, patternsChanged);
+          } catch (RuntimeException e) {
+            Log.LOGGER.log(Level.SEVERE, "Failed to apply changed templates " + changedPaths + ", still watching "
+                + this.eclipseTemplatesPath + " for changes.", e);
+          }
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      Log.LOGGER.info("Stopped watching " + this.eclipseTemplatesPath);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      Log.LOGGER.info("Interrupted while watching " + this.eclipseTemplatesPath);
+    }
+  }
+
+  /**
+   * Stops {@link #run() watching} the templates.
+   *
+   * @throws IOException if the {@link WatchService} could not be closed.
+   */
+  public void close() throws IOException {
+
+    this.watchService.close();
+  }
+
+  /**
+   * Collects the changes of the given {@link WatchKey} and {@link WatchKey#reset() resets} it.
+   *
+   * @param key is the signalled {@link WatchKey}.
+   * @param changedPaths is the {@link Set} where to add the changed paths relative to the setup and update directories.
+   *        The empty {@link String} is added if events were lost.
+   * @return <code>true</code> if the replacement patterns file has changed, <code>false</code> otherwise.
+   */
+  private boolean collectChanges(WatchKey key, Set<String> changedPaths) {
+
+    boolean patternsChanged = false;
+    Path directory = this.watchedDirectories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        Log.LOGGER.warning("Lost file system events, applying all templates.");
+        changedPaths.add("");
+        continue;
+      }
+      if (directory == null) {
+        continue;
+      }
+      Path path = directory.resolve((Path) event.context());
+      if (path.equals(this.replacementPatternsFile)) {
+        patternsChanged = true;
+      }
+      String relativePath = getRelativePath(path);
+      if (relativePath != null) {
+        changedPaths.add(relativePath);
+        if ((event.kind() == StandardWatchEventKinds.ENTRY_CREATE) && Files.isDirectory(path)) {
+          try {
+            registerTree(path);
+          } catch (IOException e) {
+            Log.LOGGER.log(Level.WARNING, "Could not watch new template directory " + path, e);
+          }
+        }
+      }
+    }
+    if (!key.reset()) {
+      this.watchedDirectories.remove(key);
+    }
+    return patternsChanged;
+  }
+
+  /**
+   * Applies the given changes to all registered workspaces.
+   *
+   * @param changedPaths are the changed paths relative to the setup and update directories (may be directories).
+   * @param patternsChanged - <code>true</code> if the replacement patterns have changed, <code>false</code> otherwise.
+   */
+  private void apply(Collection<String> changedPaths, boolean patternsChanged) {
+
+    long start = System.currentTimeMillis();
+    WorkspaceTemplates oldTemplates = this.templates;
+    WorkspaceTemplates newTemplates;
+    if (patternsChanged) {
+      Log.LOGGER.info("Replacement patterns changed, applying all templates.");
+      newTemplates = createTemplates();
+    } else {
+      newTemplates = oldTemplates.refresh(changedPaths);
+    }
+    this.templates = newTemplates;
+    Set<String> relativePaths = new TreeSet<String>();
+    for (String path : newTemplates.getRelativePaths()) {
+      if (patternsChanged || isAffected(path, changedPaths)) {
+        relativePaths.add(path);
+      }
+    }
+    if (relativePaths.isEmpty()) {
+      return;
+    }
+    int failedWorkspaces = 0;
+    for (String workspacePath : this.workspacePaths) {
+      Configurator configurator = new Configurator(workspacePath, newTemplates);
+      configurator.setParallelism(this.parallelism);
+      configurator.setBlobStore(this.blobStore);
+      configurator.setCopyMode(this.copyMode);
+      if (!configurator.updateFiles(relativePaths).isEmpty()) {
+        failedWorkspaces++;
+      }
+    }
+    Log.LOGGER.info("Applied " + relativePaths.size() + " changed template(s) to " + this.workspacePaths.size()
+        + " workspace(s) (" + failedWorkspaces + " with failures) in " + (System.currentTimeMillis() - start) + " ms.");
+    Log.LOGGER.fine("Applied templates: " + relativePaths);
+  }
+
+  /**
+   * @param relativePath is the relative path of a template.
+   * @param changedPaths are the changed paths (may be directories or the empty {@link String} for all).
+   * @return <code>true</code> if the template is affected by the changes, <code>false</code> otherwise.
+   */
+  private static boolean isAffected(String relativePath, Collection<String> changedPaths) {
+
+    for (String changedPath : changedPaths) {
+      if ((changedPath.length() == 0) || relativePath.equals(changedPath)
+          || relativePath.startsWith(changedPath + Strings.FILE_SEPARATOR)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param path is the absolute {@link Path} of a changed file.
+   * @return the path relative to the setup or update directory (with {@link Strings#FILE_SEPARATOR}) or
+   *         <code>null</code> if the file is not located in one of them.
+   */
+  private String getRelativePath(Path path) {
+
+    Path relative;
+    if (path.startsWith(this.setupDirectory)) {
+      relative = this.setupDirectory.relativize(path);
+    } else if (path.startsWith(this.updateDirectory)) {
+      relative = this.updateDirectory.relativize(path);
+    } else {
+      return null;
+    }
+    StringBuilder buffer = new StringBuilder();
+    for (Path name : relative) {
+      if (buffer.length() > 0) {
+        buffer.append(Strings.FILE_SEPARATOR);
+      }
+      buffer.append(name.toString());
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * @return new {@link WorkspaceTemplates} with a new {@link Resolver} for the current replacement patterns.
+   */
+  private WorkspaceTemplates createTemplates() {
+
+    return new WorkspaceTemplates(this.eclipseTemplatesPath, Configurator.createResolver(this.replacementPatternsPath,
+        Strings.REPLACEMENT_REG_EX), this.cache);
+  }
+
+  /**
+   * Registers the given directory and all its sub-directories at the {@link #watchService}.
+   *
+   * @param root is the root directory to watch. Ignored if it does not exist.
+   * @throws IOException if a directory could not be registered.
+   */
+  private void registerTree(Path root) throws IOException {
+
+    if (!Files.isDirectory(root)) {
+      return;
+    }
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+
+        register(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * @param directory is the directory to watch.
+   * @throws IOException if the directory could not be registered.
+   */
+  private void register(Path directory) throws IOException {
+
+    WatchKey key = directory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    this.watchedDirectories.put(key, directory);
+  }
+
+}
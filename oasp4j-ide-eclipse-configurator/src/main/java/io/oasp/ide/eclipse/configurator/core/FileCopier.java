@@ -0,0 +1,291 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.logging.Log;
+import io.oasp.ide.eclipse.configurator.logging.Metrics;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.logging.Level;
+
+/**
+ * This class copies templates that can not be merged (e.g. <code>.dat</code> files or binary plugin state) into the
+ * workspace. A file is skipped if the workspace already has a file with the same size and modification time or the
+ * same {@link FingerprintIndex#hash(File) content hash} as the template. Otherwise it is either
+ * {@link Mode#LINK linked} or {@link Mode#COPY copied} via {@link FileChannel#transferTo(long, long,
+ * java.nio.channels.WritableByteChannel) transferTo} (that lets the operating system copy without passing the data
+ * through the JVM) and the modification time of the template is applied so the next run can skip it without reading
+ * its content. Templates of a {@link TemplateBundle} are written from the mapped bundle and can only be linked via a
+ * {@link BlobStore}.
+ */
+public class FileCopier {
+
+  /** The {@link WorkspaceTemplates} providing the cached content hashes of the templates. */
+  private final WorkspaceTemplates templates;
+
+  /** The {@link AtomicFileWriter} used to replace the workspace files. */
+  private final AtomicFileWriter fileWriter;
+
+  /** @see #getMode() */
+  private final Mode mode;
+
+  /** The {@link BlobStore} for {@link Mode#STORE} or <code>null</code>. */
+  private final BlobStore blobStore;
+
+  /**
+   * The constructor.
+   *
+   * @param templates are the {@link WorkspaceTemplates} providing the cached content hashes of the templates.
+   * @param fileWriter is the {@link AtomicFileWriter} used to replace the workspace files.
+   * @param mode is the {@link #getMode() mode}.
+   */
+  public FileCopier(WorkspaceTemplates templates, AtomicFileWriter fileWriter, Mode mode) {
+
+    this(templates, fileWriter, mode, null);
+  }
+
+  /**
+   * The constructor.
+   *
+   * @param templates are the {@link WorkspaceTemplates} providing the cached content hashes of the templates.
+   * @param fileWriter is the {@link AtomicFileWriter} used to replace the workspace files.
+   * @param mode is the {@link #getMode() mode}.
+   * @param blobStore is the {@link BlobStore} (shared by all workspaces) required for {@link Mode#STORE}. May be
+   *        <code>null</code> for other modes.
+   */
+  public FileCopier(WorkspaceTemplates templates, AtomicFileWriter fileWriter, Mode mode, BlobStore blobStore) {
+
+    super();
+    if ((mode == Mode.STORE) && (blobStore == null)) {
+      throw new IllegalArgumentException("Mode " + mode + " requires a blob store.");
+    }
+    this.templates = templates;
+    this.fileWriter = fileWriter;
+    this.mode = mode;
+    this.blobStore = blobStore;
+  }
+
+  /**
+   * @return the {@link Mode} how files are transferred into the workspace.
+   */
+  public Mode getMode() {
+
+    return this.mode;
+  }
+
+  /**
+   * Copies (or links) the given template to the given workspace file unless it is already up-to-date. Will overwrite
+   * <code>destination</code> without warning.
+   *
+   * @param source is the template file to copy.
+   * @param sourceInfo is the {@link TemplateManifest.FileInfo} of the template.
+   * @param destination is the workspace file to create or replace.
+   * @return <code>true</code> if the file has been copied or linked, <code>false</code> if it was already
+   *         up-to-date.
+   * @throws IOException if the file could not be copied.
+   */
+  public boolean copy(File source, TemplateManifest.FileInfo sourceInfo, File destination) throws IOException {
+
+    if (isUpToDate(source, sourceInfo, destination, true)) {
+      return false;
+    }
+    long start = Metrics.start();
+    try {
+      ByteBuffer content = this.templates.getContent(source);
+      if (this.mode == Mode.STORE) {
+        File blob = this.blobStore.getBlob(this.templates.getHash(source), source, content,
+            sourceInfo.getLastModified());
+        try {
+          this.fileWriter.link(destination, blob);
+          return true;
+        } catch (IOException e) {
+          Log.LOGGER.log(Level.FINE, "Could not link " + destination.getPath() + ", copying it instead.", e);
+        }
+        transfer(blob, destination);
+        setLastModified(destination, sourceInfo.getLastModified());
+        return true;
+      }
+      if (content != null) {
+        write(content, destination);
+        setLastModified(destination, sourceInfo.getLastModified());
+        return true;
+      }
+      if (this.mode == Mode.LINK) {
+        try {
+          this.fileWriter.link(destination, source);
+          return true;
+        } catch (IOException e) {
+          Log.LOGGER.log(Level.FINE, "Could not link " + destination.getPath() + ", copying it instead.", e);
+        }
+      }
+      transfer(source, destination);
+      setLastModified(destination, sourceInfo.getLastModified());
+      return true;
+    } finally {
+      Metrics.stop(Metrics.Phase.COPY, start);
+    }
+  }
+
+  /**
+   * @param source is the template file to copy.
+   * @param sourceInfo is the {@link TemplateManifest.FileInfo} of the template.
+   * @param destination is the workspace file.
+   * @return <code>true</code> if the destination already has the content of the template so
+   *         {@link #copy(File, TemplateManifest.FileInfo, File) copy} would skip it, <code>false</code> otherwise.
+   * @throws IOException if a file could not be read.
+   */
+  public boolean isUpToDate(File source, TemplateManifest.FileInfo sourceInfo, File destination) throws IOException {
+
+    return isUpToDate(source, sourceInfo, destination, false);
+  }
+
+  /**
+   * @param source is the template file to copy.
+   * @param sourceInfo is the {@link TemplateManifest.FileInfo} of the template.
+   * @param destination is the workspace file.
+   * @param alignLastModified - <code>true</code> to set the modification time of the destination if only the
+   *        modification time differs, <code>false</code> to leave the destination untouched.
+   * @return <code>true</code> if the destination already has the content of the template, <code>false</code>
+   *         otherwise.
+   * @throws IOException if a file could not be read.
+   */
+  private boolean isUpToDate(File source, TemplateManifest.FileInfo sourceInfo, File destination,
+      boolean alignLastModified) throws IOException {
+
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(destination.toPath(), BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+    if (!attributes.isRegularFile() || (attributes.size() != sourceInfo.getSize())) {
+      return false;
+    }
+    if (attributes.lastModifiedTime().toMillis() == sourceInfo.getLastModified()) {
+      return true;
+    }
+    if (this.templates.getHash(source).equals(FingerprintIndex.hash(destination))) {
+      if (alignLastModified) {
+        // same content, align modification time so the next run does not need to read the file
+        setLastModified(destination, sourceInfo.getLastModified());
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Copies the {@link File} <code>source</code> to <code>destination</code>. The destination is replaced atomically
+   * via the {@link AtomicFileWriter}.
+   *
+   * @param source is the source file to copy.
+   * @param destination is the destination file to copy.
+   * @throws IOException if the file could not be copied.
+   */
+  private void transfer(File source, File destination) throws IOException {
+
+    FileInputStream sourceStream = new FileInputStream(source);
+    try {
+      AtomicFileWriter.Output destinationStream = this.fileWriter.open(destination);
+      try {
+        FileChannel sourceChannel = sourceStream.getChannel();
+        FileChannel destinationChannel = destinationStream.getChannel();
+        long size = sourceChannel.size();
+        long position = 0;
+        // transferTo may transfer less than requested (e.g. at most 2 GB per call on linux)
+        while (position < size) {
+          long count = sourceChannel.transferTo(position, size - position, destinationChannel);
+          if (count <= 0) {
+            throw new IOException("Source file " + source.getAbsolutePath() + " was truncated while copying at "
+                + position + " of " + size + " bytes.");
+          }
+          position = position + count;
+        }
+        Metrics.addBytesRead(size);
+        Metrics.addBytesWritten(size);
+        destinationStream.commit();
+      } finally {
+        destinationStream.close();
+      }
+    } finally {
+      try {
+        sourceStream.close();
+      } catch (Exception e) {
+        Log.LOGGER.warning("Failed to close file: " + source.getAbsolutePath());
+      }
+    }
+  }
+
+  /**
+   * Writes the given content of a {@link TemplateBundle bundled} template to <code>destination</code>. The destination
+   * is replaced atomically via the {@link AtomicFileWriter}.
+   *
+   * @param content is the content of the template.
+   * @param destination is the destination file to write.
+   * @throws IOException if the file could not be written.
+   */
+  private void write(ByteBuffer content, File destination) throws IOException {
+
+    ByteBuffer buffer = content.duplicate();
+    int size = buffer.remaining();
+    AtomicFileWriter.Output destinationStream = this.fileWriter.open(destination);
+    try {
+      FileChannel destinationChannel = destinationStream.getChannel();
+      while (buffer.hasRemaining()) {
+        destinationChannel.write(buffer);
+      }
+      Metrics.addBytesRead(size);
+      Metrics.addBytesWritten(size);
+      destinationStream.commit();
+    } finally {
+      destinationStream.close();
+    }
+  }
+
+  /**
+   * @param file is the {@link File} to modify.
+   * @param lastModified is the modification time to set in milliseconds since the epoch.
+   */
+  private static void setLastModified(File file, long lastModified) {
+
+    try {
+      Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(lastModified));
+    } catch (IOException e) {
+      // only an optimization for the next run
+      Log.LOGGER.log(Level.FINE, "Could not set modification time of " + file.getPath(), e);
+    }
+  }
+
+  /**
+   * The available modes how a template is transferred into the workspace.
+   */
+  public static enum Mode {
+
+    /** Copy the content of the template (default). */
+    COPY,
+
+    /**
+     * Create a hard link to the template if supported and fall back to {@link #COPY} otherwise (e.g. if the workspace
+     * is on a different file system). This avoids copying large files entirely but the workspace file then shares the
+     * content with the template: if eclipse modifies the file in place (instead of replacing it), the template is
+     * modified as well. Therefore only use this mode if the templates are a disposable copy (e.g. an extracted
+     * settings archive).
+     */
+    LINK,
+
+    /**
+     * Store the content once in a {@link BlobStore} shared by all workspaces and create a hard link to the blob. Falls
+     * back to a copy of the blob if linking is not supported (e.g. if the store is on a different file system). Like
+     * {@link #LINK} the workspace files share their content, but only with other workspaces and not with the
+     * templates. Unlike {@link #LINK} this also works for templates of a {@link TemplateBundle}.
+     */
+    STORE
+  }
+
+}
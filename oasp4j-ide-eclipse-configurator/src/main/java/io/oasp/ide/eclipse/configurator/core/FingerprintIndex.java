@@ -0,0 +1,254 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.entity.PreferenceMap;
+import io.oasp.ide.eclipse.configurator.logging.Log;
+import io.oasp.ide.eclipse.configurator.logging.Metrics;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+/**
+ * This class represents the persistent index of the inputs and outputs of the last update of a workspace. For each
+ * relative path it records the content hash of the setup template, the update template, the resolved replacement
+ * patterns, the values of the variables referenced by the templates (that may come from system properties or
+ * environment variables) and the file that was written into the workspace. If none of them changed, the file does not
+ * need to be merged again. This avoids rewriting unchanged files so eclipse does not see modified timestamps.
+ */
+public class FingerprintIndex {
+
+  /** The {@link File#getName() name} of the index file in the {@link Strings#FOLDER_METADATA .metadata} folder. */
+  public static final String INDEX_FILE_NAME = ".oasp-configurator.index";
+
+  /** The hash used for a {@link File} that does not {@link File#exists() exist}. */
+  public static final String HASH_MISSING = "-";
+
+  /** The version of the index format. Has to be increased if the merge logic changes its output. */
+  private static final String VERSION = "1";
+
+  /** The key of the {@link #VERSION} entry. */
+  private static final String VERSION_KEY = "#version";
+
+  /** The separator of the hashes in a value of the index. */
+  private static final char SEPARATOR = ',';
+
+  /** The hex digits for {@link #hash(byte[])}. */
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /** The index file. */
+  private final File indexFile;
+
+  /** The fingerprints by relative path. */
+  private final ConcurrentMap<String, String> fingerprints;
+
+  /** <code>true</code> if {@link #fingerprints} have been modified since {@link #load()}. */
+  private volatile boolean modified;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param workspacePath is the path to the eclipse workspace as given to {@link Configurator}.
+   */
+  public FingerprintIndex(String workspacePath) {
+
+    super();
+    this.indexFile = new File(getMetadataFolder(new File(workspacePath)), INDEX_FILE_NAME);
+    this.fingerprints = new ConcurrentHashMap<String, String>();
+  }
+
+  /**
+   * @param workspaceFolder is the workspace folder as given to {@link Configurator}.
+   * @return the {@link Strings#FOLDER_METADATA .metadata} folder of the workspace.
+   */
+  static File getMetadataFolder(File workspaceFolder) {
+
+    String name = workspaceFolder.getName();
+    if (name.equals(Strings.FOLDER_METADATA)) {
+      return workspaceFolder;
+    } else if (name.equals(Strings.FOLDER_PLUGINS)) {
+      return workspaceFolder.getParentFile();
+    }
+    return new File(workspaceFolder, Strings.FOLDER_METADATA);
+  }
+
+  /**
+   * @return the index {@link File}.
+   */
+  public File getIndexFile() {
+
+    return this.indexFile;
+  }
+
+  /**
+   * Loads the index from its {@link #getIndexFile() file}. An index of a different version is ignored.
+   */
+  public void load() {
+
+    this.fingerprints.clear();
+    this.modified = false;
+    if (!this.indexFile.exists()) {
+      return;
+    }
+    PreferenceMap properties = new PreferenceMap();
+    try {
+      PrefCodec.read(this.indexFile, properties);
+    } catch (IOException e) {
+      Log.LOGGER.log(Level.WARNING, "Could not read index " + this.indexFile.getPath() + ", doing full update.", e);
+      return;
+    }
+    if (!VERSION.equals(properties.remove(VERSION_KEY))) {
+      Log.LOGGER.info("Ignoring index of different version: " + this.indexFile.getPath());
+      return;
+    }
+    for (Map.Entry<String, String> entry : properties.entrySet()) {
+      this.fingerprints.put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Saves the index to its {@link #getIndexFile() file} if it has been modified.
+   *
+   * @throws IOException if the index could not be written.
+   */
+  public void save() throws IOException {
+
+    if (!this.modified) {
+      return;
+    }
+    PreferenceMap properties = new PreferenceMap();
+    for (Map.Entry<String, String> entry : this.fingerprints.entrySet()) {
+      properties.put(entry.getKey(), entry.getValue());
+    }
+    properties.put(VERSION_KEY, VERSION);
+    PrefCodec.write(properties, this.indexFile, new AtomicFileWriter());
+    this.modified = false;
+  }
+
+  /**
+   * @param relativePath is the path relative to the workspace.
+   * @param inputHash is the combined {@link #hash(String...) hash} of all inputs of the file.
+   * @param workspaceFile is the current file in the workspace.
+   * @return <code>true</code> if the inputs did not change since the last update and the workspace file is still
+   *         exactly what was written back then, <code>false</code> otherwise (the file has to be merged).
+   * @throws IOException if the workspace file could not be read.
+   */
+  public boolean isUpToDate(String relativePath, String inputHash, File workspaceFile) throws IOException {
+
+    String fingerprint = this.fingerprints.get(relativePath);
+    if (fingerprint == null) {
+      return false;
+    }
+    int separatorIndex = fingerprint.lastIndexOf(SEPARATOR);
+    if ((separatorIndex < 0) || !fingerprint.substring(0, separatorIndex).equals(inputHash)) {
+      return false;
+    }
+    return fingerprint.substring(separatorIndex + 1).equals(hash(workspaceFile));
+  }
+
+  /**
+   * Records the fingerprint of a file after it has been merged.
+   *
+   * @param relativePath is the path relative to the workspace.
+   * @param inputHash is the combined {@link #hash(String...) hash} of all inputs of the file.
+   * @param workspaceFile is the file in the workspace after the merge.
+   * @throws IOException if the workspace file could not be read.
+   */
+  public void update(String relativePath, String inputHash, File workspaceFile) throws IOException {
+
+    String fingerprint = inputHash + SEPARATOR + hash(workspaceFile);
+    String previous = this.fingerprints.put(relativePath, fingerprint);
+    if (!fingerprint.equals(previous)) {
+      this.modified = true;
+    }
+  }
+
+  /**
+   * @param hashes are the hashes to combine.
+   * @return the combination of the given hashes.
+   */
+  public static String hash(String... hashes) {
+
+    StringBuilder buffer = new StringBuilder();
+    for (String hash : hashes) {
+      if (buffer.length() > 0) {
+        buffer.append(SEPARATOR);
+      }
+      buffer.append(hash);
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * @param file is the {@link File} to hash.
+   * @return the hex encoded content hash of the given {@link File} or {@link #HASH_MISSING} if it does not exist.
+   * @throws IOException if the file could not be read.
+   */
+  public static String hash(File file) throws IOException {
+
+    if (!file.isFile()) {
+      return HASH_MISSING;
+    }
+    long start = Metrics.start();
+    MessageDigest digest = createDigest();
+    InputStream is = new FileInputStream(file);
+    long size = 0;
+    try {
+      byte[] buffer = new byte[8192];
+      int count = is.read(buffer);
+      while (count >= 0) {
+        digest.update(buffer, 0, count);
+        size = size + count;
+        count = is.read(buffer);
+      }
+    } finally {
+      is.close();
+      Metrics.addBytesRead(size);
+      Metrics.stop(Metrics.Phase.READ, start);
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * @param data is the data to hash.
+   * @return the hex encoded content hash of the given data.
+   */
+  public static String hash(byte[] data) {
+
+    return toHex(createDigest().digest(data));
+  }
+
+  /**
+   * @return a new {@link MessageDigest} for content hashes.
+   */
+  private static MessageDigest createDigest() {
+
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not supported by this JVM.", e);
+    }
+  }
+
+  /**
+   * @param bytes are the bytes to encode.
+   * @return the given bytes as hex {@link String}.
+   */
+  private static String toHex(byte[] bytes) {
+
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+      chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0x0F];
+    }
+    return new String(chars);
+  }
+
+}
@@ -0,0 +1,55 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.core.Configurator.EclipseWorkspaceFile;
+
+/**
+ * This class represents the failure to {@link Configurator#mergeFiles(EclipseWorkspaceFile) merge} a single
+ * {@link EclipseWorkspaceFile}. Failures are collected during {@link Configurator#updateWorkspace()} and reported at
+ * the end of the run instead of aborting it.
+ */
+public class MergeFailure {
+
+  /** @see #getFile() */
+  private final EclipseWorkspaceFile file;
+
+  /** @see #getCause() */
+  private final Throwable cause;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param file is the {@link EclipseWorkspaceFile} that could not be merged.
+   * @param cause is the {@link Throwable} that caused the failure.
+   */
+  public MergeFailure(EclipseWorkspaceFile file, Throwable cause) {
+
+    super();
+    this.file = file;
+    this.cause = cause;
+  }
+
+  /**
+   * @return the {@link EclipseWorkspaceFile} that could not be merged.
+   */
+  public EclipseWorkspaceFile getFile() {
+
+    return this.file;
+  }
+
+  /**
+   * @return the {@link Throwable} that caused the failure.
+   */
+  public Throwable getCause() {
+
+    return this.cause;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+
+    return this.file + ": " + this.cause;
+  }
+}
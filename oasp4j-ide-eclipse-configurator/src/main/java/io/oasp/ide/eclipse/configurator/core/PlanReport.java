@@ -0,0 +1,282 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.entity.FilePlan;
+import io.oasp.ide.eclipse.configurator.entity.WorkspacePlan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This class writes the {@link WorkspacePlan}s of a dry-run as machine-readable report in {@link Format#JSON JSON} or
+ * {@link Format#CSV CSV} format so that the plans of many workspaces can be evaluated by scripts before the workspaces
+ * are actually updated.
+ */
+public final class PlanReport {
+
+  /** The encoding of the reports. */
+  private static final Charset ENCODING = Charset.forName("UTF-8");
+
+  /** The line separator of the reports. */
+  private static final String NEWLINE = "\n";
+
+  /** The header of the {@link Format#CSV CSV} report. */
+  private static final String CSV_HEADER = "workspace,file,action,key,oldValue,newValue,error";
+
+  /**
+   * Construction prohibited.
+   */
+  private PlanReport() {
+
+    super();
+  }
+
+  /**
+   * Writes the report to the given {@link File} in the {@link Format#of(File) format according to its extension}.
+   *
+   * @param plans are the {@link WorkspacePlan}s to report.
+   * @param file is the {@link File} to write.
+   * @throws IOException if the report could not be written.
+   */
+  public static void write(List<WorkspacePlan> plans, File file) throws IOException {
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    write(plans, Format.of(file), out);
+    new AtomicFileWriter().write(file, out.toByteArray());
+  }
+
+  /**
+   * Writes the report to the given {@link OutputStream}.
+   *
+   * @param plans are the {@link WorkspacePlan}s to report.
+   * @param format is the {@link Format} of the report.
+   * @param out is the {@link OutputStream} where to write the report to. Will be flushed but not closed.
+   * @throws IOException if the report could not be written.
+   */
+  public static void write(List<WorkspacePlan> plans, Format format, OutputStream out) throws IOException {
+
+    Writer writer = new OutputStreamWriter(out, ENCODING);
+    if (format == Format.CSV) {
+      writeCsv(plans, writer);
+    } else {
+      writeJson(plans, writer);
+    }
+    writer.flush();
+  }
+
+  /**
+   * @param plans are the {@link WorkspacePlan}s to report.
+   * @param writer is the {@link Writer} where to write the JSON report to.
+   * @throws IOException if the report could not be written.
+   */
+  private static void writeJson(List<WorkspacePlan> plans, Writer writer) throws IOException {
+
+    writer.write("{" + NEWLINE + "  \"workspaces\": [");
+    String workspaceSeparator = NEWLINE;
+    for (WorkspacePlan plan : plans) {
+      writer.write(workspaceSeparator);
+      workspaceSeparator = "," + NEWLINE;
+      writer.write("    {" + NEWLINE + "      \"path\": ");
+      writeJsonString(plan.getWorkspacePath(), writer);
+      writer.write("," + NEWLINE + "      \"changes\": " + plan.hasChanges() + "," + NEWLINE + "      \"summary\": {");
+      String actionSeparator = "";
+      for (FilePlan.Action action : FilePlan.Action.values()) {
+        writer.write(actionSeparator);
+        actionSeparator = ", ";
+        writeJsonString(action.name(), writer);
+        writer.write(": " + plan.count(action));
+      }
+      writer.write("}," + NEWLINE + "      \"files\": [");
+      String fileSeparator = NEWLINE;
+      for (FilePlan file : plan.getFiles()) {
+        writer.write(fileSeparator);
+        fileSeparator = "," + NEWLINE;
+        writeJsonFile(file, writer);
+      }
+      writer.write(NEWLINE + "      ]" + NEWLINE + "    }");
+    }
+    writer.write(NEWLINE + "  ]" + NEWLINE + "}" + NEWLINE);
+  }
+
+  /**
+   * @param file is the {@link FilePlan} to write.
+   * @param writer is the {@link Writer} where to write the JSON object to.
+   * @throws IOException if the report could not be written.
+   */
+  private static void writeJsonFile(FilePlan file, Writer writer) throws IOException {
+
+    writer.write("        {\"path\": ");
+    writeJsonString(file.getRelativePath(), writer);
+    writer.write(", \"action\": ");
+    writeJsonString(file.getAction().name(), writer);
+    if (file.getError() != null) {
+      writer.write(", \"error\": ");
+      writeJsonString(file.getError(), writer);
+    }
+    List<FilePlan.KeyChange> keyChanges = file.getKeyChanges();
+    if (!keyChanges.isEmpty()) {
+      writer.write(", \"keys\": [");
+      String keySeparator = NEWLINE;
+      for (FilePlan.KeyChange change : keyChanges) {
+        writer.write(keySeparator);
+        keySeparator = "," + NEWLINE;
+        writer.write("          {\"key\": ");
+        writeJsonString(change.getKey(), writer);
+        writer.write(", \"oldValue\": ");
+        writeJsonString(change.getOldValue(), writer);
+        writer.write(", \"newValue\": ");
+        writeJsonString(change.getNewValue(), writer);
+        writer.write("}");
+      }
+      writer.write(NEWLINE + "        ]");
+    }
+    writer.write("}");
+  }
+
+  /**
+   * @param value is the {@link String} to write as JSON string literal. May be <code>null</code>.
+   * @param writer is the {@link Writer} where to write the literal to.
+   * @throws IOException if the report could not be written.
+   */
+  private static void writeJsonString(String value, Writer writer) throws IOException {
+
+    if (value == null) {
+      writer.write("null");
+      return;
+    }
+    writer.write('"');
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          writer.write("\\\"");
+          break;
+        case '\\':
+          writer.write("\\\\");
+          break;
+        case '\n':
+          writer.write("\\n");
+          break;
+        case '\r':
+          writer.write("\\r");
+          break;
+        case '\t':
+          writer.write("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            writer.write(String.format("\\u%04x", Integer.valueOf(c)));
+          } else {
+            writer.write(c);
+          }
+      }
+    }
+    writer.write('"');
+  }
+
+  /**
+   * @param plans are the {@link WorkspacePlan}s to report.
+   * @param writer is the {@link Writer} where to write the CSV report to. Every {@link FilePlan.KeyChange} gets its
+   *        own row, files without {@link FilePlan.KeyChange}s get a single row with empty key columns.
+   * @throws IOException if the report could not be written.
+   */
+  private static void writeCsv(List<WorkspacePlan> plans, Writer writer) throws IOException {
+
+    writer.write(CSV_HEADER);
+    writer.write(NEWLINE);
+    for (WorkspacePlan plan : plans) {
+      for (FilePlan file : plan.getFiles()) {
+        List<FilePlan.KeyChange> keyChanges = file.getKeyChanges();
+        if (keyChanges.isEmpty()) {
+          writeCsvRow(writer, plan.getWorkspacePath(), file, null, null, null);
+        } else {
+          for (FilePlan.KeyChange change : keyChanges) {
+            writeCsvRow(writer, plan.getWorkspacePath(), file, change.getKey(), change.getOldValue(),
+                change.getNewValue());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @param writer is the {@link Writer} where to write the CSV row to.
+   * @param workspacePath is the {@link WorkspacePlan#getWorkspacePath() workspace path}.
+   * @param file is the {@link FilePlan}.
+   * @param key is the {@link FilePlan.KeyChange#getKey() key} or <code>null</code>.
+   * @param oldValue is the {@link FilePlan.KeyChange#getOldValue() old value} or <code>null</code>.
+   * @param newValue is the {@link FilePlan.KeyChange#getNewValue() new value} or <code>null</code>.
+   * @throws IOException if the report could not be written.
+   */
+  private static void writeCsvRow(Writer writer, String workspacePath, FilePlan file, String key, String oldValue,
+      String newValue) throws IOException {
+
+    writeCsvField(workspacePath, writer);
+    writer.write(',');
+    writeCsvField(file.getRelativePath(), writer);
+    writer.write(',');
+    writeCsvField(file.getAction().name(), writer);
+    writer.write(',');
+    writeCsvField(key, writer);
+    writer.write(',');
+    writeCsvField(oldValue, writer);
+    writer.write(',');
+    writeCsvField(newValue, writer);
+    writer.write(',');
+    writeCsvField(file.getError(), writer);
+    writer.write(NEWLINE);
+  }
+
+  /**
+   * @param value is the field value to write. May be <code>null</code> what results in an empty field.
+   * @param writer is the {@link Writer} where to write the field to. The value is quoted if it contains a comma, a
+   *        quote or a line break.
+   * @throws IOException if the report could not be written.
+   */
+  private static void writeCsvField(String value, Writer writer) throws IOException {
+
+    if (value == null) {
+      return;
+    }
+    if ((value.indexOf(',') < 0) && (value.indexOf('"') < 0) && (value.indexOf('\n') < 0)
+        && (value.indexOf('\r') < 0)) {
+      writer.write(value);
+    } else {
+      writer.write('"');
+      writer.write(value.replace("\"", "\"\""));
+      writer.write('"');
+    }
+  }
+
+  /**
+   * The available formats of the report.
+   */
+  public static enum Format {
+
+    /** A JSON document with an object per workspace containing the files and their key changes. */
+    JSON,
+
+    /** A CSV table with a row per key change (or per file without key changes). */
+    CSV;
+
+    /**
+     * @param file is the report {@link File}.
+     * @return {@link #CSV} if the file name ends with <code>.csv</code>, {@link #JSON} otherwise.
+     */
+    public static Format of(File file) {
+
+      if (file.getName().toLowerCase(Locale.US).endsWith(".csv")) {
+        return CSV;
+      }
+      return JSON;
+    }
+  }
+
+}
@@ -0,0 +1,647 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.entity.PreferenceMap;
+import io.oasp.ide.eclipse.configurator.logging.Metrics;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * This class reads and writes eclipse preferences (.prefs files) in the format of {@link Properties} without the
+ * overhead of {@link Properties#load(java.io.Reader)} and {@link Properties#store(OutputStream, String)}:
+ * <ul>
+ * <li>Files are read into a buffer that is pooled per thread (or memory mapped if large) and parsed directly from the
+ * decoded characters.</li>
+ * <li>The output is deterministic: sorted by key, escaped like {@link Properties#store(OutputStream, String)} but
+ * without the timestamp comment.</li>
+ * <li>A file is only written if its content actually changes, so unchanged workspace files keep their timestamp.</li>
+ * </ul>
+ */
+public final class PrefCodec {
+
+  /** The encoding used to read .prefs files. */
+  private static final Charset ENCODING = Charset.forName("UTF-8");
+
+  /** Files larger than this are memory mapped instead of read into the pooled buffer. */
+  private static final int MAX_POOLED_SIZE = 256 * 1024;
+
+  /** The line separator written after each preference (the same as {@link Properties#store(OutputStream, String)}). */
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+  /** The hex digits for unicode escapes. */
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  /** The {@link Buffers} of the current thread. */
+  private static final ThreadLocal<Buffers> BUFFERS = new ThreadLocal<Buffers>() {
+
+    @Override
+    protected Buffers initialValue() {
+
+      return new Buffers();
+    }
+  };
+
+  /**
+   * The constructor.
+   */
+  private PrefCodec() {
+
+    super();
+  }
+
+  /**
+   * Reads the preferences of the given file and adds them to the given {@link PreferenceMap}.
+   *
+   * @param file is the .prefs {@link File} to read.
+   * @param preferences is the {@link PreferenceMap} where to add the preferences.
+   * @throws IOException if the file could not be read or is malformed.
+   */
+  public static void read(File file, PreferenceMap preferences) throws IOException {
+
+    long start = Metrics.start();
+    Buffers buffers = BUFFERS.get();
+    FileInputStream in = new FileInputStream(file);
+    CharBuffer chars;
+    try {
+      FileChannel channel = in.getChannel();
+      long size = channel.size();
+      Metrics.addBytesRead(size);
+      if (size > MAX_POOLED_SIZE) {
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        chars = buffers.decode(mapped, CharBuffer.allocate((int) size));
+      } else {
+        ByteBuffer bytes = buffers.getBytes((int) size);
+        while (bytes.hasRemaining() && (channel.read(bytes) >= 0)) {
+          // read fully
+        }
+        bytes.flip();
+        chars = buffers.decode(bytes, buffers.getChars(bytes.remaining()));
+      }
+    } finally {
+      in.close();
+    }
+    parse(chars, buffers, file, preferences, start);
+  }
+
+  /**
+   * Reads the preferences from the given content (e.g. of a {@link TemplateBundle}) and adds them to the given
+   * {@link PreferenceMap}.
+   *
+   * @param content is the content of the .prefs file. Its position is not modified.
+   * @param file is the .prefs {@link File} the content belongs to (for error messages).
+   * @param preferences is the {@link PreferenceMap} where to add the preferences.
+   * @throws IOException if the content is malformed.
+   */
+  public static void read(ByteBuffer content, File file, PreferenceMap preferences) throws IOException {
+
+    long start = Metrics.start();
+    Buffers buffers = BUFFERS.get();
+    int size = content.remaining();
+    Metrics.addBytesRead(size);
+    CharBuffer chars;
+    if (size > MAX_POOLED_SIZE) {
+      chars = buffers.decode(content.duplicate(), CharBuffer.allocate(size));
+    } else {
+      chars = buffers.decode(content.duplicate(), buffers.getChars(size));
+    }
+    parse(chars, buffers, file, preferences, start);
+  }
+
+  /**
+   * @param chars are the decoded characters of the .prefs file.
+   * @param buffers are the {@link Buffers} of the current thread.
+   * @param file is the .prefs {@link File} (for error messages).
+   * @param preferences is the {@link PreferenceMap} where to add the preferences.
+   * @param start is the {@link Metrics#start() start} of the read.
+   * @throws IOException if the characters are malformed.
+   */
+  private static void parse(CharBuffer chars, Buffers buffers, File file, PreferenceMap preferences, long start)
+      throws IOException {
+
+    try {
+      new Parser(chars.array(), chars.limit(), buffers).parse(preferences);
+    } catch (IllegalArgumentException e) {
+      IOException ioException = new IOException(e.getMessage() + " in file: " + file.getAbsolutePath());
+      ioException.initCause(e);
+      throw ioException;
+    } finally {
+      Metrics.stop(Metrics.Phase.READ, start);
+    }
+  }
+
+  /**
+   * @param preferences are the {@link PreferenceMap} to encode.
+   * @return the encoded preferences as written by {@link #write(PreferenceMap, File, AtomicFileWriter)}.
+   */
+  public static byte[] encode(PreferenceMap preferences) {
+
+    ByteArray out = BUFFERS.get().output;
+    encode(preferences, out);
+    byte[] bytes = new byte[out.length];
+    System.arraycopy(out.bytes, 0, bytes, 0, out.length);
+    return bytes;
+  }
+
+  /**
+   * @param preferences are the {@link PreferenceMap} to check.
+   * @param file is the .prefs {@link File} to check.
+   * @return <code>true</code> if the file exists and already has exactly the content that
+   *         {@link #write(PreferenceMap, File, AtomicFileWriter) writing} the given preferences would produce,
+   *         <code>false</code> otherwise.
+   * @throws IOException if the file could not be read.
+   */
+  public static boolean hasContent(PreferenceMap preferences, File file) throws IOException {
+
+    Buffers buffers = BUFFERS.get();
+    ByteArray out = buffers.output;
+    encode(preferences, out);
+    return buffers.hasContent(file, out);
+  }
+
+  /**
+   * Writes the given preferences to the given file unless the file already has exactly that content.
+   *
+   * @param preferences are the {@link PreferenceMap} to write.
+   * @param file is the .prefs {@link File} to write.
+   * @param writer is the {@link AtomicFileWriter} used to write the file.
+   * @return <code>true</code> if the file has been written, <code>false</code> if it was already up-to-date.
+   * @throws IOException if the file could not be read or written.
+   */
+  public static boolean write(PreferenceMap preferences, File file, AtomicFileWriter writer) throws IOException {
+
+    Buffers buffers = BUFFERS.get();
+    ByteArray out = buffers.output;
+    encode(preferences, out);
+    if (buffers.hasContent(file, out)) {
+      return false;
+    }
+    writer.write(file, out.bytes, 0, out.length);
+    return true;
+  }
+
+  /**
+   * @param preferences are the {@link PreferenceMap} to encode.
+   * @param out is the {@link ByteArray} where to write the encoded preferences.
+   */
+  private static void encode(PreferenceMap preferences, ByteArray out) {
+
+    out.length = 0;
+    for (Map.Entry<String, String> entry : preferences.entrySet()) {
+      escape(entry.getKey(), true, out);
+      out.append('=');
+      escape(entry.getValue(), false, out);
+      out.append(LINE_SEPARATOR);
+    }
+  }
+
+  /**
+   * Escapes a key or value like {@link Properties#store(OutputStream, String)} (ISO-8859-1 with unicode escapes).
+   *
+   * @param string is the key or value to escape.
+   * @param isKey <code>true</code> for a key (where all spaces are escaped), <code>false</code> for a value (where
+   *        only a leading space is escaped).
+   * @param out is the {@link ByteArray} where to write the escaped string.
+   */
+  private static void escape(String string, boolean isKey, ByteArray out) {
+
+    int length = string.length();
+    for (int i = 0; i < length; i++) {
+      char c = string.charAt(i);
+      if ((c > 61) && (c < 127)) {
+        if (c == '\\') {
+          out.append('\\');
+        }
+        out.append(c);
+        continue;
+      }
+      switch (c) {
+        case ' ':
+          if ((i == 0) || isKey) {
+            out.append('\\');
+          }
+          out.append(' ');
+          break;
+        case '\t':
+          out.append('\\');
+          out.append('t');
+          break;
+        case '\n':
+          out.append('\\');
+          out.append('n');
+          break;
+        case '\r':
+          out.append('\\');
+          out.append('r');
+          break;
+        case '\f':
+          out.append('\\');
+          out.append('f');
+          break;
+        case '=':
+        case ':':
+        case '#':
+        case '!':
+          out.append('\\');
+          out.append(c);
+          break;
+        default:
+          if ((c < 0x0020) || (c > 0x007e)) {
+            out.append('\\');
+            out.append('u');
+            out.append(HEX_DIGITS[(c >> 12) & 0xF]);
+            out.append(HEX_DIGITS[(c >> 8) & 0xF]);
+            out.append(HEX_DIGITS[(c >> 4) & 0xF]);
+            out.append(HEX_DIGITS[c & 0xF]);
+          } else {
+            out.append(c);
+          }
+      }
+    }
+  }
+
+  /**
+   * A growable byte array.
+   */
+  private static final class ByteArray {
+
+    /** The bytes. */
+    private byte[] bytes = new byte[8192];
+
+    /** The number of used {@link #bytes}. */
+    private int length;
+
+    /**
+     * @param c is the ASCII character to append.
+     */
+    private void append(char c) {
+
+      if (this.length == this.bytes.length) {
+        byte[] newBytes = new byte[this.length * 2];
+        System.arraycopy(this.bytes, 0, newBytes, 0, this.length);
+        this.bytes = newBytes;
+      }
+      this.bytes[this.length++] = (byte) c;
+    }
+
+    /**
+     * @param string is the ASCII {@link String} to append.
+     */
+    private void append(String string) {
+
+      for (int i = 0; i < string.length(); i++) {
+        append(string.charAt(i));
+      }
+    }
+  }
+
+  /**
+   * The buffers pooled per thread.
+   */
+  private static final class Buffers {
+
+    /** The {@link CharsetDecoder} for {@link PrefCodec#ENCODING}. */
+    private final CharsetDecoder decoder;
+
+    /** The buffer for the encoded output. */
+    private final ByteArray output;
+
+    /** The buffer for the raw input. */
+    private ByteBuffer bytes;
+
+    /** The buffer for the decoded input. */
+    private CharBuffer chars;
+
+    /** The buffer for a logical line. */
+    private char[] line;
+
+    /**
+     * The constructor.
+     */
+    private Buffers() {
+
+      super();
+      this.decoder = ENCODING.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.output = new ByteArray();
+      this.bytes = ByteBuffer.allocate(8192);
+      this.chars = CharBuffer.allocate(8192);
+      this.line = new char[1024];
+    }
+
+    /**
+     * @param size is the required capacity.
+     * @return the cleared pooled {@link ByteBuffer} limited to the given size.
+     */
+    private ByteBuffer getBytes(int size) {
+
+      if (this.bytes.capacity() < size) {
+        this.bytes = ByteBuffer.allocate(size);
+      }
+      this.bytes.clear();
+      this.bytes.limit(size);
+      return this.bytes;
+    }
+
+    /**
+     * @param size is the required capacity.
+     * @return the cleared pooled {@link CharBuffer} with at least the given capacity.
+     */
+    private CharBuffer getChars(int size) {
+
+      if (this.chars.capacity() < size) {
+        this.chars = CharBuffer.allocate(size);
+      }
+      this.chars.clear();
+      return this.chars;
+    }
+
+    /**
+     * @param in is the UTF-8 encoded input.
+     * @param out is the {@link CharBuffer} to decode to. Its capacity has to be at least the number of input bytes.
+     * @return the given {@link CharBuffer} flipped for reading.
+     * @throws CharacterCodingException if the input could not be decoded.
+     */
+    private CharBuffer decode(ByteBuffer in, CharBuffer out) throws CharacterCodingException {
+
+      this.decoder.reset();
+      CoderResult result = this.decoder.decode(in, out, true);
+      if (!result.isUnderflow()) {
+        result.throwException();
+      }
+      result = this.decoder.flush(out);
+      if (!result.isUnderflow()) {
+        result.throwException();
+      }
+      out.flip();
+      return out;
+    }
+
+    /**
+     * @param file is the {@link File} to check.
+     * @param content is the expected content.
+     * @return <code>true</code> if the file exists and has exactly the given content, <code>false</code> otherwise.
+     * @throws IOException if the file could not be read.
+     */
+    private boolean hasContent(File file, ByteArray content) throws IOException {
+
+      if (!file.isFile() || (file.length() != content.length)) {
+        return false;
+      }
+      long start = Metrics.start();
+      ByteBuffer existing = getBytes(content.length);
+      FileInputStream in = new FileInputStream(file);
+      try {
+        FileChannel channel = in.getChannel();
+        while (existing.hasRemaining() && (channel.read(existing) >= 0)) {
+          // read fully
+        }
+      } finally {
+        in.close();
+        Metrics.addBytesRead(existing.position());
+        Metrics.stop(Metrics.Phase.READ, start);
+      }
+      if (existing.hasRemaining()) {
+        return false;
+      }
+      byte[] array = existing.array();
+      for (int i = 0; i < content.length; i++) {
+        if (array[i] != content.bytes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @param size is the required capacity.
+     * @return the pooled line buffer with at least the given capacity and the content of the previous buffer.
+     */
+    private char[] growLine(int size) {
+
+      if (this.line.length < size) {
+        char[] newLine = new char[Math.max(size, this.line.length * 2)];
+        System.arraycopy(this.line, 0, newLine, 0, this.line.length);
+        this.line = newLine;
+      }
+      return this.line;
+    }
+  }
+
+  /**
+   * Parser for the format of {@link Properties#load(java.io.Reader)} on a character array.
+   */
+  private static final class Parser {
+
+    /** The input characters. */
+    private final char[] in;
+
+    /** The number of input characters. */
+    private final int limit;
+
+    /** The pooled {@link Buffers}. */
+    private final Buffers buffers;
+
+    /** The current position in {@link #in}. */
+    private int offset;
+
+    /** The current logical line. */
+    private char[] line;
+
+    /**
+     * The constructor.
+     *
+     * @param in are the {@link #in input characters}.
+     * @param limit is the {@link #limit}.
+     * @param buffers are the {@link Buffers}.
+     */
+    private Parser(char[] in, int limit, Buffers buffers) {
+
+      super();
+      this.in = in;
+      this.limit = limit;
+      this.buffers = buffers;
+      this.line = buffers.line;
+    }
+
+    /**
+     * Parses all preferences.
+     *
+     * @param preferences is the {@link PreferenceMap} where to add the preferences.
+     */
+    private void parse(PreferenceMap preferences) {
+
+      int length = readLine();
+      while (length >= 0) {
+        char[] chars = this.line;
+        int keyLength = 0;
+        int valueStart = length;
+        boolean hasSeparator = false;
+        boolean precedingBackslash = false;
+        while (keyLength < length) {
+          char c = chars[keyLength];
+          if (((c == '=') || (c == ':')) && !precedingBackslash) {
+            valueStart = keyLength + 1;
+            hasSeparator = true;
+            break;
+          } else if (((c == ' ') || (c == '\t') || (c == '\f')) && !precedingBackslash) {
+            valueStart = keyLength + 1;
+            break;
+          }
+          if (c == '\\') {
+            precedingBackslash = !precedingBackslash;
+          } else {
+            precedingBackslash = false;
+          }
+          keyLength++;
+        }
+        while (valueStart < length) {
+          char c = chars[valueStart];
+          if ((c != ' ') && (c != '\t') && (c != '\f')) {
+            if (!hasSeparator && ((c == '=') || (c == ':'))) {
+              hasSeparator = true;
+            } else {
+              break;
+            }
+          }
+          valueStart++;
+        }
+        String key = unescape(chars, 0, keyLength);
+        String value = unescape(chars, valueStart, length - valueStart);
+        preferences.put(key, value);
+        length = readLine();
+      }
+    }
+
+    /**
+     * Reads the next logical line (joining continued lines, skipping comments and blank lines) into {@link #line}.
+     *
+     * @return the length of the line or <code>-1</code> if the end of the input has been reached.
+     */
+    private int readLine() {
+
+      int length = 0;
+      boolean skipWhitespace = true;
+      boolean appendedLineBegin = false;
+      boolean precedingBackslash = false;
+      while (true) {
+        if (this.offset >= this.limit) {
+          if (length == 0) {
+            return -1;
+          }
+          return precedingBackslash ? length - 1 : length;
+        }
+        char c = this.in[this.offset++];
+        if (skipWhitespace) {
+          if ((c == ' ') || (c == '\t') || (c == '\f')) {
+            continue;
+          }
+          if (!appendedLineBegin && ((c == '\r') || (c == '\n'))) {
+            continue;
+          }
+          skipWhitespace = false;
+          appendedLineBegin = false;
+        }
+        if ((length == 0) && ((c == '#') || (c == '!'))) {
+          // comment, skip the rest of the line
+          while (this.offset < this.limit) {
+            c = this.in[this.offset++];
+            if ((c == '\r') || (c == '\n')) {
+              break;
+            }
+          }
+          skipWhitespace = true;
+          continue;
+        }
+        if ((c != '\n') && (c != '\r')) {
+          if (length == this.line.length) {
+            this.line = this.buffers.growLine(length + 1);
+          }
+          this.line[length++] = c;
+          if (c == '\\') {
+            precedingBackslash = !precedingBackslash;
+          } else {
+            precedingBackslash = false;
+          }
+        } else if (length == 0) {
+          skipWhitespace = true;
+        } else if (this.offset >= this.limit) {
+          return precedingBackslash ? length - 1 : length;
+        } else if (precedingBackslash) {
+          // line continues on the next line without the backslash and leading whitespace
+          length--;
+          skipWhitespace = true;
+          appendedLineBegin = true;
+          precedingBackslash = false;
+          if ((c == '\r') && (this.in[this.offset] == '\n')) {
+            this.offset++;
+          }
+        } else {
+          return length;
+        }
+      }
+    }
+
+    /**
+     * @param chars are the characters to unescape.
+     * @param start is the start index.
+     * @param length is the number of characters.
+     * @return the unescaped {@link String}.
+     */
+    private static String unescape(char[] chars, int start, int length) {
+
+      int end = start + length;
+      int i = start;
+      while ((i < end) && (chars[i] != '\\')) {
+        i++;
+      }
+      if (i == end) {
+        return new String(chars, start, length);
+      }
+      StringBuilder buffer = new StringBuilder(length);
+      buffer.append(chars, start, i - start);
+      while (i < end) {
+        char c = chars[i++];
+        if ((c == '\\') && (i < end)) {
+          c = chars[i++];
+          if (c == 'u') {
+            if (i + 4 > end) {
+              throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+            }
+            int value = 0;
+            for (int j = 0; j < 4; j++) {
+              int digit = Character.digit(chars[i++], 16);
+              if (digit < 0) {
+                throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+              }
+              value = (value << 4) + digit;
+            }
+            c = (char) value;
+          } else if (c == 't') {
+            c = '\t';
+          } else if (c == 'r') {
+            c = '\r';
+          } else if (c == 'n') {
+            c = '\n';
+          } else if (c == 'f') {
+            c = '\f';
+          }
+        }
+        buffer.append(c);
+      }
+      return buffer.toString();
+    }
+  }
+
+}
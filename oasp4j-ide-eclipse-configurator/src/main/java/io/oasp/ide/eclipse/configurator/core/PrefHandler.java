@@ -1,20 +1,16 @@
 package io.oasp.ide.eclipse.configurator.core;
 
-import io.oasp.ide.eclipse.configurator.entity.SortedProperties;
+import io.oasp.ide.eclipse.configurator.entity.FilePlan;
+import io.oasp.ide.eclipse.configurator.entity.PreferenceChanges;
+import io.oasp.ide.eclipse.configurator.entity.PreferenceMap;
+import io.oasp.ide.eclipse.configurator.entity.PreferenceMap.ValueTransformer;
 import io.oasp.ide.eclipse.configurator.logging.Log;
+import io.oasp.ide.eclipse.configurator.logging.Metrics;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.Reader;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Level;
 
 /**
@@ -30,6 +26,21 @@ public class PrefHandler {
    */
   private Resolver resolver;
 
+  /**
+   * @see #getFileWriter()
+   */
+  private AtomicFileWriter fileWriter;
+
+  /**
+   * {@link ValueTransformer} for {@link Resolver#resolveVariables(String)}.
+   */
+  private final ValueTransformer resolveTransformer;
+
+  /**
+   * {@link ValueTransformer} for {@link Resolver#reResolveVariables(String)}.
+   */
+  private final ValueTransformer reResolveTransformer;
+
   /**
    * Creates a new {@link PrefHandler} that uses the given {@link Resolver} to resolve variables within pref files.
    * 
@@ -38,6 +49,37 @@ public class PrefHandler {
   public PrefHandler(Resolver resolver) {
 
     this.resolver = resolver;
+    this.fileWriter = new AtomicFileWriter();
+    this.resolveTransformer = new ValueTransformer() {
+
+      public String transform(String value) {
+
+        return PrefHandler.this.resolver.resolveVariables(value);
+      }
+    };
+    this.reResolveTransformer = new ValueTransformer() {
+
+      public String transform(String value) {
+
+        return PrefHandler.this.resolver.reResolveVariables(value);
+      }
+    };
+  }
+
+  /**
+   * @return the {@link AtomicFileWriter} used to write pref files.
+   */
+  public AtomicFileWriter getFileWriter() {
+
+    return this.fileWriter;
+  }
+
+  /**
+   * @param fileWriter - see {@link #getFileWriter()}.
+   */
+  public void setFileWriter(AtomicFileWriter fileWriter) {
+
+    this.fileWriter = fileWriter;
   }
 
   /**
@@ -48,10 +90,11 @@ public class PrefHandler {
    * @param workspacePrefFile - the prefFile to be updated.
    * @param setupPrefFile - prefFile needed for creation.
    * @param updatePrefFile - prefFile need for creation and update.
+   * @throws IOException if a pref file could not be read or written.
    */
-  public void update(File workspacePrefFile, File setupPrefFile, File updatePrefFile) {
+  public void update(File workspacePrefFile, File setupPrefFile, File updatePrefFile) throws IOException {
 
-    SortedProperties properties = new SortedProperties();
+    PreferenceMap properties = new PreferenceMap();
     if (workspacePrefFile.exists()) {
       mergeProperties(properties, workspacePrefFile);
     } else if (setupPrefFile.exists()) {
@@ -63,206 +106,241 @@ public class PrefHandler {
   }
 
   /**
-   * Saves the changes in the workspacePrefFile into the updatePrefFile.
+   * Creates or updates the workspacePrefFile like {@link #update(File, File, File)} but with templates that have
+   * already been {@link #loadResolvedProperties(File) loaded and resolved}.
    * 
-   * @param workspacePrefFile - new prefFile
-   * @param updatePrefFile - old prefFile to be updated.
-   * @param saveNewProperties - specifies if new properties are saved as well.
+   * @param workspacePrefFile - the prefFile to be updated.
+   * @param setupProperties - resolved properties of the setup prefFile, only used if workspacePrefFile does not exist.
+   * @param updateProperties - resolved properties of the update prefFile.
+   * @throws IOException if the workspacePrefFile could not be read or written.
    */
-  public void saveChanges(File workspacePrefFile, File updatePrefFile, boolean saveNewProperties) {
+  public void update(File workspacePrefFile, PreferenceMap setupProperties, PreferenceMap updateProperties)
+      throws IOException {
 
+    PreferenceMap workspaceProperties = null;
     if (workspacePrefFile.exists()) {
-      SortedProperties changes = getChanges(updatePrefFile, workspacePrefFile, saveNewProperties);
-      if (!changes.isEmpty()) {
-        SortedProperties updatedPropeties = updateProperties(changes, updatePrefFile);
-        if (!updatedPropeties.isEmpty()) {
-          reResolveVariables(updatedPropeties);
-          writeProperties(updatedPropeties, updatePrefFile);
-          Log.LOGGER.info("Saved changes in " + workspacePrefFile.getName() + " to: "
-              + updatePrefFile.getAbsolutePath());
+      workspaceProperties = new PreferenceMap();
+      mergeProperties(workspaceProperties, workspacePrefFile);
+    }
+    writeProperties(merge(workspaceProperties, setupProperties, updateProperties), workspacePrefFile);
+  }
+
+  /**
+   * Computes what {@link #update(File, PreferenceMap, PreferenceMap)} would write into the workspacePrefFile without
+   * writing it. The {@link FilePlan} contains a {@link FilePlan.KeyChange} for every preference that would be added or
+   * get a different value.
+   * 
+   * @param workspacePrefFile - the prefFile to be updated.
+   * @param setupProperties - resolved properties of the setup prefFile, only used if workspacePrefFile does not exist.
+   * @param updateProperties - resolved properties of the update prefFile.
+   * @param relativePath - the relative path of the prefFile for the {@link FilePlan}.
+   * @return the {@link FilePlan} of the workspacePrefFile.
+   * @throws IOException if the workspacePrefFile could not be read.
+   */
+  public FilePlan plan(File workspacePrefFile, PreferenceMap setupProperties, PreferenceMap updateProperties,
+      String relativePath) throws IOException {
+
+    PreferenceMap workspaceProperties = null;
+    FilePlan.Action action = FilePlan.Action.CREATE;
+    if (workspacePrefFile.exists()) {
+      workspaceProperties = new PreferenceMap();
+      mergeProperties(workspaceProperties, workspacePrefFile);
+      action = FilePlan.Action.MERGE;
+    }
+    PreferenceMap properties = merge(workspaceProperties, setupProperties, updateProperties);
+    if ((action == FilePlan.Action.MERGE) && PrefCodec.hasContent(properties, workspacePrefFile)) {
+      action = FilePlan.Action.UNCHANGED;
+    }
+    FilePlan plan = new FilePlan(relativePath, action);
+    if (action != FilePlan.Action.UNCHANGED) {
+      for (Map.Entry<String, String> entry : properties.entrySet()) {
+        String key = entry.getKey();
+        String oldValue = null;
+        if (workspaceProperties != null) {
+          oldValue = workspaceProperties.get(key);
+        }
+        if (!entry.getValue().equals(oldValue)) {
+          plan.addKeyChange(key, oldValue, entry.getValue());
         }
       }
     }
+    return plan;
   }
 
   /**
-   * Calls {@link Resolver#reResolveVariables(String)} for every property's value within the specified
-   * {@link SortedProperties}.
-   * 
-   * @param properties - Properties to be re resolved.
+   * @param workspaceProperties - the unresolved properties of the existing workspace prefFile or <code>null</code> if
+   *        it does not exist. Will not be modified.
+   * @param setupProperties - resolved properties of the setup prefFile, only used if workspaceProperties is
+   *        <code>null</code>.
+   * @param updateProperties - resolved properties of the update prefFile.
+   * @return the merged properties to write into the workspace prefFile.
    */
-  public void reResolveVariables(SortedProperties properties) {
+  private PreferenceMap merge(PreferenceMap workspaceProperties, PreferenceMap setupProperties,
+      PreferenceMap updateProperties) {
 
-    Set<Object> keys = properties.keySet();
-    for (Object key : keys) {
-      String value = properties.getProperty(key.toString());
-      properties.setProperty(key.toString(), this.resolver.reResolveVariables(value));
+    PreferenceMap properties;
+    if (workspaceProperties != null) {
+      properties = new PreferenceMap(workspaceProperties);
+      resolveVariables(properties);
+    } else {
+      properties = new PreferenceMap(setupProperties);
     }
+    properties.putAll(updateProperties);
+    return properties;
   }
 
   /**
-   * Calls {@link Resolver#resolveVariables(String)} for every property's value within the specified
-   * {@link SortedProperties}.
+   * Loads the {@link PreferenceMap} of the specified pref {@link File} and resolves their variables.
    * 
-   * @param properties - properties to be resolved.
+   * @param prefFile - the pref file to load.
+   * @return the resolved properties. Will be empty if the prefFile does not exist.
+   * @throws IOException if the existing prefFile could not be read.
    */
-  private void resolveVariables(SortedProperties properties) {
+  public PreferenceMap loadResolvedProperties(File prefFile) throws IOException {
 
-    Set<Object> keys = properties.keySet();
-    for (Object key : keys) {
-      String value = properties.getProperty(key.toString());
-      properties.setProperty(key.toString(), this.resolver.resolveVariables(value));
-    }
+    PreferenceMap properties = new PreferenceMap();
+    mergeProperties(properties, prefFile);
+    resolveVariables(properties);
+    return properties;
   }
 
   /**
-   * Writes the specified {@link SortedProperties} into the specified {@link File}.
+   * Loads the {@link PreferenceMap} from the given content of a pref file (e.g. of a {@link TemplateBundle}) and
+   * resolves their variables.
    * 
-   * @param properties - properties to be written.
-   * @param file - destination file.
+   * @param prefFile - the pref file the content belongs to.
+   * @param content - the content of the pref file.
+   * @return the resolved properties.
+   * @throws IOException if the content is malformed.
    */
-  private void writeProperties(SortedProperties properties, File file) {
+  public PreferenceMap loadResolvedProperties(File prefFile, ByteBuffer content) throws IOException {
 
-    File parentDir = file.getParentFile();
-    if (!parentDir.exists()) {
-      if (!parentDir.mkdirs()) {
-        Log.LOGGER.log(Level.ALL, "Could not create required directories for file: " + file.getAbsolutePath());
-        return;
-      }
+    PreferenceMap properties = new PreferenceMap();
+    PrefCodec.read(content, prefFile, properties);
+    resolveVariables(properties);
+    return properties;
+  }
+
+  /**
+   * Saves the changes in the workspacePrefFile into the updatePrefFile. Both files are read only once: a workspace
+   * value counts as changed if it differs from the resolved value of the updatePrefFile. The changes are merged into
+   * the updatePrefFile that is then {@link #reResolveVariables(PreferenceMap) re-resolved} and only written if its
+   * content actually differs.
+   * 
+   * @param workspacePrefFile - new prefFile
+   * @param updatePrefFile - old prefFile to be updated.
+   * @param saveNewProperties - specifies if new properties are saved as well.
+   * @return the {@link PreferenceChanges} with the changed and added keys.
+   */
+  public PreferenceChanges saveChanges(File workspacePrefFile, File updatePrefFile, boolean saveNewProperties) {
+
+    PreferenceChanges changes = new PreferenceChanges();
+    // a pref that only has a setup template has no update template to save the changes to
+    if (!workspacePrefFile.exists() || !updatePrefFile.isFile()) {
+      return changes;
     }
-    OutputStream os = null;
+    PreferenceMap workspaceProperties = new PreferenceMap();
+    PreferenceMap updateProperties = new PreferenceMap();
+    File file = workspacePrefFile;
     try {
-      os = new FileOutputStream(file);
-      properties.store(os, null);
+      PrefCodec.read(workspacePrefFile, workspaceProperties);
+      file = updatePrefFile;
+      PrefCodec.read(updatePrefFile, updateProperties);
     } catch (IOException e) {
-      Log.LOGGER.log(Level.ALL, "Could not write properties", e.getStackTrace());
-    } finally {
-      if (os != null) {
-        try {
-          os.close();
-        } catch (IOException e) {
-          Log.LOGGER.log(Level.ALL, "Could not close OutputStream", e.getStackTrace());
+      Log.LOGGER.log(Level.WARNING, "Could not read properties from " + file.getAbsolutePath(), e);
+      return changes;
+    }
+    PreferenceMap changedProperties = new PreferenceMap();
+    for (Map.Entry<String, String> entry : workspaceProperties.entrySet()) {
+      String key = entry.getKey();
+      String workspaceValue = entry.getValue();
+      String updateValue = updateProperties.get(key);
+      if (updateValue == null) {
+        if (saveNewProperties) {
+          changedProperties.put(key, workspaceValue);
+          changes.addAddedKey(key);
+          Log.LOGGER.fine("New property " + key + " in " + workspacePrefFile.getName());
+        }
+      } else if (!workspaceValue.equals(this.resolver.resolveVariables(updateValue))) {
+        changedProperties.put(key, workspaceValue);
+        changes.addChangedKey(key);
+        Log.LOGGER.fine("Changed property " + key + " in " + workspacePrefFile.getName());
+      }
+    }
+    if (!changes.isEmpty()) {
+      updateProperties.putAll(changedProperties);
+      reResolveVariables(updateProperties);
+      try {
+        changes.setWritten(writeProperties(updateProperties, updatePrefFile));
+        if (changes.isWritten()) {
+          Log.LOGGER.info("Saved " + changes + " in " + workspacePrefFile.getName() + " to: "
+              + updatePrefFile.getAbsolutePath());
         }
+      } catch (IOException e) {
+        Log.LOGGER.log(Level.SEVERE, "Could not write properties to " + updatePrefFile.getAbsolutePath(), e);
       }
     }
+    return changes;
   }
 
   /**
-   * Merges the {@link SortedProperties} within the specified pref {@link File} with the specified
-   * {@link SortedProperties}.
+   * Calls {@link Resolver#reResolveVariables(String)} for every property's value within the specified
+   * {@link PreferenceMap}.
    * 
-   * @param properties - properties to be merged into.
-   * @param file - pref file to be read.
+   * @param properties - Properties to be re resolved.
    */
-  private void mergeProperties(SortedProperties properties, File file) {
+  public void reResolveVariables(PreferenceMap properties) {
 
-    InputStream is = null;
-    try {
-      is = new FileInputStream(file);
-      Reader reader = new InputStreamReader(is, "UTF-8");
-      properties.load(reader);
-    } catch (Exception e) {
-      Log.LOGGER.log(Level.ALL, "Could not read properties", e.getStackTrace());
-    } finally {
-      if (is != null) {
-        try {
-          is.close();
-        } catch (Exception e) {
-          Log.LOGGER.log(Level.ALL, "Could not close InputStream", e.getStackTrace());
-        }
-      }
-    }
+    long start = Metrics.start();
+    properties.transformValues(this.reResolveTransformer);
+    Metrics.stop(Metrics.Phase.RESOLVE, start);
   }
 
   /**
-   * Updates the {@link SortedProperties} within specified pref {@link File} by merging them with the given
-   * {@link SortedProperties}.
+   * Calls {@link Resolver#resolveVariables(String)} for every property's value within the specified
+   * {@link PreferenceMap}.
    * 
-   * @param properties - the new properties.
-   * @param file - pref file to be updated.
-   * @return the updated properties.
+   * @param properties - properties to be resolved.
    */
-  private SortedProperties updateProperties(SortedProperties properties, File file) {
+  private void resolveVariables(PreferenceMap properties) {
 
-    InputStream is = null;
-    SortedProperties updatedProperties = new SortedProperties();
-    try {
-      is = new FileInputStream(file);
-      Reader reader = new InputStreamReader(is, "UTF-8");
-      updatedProperties.load(reader);
-      updatedProperties.putAll(properties);
-    } catch (Exception e) {
-      Log.LOGGER.log(Level.ALL, "Could not read properties", e.getStackTrace());
-    } finally {
-      if (is != null) {
-        try {
-          is.close();
-        } catch (Exception e) {
-          Log.LOGGER.log(Level.ALL, "Could not close InputStream", e.getStackTrace());
-        }
-      }
-    }
-    return updatedProperties;
+    long start = Metrics.start();
+    properties.transformValues(this.resolveTransformer);
+    Metrics.stop(Metrics.Phase.RESOLVE, start);
   }
 
   /**
-   * Gets the changes in the specified pref {@link File}s.
+   * Writes the specified {@link PreferenceMap} into the specified {@link File}. The file is left untouched if it already
+   * has the exact same content.
    * 
-   * @param prefFile1 - the old pref file.
-   * @param prefFile2 - the new pref file.
-   * @param getNewProperties - specifies if new properties are read as well.
-   * @return properties containing the changes.
+   * @param properties - properties to be written.
+   * @param file - destination file.
+   * @return <code>true</code> if the file has been written, <code>false</code> if it was already up-to-date.
+   * @throws IOException if the file could not be written.
    */
-  private SortedProperties getChanges(File prefFile1, File prefFile2, boolean getNewProperties) {
-
-    SortedProperties prefFile1Properties = loadProperties(prefFile1);
-    resolveVariables(prefFile1Properties);
-    SortedProperties prefFile2Properties = loadProperties(prefFile2);
-    SortedProperties changes = new SortedProperties();
-
-    for (Map.Entry<Object, Object> entry : prefFile2Properties.entrySet()) {
-      Object prefFile2Value = prefFile2Properties.get(entry.getKey());
-      Object prefFile1Value = prefFile1Properties.get(entry.getKey());
-      if (prefFile1Value == null && !getNewProperties) {
-        continue;
-      }
-      if (!prefFile2Value.equals(prefFile1Value)) {
-        changes.put(entry.getKey(), prefFile2Value);
-      }
+  private boolean writeProperties(PreferenceMap properties, File file) throws IOException {
+
+    boolean written = PrefCodec.write(properties, file, this.fileWriter);
+    if (!written) {
+      Log.LOGGER.fine("File is already up-to-date: " + file.getPath());
     }
-    return changes;
+    return written;
   }
 
   /**
-   * Loads the {@link SortedProperties} within specified pref {@link File}.
+   * Merges the {@link PreferenceMap} within the specified pref {@link File} with the specified
+   * {@link PreferenceMap}. Does nothing if the {@link File} does not {@link File#exists() exist}.
    * 
-   * @param file - pref file.
-   * @return properties loaded.
+   * @param properties - properties to be merged into.
+   * @param file - pref file to be read.
+   * @throws IOException if the existing file could not be read.
    */
-  private SortedProperties loadProperties(File file) {
+  private void mergeProperties(PreferenceMap properties, File file) throws IOException {
 
-    SortedProperties properties = new SortedProperties();
-    InputStream is = null;
-    try {
-      is = new FileInputStream(file);
-      Reader reader = new InputStreamReader(is, "UTF-8");
-      properties.load(reader);
-    } catch (FileNotFoundException e) {
-      Log.LOGGER.log(Level.ALL, "Could not read properties, file not found.", e.getStackTrace());
-    } catch (UnsupportedEncodingException e) {
-      // should not occur
-    } catch (IOException e) {
-      Log.LOGGER.log(Level.ALL, "Could not read properties", e.getStackTrace());
-    } finally {
-      if (is != null) {
-        try {
-          is.close();
-        } catch (IOException e) {
-          Log.LOGGER.log(Level.ALL, "Could not close InputStream", e.getStackTrace());
-        }
-      }
+    if (!file.exists()) {
+      return;
     }
-    return properties;
+    PrefCodec.read(file, properties);
   }
 
 }
@@ -0,0 +1,454 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.entity.FilePlan;
+import io.oasp.ide.eclipse.configurator.logging.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * This is the {@link TemplateMerger} for <code>.properties</code> files (e.g. <code>catalina.properties</code> of a
+ * server configuration). Like for .prefs files the update template is applied key by key, but the workspace file is
+ * edited in place: only the lines of properties with a different value are replaced and new properties are appended.
+ * Comments, order and formatting as well as properties only changed or added in the workspace are preserved. A
+ * missing workspace file is created from the setup template (or the update template if there is no setup template).
+ * Variables in the templates are resolved per property and the resolved values are escaped, so characters outside of
+ * ISO-8859-1 are written as unicode escapes.
+ */
+public class PropertiesMerger implements TemplateMerger {
+
+  /** The encoding of .properties files. */
+  private static final String ENCODING = "ISO-8859-1";
+
+  /** The hex digits for unicode escapes. */
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  /**
+   * The constructor.
+   */
+  public PropertiesMerger() {
+
+    super();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public FilePlan plan(Configurator.EclipseWorkspaceFile file, WorkspaceTemplates templates) throws IOException {
+
+    String existing = read(file.getWorkspaceFile());
+    String merged = merge(existing, file, templates);
+    FilePlan.Action action;
+    if ((merged == null) || merged.equals(existing)) {
+      action = FilePlan.Action.UNCHANGED;
+    } else if (existing == null) {
+      action = FilePlan.Action.CREATE;
+    } else {
+      action = FilePlan.Action.MERGE;
+    }
+    FilePlan plan = new FilePlan(file.getRelativePath(), action);
+    if (action != FilePlan.Action.UNCHANGED) {
+      Map<String, String> oldProperties = Collections.emptyMap();
+      if (existing != null) {
+        oldProperties = new Document(existing).getProperties();
+      }
+      Map<String, String> newProperties = new TreeMap<String, String>(new Document(merged).getProperties());
+      for (Map.Entry<String, String> entry : newProperties.entrySet()) {
+        String oldValue = oldProperties.get(entry.getKey());
+        if (!entry.getValue().equals(oldValue)) {
+          plan.addKeyChange(entry.getKey(), oldValue, entry.getValue());
+        }
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void merge(Configurator.EclipseWorkspaceFile file, WorkspaceTemplates templates, AtomicFileWriter fileWriter)
+      throws IOException {
+
+    String existing = read(file.getWorkspaceFile());
+    String merged = merge(existing, file, templates);
+    if ((merged != null) && !merged.equals(existing)) {
+      fileWriter.write(file.getWorkspaceFile(), merged.getBytes(ENCODING));
+    }
+  }
+
+  /**
+   * @param existing is the content of the existing workspace file or <code>null</code> if it does not exist.
+   * @param file is the {@link Configurator.EclipseWorkspaceFile}.
+   * @param templates are the {@link WorkspaceTemplates}.
+   * @return the merged content of the workspace file or <code>null</code> if there is nothing to do.
+   * @throws IOException if a template could not be read.
+   */
+  private String merge(String existing, Configurator.EclipseWorkspaceFile file, WorkspaceTemplates templates)
+      throws IOException {
+
+    Document update = readTemplate(file.getUpdateFile(), templates);
+    Document document;
+    if (existing == null) {
+      document = readTemplate(file.getSetupFile(), templates);
+      if (document == null) {
+        if (update == null) {
+          return null;
+        }
+        return update.toString();
+      }
+    } else if (update == null) {
+      return null;
+    } else {
+      document = new Document(existing);
+    }
+    if (update != null) {
+      document.putAll(update.getProperties());
+    }
+    return document.toString();
+  }
+
+  /**
+   * @param templateFile is the template {@link File}.
+   * @param templates are the {@link WorkspaceTemplates}.
+   * @return the {@link Document} of the given template with resolved variables or <code>null</code> if it does not
+   *         exist.
+   * @throws IOException if the template could not be read.
+   */
+  private static Document readTemplate(File templateFile, WorkspaceTemplates templates) throws IOException {
+
+    String text = templates.getText(templateFile);
+    if (text == null) {
+      return null;
+    }
+    Document document = new Document(text);
+    document.resolveVariables(templates.getResolver());
+    return document;
+  }
+
+  /**
+   * @param file is the {@link File} to read.
+   * @return the content of the given {@link File} or <code>null</code> if it does not exist.
+   * @throws IOException if the file could not be read.
+   */
+  private static String read(File file) throws IOException {
+
+    if (!file.isFile()) {
+      return null;
+    }
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    Metrics.addBytesRead(bytes.length);
+    return new String(bytes, ENCODING);
+  }
+
+  /**
+   * @param value is the key or value to escape.
+   * @param key - <code>true</code> if a key is escaped, <code>false</code> for a value.
+   * @return the escaped key or value as written to a .properties file.
+   */
+  private static String escape(String value, boolean key) {
+
+    StringBuilder buffer = new StringBuilder(value.length() + 8);
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case ' ':
+          if (key || (i == 0)) {
+            buffer.append('\\');
+          }
+          buffer.append(c);
+          break;
+        case '\t':
+          buffer.append("\\t");
+          break;
+        case '\n':
+          buffer.append("\\n");
+          break;
+        case '\r':
+          buffer.append("\\r");
+          break;
+        case '\f':
+          buffer.append("\\f");
+          break;
+        case '\\':
+          buffer.append("\\\\");
+          break;
+        case '=':
+        case ':':
+        case '#':
+        case '!':
+          if (key) {
+            buffer.append('\\');
+          }
+          buffer.append(c);
+          break;
+        default:
+          if ((c < 0x20) || (c > 0x7E)) {
+            buffer.append("\\u");
+            buffer.append(HEX_DIGITS[(c >> 12) & 0xF]).append(HEX_DIGITS[(c >> 8) & 0xF]);
+            buffer.append(HEX_DIGITS[(c >> 4) & 0xF]).append(HEX_DIGITS[c & 0xF]);
+          } else {
+            buffer.append(c);
+          }
+      }
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * @param comment is a comment or blank line.
+   * @return the given comment with characters outside of ISO-8859-1 written as unicode escapes.
+   */
+  private static String escapeComment(String comment) {
+
+    StringBuilder buffer = null;
+    for (int i = 0; i < comment.length(); i++) {
+      char c = comment.charAt(i);
+      if (c > 0xFF) {
+        if (buffer == null) {
+          buffer = new StringBuilder(comment.length() + 8);
+          buffer.append(comment, 0, i);
+        }
+        buffer.append("\\u");
+        buffer.append(HEX_DIGITS[(c >> 12) & 0xF]).append(HEX_DIGITS[(c >> 8) & 0xF]);
+        buffer.append(HEX_DIGITS[(c >> 4) & 0xF]).append(HEX_DIGITS[c & 0xF]);
+      } else if (buffer != null) {
+        buffer.append(c);
+      }
+    }
+    if (buffer == null) {
+      return comment;
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * The content of a .properties file as a sequence of logical lines. Changing a property only replaces its line.
+   */
+  private static final class Document {
+
+    /** The logical lines including their line terminators. */
+    private final List<Line> lines;
+
+    /** The lines of the properties by key. If a key occurs multiple times the last one wins (as for loading). */
+    private final Map<String, Line> properties;
+
+    /** The line separator used for new lines. */
+    private final String lineSeparator;
+
+    /**
+     * The constructor.
+     *
+     * @param text is the content of the .properties file.
+     * @throws IOException if the content could not be parsed.
+     */
+    private Document(String text) throws IOException {
+
+      super();
+      this.lines = new ArrayList<Line>();
+      this.properties = new LinkedHashMap<String, Line>();
+      if (text.indexOf("\r\n") >= 0) {
+        this.lineSeparator = "\r\n";
+      } else {
+        this.lineSeparator = "\n";
+      }
+      int length = text.length();
+      int start = 0;
+      while (start < length) {
+        int end = start;
+        boolean property = false;
+        boolean first = true;
+        while (true) {
+          int lineEnd = end;
+          while ((lineEnd < length) && (text.charAt(lineEnd) != '\n') && (text.charAt(lineEnd) != '\r')) {
+            lineEnd++;
+          }
+          int next = lineEnd;
+          if ((next < length) && (text.charAt(next) == '\r')) {
+            next++;
+          }
+          if ((next < length) && (text.charAt(next) == '\n')) {
+            next++;
+          }
+          if (first) {
+            int contentStart = end;
+            while ((contentStart < lineEnd) && Character.isWhitespace(text.charAt(contentStart))) {
+              contentStart++;
+            }
+            property = (contentStart < lineEnd) && (text.charAt(contentStart) != '#')
+                && (text.charAt(contentStart) != '!');
+            first = false;
+          }
+          end = next;
+          if (!property || (next >= length) || !isContinued(text, lineEnd)) {
+            break;
+          }
+        }
+        Line line = new Line(text.substring(start, end));
+        if (property) {
+          Properties single = new Properties();
+          single.load(new StringReader(line.text));
+          if (single.size() == 1) {
+            line.key = single.keys().nextElement().toString();
+            line.value = single.getProperty(line.key);
+            this.properties.put(line.key, line);
+          }
+        }
+        this.lines.add(line);
+        start = end;
+      }
+    }
+
+    /**
+     * @param text is the content.
+     * @param lineEnd is the end of a physical line (excluding the line terminator).
+     * @return <code>true</code> if the line ends with an odd number of backslashes and is therefore continued.
+     */
+    private static boolean isContinued(String text, int lineEnd) {
+
+      int count = 0;
+      int i = lineEnd - 1;
+      while ((i >= 0) && (text.charAt(i) == '\\')) {
+        count++;
+        i--;
+      }
+      return (count % 2) == 1;
+    }
+
+    /**
+     * @return the properties in the order of their lines.
+     */
+    private Map<String, String> getProperties() {
+
+      Map<String, String> map = new LinkedHashMap<String, String>();
+      for (Line line : this.properties.values()) {
+        map.put(line.key, line.value);
+      }
+      return map;
+    }
+
+    /**
+     * Sets the given properties. Lines of properties with a different value are replaced, new properties are appended.
+     *
+     * @param update are the properties to set.
+     */
+    private void putAll(Map<String, String> update) {
+
+      for (Map.Entry<String, String> entry : update.entrySet()) {
+        String key = entry.getKey();
+        String value = entry.getValue();
+        Line line = this.properties.get(key);
+        if (line == null) {
+          if (!this.lines.isEmpty()) {
+            Line last = this.lines.get(this.lines.size() - 1);
+            if (!last.text.endsWith("\n") && !last.text.endsWith("\r")) {
+              last.text = last.text + this.lineSeparator;
+            }
+          }
+          line = new Line(escape(key, true) + "=" + escape(value, false) + this.lineSeparator);
+          line.key = key;
+          line.value = value;
+          this.lines.add(line);
+          this.properties.put(key, line);
+        } else if (!value.equals(line.value)) {
+          line.setProperty(key, value);
+        }
+      }
+    }
+
+    /**
+     * Resolves the variables in all lines. Only lines whose key or value changed are replaced with the escaped
+     * property. Variables in comments are resolved as well.
+     *
+     * @param resolver is the {@link Resolver}.
+     */
+    private void resolveVariables(Resolver resolver) {
+
+      Map<String, Line> resolvedProperties = new LinkedHashMap<String, Line>();
+      for (Line line : this.lines) {
+        if (line.key == null) {
+          line.text = escapeComment(resolver.resolveVariables(line.text));
+        } else {
+          boolean loaded = (this.properties.get(line.key) == line);
+          String key = resolver.resolveVariables(line.key);
+          String value = resolver.resolveVariables(line.value);
+          if (!key.equals(line.key) || !value.equals(line.value)) {
+            line.setProperty(key, value);
+          }
+          if (loaded) {
+            resolvedProperties.remove(key);
+            resolvedProperties.put(key, line);
+          }
+        }
+      }
+      this.properties.clear();
+      this.properties.putAll(resolvedProperties);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+
+      StringBuilder buffer = new StringBuilder();
+      for (Line line : this.lines) {
+        buffer.append(line.text);
+      }
+      return buffer.toString();
+    }
+  }
+
+  /**
+   * A logical line of a {@link Document}.
+   */
+  private static final class Line {
+
+    /** The text of the line including continuation lines and the line terminator. */
+    private String text;
+
+    /** The key of the property or <code>null</code> for comments and blank lines. */
+    private String key;
+
+    /** The value of the property or <code>null</code> for comments and blank lines. */
+    private String value;
+
+    /**
+     * The constructor.
+     *
+     * @param text is the text of the line.
+     */
+    private Line(String text) {
+
+      super();
+      this.text = text;
+    }
+
+    /**
+     * Replaces this line with the given property keeping its line terminator.
+     *
+     * @param newKey is the new {@link #key}.
+     * @param newValue is the new {@link #value}.
+     */
+    private void setProperty(String newKey, String newValue) {
+
+      int terminatorStart = this.text.length();
+      while ((terminatorStart > 0)
+          && ((this.text.charAt(terminatorStart - 1) == '\n') || (this.text.charAt(terminatorStart - 1) == '\r'))) {
+        terminatorStart--;
+      }
+      this.text = escape(newKey, true) + "=" + escape(newValue, false) + this.text.substring(terminatorStart);
+      this.key = newKey;
+      this.value = newValue;
+    }
+  }
+
+}
@@ -0,0 +1,257 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * This class replaces occurrences of replacement values with their variables (e.g. "C:\Users\Mustermann\project" with
+ * "${client.env.home}") in a single scan. It is an Aho-Corasick automaton built once from all replacement values. If
+ * multiple values match at the same position, the longest one wins. If multiple variables have the same value, the
+ * first variable in alphabetical order wins. Hence the result does not depend on the iteration order of the
+ * replacement patterns.
+ *
+ * @see Resolver#reResolveVariables(String)
+ */
+final class ReplacementValueMatcher {
+
+  /** The root {@link Node} of the automaton. */
+  private final Node root;
+
+  /** Direct transitions of the {@link #root} for ASCII characters as the scan spends most of its time there. */
+  private final Node[] rootTransitions;
+
+  /** The length of the shortest value or {@link Integer#MAX_VALUE} if there are no values. */
+  private final int minLength;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param replacementPatterns is the {@link Map} with the variable names as keys and their replacement values.
+   */
+  ReplacementValueMatcher(Map<?, ?> replacementPatterns) {
+
+    super();
+    this.root = new Node(0);
+    int min = Integer.MAX_VALUE;
+    SortedMap<String, String> sortedPatterns = new TreeMap<String, String>();
+    for (Map.Entry<?, ?> entry : replacementPatterns.entrySet()) {
+      sortedPatterns.put(entry.getKey().toString(), entry.getValue().toString());
+    }
+    for (Map.Entry<String, String> entry : sortedPatterns.entrySet()) {
+      String value = entry.getValue();
+      if (value.length() > 0) {
+        Node node = this.root;
+        for (int i = 0; i < value.length(); i++) {
+          node = node.getOrCreateChild(value.charAt(i));
+        }
+        if (node.variable == null) {
+          node.variable = Strings.PATTERN_PREFIX + entry.getKey() + Strings.PATTERN_SUFFIX;
+        }
+        min = Math.min(min, value.length());
+      }
+    }
+    this.minLength = min;
+    this.rootTransitions = new Node[128];
+    for (int i = 0; i < this.root.size; i++) {
+      char c = this.root.chars[i];
+      if (c < 128) {
+        this.rootTransitions[c] = this.root.children[i];
+      }
+    }
+    linkFailures();
+  }
+
+  /**
+   * Computes the failure and dictionary links of the automaton (breadth first).
+   */
+  private void linkFailures() {
+
+    Queue<Node> queue = new LinkedList<Node>();
+    for (int i = 0; i < this.root.size; i++) {
+      Node child = this.root.children[i];
+      child.failure = this.root;
+      queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      Node node = queue.poll();
+      for (int i = 0; i < node.size; i++) {
+        char c = node.chars[i];
+        Node child = node.children[i];
+        Node failure = node.failure;
+        while ((failure != this.root) && (failure.getChild(c) == null)) {
+          failure = failure.failure;
+        }
+        Node target = failure.getChild(c);
+        if (target == null) {
+          target = this.root;
+        }
+        child.failure = target;
+        if (target.variable != null) {
+          child.dictionary = target;
+        } else {
+          child.dictionary = target.dictionary;
+        }
+        queue.add(child);
+      }
+    }
+  }
+
+  /**
+   * @param data is the {@link String} to process.
+   * @return the given {@link String} with all (non-overlapping) occurrences of replacement values replaced with their
+   *         variables.
+   */
+  public String replace(String data) {
+
+    int length = data.length();
+    if (length < this.minLength) {
+      return data;
+    }
+    // longest match by start index
+    Node[] matches = null;
+    Node state = this.root;
+    for (int i = 0; i < length; i++) {
+      char c = data.charAt(i);
+      Node next = getChild(state, c);
+      while ((next == null) && (state != this.root)) {
+        state = state.failure;
+        next = getChild(state, c);
+      }
+      if (next == null) {
+        state = this.root;
+      } else {
+        state = next;
+      }
+      Node match = state;
+      if (match.variable == null) {
+        match = match.dictionary;
+      }
+      while (match != null) {
+        int start = i + 1 - match.depth;
+        if (matches == null) {
+          matches = new Node[length];
+        }
+        if ((matches[start] == null) || (matches[start].depth < match.depth)) {
+          matches[start] = match;
+        }
+        match = match.dictionary;
+      }
+    }
+    if (matches == null) {
+      return data;
+    }
+    StringBuilder buffer = new StringBuilder(length);
+    int copyStart = 0;
+    int i = 0;
+    while (i < length) {
+      Node match = matches[i];
+      if (match == null) {
+        i++;
+      } else {
+        buffer.append(data, copyStart, i);
+        buffer.append(match.variable);
+        i = i + match.depth;
+        copyStart = i;
+      }
+    }
+    buffer.append(data, copyStart, length);
+    return buffer.toString();
+  }
+
+  /**
+   * @param node is the current {@link Node}.
+   * @param c is the character of the transition.
+   * @return the child {@link Node} for the given character or <code>null</code> if there is none.
+   */
+  private Node getChild(Node node, char c) {
+
+    if ((node == this.root) && (c < 128)) {
+      return this.rootTransitions[c];
+    }
+    return node.getChild(c);
+  }
+
+  /**
+   * A node of the automaton.
+   */
+  private static final class Node {
+
+    /** The length of the value prefix represented by this node. */
+    private final int depth;
+
+    /** The characters of the transitions to the {@link #children}. */
+    private char[] chars;
+
+    /** The child nodes. */
+    private Node[] children;
+
+    /** The number of {@link #children}. */
+    private int size;
+
+    /** The node for the longest proper suffix that is also a prefix of some value. */
+    private Node failure;
+
+    /** The next node in the {@link #failure} chain that completes a value or <code>null</code>. */
+    private Node dictionary;
+
+    /** The variable (e.g. "${client.env.home}") if this node completes a value, <code>null</code> otherwise. */
+    private String variable;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param depth is the {@link #depth}.
+     */
+    private Node(int depth) {
+
+      super();
+      this.depth = depth;
+      this.chars = new char[2];
+      this.children = new Node[2];
+    }
+
+    /**
+     * @param c is the character of the transition.
+     * @return the child {@link Node} for the given character or <code>null</code> if there is none.
+     */
+    private Node getChild(char c) {
+
+      for (int i = 0; i < this.size; i++) {
+        if (this.chars[i] == c) {
+          return this.children[i];
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @param c is the character of the transition.
+     * @return the existing or new child {@link Node} for the given character.
+     */
+    private Node getOrCreateChild(char c) {
+
+      Node child = getChild(c);
+      if (child == null) {
+        if (this.size == this.chars.length) {
+          char[] newChars = new char[this.size * 2];
+          System.arraycopy(this.chars, 0, newChars, 0, this.size);
+          this.chars = newChars;
+          Node[] newChildren = new Node[this.size * 2];
+          System.arraycopy(this.children, 0, newChildren, 0, this.size);
+          this.children = newChildren;
+        }
+        child = new Node(this.depth + 1);
+        this.chars[this.size] = c;
+        this.children[this.size] = child;
+        this.size++;
+      }
+      return child;
+    }
+  }
+
+}
@@ -1,14 +1,26 @@
 package io.oasp.ide.eclipse.configurator.core;
 
 import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.logging.Log;
+import io.oasp.ide.eclipse.configurator.logging.Metrics;
 
+import java.io.UnsupportedEncodingException;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Class to resolve variables in {@link String}s
+ * Class to resolve variables in {@link String}s. Replacement values may again contain variables (e.g.
+ * <code>${client.env.home}/conf</code>) that are expanded lazily when the variable is first used. The fully expanded
+ * value of each variable is memoised so every further occurrence is a single hash lookup. Cyclic references are
+ * detected and left unexpanded.
  * 
  * @author trippl
  * 
@@ -25,6 +37,32 @@ public class Resolver {
    */
   private String replacementRegEx;
 
+  /**
+   * The compiled {@link #replacementRegEx}.
+   */
+  private final Pattern replacementPattern;
+
+  /**
+   * A {@link String} that is contained in every match of the {@link #replacementPattern} or <code>null</code> if
+   * unknown. Used to skip the {@link Pattern} for values without variables.
+   */
+  private final String variableIndicator;
+
+  /**
+   * The {@link ReplacementValueMatcher} for {@link #reResolveVariables(String)}. Created lazily and reset by
+   * {@link #addReplacementPattern(String, String)}.
+   */
+  private volatile ReplacementValueMatcher valueMatcher;
+
+  /**
+   * The fully expanded values of the variables resolved so far or {@link #UNRESOLVED} if a variable has no
+   * replacement. Cleared by {@link #addReplacementPattern(String, String)}.
+   */
+  private final ConcurrentMap<String, String> resolvedVariables;
+
+  /** The marker in {@link #resolvedVariables} for variables without replacement. */
+  private static final String UNRESOLVED = new String("");
+
   /**
    * Creates a new {@link Resolver} with the given <code>replacementPatterns</code> and <code>regEx</code>.
    * 
@@ -35,6 +73,13 @@ public class Resolver {
 
     this.replacementPatterns = replacementPatterns;
     this.replacementRegEx = regEx;
+    this.replacementPattern = Pattern.compile(regEx);
+    this.resolvedVariables = new ConcurrentHashMap<String, String>();
+    if (Strings.REPLACEMENT_REG_EX.equals(regEx)) {
+      this.variableIndicator = Strings.PATTERN_PREFIX;
+    } else {
+      this.variableIndicator = null;
+    }
   }
 
   /**
@@ -45,6 +90,14 @@ public class Resolver {
     return this.replacementRegEx;
   }
 
+  /**
+   * @return the {@link Properties} containing the variables and their replacement.
+   */
+  public Properties getReplacementPatterns() {
+
+    return this.replacementPatterns;
+  }
+
   /**
    * Adds an entry with the given <code>pattern</code> and corresponding <code>replacement</code>.
    * 
@@ -54,6 +107,8 @@ public class Resolver {
   public void addReplacementPattern(String pattern, String replacement) {
 
     this.replacementPatterns.put(pattern, replacement);
+    this.valueMatcher = null;
+    this.resolvedVariables.clear();
   }
 
   /**
@@ -68,20 +123,159 @@ public class Resolver {
     if (this.replacementPatterns.isEmpty()) {
       return data;
     }
-    Pattern p = Pattern.compile(this.replacementRegEx);
-    Matcher m = p.matcher(data);
-    String resolvedData = data;
-    StringBuffer sb = new StringBuffer();
-    while (m.find()) {
-      String match = m.group(1);
-      String replacement = resolveVariable(match);
+    if ((this.variableIndicator != null) && (data.indexOf(this.variableIndicator) < 0)) {
+      return data;
+    }
+    Matcher m = this.replacementPattern.matcher(data);
+    if (!m.find()) {
+      return data;
+    }
+    StringBuilder sb = new StringBuilder(data.length() + 32);
+    int last = 0;
+    do {
+      String variable = m.group(1);
+      String replacement = resolveVariable(variable);
+      Metrics.countVariable(variable, replacement != null);
       if (replacement != null) {
-        m.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+        sb.append(data, last, m.start());
+        sb.append(replacement);
+        last = m.end();
+      }
+    } while (m.find());
+    if (last == 0) {
+      return data;
+    }
+    sb.append(data, last, data.length());
+    return sb.toString();
+  }
+
+  /**
+   * Adds the names of the variables referenced by the given data to the given {@link Set}. Used with
+   * {@link #hashVariables(Collection)} to scan a template piece by piece (e.g. line by line).
+   * 
+   * @param data - the string (e.g. a line of a template) to be resolved.
+   * @param variables - the {@link Set} where to add the names of the variables.
+   */
+  public void collectVariables(String data, Set<String> variables) {
+
+    if (this.replacementPatterns.isEmpty()) {
+      return;
+    }
+    if ((this.variableIndicator != null) && (data.indexOf(this.variableIndicator) < 0)) {
+      return;
+    }
+    Matcher m = this.replacementPattern.matcher(data);
+    while (m.find()) {
+      variables.add(m.group(1));
+    }
+  }
+
+  /**
+   * Computes a hash of the given variables. Unlike the {@link #getReplacementPatterns() replacement patterns} the
+   * values of variables {@link #lookupVariable(String) looked up} from system properties or environment variables (e.g.
+   * <code>${java.home}</code> or <code>${M2_REPO}</code>) may change between runs without any template being changed.
+   * Therefore this hash has to be considered when caching the resolved data.
+   * 
+   * @param variables - the names of the variables {@link #collectVariables(String, Set) referenced} by the data.
+   * @return the content hash of the names and fully expanded values of the given variables.
+   */
+  public String hashVariables(Collection<String> variables) {
+
+    StringBuilder buffer = new StringBuilder();
+    for (String variable : new TreeSet<String>(variables)) {
+      String replacement = resolveVariable(variable);
+      buffer.append(variable);
+      if (replacement == null) {
+        buffer.append('\n');
+      } else {
+        buffer.append('=').append(replacement).append('\n');
+      }
+    }
+    try {
+      return FingerprintIndex.hash(buffer.toString().getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the fully expanded replacement for the given variable as {@link #lookupVariable(String) looked up}.
+   * Variables contained in the replacement are expanded recursively. The result is memoised.
+   * 
+   * @param variableName Name of the variable
+   * @return Replacement for the variable or null if not found.
+   */
+  protected String resolveVariable(String variableName) {
+
+    String result = this.resolvedVariables.get(variableName);
+    if (result == null) {
+      result = expandVariable(variableName, new HashSet<String>());
+    }
+    if (result == UNRESOLVED) {
+      return null;
+    }
+    return result;
+  }
+
+  /**
+   * @param variableName is the name of the variable.
+   * @param path are the names of the variables currently expanded (to detect cycles).
+   * @return the memoised fully expanded replacement for the variable or {@link #UNRESOLVED}.
+   */
+  private String expandVariable(String variableName, Set<String> path) {
+
+    String result = this.resolvedVariables.get(variableName);
+    if (result != null) {
+      return result;
+    }
+    result = lookupVariable(variableName);
+    if (result == null) {
+      result = UNRESOLVED;
+    } else if ((this.variableIndicator == null) || (result.indexOf(this.variableIndicator) >= 0)) {
+      path.add(variableName);
+      result = expandNestedVariables(variableName, result, path);
+      path.remove(variableName);
+    }
+    String existing = this.resolvedVariables.putIfAbsent(variableName, result);
+    if (existing != null) {
+      return existing;
+    }
+    return result;
+  }
+
+  /**
+   * @param variableName is the name of the variable whose replacement is expanded.
+   * @param value is the replacement of the variable.
+   * @param path are the names of the variables currently expanded (to detect cycles).
+   * @return the given value with all contained variables expanded.
+   */
+  private String expandNestedVariables(String variableName, String value, Set<String> path) {
+
+    Matcher m = this.replacementPattern.matcher(value);
+    if (!m.find()) {
+      return value;
+    }
+    StringBuilder sb = new StringBuilder(value.length() + 32);
+    int last = 0;
+    do {
+      String nestedName = m.group(1);
+      if (path.contains(nestedName)) {
+        Log.LOGGER.warning("Cyclic reference to variable " + nestedName + " in replacement of " + variableName
+            + " is left unresolved.");
+      } else {
+        String replacement = expandVariable(nestedName, path);
+        if (replacement != UNRESOLVED) {
+          sb.append(value, last, m.start());
+          sb.append(replacement);
+          last = m.end();
+        }
       }
+    } while (m.find());
+    if (last == 0) {
+      return value;
     }
-    m.appendTail(sb);
-    resolvedData = sb.toString();
-    return resolvedData;
+    sb.append(value, last, value.length());
+    return sb.toString();
   }
 
   /**
@@ -90,10 +284,10 @@ public class Resolver {
    * checking environment variables, if still not found returns null.
    * 
    * @param variableName Name of the variable
-   * @return Replacement for the variable or null if not found.
+   * @return Replacement for the variable (not expanded) or null if not found.
    * @author trippl (14.03.2013)
    */
-  protected String resolveVariable(String variableName) {
+  protected String lookupVariable(String variableName) {
 
     String result = null;
     if (this.replacementPatterns.get(variableName) != null) {
@@ -109,7 +303,8 @@ public class Resolver {
 
   /**
    * Re resolves all user specific content of the data to variables e.g. "C:\Users\Mustermann\project" to
-   * "${client.env.home}\project"
+   * "${client.env.home}\project". The data is scanned only once for all replacement values. If values overlap (e.g. a
+   * path and its sub-path) the longest match wins.
    * 
    * @param data - String to be re resolved.
    * @return the re resolved String.
@@ -119,12 +314,30 @@ public class Resolver {
     if (this.replacementPatterns.isEmpty()) {
       return data;
     }
-    String reResolvedData = data;
+    ReplacementValueMatcher matcher = this.valueMatcher;
+    if (matcher == null) {
+      matcher = new ReplacementValueMatcher(getExpandedReplacementPatterns());
+      this.valueMatcher = matcher;
+    }
+    return matcher.replace(data);
+  }
+
+  /**
+   * @return the {@link #getReplacementPatterns() replacement patterns} with their values
+   *         {@link #resolveVariable(String) fully expanded}, so {@link #reResolveVariables(String)} matches the values
+   *         as they appear in the resolved data.
+   */
+  private Properties getExpandedReplacementPatterns() {
+
+    Properties expanded = new Properties();
     for (Map.Entry<Object, Object> entry : this.replacementPatterns.entrySet()) {
-      reResolvedData = reResolvedData.replaceAll(Pattern.quote(entry.getValue().toString()),
-          Matcher.quoteReplacement(Strings.PATTERN_PREFIX + entry.getKey().toString() + Strings.PATTERN_SUFFIX));
+      String value = resolveVariable(entry.getKey().toString());
+      if (value == null) {
+        value = entry.getValue().toString();
+      }
+      expanded.put(entry.getKey(), value);
     }
-    return reResolvedData;
+    return expanded;
   }
 
 }
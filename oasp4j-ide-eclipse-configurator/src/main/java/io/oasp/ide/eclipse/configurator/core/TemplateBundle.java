@@ -0,0 +1,504 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.logging.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * This class represents a packed template bundle. It contains the {@link Strings#FOLDER_SETUP setup} and
+ * {@link Strings#FOLDER_UPDATE update} trees of the eclipse workspace templates in a single file so they can be
+ * distributed as one file and applied with a single open instead of thousands of small reads. The bundle is
+ * {@link #write(File, File) built} by the <code>oasp4j-ide-settings</code> build and {@link #open(File) opened} by
+ * {@link WorkspaceTemplates} if the templates path points to a file instead of a directory. The whole bundle is
+ * {@link FileChannel#map(FileChannel.MapMode, long, long) memory mapped} so the content of a template is read on demand
+ * by the operating system and shared by all threads and workspaces of the run.<br>
+ * The format (all numbers big endian) is:
+ * <ul>
+ * <li>the magic number <code>OASPTPL</code> followed by the {@link #VERSION version} byte,</li>
+ * <li>the length of the header and the number of entries (both <code>int</code>),</li>
+ * <li>the header with an {@link Entry} per template (tree, {@link Kind kind}, relative path with '/' as separator,
+ * offset, length, modification time and {@link FingerprintIndex#hash(File) content hash}),</li>
+ * <li>the content of all templates (offsets are relative to the end of the header).</li>
+ * </ul>
+ * As the bundle is mapped it can not be replaced on some operating systems while it is in use.
+ */
+public final class TemplateBundle {
+
+  /** The conventional file extension of a template bundle. */
+  public static final String FILE_EXTENSION = ".bundle";
+
+  /** The version of the format. */
+  public static final byte VERSION = 3;
+
+  /** The magic number at the beginning of every bundle. */
+  private static final byte[] MAGIC = new byte[] { 'O', 'A', 'S', 'P', 'T', 'P', 'L' };
+
+  /** The separator of the relative paths in the bundle. */
+  private static final char SEPARATOR = '/';
+
+  /** The maximum size of a bundle as it is mapped into a single buffer. */
+  private static final long MAX_SIZE = Integer.MAX_VALUE;
+
+  /** @see #getFile() */
+  private final File file;
+
+  /** The content of the bundle file. */
+  private final ByteBuffer content;
+
+  /** The offset of the template content in the bundle. */
+  private final int dataOffset;
+
+  /** @see #getEntries() */
+  private final List<Entry> entries;
+
+  /** The {@link #getEntries() entries} by {@link Entry#getTree() tree} and {@link Entry#getRelativePath() path}. */
+  private final Map<String, Entry> entryMap;
+
+  /**
+   * The constructor.
+   *
+   * @param file is the {@link #getFile() file}.
+   * @param content is the content of the bundle file.
+   * @throws IOException if the bundle is invalid.
+   */
+  private TemplateBundle(File file, ByteBuffer content) throws IOException {
+
+    super();
+    this.file = file;
+    this.content = content;
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      content.get(magic);
+      for (int i = 0; i < MAGIC.length; i++) {
+        if (magic[i] != MAGIC[i]) {
+          throw new IOException("Not a template bundle: " + file.getPath());
+        }
+      }
+      byte version = content.get();
+      if (version != VERSION) {
+        throw new IOException("Unsupported version " + version + " of template bundle " + file.getPath());
+      }
+      int headerLength = content.getInt();
+      int count = content.getInt();
+      this.dataOffset = content.position() + headerLength;
+      List<Entry> list = new ArrayList<Entry>(count);
+      Map<String, Entry> map = new HashMap<String, Entry>(count * 2);
+      for (int i = 0; i < count; i++) {
+        Entry entry = readEntry(content);
+        long available = content.limit() - this.dataOffset;
+        if ((entry.offset < 0) || (entry.length < 0) || (entry.offset + entry.length > available)) {
+          throw new IOException("Template " + entry + " exceeds the template bundle " + file.getPath());
+        }
+        list.add(entry);
+        map.put(getKey(entry.tree, entry.relativePath), entry);
+      }
+      this.entries = Collections.unmodifiableList(list);
+      this.entryMap = map;
+    } catch (BufferUnderflowException e) {
+      IOException ioException = new IOException("Truncated template bundle: " + file.getPath());
+      ioException.initCause(e);
+      throw ioException;
+    }
+  }
+
+  /**
+   * @param buffer is the {@link ByteBuffer} positioned at the {@link Entry} to read.
+   * @return the {@link Entry}.
+   * @throws IOException if the entry is invalid.
+   */
+  private static Entry readEntry(ByteBuffer buffer) throws IOException {
+
+    String tree;
+    byte treeCode = buffer.get();
+    if (treeCode == 0) {
+      tree = Strings.FOLDER_SETUP;
+    } else if (treeCode == 1) {
+      tree = Strings.FOLDER_UPDATE;
+    } else {
+      throw new IOException("Invalid tree " + treeCode + " in template bundle.");
+    }
+    byte kindCode = buffer.get();
+    if ((kindCode < 0) || (kindCode >= Kind.values().length)) {
+      throw new IOException("Invalid kind " + kindCode + " in template bundle.");
+    }
+    Kind kind = Kind.values()[kindCode];
+    String path = readString(buffer).replace(SEPARATOR, Strings.FILE_SEPARATOR.charAt(0));
+    long offset = buffer.getLong();
+    long length = buffer.getLong();
+    long lastModified = buffer.getLong();
+    String hash = readString(buffer);
+    return new Entry(tree, path, kind, offset, length, lastModified, hash);
+  }
+
+  /**
+   * @param buffer is the {@link ByteBuffer} positioned at the string to read.
+   * @return the UTF-8 string with a preceding <code>short</code> length.
+   */
+  private static String readString(ByteBuffer buffer) {
+
+    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+    buffer.get(bytes);
+    try {
+      return new String(bytes, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Opens the given template bundle. The bundle is memory mapped and the file is closed immediately.
+   *
+   * @param file is the bundle {@link File}.
+   * @return the opened {@link TemplateBundle}.
+   * @throws IOException if the file could not be read or is no valid template bundle.
+   */
+  public static TemplateBundle open(File file) throws IOException {
+
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      long size = channel.size();
+      if (size > MAX_SIZE) {
+        throw new IOException("Template bundle " + file.getPath() + " is too large (" + size + " bytes).");
+      }
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      return new TemplateBundle(file, mapped);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * @return the bundle {@link File}.
+   */
+  public File getFile() {
+
+    return this.file;
+  }
+
+  /**
+   * @return the unmodifiable {@link List} of all {@link Entry entries} sorted by {@link Entry#getTree() tree} and
+   *         {@link Entry#getRelativePath() relative path}.
+   */
+  public List<Entry> getEntries() {
+
+    return this.entries;
+  }
+
+  /**
+   * @param tree is the {@link Entry#getTree() tree}.
+   * @param relativePath is the {@link Entry#getRelativePath() relative path}.
+   * @return the requested {@link Entry} or <code>null</code> if there is no such template in the bundle.
+   */
+  public Entry getEntry(String tree, String relativePath) {
+
+    return this.entryMap.get(getKey(tree, relativePath));
+  }
+
+  /**
+   * @param tree is the {@link Entry#getTree() tree}.
+   * @param relativePath is the {@link Entry#getRelativePath() relative path} of a directory.
+   * @return <code>true</code> if the bundle contains a template below the given directory, <code>false</code>
+   *         otherwise.
+   */
+  public boolean containsDirectory(String tree, String relativePath) {
+
+    String prefix = relativePath + Strings.FILE_SEPARATOR;
+    for (Entry entry : this.entries) {
+      if (entry.tree.equals(tree) && entry.relativePath.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param entry is the {@link Entry} of this bundle.
+   * @return a read-only {@link ByteBuffer} with the content of the template. It is a view on the mapped bundle so
+   *         nothing is read until it is accessed.
+   */
+  public ByteBuffer getContent(Entry entry) {
+
+    ByteBuffer buffer = this.content.duplicate();
+    int start = this.dataOffset + (int) entry.offset;
+    buffer.limit(start + (int) entry.length);
+    buffer.position(start);
+    return buffer.slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * @param tree is the {@link Entry#getTree() tree}.
+   * @param relativePath is the {@link Entry#getRelativePath() relative path}.
+   * @return the key of the {@link #entryMap}.
+   */
+  private static String getKey(String tree, String relativePath) {
+
+    return tree + ':' + relativePath;
+  }
+
+  /**
+   * Builds a template bundle from the given template directory.
+   *
+   * @param eclipseTemplatesDirectory is the directory containing the {@link Strings#FOLDER_SETUP setup} and
+   *        {@link Strings#FOLDER_UPDATE update} folders.
+   * @param bundleFile is the bundle {@link File} to create or replace.
+   * @return the number of templates in the bundle.
+   * @throws IOException if a template could not be read or the bundle could not be written.
+   */
+  public static int write(File eclipseTemplatesDirectory, File bundleFile) throws IOException {
+
+    File setupDirectory = new File(eclipseTemplatesDirectory, Strings.FOLDER_SETUP);
+    File updateDirectory = new File(eclipseTemplatesDirectory, Strings.FOLDER_UPDATE);
+    TemplateManifest manifest = TemplateManifest.scan(setupDirectory, updateDirectory);
+    List<byte[]> contents = new ArrayList<byte[]>();
+    ByteArrayOutputStream headerBuffer = new ByteArrayOutputStream();
+    DataOutputStream header = new DataOutputStream(headerBuffer);
+    long offset = 0;
+    for (int tree = 0; tree < 2; tree++) {
+      File directory = (tree == 0) ? setupDirectory : updateDirectory;
+      for (TemplateManifest.Entry entry : manifest.getEntries()) {
+        TemplateManifest.FileInfo info = (tree == 0) ? entry.getSetup() : entry.getUpdate();
+        if (info != null) {
+          // each template is read once, so its length, hash and content are consistent
+          byte[] bytes = Files.readAllBytes(new File(directory, entry.getRelativePath()).toPath());
+          header.writeByte(tree);
+          header.writeByte(Kind.of(entry.getRelativePath()).ordinal());
+          writeString(header, entry.getRelativePath().replace(Strings.FILE_SEPARATOR.charAt(0), SEPARATOR));
+          header.writeLong(offset);
+          header.writeLong(bytes.length);
+          header.writeLong(info.getLastModified());
+          writeString(header, FingerprintIndex.hash(bytes));
+          contents.add(bytes);
+          offset = offset + bytes.length;
+        }
+      }
+    }
+    header.flush();
+    if (offset + headerBuffer.size() > MAX_SIZE) {
+      throw new IOException("Templates in " + eclipseTemplatesDirectory.getPath() + " are too large for a bundle.");
+    }
+    AtomicFileWriter.Output out = new AtomicFileWriter().open(bundleFile);
+    try {
+      DataOutputStream data = new DataOutputStream(out);
+      data.write(MAGIC);
+      data.writeByte(VERSION);
+      data.writeInt(headerBuffer.size());
+      data.writeInt(contents.size());
+      headerBuffer.writeTo(data);
+      for (byte[] bytes : contents) {
+        data.write(bytes);
+      }
+      data.flush();
+      out.commit();
+    } finally {
+      out.close();
+    }
+    return contents.size();
+  }
+
+  /**
+   * @param out is the {@link DataOutputStream} to write to.
+   * @param value is the string to write as UTF-8 with a preceding <code>short</code> length.
+   * @throws IOException if the string could not be written.
+   */
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+
+    byte[] bytes = value.getBytes("UTF-8");
+    if (bytes.length > 0xFFFF) {
+      throw new IOException("Path too long for template bundle: " + value);
+    }
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Builds a template bundle. Called by the <code>oasp4j-ide-settings</code> build.
+   *
+   * @param args - args[0] is the directory containing the {@link Strings#FOLDER_SETUP setup} and
+   *        {@link Strings#FOLDER_UPDATE update} folders and args[1] is the bundle file to create.
+   */
+  public static void main(String[] args) {
+
+    if (args.length != 2) {
+      System.err.println("Usage: " + TemplateBundle.class.getName() + " <eclipse-templates-directory> <bundle-file>");
+      System.exit(1);
+    }
+    File bundleFile = new File(args[1]);
+    try {
+      File parent = bundleFile.getAbsoluteFile().getParentFile();
+      if (!parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Could not create directory " + parent.getPath());
+      }
+      int count = write(new File(args[0]), bundleFile);
+      Log.LOGGER.info("Packed " + count + " templates into " + bundleFile.getPath());
+    } catch (IOException e) {
+      Log.LOGGER.log(Level.SEVERE, "Could not build template bundle " + bundleFile.getPath(), e);
+      System.exit(1);
+    }
+  }
+
+  /**
+   * The kind of a template that determines how it is applied to the workspace.
+   */
+  public static enum Kind {
+
+    /** An eclipse preferences file (<code>.prefs</code>) that is merged with the workspace preferences. */
+    PREFS,
+
+    /** A <code>.properties</code> file that is merged key by key into the workspace file. */
+    PROPERTIES,
+
+    /** An XML file (<code>.xml</code>, <code>.xmi</code> or <code>.launch</code>) that is resolved. */
+    XML,
+
+    /** A zip archive (<code>.zip</code>) whose entries are resolved. */
+    ZIP,
+
+    /** Any other file (e.g. <code>.dat</code>, <code>.tree</code> or <code>.index</code>) that is copied as is. */
+    COPY;
+
+    /**
+     * @param relativePath is the relative path of the template.
+     * @return the {@link Kind} of the template.
+     */
+    public static Kind of(String relativePath) {
+
+      if (relativePath.endsWith(".prefs")) {
+        return PREFS;
+      } else if (relativePath.endsWith(".properties")) {
+        return PROPERTIES;
+      } else if (relativePath.endsWith(".xml") || relativePath.endsWith(".xmi") || relativePath.endsWith(".launch")) {
+        return XML;
+      } else if (relativePath.endsWith(".zip")) {
+        return ZIP;
+      }
+      return COPY;
+    }
+  }
+
+  /**
+   * A template of the {@link TemplateBundle}.
+   */
+  public static final class Entry {
+
+    /** @see #getTree() */
+    private final String tree;
+
+    /** @see #getRelativePath() */
+    private final String relativePath;
+
+    /** @see #getKind() */
+    private final Kind kind;
+
+    /** The offset of the content relative to the end of the header. */
+    private final long offset;
+
+    /** @see #getLength() */
+    private final long length;
+
+    /** @see #getLastModified() */
+    private final long lastModified;
+
+    /** @see #getHash() */
+    private final String hash;
+
+    /**
+     * The constructor.
+     *
+     * @param tree is the {@link #getTree() tree}.
+     * @param relativePath is the {@link #getRelativePath() relative path}.
+     * @param kind is the {@link #getKind() kind}.
+     * @param offset is the offset of the content relative to the end of the header.
+     * @param length is the {@link #getLength() length}.
+     * @param lastModified is the {@link #getLastModified() modification time}.
+     * @param hash is the {@link #getHash() hash}.
+     */
+    private Entry(String tree, String relativePath, Kind kind, long offset, long length, long lastModified,
+        String hash) {
+
+      super();
+      this.tree = tree;
+      this.relativePath = relativePath;
+      this.kind = kind;
+      this.offset = offset;
+      this.length = length;
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+
+    /**
+     * @return the {@link Strings#FOLDER_SETUP setup} or {@link Strings#FOLDER_UPDATE update} tree of the template.
+     */
+    public String getTree() {
+
+      return this.tree;
+    }
+
+    /**
+     * @return the path relative to the tree (and the workspace) with {@link Strings#FILE_SEPARATOR} as separator.
+     */
+    public String getRelativePath() {
+
+      return this.relativePath;
+    }
+
+    /**
+     * @return the {@link Kind} of the template.
+     */
+    public Kind getKind() {
+
+      return this.kind;
+    }
+
+    /**
+     * @return the size of the template in bytes.
+     */
+    public long getLength() {
+
+      return this.length;
+    }
+
+    /**
+     * @return the modification time of the template file when the bundle was built.
+     */
+    public long getLastModified() {
+
+      return this.lastModified;
+    }
+
+    /**
+     * @return the {@link FingerprintIndex#hash(File) content hash} of the template.
+     */
+    public String getHash() {
+
+      return this.hash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+
+      return this.tree + Strings.FILE_SEPARATOR + this.relativePath;
+    }
+  }
+
+}
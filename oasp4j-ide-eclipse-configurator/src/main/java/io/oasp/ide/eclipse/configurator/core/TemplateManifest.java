@@ -0,0 +1,429 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.logging.Log;
+import io.oasp.ide.eclipse.configurator.logging.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+
+/**
+ * This class is the immutable manifest of the eclipse workspace templates. It contains an {@link Entry} for every
+ * template file of the {@link Strings#FOLDER_SETUP setup} and {@link Strings#FOLDER_UPDATE update} trees sorted by
+ * {@link Entry#getRelativePath() relative path} together with the {@link FileInfo size and modification time} of the
+ * template(s). The trees are {@link #scan(File, File) scanned} in parallel via {@link Files#walkFileTree} that
+ * provides the attributes of each file in bulk so other stages can use the manifest instead of querying the file
+ * system again. For a {@link TemplateBundle} the manifest is created {@link #of(TemplateBundle) from its header}.
+ */
+public final class TemplateManifest {
+
+  /** @see #getEntries() */
+  private final List<Entry> entries;
+
+  /** The {@link #getEntries() entries} by {@link Entry#getRelativePath() relative path}. */
+  private final Map<String, Entry> entryMap;
+
+  /** @see #getRelativePaths() */
+  private final List<String> relativePaths;
+
+  /**
+   * The constructor.
+   *
+   * @param entries are the {@link Entry entries} sorted by {@link Entry#getRelativePath() relative path}.
+   */
+  private TemplateManifest(List<Entry> entries) {
+
+    super();
+    this.entries = Collections.unmodifiableList(entries);
+    Map<String, Entry> map = new HashMap<String, Entry>(entries.size() * 2);
+    List<String> paths = new ArrayList<String>(entries.size());
+    for (Entry entry : entries) {
+      map.put(entry.relativePath, entry);
+      paths.add(entry.relativePath);
+    }
+    this.entryMap = map;
+    this.relativePaths = Collections.unmodifiableList(paths);
+  }
+
+  /**
+   * @return the unmodifiable {@link List} of all {@link Entry entries} sorted by {@link Entry#getRelativePath()
+   *         relative path}.
+   */
+  public List<Entry> getEntries() {
+
+    return this.entries;
+  }
+
+  /**
+   * @param relativePath is the {@link Entry#getRelativePath() relative path} of the requested {@link Entry}.
+   * @return the requested {@link Entry} or <code>null</code> if there is no such template.
+   */
+  public Entry getEntry(String relativePath) {
+
+    return this.entryMap.get(relativePath);
+  }
+
+  /**
+   * @return the sorted and unmodifiable {@link List} with the paths of all templates relative to the setup and update
+   *         directories.
+   */
+  public List<String> getRelativePaths() {
+
+    return this.relativePaths;
+  }
+
+  /**
+   * @return the number of {@link #getEntries() entries}.
+   */
+  public int size() {
+
+    return this.entries.size();
+  }
+
+  /**
+   * Scans the given template trees. The update tree is scanned by a separate thread while the setup tree is scanned by
+   * the calling thread. Directories that can not be read are logged and skipped.
+   *
+   * @param setupDirectory is the {@link Strings#FOLDER_SETUP setup} directory.
+   * @param updateDirectory is the {@link Strings#FOLDER_UPDATE update} directory.
+   * @return the {@link TemplateManifest} of the given trees.
+   */
+  public static TemplateManifest scan(File setupDirectory, File updateDirectory) {
+
+    long start = Metrics.start();
+    FutureTask<SortedMap<String, FileInfo>> setupScan = createScan(toDirectoryPath(setupDirectory));
+    FutureTask<SortedMap<String, FileInfo>> updateScan = createScan(toDirectoryPath(updateDirectory));
+    Thread thread = new Thread(updateScan, "template-scanner");
+    thread.setDaemon(true);
+    thread.start();
+    setupScan.run();
+    SortedMap<String, FileInfo> setupFiles = awaitScan(setupScan, setupDirectory);
+    SortedMap<String, FileInfo> updateFiles = awaitScan(updateScan, updateDirectory);
+    TemplateManifest manifest = create(setupFiles, updateFiles);
+    Metrics.stop(Metrics.Phase.SCAN, start);
+    return manifest;
+  }
+
+  /**
+   * Creates the manifest of a {@link TemplateBundle} from its header so no file system access is required.
+   *
+   * @param bundle is the {@link TemplateBundle}.
+   * @return the {@link TemplateManifest} of the templates in the given bundle.
+   */
+  public static TemplateManifest of(TemplateBundle bundle) {
+
+    long start = Metrics.start();
+    SortedMap<String, FileInfo> setupFiles = new TreeMap<String, FileInfo>();
+    SortedMap<String, FileInfo> updateFiles = new TreeMap<String, FileInfo>();
+    for (TemplateBundle.Entry entry : bundle.getEntries()) {
+      FileInfo info = new FileInfo(entry.getLength(), entry.getLastModified());
+      if (Strings.FOLDER_SETUP.equals(entry.getTree())) {
+        setupFiles.put(entry.getRelativePath(), info);
+      } else {
+        updateFiles.put(entry.getRelativePath(), info);
+      }
+    }
+    TemplateManifest manifest = create(setupFiles, updateFiles);
+    Metrics.stop(Metrics.Phase.SCAN, start);
+    return manifest;
+  }
+
+  /**
+   * @param setupFiles are the {@link FileInfo}s of the setup templates by their relative paths.
+   * @param updateFiles are the {@link FileInfo}s of the update templates by their relative paths.
+   * @return the {@link TemplateManifest} with the merged {@link Entry entries}.
+   */
+  private static TemplateManifest create(SortedMap<String, FileInfo> setupFiles,
+      SortedMap<String, FileInfo> updateFiles) {
+
+    SortedMap<String, Entry> entries = new TreeMap<String, Entry>();
+    for (Map.Entry<String, FileInfo> file : updateFiles.entrySet()) {
+      String relativePath = file.getKey();
+      entries.put(relativePath, new Entry(relativePath, setupFiles.get(relativePath), file.getValue()));
+    }
+    for (Map.Entry<String, FileInfo> file : setupFiles.entrySet()) {
+      String relativePath = file.getKey();
+      if (!entries.containsKey(relativePath)) {
+        entries.put(relativePath, new Entry(relativePath, file.getValue(), null));
+      }
+    }
+    return new TemplateManifest(new ArrayList<Entry>(entries.values()));
+  }
+
+  /**
+   * @param directory is the directory to scan.
+   * @return the {@link Path} of the given directory.
+   */
+  private static Path toDirectoryPath(File directory) {
+
+    if (!directory.isDirectory()) {
+      throw new IllegalArgumentException("Expected directory: " + directory.getPath());
+    }
+    return directory.toPath();
+  }
+
+  /**
+   * @param root is the directory to scan.
+   * @return the {@link FutureTask} to {@link #scan(Path) scan} the given directory.
+   */
+  private static FutureTask<SortedMap<String, FileInfo>> createScan(final Path root) {
+
+    return new FutureTask<SortedMap<String, FileInfo>>(new Callable<SortedMap<String, FileInfo>>() {
+
+      public SortedMap<String, FileInfo> call() throws Exception {
+
+        return scan(root);
+      }
+    });
+  }
+
+  /**
+   * @param scan is the {@link FutureTask} of the scan.
+   * @param directory is the directory of the scan.
+   * @return the result of the scan.
+   */
+  private static SortedMap<String, FileInfo> awaitScan(FutureTask<SortedMap<String, FileInfo>> scan, File directory) {
+
+    try {
+      return scan.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while scanning templates: " + directory.getPath(), e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Failed to scan templates: " + directory.getPath(), cause);
+    }
+  }
+
+  /**
+   * Recursively scans a template directory (such as {@link Strings#FOLDER_UPDATE} or {@link Strings#FOLDER_SETUP}) for
+   * (configuration template) files.
+   *
+   * @param root is the directory to scan.
+   * @return the {@link FileInfo}s of the template files by their paths relative to the given directory.
+   * @throws IOException if the scan failed.
+   */
+  private static SortedMap<String, FileInfo> scan(Path root) throws IOException {
+
+    TreeScanner scanner = new TreeScanner();
+    Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, scanner);
+    return scanner.files;
+  }
+
+  /**
+   * @param name is the name of the file to check.
+   * @return <code>true</code> if the file is accepted as template, <code>false</code> if the file should be ignored.
+   */
+  private static boolean isAcceptFile(String name) {
+
+    if (name.endsWith(".bak") || name.endsWith(AtomicFileWriter.TEMP_SUFFIX)) {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * The {@link java.nio.file.FileVisitor} that collects the template files of a tree. It keeps track of the relative
+   * path of the current directory so the relative paths of the files are built without {@link Path#relativize(Path)
+   * relativizing} each file.
+   */
+  private static final class TreeScanner extends SimpleFileVisitor<Path> {
+
+    /** The {@link FileInfo}s of the template files by their relative paths. */
+    private final SortedMap<String, FileInfo> files;
+
+    /** The relative paths of the current directory and its parents ending with {@link Strings#FILE_SEPARATOR}. */
+    private final Deque<String> directoryPaths;
+
+    /**
+     * The constructor.
+     */
+    private TreeScanner() {
+
+      super();
+      this.files = new TreeMap<String, FileInfo>();
+      this.directoryPaths = new ArrayDeque<String>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+
+      String parentPath = this.directoryPaths.peek();
+      if (parentPath == null) {
+        this.directoryPaths.push("");
+      } else {
+        this.directoryPaths.push(parentPath + dir.getFileName().toString() + Strings.FILE_SEPARATOR);
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+
+      String name = file.getFileName().toString();
+      if (attributes.isRegularFile() && isAcceptFile(name)) {
+        this.files.put(this.directoryPaths.peek() + name, new FileInfo(attributes.size(), attributes.lastModifiedTime()
+            .toMillis()));
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException e) {
+
+      Log.LOGGER.log(Level.WARNING, "Could not read template file " + file + ", skipping it.", e);
+      return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+
+      this.directoryPaths.pop();
+      if (e != null) {
+        Log.LOGGER.log(Level.WARNING, "Could not read template directory " + dir + ", skipping it.", e);
+      }
+      return FileVisitResult.CONTINUE;
+    }
+  }
+
+  /**
+   * The size and modification time of a template file at the time of the {@link TemplateManifest#scan(File, File)
+   * scan}.
+   */
+  public static final class FileInfo {
+
+    /** @see #getSize() */
+    private final long size;
+
+    /** @see #getLastModified() */
+    private final long lastModified;
+
+    /**
+     * The constructor.
+     *
+     * @param size is the {@link #getSize() size}.
+     * @param lastModified is the {@link #getLastModified() modification time}.
+     */
+    private FileInfo(long size, long lastModified) {
+
+      super();
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the size of the file in bytes.
+     */
+    public long getSize() {
+
+      return this.size;
+    }
+
+    /**
+     * @return the modification time of the file in milliseconds since the epoch.
+     */
+    public long getLastModified() {
+
+      return this.lastModified;
+    }
+  }
+
+  /**
+   * A template of the {@link TemplateManifest} with the {@link FileInfo}s of its setup and/or update file.
+   */
+  public static final class Entry {
+
+    /** @see #getRelativePath() */
+    private final String relativePath;
+
+    /** @see #getSetup() */
+    private final FileInfo setup;
+
+    /** @see #getUpdate() */
+    private final FileInfo update;
+
+    /**
+     * The constructor.
+     *
+     * @param relativePath is the {@link #getRelativePath() relative path}.
+     * @param setup is the {@link #getSetup() setup file info}.
+     * @param update is the {@link #getUpdate() update file info}.
+     */
+    private Entry(String relativePath, FileInfo setup, FileInfo update) {
+
+      super();
+      this.relativePath = relativePath;
+      this.setup = setup;
+      this.update = update;
+    }
+
+    /**
+     * @return the path relative to the setup and update directories (and the workspace).
+     */
+    public String getRelativePath() {
+
+      return this.relativePath;
+    }
+
+    /**
+     * @return the {@link FileInfo} of the setup template or <code>null</code> if there is no setup template.
+     */
+    public FileInfo getSetup() {
+
+      return this.setup;
+    }
+
+    /**
+     * @return the {@link FileInfo} of the update template or <code>null</code> if there is no update template.
+     */
+    public FileInfo getUpdate() {
+
+      return this.update;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+
+      return this.relativePath;
+    }
+  }
+
+}
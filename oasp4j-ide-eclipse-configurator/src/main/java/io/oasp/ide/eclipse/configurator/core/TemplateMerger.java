@@ -0,0 +1,41 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.entity.FilePlan;
+
+import java.io.IOException;
+
+/**
+ * This is the interface for a merger of a specific type of configuration file (e.g. <code>.properties</code>) that is
+ * {@link TemplateMergerRegistry#register(String, TemplateMerger) registered} for a file name pattern or a
+ * {@link TemplateMergerRegistry#register(TemplateBundle.Kind, TemplateMerger) kind of template}. It takes
+ * precedence over the built-in handling of the {@link Configurator} (merging .prefs, resolving XML and copying
+ * everything else). An implementation is shared by all workspaces and worker threads and therefore has to be
+ * thread-safe.
+ */
+public interface TemplateMerger {
+
+  /**
+   * Computes what {@link #merge(Configurator.EclipseWorkspaceFile, WorkspaceTemplates, AtomicFileWriter)} would do
+   * without writing anything.
+   *
+   * @param file is the {@link Configurator.EclipseWorkspaceFile} to plan.
+   * @param templates are the {@link WorkspaceTemplates} providing the (resolved) templates.
+   * @return the {@link FilePlan} for the given file.
+   * @throws IOException if a file could not be read.
+   */
+  FilePlan plan(Configurator.EclipseWorkspaceFile file, WorkspaceTemplates templates) throws IOException;
+
+  /**
+   * Creates or updates the {@link Configurator.EclipseWorkspaceFile#getWorkspaceFile() workspace file} from its
+   * {@link Configurator.EclipseWorkspaceFile#getSetupFile() setup} and
+   * {@link Configurator.EclipseWorkspaceFile#getUpdateFile() update} templates.
+   *
+   * @param file is the {@link Configurator.EclipseWorkspaceFile} to merge.
+   * @param templates are the {@link WorkspaceTemplates} providing the (resolved) templates.
+   * @param fileWriter is the {@link AtomicFileWriter} to write the workspace file.
+   * @throws IOException if the file could not be merged.
+   */
+  void merge(Configurator.EclipseWorkspaceFile file, WorkspaceTemplates templates, AtomicFileWriter fileWriter)
+      throws IOException;
+
+}
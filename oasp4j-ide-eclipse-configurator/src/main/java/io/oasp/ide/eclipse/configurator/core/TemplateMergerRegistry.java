@@ -0,0 +1,161 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * This class is the registry of the {@link TemplateMerger}s by file name pattern. A pattern is a glob where
+ * <code>*</code> matches any characters except '/', <code>**</code> matches any characters and <code>?</code> matches a
+ * single character except '/'. A pattern without '/' is matched against the file name (e.g.
+ * <code>*.properties</code> for an extension), otherwise against the relative path with '/' as separator (e.g.
+ * <code>Servers/**&#47;catalina.properties</code>). If several patterns match, the one registered last wins.
+ * Additionally a {@link TemplateMerger} can be {@link #register(TemplateBundle.Kind, TemplateMerger) registered} for a
+ * {@link TemplateBundle.Kind kind} of template. It applies if no pattern matches, so the {@link #createDefault()
+ * defaults} can be overridden by patterns.
+ */
+public class TemplateMergerRegistry {
+
+  /** The {@link Registration}s in the order of registration. */
+  private final List<Registration> registrations;
+
+  /** The {@link TemplateMerger}s by {@link TemplateBundle.Kind}. */
+  private final Map<TemplateBundle.Kind, TemplateMerger> kindMergers;
+
+  /**
+   * The constructor for an empty registry.
+   */
+  public TemplateMergerRegistry() {
+
+    super();
+    this.registrations = new CopyOnWriteArrayList<Registration>();
+    this.kindMergers = new ConcurrentHashMap<TemplateBundle.Kind, TemplateMerger>();
+  }
+
+  /**
+   * @return a new {@link TemplateMergerRegistry} with the default {@link TemplateMerger}s ({@link PropertiesMerger}
+   *         for {@link TemplateBundle.Kind#PROPERTIES} and {@link ArchiveMerger} for {@link TemplateBundle.Kind#ZIP}).
+   */
+  public static TemplateMergerRegistry createDefault() {
+
+    TemplateMergerRegistry registry = new TemplateMergerRegistry();
+    registry.register(TemplateBundle.Kind.PROPERTIES, new PropertiesMerger());
+    registry.register(TemplateBundle.Kind.ZIP, new ArchiveMerger());
+    return registry;
+  }
+
+  /**
+   * @param kind is the {@link TemplateBundle.Kind} of the templates to merge.
+   * @param merger is the {@link TemplateMerger} for the templates of the given kind.
+   */
+  public void register(TemplateBundle.Kind kind, TemplateMerger merger) {
+
+    if (merger == null) {
+      throw new NullPointerException("merger");
+    }
+    this.kindMergers.put(kind, merger);
+  }
+
+  /**
+   * @param pattern is the glob pattern of the files to merge.
+   * @param merger is the {@link TemplateMerger} for the files matching the given pattern.
+   */
+  public void register(String pattern, TemplateMerger merger) {
+
+    if (merger == null) {
+      throw new NullPointerException("merger");
+    }
+    this.registrations.add(new Registration(pattern, merger));
+  }
+
+  /**
+   * @param relativePath is the path of the configuration file relative to the workspace.
+   * @param kind is the {@link TemplateBundle.Kind} of the templates.
+   * @return the {@link TemplateMerger} registered for the given file or <code>null</code> if none is registered (the
+   *         built-in handling applies).
+   */
+  public TemplateMerger getMerger(String relativePath, TemplateBundle.Kind kind) {
+
+    String path = relativePath.replace(Strings.FILE_SEPARATOR.charAt(0), '/');
+    String name = path.substring(path.lastIndexOf('/') + 1);
+    for (int i = this.registrations.size() - 1; i >= 0; i--) {
+      Registration registration = this.registrations.get(i);
+      String subject = path;
+      if (!registration.matchPath) {
+        subject = name;
+      }
+      if (registration.pattern.matcher(subject).matches()) {
+        return registration.merger;
+      }
+    }
+    return this.kindMergers.get(kind);
+  }
+
+  /**
+   * @param glob is the glob pattern.
+   * @return the {@link Pattern} for the given glob.
+   */
+  private static Pattern compileGlob(String glob) {
+
+    StringBuilder regex = new StringBuilder(glob.length() + 16);
+    int length = glob.length();
+    for (int i = 0; i < length; i++) {
+      char c = glob.charAt(i);
+      if (c == '*') {
+        if ((i + 1 < length) && (glob.charAt(i + 1) == '*')) {
+          i++;
+          if ((i + 1 < length) && (glob.charAt(i + 1) == '/')) {
+            // "**/" also matches no directory at all
+            i++;
+            regex.append("(?:.*/)?");
+          } else {
+            regex.append(".*");
+          }
+        } else {
+          regex.append("[^/]*");
+        }
+      } else if (c == '?') {
+        regex.append("[^/]");
+      } else if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+        regex.append('\\').append(c);
+      } else {
+        regex.append(c);
+      }
+    }
+    return Pattern.compile(regex.toString());
+  }
+
+  /**
+   * A registered {@link TemplateMerger} with its pattern.
+   */
+  private static final class Registration {
+
+    /** The compiled pattern. */
+    private final Pattern pattern;
+
+    /** <code>true</code> to match the relative path, <code>false</code> to match the file name. */
+    private final boolean matchPath;
+
+    /** The {@link TemplateMerger}. */
+    private final TemplateMerger merger;
+
+    /**
+     * The constructor.
+     *
+     * @param glob is the glob pattern.
+     * @param merger is the {@link TemplateMerger}.
+     */
+    private Registration(String glob, TemplateMerger merger) {
+
+      super();
+      this.pattern = compileGlob(glob);
+      this.matchPath = (glob.indexOf('/') >= 0);
+      this.merger = merger;
+    }
+  }
+
+}
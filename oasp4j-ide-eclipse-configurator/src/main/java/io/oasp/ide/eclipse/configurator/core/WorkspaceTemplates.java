@@ -0,0 +1,558 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.entity.PreferenceMap;
+import io.oasp.ide.eclipse.configurator.logging.Metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * This class represents the eclipse workspace templates (the {@link Strings#FOLDER_SETUP setup} and
+ * {@link Strings#FOLDER_UPDATE update} trees). The trees are scanned once on creation into a {@link TemplateManifest}
+ * and every template is parsed and resolved at most once, no matter how many workspaces or worker threads request it.
+ * This allows to apply the templates to many workspaces within a single JVM. After templates have changed a new
+ * instance can be created via {@link #refresh(Collection)} that only parses the changed templates again. With a
+ * {@link CompiledTemplateCache} resolved templates are also shared by instances with the same replacement patterns
+ * and (if persisted) by later runs. If the templates path points to a {@link TemplateBundle} instead of a directory,
+ * the templates are read from the memory mapped bundle and the setup and update directories are only virtual paths
+ * used to identify the templates.
+ */
+public class WorkspaceTemplates {
+
+  /**
+   * The maximum {@link File#length() size} of an XML template to {@link #getXml(File) keep in memory}. Larger templates
+   * should be streamed via {@link XmlHandler#update(File, File)} instead.
+   */
+  public static final long MAX_CACHED_XML_LENGTH = 1024 * 1024;
+
+  /** The encoding to decode text templates that maps every byte to a character (as for .properties files). */
+  private static final String ENCODING_TEXT = "ISO-8859-1";
+
+  /** @see #getSetupDirectoryPath() */
+  private final String setupDirectoryPath;
+
+  /** @see #getUpdateDirectoryPath() */
+  private final String updateDirectoryPath;
+
+  /** @see #getResolver() */
+  private final Resolver resolver;
+
+  /** {@link PrefHandler} used to parse .prefs templates. */
+  private final PrefHandler prefHandler;
+
+  /** {@link XmlHandler} used to parse XML templates. */
+  private final XmlHandler xmlHandler;
+
+  /** @see #getManifest() */
+  private final TemplateManifest manifest;
+
+  /** @see #getReplacementPatternsHash() */
+  private final String replacementPatternsHash;
+
+  /** The parsed templates by their kind and {@link File#getPath() path}. */
+  private final ConcurrentMap<String, Future<Object>> parsedTemplates;
+
+  /** @see #getCache() */
+  private final CompiledTemplateCache cache;
+
+  /** @see #getBundle() */
+  private final TemplateBundle bundle;
+
+  /** The {@link TemplateBundle.Entry entries} of the {@link #getBundle() bundle} by {@link File#getPath() path}. */
+  private final Map<String, TemplateBundle.Entry> bundledTemplates;
+
+  /**
+   * Creates a new instance and scans the template trees.
+   *
+   * @param eclipseTemplatesPath is the path to the eclipse workspace templates containing the
+   *        {@link Strings#FOLDER_SETUP setup} and {@link Strings#FOLDER_UPDATE update} folders.
+   * @param resolver is the {@link Resolver} used to resolve variables in the templates.
+   */
+  public WorkspaceTemplates(String eclipseTemplatesPath, Resolver resolver) {
+
+    this(eclipseTemplatesPath, resolver, null);
+  }
+
+  /**
+   * Creates a new instance and scans the template trees.
+   *
+   * @param eclipseTemplatesPath is the path to the eclipse workspace templates containing the
+   *        {@link Strings#FOLDER_SETUP setup} and {@link Strings#FOLDER_UPDATE update} folders or the path to a
+   *        {@link TemplateBundle}.
+   * @param resolver is the {@link Resolver} used to resolve variables in the templates.
+   * @param cache is the {@link #getCache() cache} or <code>null</code>.
+   */
+  public WorkspaceTemplates(String eclipseTemplatesPath, Resolver resolver, CompiledTemplateCache cache) {
+
+    this(eclipseTemplatesPath + Strings.FILE_SEPARATOR + Strings.FOLDER_SETUP, eclipseTemplatesPath
+        + Strings.FILE_SEPARATOR + Strings.FOLDER_UPDATE, resolver, new ConcurrentHashMap<String, Future<Object>>(),
+        cache, openBundle(eclipseTemplatesPath));
+  }
+
+  /**
+   * Creates a new instance and scans the template trees.
+   *
+   * @param setupDirectoryPath is the {@link #getSetupDirectoryPath() setup directory path}.
+   * @param updateDirectoryPath is the {@link #getUpdateDirectoryPath() update directory path}.
+   * @param resolver is the {@link Resolver} used to resolve variables in the templates.
+   * @param parsedTemplates are the {@link #parsedTemplates} to start with.
+   * @param cache is the {@link #getCache() cache} or <code>null</code>.
+   * @param bundle is the {@link #getBundle() bundle} or <code>null</code>.
+   */
+  private WorkspaceTemplates(String setupDirectoryPath, String updateDirectoryPath, Resolver resolver,
+      ConcurrentMap<String, Future<Object>> parsedTemplates, CompiledTemplateCache cache, TemplateBundle bundle) {
+
+    super();
+    this.setupDirectoryPath = setupDirectoryPath;
+    this.updateDirectoryPath = updateDirectoryPath;
+    this.resolver = resolver;
+    this.prefHandler = new PrefHandler(resolver);
+    this.xmlHandler = new XmlHandler(resolver);
+    this.parsedTemplates = parsedTemplates;
+    this.cache = cache;
+    this.bundle = bundle;
+    if (bundle == null) {
+      this.manifest = TemplateManifest.scan(new File(this.setupDirectoryPath), new File(this.updateDirectoryPath));
+      this.bundledTemplates = null;
+    } else {
+      this.manifest = TemplateManifest.of(bundle);
+      this.bundledTemplates = new HashMap<String, TemplateBundle.Entry>(bundle.getEntries().size() * 2);
+      for (TemplateBundle.Entry entry : bundle.getEntries()) {
+        String directoryPath = this.updateDirectoryPath;
+        if (Strings.FOLDER_SETUP.equals(entry.getTree())) {
+          directoryPath = this.setupDirectoryPath;
+        }
+        this.bundledTemplates.put(new File(directoryPath, entry.getRelativePath()).getPath(), entry);
+      }
+    }
+    this.replacementPatternsHash = hashReplacementPatterns(resolver);
+  }
+
+  /**
+   * Scans the template trees again after some templates have changed. Parsed templates that are not affected by the
+   * change are taken over so only the changed templates will be parsed again. This instance remains unchanged and can
+   * still be used by running updates.
+   *
+   * @param changedPaths are the changed paths relative to the setup and update directories. A path may also be a
+   *        directory (all templates below are affected) or the empty {@link String} if all templates are affected.
+   * @return the new {@link WorkspaceTemplates} with the current state of the template trees.
+   */
+  public WorkspaceTemplates refresh(Collection<String> changedPaths) {
+
+    List<String> changedPrefixes = new ArrayList<String>();
+    for (String path : changedPaths) {
+      if (path.length() == 0) {
+        return new WorkspaceTemplates(this.setupDirectoryPath, this.updateDirectoryPath, this.resolver,
+            new ConcurrentHashMap<String, Future<Object>>(), this.cache, this.bundle);
+      }
+      changedPrefixes.add(new File(this.setupDirectoryPath + Strings.FILE_SEPARATOR + path).getPath());
+      changedPrefixes.add(new File(this.updateDirectoryPath + Strings.FILE_SEPARATOR + path).getPath());
+    }
+    ConcurrentMap<String, Future<Object>> unchangedTemplates = new ConcurrentHashMap<String, Future<Object>>();
+    for (Map.Entry<String, Future<Object>> entry : this.parsedTemplates.entrySet()) {
+      String key = entry.getKey();
+      String path = key.substring(key.indexOf(':') + 1);
+      if (!isAffected(path, changedPrefixes)) {
+        unchangedTemplates.put(key, entry.getValue());
+      }
+    }
+    return new WorkspaceTemplates(this.setupDirectoryPath, this.updateDirectoryPath, this.resolver,
+        unchangedTemplates, this.cache, this.bundle);
+  }
+
+  /**
+   * @param path is the {@link File#getPath() path} of a template.
+   * @param changedPrefixes are the {@link File#getPath() paths} of the changed templates or directories.
+   * @return <code>true</code> if the given template is or is located below one of the changed paths.
+   */
+  private static boolean isAffected(String path, List<String> changedPrefixes) {
+
+    for (String prefix : changedPrefixes) {
+      if (path.equals(prefix) || path.startsWith(prefix + File.separator)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param eclipseTemplatesPath is the path to the eclipse workspace templates.
+   * @return the opened {@link TemplateBundle} or <code>null</code> if the path is no file (but a directory).
+   */
+  private static TemplateBundle openBundle(String eclipseTemplatesPath) {
+
+    File file = new File(eclipseTemplatesPath);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      return TemplateBundle.open(file);
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not open template bundle: " + file.getPath(), e);
+    }
+  }
+
+  /**
+   * @param resolver is the {@link Resolver}.
+   * @return the content hash of the {@link Resolver#getReplacementPatterns() replacement patterns}.
+   */
+  private static String hashReplacementPatterns(Resolver resolver) {
+
+    StringBuilder buffer = new StringBuilder();
+    for (Map.Entry<Object, Object> entry : new TreeMap<Object, Object>(resolver.getReplacementPatterns()).entrySet()) {
+      buffer.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+    }
+    try {
+      return FingerprintIndex.hash(buffer.toString().getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return the path to the eclipse workspace setup templates.
+   */
+  public String getSetupDirectoryPath() {
+
+    return this.setupDirectoryPath;
+  }
+
+  /**
+   * @return the path to the eclipse workspace update templates.
+   */
+  public String getUpdateDirectoryPath() {
+
+    return this.updateDirectoryPath;
+  }
+
+  /**
+   * @return the {@link Resolver} used to resolve variables in the templates.
+   */
+  public Resolver getResolver() {
+
+    return this.resolver;
+  }
+
+  /**
+   * @return the {@link CompiledTemplateCache} where compiled templates are looked up before they are parsed and
+   *         resolved or <code>null</code> if there is none.
+   */
+  public CompiledTemplateCache getCache() {
+
+    return this.cache;
+  }
+
+  /**
+   * @return the {@link TemplateBundle} the templates are read from or <code>null</code> if they are read from the
+   *         setup and update directories.
+   */
+  public TemplateBundle getBundle() {
+
+    return this.bundle;
+  }
+
+  /**
+   * @param templateFile is the template {@link File}.
+   * @return the content of the given template in the {@link #getBundle() bundle} or <code>null</code> if there is no
+   *         bundle or it does not contain the template.
+   */
+  public ByteBuffer getContent(File templateFile) {
+
+    TemplateBundle.Entry entry = getBundleEntry(templateFile);
+    if (entry == null) {
+      return null;
+    }
+    return this.bundle.getContent(entry);
+  }
+
+  /**
+   * @param templateFile is the template {@link File}.
+   * @return the {@link TemplateBundle.Kind} of the given template as recorded in the {@link #getBundle() bundle} or
+   *         {@link TemplateBundle.Kind#of(String) derived} from its name.
+   */
+  public TemplateBundle.Kind getKind(File templateFile) {
+
+    TemplateBundle.Entry entry = getBundleEntry(templateFile);
+    if (entry != null) {
+      return entry.getKind();
+    }
+    return TemplateBundle.Kind.of(templateFile.getPath());
+  }
+
+  /**
+   * @param templateFile is the template {@link File}.
+   * @return the {@link TemplateBundle.Entry} of the given template or <code>null</code> if there is no
+   *         {@link #getBundle() bundle} or it does not contain the template.
+   */
+  private TemplateBundle.Entry getBundleEntry(File templateFile) {
+
+    if (this.bundledTemplates == null) {
+      return null;
+    }
+    return this.bundledTemplates.get(templateFile.getPath());
+  }
+
+  /**
+   * @return the sorted and unmodifiable {@link List} with the paths of all templates relative to the setup and update
+   *         directories.
+   */
+  public List<String> getRelativePaths() {
+
+    return this.manifest.getRelativePaths();
+  }
+
+  /**
+   * @return the {@link TemplateManifest} of the templates as scanned on creation.
+   */
+  public TemplateManifest getManifest() {
+
+    return this.manifest;
+  }
+
+  /**
+   * @param prefFile is the .prefs template {@link File}.
+   * @return the resolved {@link PreferenceMap} of the given template. Will be empty if the file does not
+   *         {@link File#exists() exist}. Shared by all callers and must therefore not be modified.
+   * @throws IOException if the template could not be read.
+   */
+  public PreferenceMap getProperties(final File prefFile) throws IOException {
+
+    return (PreferenceMap) get("prefs:" + prefFile.getPath(), new Callable<Object>() {
+
+      public Object call() throws Exception {
+
+        if (WorkspaceTemplates.this.cache == null) {
+          return loadProperties(prefFile);
+        }
+        String key = CompiledTemplateCache.createKey(getHash(prefFile),
+            WorkspaceTemplates.this.replacementPatternsHash, getVariablesHash(prefFile));
+        PreferenceMap properties = WorkspaceTemplates.this.cache.getProperties(key);
+        if (properties == null) {
+          properties = loadProperties(prefFile);
+          WorkspaceTemplates.this.cache.putProperties(key, properties);
+        }
+        return properties;
+      }
+    });
+  }
+
+  /**
+   * @param prefFile is the .prefs template {@link File}.
+   * @return the resolved {@link PreferenceMap} read from the {@link #getBundle() bundle} or the file.
+   * @throws IOException if the template could not be read.
+   */
+  private PreferenceMap loadProperties(File prefFile) throws IOException {
+
+    ByteBuffer content = getContent(prefFile);
+    if (content == null) {
+      return this.prefHandler.loadResolvedProperties(prefFile);
+    }
+    return this.prefHandler.loadResolvedProperties(prefFile, content);
+  }
+
+  /**
+   * @param xmlFile is the XML template {@link File}.
+   * @return the resolved XML of the given template as serialized bytes. Shared by all callers and must therefore not be
+   *         modified.
+   * @see #MAX_CACHED_XML_LENGTH
+   * @throws IOException if the template could not be read or parsed.
+   */
+  public byte[] getXml(final File xmlFile) throws IOException {
+
+    return (byte[]) get("xml:" + xmlFile.getPath(), new Callable<Object>() {
+
+      public Object call() throws Exception {
+
+        if (WorkspaceTemplates.this.cache == null) {
+          return WorkspaceTemplates.this.xmlHandler.resolve(xmlFile, getContent(xmlFile));
+        }
+        String key = CompiledTemplateCache.createKey(getHash(xmlFile),
+            WorkspaceTemplates.this.replacementPatternsHash, getVariablesHash(xmlFile));
+        byte[] xml = WorkspaceTemplates.this.cache.getXml(key);
+        if (xml == null) {
+          xml = WorkspaceTemplates.this.xmlHandler.resolve(xmlFile, getContent(xmlFile));
+          WorkspaceTemplates.this.cache.putXml(key, xml);
+        }
+        return xml;
+      }
+    });
+  }
+
+  /**
+   * @param templateFile is the template {@link File}.
+   * @return the raw content of the given template (without resolving variables) or <code>null</code> if it does not
+   *         exist. The content is decoded as ISO-8859-1 (the encoding of <code>.properties</code> files) that maps
+   *         every byte to a character, so it can be encoded back without loss. It is read on every call and not cached.
+   * @throws IOException if the template could not be read.
+   */
+  public String getText(File templateFile) throws IOException {
+
+    byte[] bytes;
+    ByteBuffer content = getContent(templateFile);
+    if (content != null) {
+      bytes = new byte[content.remaining()];
+      content.duplicate().get(bytes);
+    } else if (templateFile.isFile()) {
+      bytes = Files.readAllBytes(templateFile.toPath());
+    } else {
+      return null;
+    }
+    Metrics.addBytesRead(bytes.length);
+    return new String(bytes, ENCODING_TEXT);
+  }
+
+  /**
+   * @param templateFile is the template {@link File}.
+   * @return the {@link Resolver#hashVariables(Collection) hash of the variables} referenced by the given template.
+   *         Covers variables resolved from system properties or environment variables that are not part of the
+   *         {@link #getReplacementPatternsHash() hash of the replacement patterns}. Only the {@link #getKind(File)
+   *         kinds} of templates whose variables are resolved are scanned (the entries of a zip decompressed). Only the
+   *         hash is cached.
+   * @throws IOException if the template could not be read.
+   */
+  public String getVariablesHash(final File templateFile) throws IOException {
+
+    return (String) get("variables:" + templateFile.getPath(), new Callable<Object>() {
+
+      public Object call() throws Exception {
+
+        Set<String> variables = new HashSet<String>();
+        if ((getBundleEntry(templateFile) != null) || templateFile.isFile()) {
+          switch (getKind(templateFile)) {
+            case PREFS:
+            case PROPERTIES:
+            case XML:
+              collectVariables(templateFile, variables);
+              break;
+            case ZIP:
+              ArchiveMerger.collectVariables(templateFile, WorkspaceTemplates.this, variables);
+              break;
+            default:
+              // copied as is without resolving variables
+          }
+        }
+        return WorkspaceTemplates.this.resolver.hashVariables(variables);
+      }
+    });
+  }
+
+  /**
+   * Streams the given text template line by line and collects the variables it references.
+   *
+   * @param templateFile is the existing template {@link File}.
+   * @param variables is the {@link Set} where to add the names of the variables.
+   * @throws IOException if the template could not be read.
+   */
+  private void collectVariables(File templateFile, Set<String> variables) throws IOException {
+
+    InputStream in;
+    ByteBuffer content = getContent(templateFile);
+    if (content != null) {
+      Metrics.addBytesRead(content.remaining());
+      in = new ByteBufferInputStream(content);
+    } else {
+      Metrics.addBytesRead(templateFile.length());
+      in = new FileInputStream(templateFile);
+    }
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, ENCODING_TEXT));
+    try {
+      String line = reader.readLine();
+      while (line != null) {
+        this.resolver.collectVariables(line, variables);
+        line = reader.readLine();
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * @param templateFile is the template {@link File}.
+   * @return the {@link FingerprintIndex#hash(File) content hash} of the given template.
+   * @throws IOException if the template could not be read.
+   */
+  public String getHash(final File templateFile) throws IOException {
+
+    return (String) get("hash:" + templateFile.getPath(), new Callable<Object>() {
+
+      public Object call() throws Exception {
+
+        TemplateBundle.Entry entry = getBundleEntry(templateFile);
+        if (entry != null) {
+          return entry.getHash();
+        }
+        return FingerprintIndex.hash(templateFile);
+      }
+    });
+  }
+
+  /**
+   * @return the content hash of the {@link Resolver#getReplacementPatterns() replacement patterns} of the
+   *         {@link #getResolver() resolver}.
+   */
+  public String getReplacementPatternsHash() {
+
+    return this.replacementPatternsHash;
+  }
+
+  /**
+   * Gets the parsed template for the given key and parses it via the given {@link Callable} if this has not been done
+   * before. Concurrent callers for the same template wait for the first one instead of parsing it again.
+   *
+   * @param key is the unique key of the parsed template.
+   * @param parser is the {@link Callable} to parse the template.
+   * @return the parsed template.
+   * @throws IOException if the template could not be parsed.
+   */
+  private Object get(String key, Callable<Object> parser) throws IOException {
+
+    Future<Object> future = this.parsedTemplates.get(key);
+    if (future == null) {
+      FutureTask<Object> task = new FutureTask<Object>(parser);
+      future = this.parsedTemplates.putIfAbsent(key, task);
+      if (future == null) {
+        future = task;
+        task.run();
+      }
+    }
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while parsing template: " + key, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      IOException ioException = new IOException("Failed to parse template: " + key);
+      ioException.initCause(cause);
+      throw ioException;
+    }
+  }
+
+}
@@ -0,0 +1,344 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+/**
+ * This class merges a (resolved) XML update template into an existing XML file of the workspace instead of replacing
+ * it. Elements are matched by their identity: the value of an identity attribute (by default <code>id</code>,
+ * <code>iD</code>, <code>name</code> or <code>key</code>) or otherwise their position among the siblings with the same
+ * name and no identity. Attributes and text of the template are applied to the matching element, elements missing in
+ * the workspace are added and everything only present in the workspace (e.g. settings of the user) is kept, unless it
+ * has been removed from the template since the previously applied version. Children without any identity (e.g. a list
+ * of <code>&lt;listEntry value="..."/&gt;</code>) can not be matched reliably and are therefore replaced as a whole by
+ * the children of the template. The children of every element are indexed in a single pass so merging is linear in the
+ * size of the documents.
+ */
+public class XmlElementMerger {
+
+  /** The default {@link #addIdentityKey(String) identity attributes}. */
+  private static final String[] DEFAULT_IDENTITY_ATTRIBUTES = { "id", "iD", "name", "key" };
+
+  /** The identity attributes for any element in order of precedence. */
+  private final List<String> identityAttributes;
+
+  /** The identity attributes for elements at a specific path. */
+  private final Map<String, String> pathIdentityAttributes;
+
+  /**
+   * The constructor with the default identity attributes.
+   */
+  public XmlElementMerger() {
+
+    super();
+    this.identityAttributes = new CopyOnWriteArrayList<String>();
+    this.pathIdentityAttributes = new ConcurrentHashMap<String, String>();
+    for (String attribute : DEFAULT_IDENTITY_ATTRIBUTES) {
+      this.identityAttributes.add(attribute);
+    }
+  }
+
+  /**
+   * Adds an identity key used to match elements of the template with the elements of the workspace file.
+   *
+   * @param identityKey is the identity key. Either an attribute name (e.g. <code>@uuid</code> or <code>uuid</code>)
+   *        that identifies any element having it (with precedence over the previous ones) or an absolute element path
+   *        followed by the attribute name (e.g. <code>/servers/server@id</code>) only applying to elements at that
+   *        path.
+   */
+  public void addIdentityKey(String identityKey) {
+
+    int separator = identityKey.lastIndexOf('@');
+    String attribute = identityKey.substring(separator + 1);
+    if (attribute.isEmpty()) {
+      throw new IllegalArgumentException("Missing attribute in identity key: " + identityKey);
+    }
+    if (separator > 0) {
+      String path = identityKey.substring(0, separator);
+      if (!path.startsWith("/")) {
+        throw new IllegalArgumentException("Path of identity key has to be absolute: " + identityKey);
+      }
+      this.pathIdentityAttributes.put(path, attribute);
+    } else {
+      this.identityAttributes.add(0, attribute);
+    }
+  }
+
+  /**
+   * Merges the given template into the given workspace {@link Document}.
+   *
+   * @param workspace is the {@link Document} of the workspace file that will be modified.
+   * @param template is the {@link Document} of the resolved update template.
+   * @param previous is the {@link Document} of the resolved update template applied before or <code>null</code> if
+   *        unknown. Elements with identity that it contains but the <code>template</code> does not are removed from the
+   *        workspace.
+   * @return <code>true</code> if the workspace {@link Document} has been changed, <code>false</code> if it already
+   *         contained the template.
+   */
+  public boolean merge(Document workspace, Document template, Document previous) {
+
+    Element workspaceRoot = workspace.getDocumentElement();
+    Element templateRoot = template.getDocumentElement();
+    if (templateRoot == null) {
+      return false;
+    }
+    if ((workspaceRoot == null) || !workspaceRoot.getNodeName().equals(templateRoot.getNodeName())) {
+      Node root = workspace.importNode(templateRoot, true);
+      if (workspaceRoot == null) {
+        workspace.appendChild(root);
+      } else {
+        workspace.replaceChild(root, workspaceRoot);
+      }
+      return true;
+    }
+    Element previousRoot = null;
+    if (previous != null) {
+      previousRoot = previous.getDocumentElement();
+      if ((previousRoot != null) && !previousRoot.getNodeName().equals(templateRoot.getNodeName())) {
+        previousRoot = null;
+      }
+    }
+    return mergeElement(workspaceRoot, templateRoot, previousRoot, "/" + templateRoot.getNodeName());
+  }
+
+  /**
+   * @param workspaceElement is the {@link Element} of the workspace to update.
+   * @param templateElement is the matching {@link Element} of the template.
+   * @param previousElement is the matching {@link Element} of the previous template or <code>null</code>.
+   * @param path is the path of the {@link Element}s.
+   * @return <code>true</code> if the workspace {@link Element} has been changed, <code>false</code> otherwise.
+   */
+  private boolean mergeElement(Element workspaceElement, Element templateElement, Element previousElement,
+      String path) {
+
+    boolean changed = mergeAttributes(workspaceElement, templateElement);
+    List<Element> templateChildren = getChildElements(templateElement);
+    List<Element> workspaceChildren = getChildElements(workspaceElement);
+    if (templateChildren.isEmpty()) {
+      String text = templateElement.getTextContent();
+      if (workspaceChildren.isEmpty() && !text.equals(workspaceElement.getTextContent())) {
+        workspaceElement.setTextContent(text);
+        changed = true;
+      }
+      return changed;
+    }
+    if (!hasIdentity(templateChildren, path)) {
+      return replaceChildren(workspaceElement, workspaceChildren, templateElement, templateChildren) || changed;
+    }
+    Map<String, Element> index = indexChildren(workspaceChildren, path);
+    Map<String, Element> previousIndex = null;
+    if (previousElement != null) {
+      previousIndex = indexChildren(getChildElements(previousElement), path);
+    }
+    Map<String, Integer> positions = new HashMap<String, Integer>();
+    for (Element templateChild : templateChildren) {
+      String identity = getIdentity(templateChild, path, positions);
+      Element previousChild = null;
+      if (previousIndex != null) {
+        previousChild = previousIndex.remove(identity);
+      }
+      Element workspaceChild = index.get(identity);
+      if (workspaceChild == null) {
+        Node node = workspaceElement.getOwnerDocument().importNode(templateChild, true);
+        Node last = workspaceElement.getLastChild();
+        if ((last instanceof Text) && last.getNodeValue().trim().isEmpty()) {
+          // keep the indentation of the closing tag
+          workspaceElement.insertBefore(node, last);
+        } else {
+          workspaceElement.appendChild(node);
+        }
+        changed = true;
+      } else if (mergeElement(workspaceChild, templateChild, previousChild, path + "/" + templateChild.getNodeName())) {
+        changed = true;
+      }
+    }
+    if (previousIndex != null) {
+      // what is left has been removed from the template since it was applied
+      for (String identity : previousIndex.keySet()) {
+        Element workspaceChild = index.get(identity);
+        if ((workspaceChild != null) && (identity.indexOf('@') > 0)) {
+          removeChild(workspaceElement, workspaceChild);
+          changed = true;
+        }
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * @param children are the child {@link Element}s of a parent.
+   * @param parentPath is the path of the parent {@link Element}.
+   * @return the given {@link Element}s by {@link #getIdentity(Element, String, Map) identity}. If an identity occurs
+   *         multiple times the first {@link Element} wins.
+   */
+  private Map<String, Element> indexChildren(List<Element> children, String parentPath) {
+
+    Map<String, Element> index = new HashMap<String, Element>(children.size() * 2);
+    Map<String, Integer> positions = new HashMap<String, Integer>();
+    for (Element child : children) {
+      String identity = getIdentity(child, parentPath, positions);
+      if (!index.containsKey(identity)) {
+        index.put(identity, child);
+      }
+    }
+    return index;
+  }
+
+  /**
+   * @param children are the child {@link Element}s of a parent.
+   * @param parentPath is the path of the parent {@link Element}.
+   * @return <code>true</code> if at least one of the given {@link Element}s has an identity attribute,
+   *         <code>false</code> if they can only be matched by their position.
+   */
+  private boolean hasIdentity(List<Element> children, String parentPath) {
+
+    for (Element child : children) {
+      if (getIdentityAttribute(child, parentPath) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Replaces the children of the workspace {@link Element} with the children of the template {@link Element} unless
+   * they are already equal.
+   *
+   * @param workspaceElement is the {@link Element} of the workspace to update.
+   * @param workspaceChildren are the child {@link Element}s of the <code>workspaceElement</code>.
+   * @param templateElement is the matching {@link Element} of the template.
+   * @param templateChildren are the child {@link Element}s of the <code>templateElement</code>.
+   * @return <code>true</code> if the children have been replaced, <code>false</code> if they were equal.
+   */
+  private static boolean replaceChildren(Element workspaceElement, List<Element> workspaceChildren,
+      Element templateElement, List<Element> templateChildren) {
+
+    if (workspaceChildren.size() == templateChildren.size()) {
+      boolean equal = true;
+      for (int i = 0; equal && (i < templateChildren.size()); i++) {
+        equal = workspaceChildren.get(i).isEqualNode(templateChildren.get(i));
+      }
+      if (equal) {
+        return false;
+      }
+    }
+    while (workspaceElement.getFirstChild() != null) {
+      workspaceElement.removeChild(workspaceElement.getFirstChild());
+    }
+    Document document = workspaceElement.getOwnerDocument();
+    for (Node child = templateElement.getFirstChild(); child != null; child = child.getNextSibling()) {
+      workspaceElement.appendChild(document.importNode(child, true));
+    }
+    return true;
+  }
+
+  /**
+   * Removes the given child together with its indentation.
+   *
+   * @param parent is the parent {@link Element}.
+   * @param child is the child {@link Element} to remove.
+   */
+  private static void removeChild(Element parent, Element child) {
+
+    Node previous = child.getPreviousSibling();
+    if ((previous instanceof Text) && previous.getNodeValue().trim().isEmpty()) {
+      parent.removeChild(previous);
+    }
+    parent.removeChild(child);
+  }
+
+  /**
+   * Sets all attributes of the template {@link Element} in the workspace {@link Element}. Additional attributes of the
+   * workspace {@link Element} are kept.
+   *
+   * @param workspaceElement is the {@link Element} of the workspace to update.
+   * @param templateElement is the matching {@link Element} of the template.
+   * @return <code>true</code> if an attribute has been changed, <code>false</code> otherwise.
+   */
+  private static boolean mergeAttributes(Element workspaceElement, Element templateElement) {
+
+    boolean changed = false;
+    NamedNodeMap attributes = templateElement.getAttributes();
+    for (int i = 0; i < attributes.getLength(); i++) {
+      Attr attribute = (Attr) attributes.item(i);
+      String name = attribute.getName();
+      String value = attribute.getValue();
+      if (!workspaceElement.hasAttribute(name) || !value.equals(workspaceElement.getAttribute(name))) {
+        workspaceElement.setAttribute(name, value);
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * @param element is the {@link Element} to identify.
+   * @param parentPath is the path of the parent {@link Element}.
+   * @param positions are the number of {@link Element}s without identity attribute by name seen so far among the
+   *        siblings.
+   * @return the identity of the {@link Element} among its siblings.
+   */
+  private String getIdentity(Element element, String parentPath, Map<String, Integer> positions) {
+
+    String name = element.getNodeName();
+    String attribute = getIdentityAttribute(element, parentPath);
+    if (attribute != null) {
+      return name + "@" + attribute + "=" + element.getAttribute(attribute);
+    }
+    Integer position = positions.get(name);
+    if (position == null) {
+      position = Integer.valueOf(0);
+    }
+    positions.put(name, Integer.valueOf(position.intValue() + 1));
+    return name + "[" + position + "]";
+  }
+
+  /**
+   * @param element is the {@link Element} to identify.
+   * @param parentPath is the path of the parent {@link Element}.
+   * @return the name of the identity attribute of the given {@link Element} or <code>null</code> if it has none.
+   */
+  private String getIdentityAttribute(Element element, String parentPath) {
+
+    String attribute = this.pathIdentityAttributes.get(parentPath + "/" + element.getNodeName());
+    if (attribute != null) {
+      if (element.hasAttribute(attribute)) {
+        return attribute;
+      }
+    } else {
+      for (String identityAttribute : this.identityAttributes) {
+        if (element.hasAttribute(identityAttribute)) {
+          return identityAttribute;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param element is the {@link Element}.
+   * @return the child {@link Element}s of the given {@link Element}.
+   */
+  private static List<Element> getChildElements(Element element) {
+
+    List<Element> children = new ArrayList<Element>();
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child instanceof Element) {
+        children.add((Element) child);
+      }
+    }
+    return children;
+  }
+
+}
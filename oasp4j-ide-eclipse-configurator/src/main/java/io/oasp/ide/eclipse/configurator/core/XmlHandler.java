@@ -1,10 +1,15 @@
 package io.oasp.ide.eclipse.configurator.core;
 
-import io.oasp.ide.eclipse.configurator.logging.Log;
+import io.oasp.ide.eclipse.configurator.logging.Metrics;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.logging.Level;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -32,11 +37,51 @@ import org.xml.sax.SAXException;
  */
 public class XmlHandler {
 
+  /**
+   * The {@link DocumentBuilderFactory} looked up once. Access has to be synchronized as factories are not thread-safe.
+   */
+  private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+
+  /**
+   * The {@link TransformerFactory} looked up once. Access has to be synchronized as factories are not thread-safe.
+   */
+  private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+
+  /**
+   * The {@link DocumentBuilder} of the current thread, {@link DocumentBuilder#reset() reset} before every reuse.
+   */
+  private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDERS = new ThreadLocal<DocumentBuilder>();
+
+  /**
+   * The {@link Transformer} of the current thread, {@link Transformer#reset() reset} before every reuse.
+   */
+  private static final ThreadLocal<Transformer> TRANSFORMERS = new ThreadLocal<Transformer>();
+
   /**
    * {@link Resolver} to resolve variables within xml files.
    */
   private Resolver resolver;
 
+  /**
+   * {@link XmlStreamResolver} for the streaming pipeline.
+   */
+  private final XmlStreamResolver streamResolver;
+
+  /**
+   * @see #isStreaming()
+   */
+  private boolean streaming;
+
+  /**
+   * @see #getFileWriter()
+   */
+  private AtomicFileWriter fileWriter;
+
+  /**
+   * @see #getElementMerger()
+   */
+  private XmlElementMerger elementMerger;
+
   /**
    * Creates a new {@link XmlHandler} that uses the given {@link Resolver}
    * to resolve variables within xml files..
@@ -45,64 +90,320 @@ public class XmlHandler {
   public XmlHandler(Resolver resolver) {
 
     this.resolver = resolver;
+    this.streamResolver = new XmlStreamResolver(resolver);
+    this.streaming = true;
+    this.fileWriter = new AtomicFileWriter();
+    this.elementMerger = new XmlElementMerger();
+  }
+
+  /**
+   * @return <code>true</code> if xml files are resolved in a single streaming pass (StAX) without building a DOM
+   *         (default), <code>false</code> if the DOM is always used. Files that can not be streamed with identical
+   *         output (e.g. with a DOCTYPE) always use the DOM.
+   */
+  public boolean isStreaming() {
+
+    return this.streaming;
+  }
+
+  /**
+   * @param streaming - see {@link #isStreaming()}.
+   */
+  public void setStreaming(boolean streaming) {
+
+    this.streaming = streaming;
+  }
+
+  /**
+   * @return the {@link AtomicFileWriter} used to write xml files.
+   */
+  public AtomicFileWriter getFileWriter() {
+
+    return this.fileWriter;
+  }
+
+  /**
+   * @param fileWriter - see {@link #getFileWriter()}.
+   */
+  public void setFileWriter(AtomicFileWriter fileWriter) {
+
+    this.fileWriter = fileWriter;
+  }
+
+  /**
+   * @return the {@link XmlElementMerger} used to {@link #merge(byte[], byte[], File) merge} update templates into
+   *         existing files.
+   */
+  public XmlElementMerger getElementMerger() {
+
+    return this.elementMerger;
+  }
+
+  /**
+   * @param elementMerger - see {@link #getElementMerger()}.
+   */
+  public void setElementMerger(XmlElementMerger elementMerger) {
+
+    this.elementMerger = elementMerger;
+  }
+
+  /**
+   * Writes the resolved content of the xmlFile to the destination file. The content is streamed to the destination
+   * without being held in memory.
+   * @param xmlFile - xmlFile to be solved and written to the destination.
+   * @param destination - destination file for the resolved content of the xmlFile.
+   * @throws IOException if the xmlFile could not be read, parsed or written to the destination.
+   */
+  public void update(File xmlFile, File destination) throws IOException {
+
+    update(xmlFile, null, destination);
   }
 
   /**
-   * Writes the resolved content of the xmlFile to the destination file.
+   * Writes the resolved content of the xmlFile to the destination file like {@link #update(File, File)}.
    * @param xmlFile - xmlFile to be solved and written to the destination.
+   * @param content - the content of the xmlFile (e.g. of a {@link TemplateBundle}) or <code>null</code> to read the
+   *        xmlFile.
    * @param destination - destination file for the resolved content of the xmlFile.
+   * @throws IOException if the xmlFile could not be read, parsed or written to the destination.
    */
-  public void update(File xmlFile, File destination) {
+  public void update(File xmlFile, ByteBuffer content, File destination) throws IOException {
 
+    AtomicFileWriter.Output out = this.fileWriter.open(destination);
     try {
+      resolve(xmlFile, content, out);
+      out.commit();
+    } finally {
+      out.close();
+    }
+  }
 
-      DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-      DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
+  /**
+   * Reads the xmlFile and resolves its variables.
+   * @param xmlFile - xmlFile to be resolved.
+   * @return the resolved content of the xmlFile.
+   * @throws IOException if the xmlFile could not be read or parsed.
+   */
+  public byte[] resolve(File xmlFile) throws IOException {
+
+    return resolve(xmlFile, (ByteBuffer) null);
+  }
+
+  /**
+   * Resolves the variables of the xmlFile like {@link #resolve(File)}.
+   * @param xmlFile - xmlFile to be resolved.
+   * @param content - the content of the xmlFile (e.g. of a {@link TemplateBundle}) or <code>null</code> to read the
+   *        xmlFile.
+   * @return the resolved content of the xmlFile.
+   * @throws IOException if the xmlFile could not be read or parsed.
+   */
+  public byte[] resolve(File xmlFile, ByteBuffer content) throws IOException {
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    resolve(xmlFile, content, out);
+    return out.toByteArray();
+  }
 
-      Document document = docBuilder.parse(xmlFile);
+  /**
+   * Reads the xmlFile, resolves its variables and writes the result to the given {@link OutputStream}.
+   * @param xmlFile - xmlFile to be resolved.
+   * @param out - the {@link OutputStream} where to write the resolved content. Will not be closed.
+   * @throws IOException if the xmlFile could not be read or parsed or the output could not be written.
+   */
+  public void resolve(File xmlFile, OutputStream out) throws IOException {
+
+    resolve(xmlFile, null, out);
+  }
 
-      resolveVariables(document);
+  /**
+   * Resolves the variables of the xmlFile like {@link #resolve(File, OutputStream)}.
+   * @param xmlFile - xmlFile to be resolved.
+   * @param content - the content of the xmlFile (e.g. of a {@link TemplateBundle}) or <code>null</code> to read the
+   *        xmlFile.
+   * @param out - the {@link OutputStream} where to write the resolved content. Will not be closed.
+   * @throws IOException if the xmlFile could not be read or parsed or the output could not be written.
+   */
+  public void resolve(File xmlFile, ByteBuffer content, OutputStream out) throws IOException {
+
+    long start = Metrics.start();
+    try {
+      if (content == null) {
+        Metrics.addBytesRead(xmlFile.length());
+      } else {
+        Metrics.addBytesRead(content.remaining());
+      }
+      if (this.streaming && this.streamResolver.resolve(xmlFile, content, out)) {
+        return;
+      }
+      resolveDom(xmlFile, content, out);
+    } finally {
+      Metrics.stop(Metrics.Phase.RESOLVE, start);
+    }
+  }
 
-      writeDocument(document, destination);
+  /**
+   * Reads the xmlFile as DOM, resolves its variables and writes the result to the given {@link OutputStream}.
+   * @param xmlFile - xmlFile to be resolved.
+   * @param content - the content of the xmlFile or <code>null</code> to read the xmlFile.
+   * @param out - the {@link OutputStream} where to write the resolved content. Will not be closed.
+   * @throws IOException if the xmlFile could not be read or parsed or the output could not be written.
+   */
+  private void resolveDom(File xmlFile, ByteBuffer content, OutputStream out) throws IOException {
 
+    Document document;
+    try {
+      if (content == null) {
+        document = getDocumentBuilder().parse(xmlFile);
+      } else {
+        document = getDocumentBuilder().parse(new ByteBufferInputStream(content), xmlFile.toURI().toString());
+      }
     } catch (ParserConfigurationException e) {
-    	Log.LOGGER
-        .log(Level.ALL, "An parse error occurred during read of file: " + xmlFile.getAbsolutePath(), e.getStackTrace());
+      throw createIOException("An parse error occurred during read of file: " + xmlFile.getAbsolutePath(), e);
     } catch (SAXException e) {
+      throw createIOException("Malformed XML in file: " + xmlFile.getAbsolutePath(), e);
+    }
 
-    } catch (IOException e) {
-      Log.LOGGER
-          .log(Level.ALL, "An io error occurred during read of file: " + xmlFile.getAbsolutePath(), e.getStackTrace());
+    resolveVariables(document);
+
+    try {
+      getTransformer().transform(new DOMSource(document), new StreamResult(out));
+    } catch (TransformerException e) {
+      throw createIOException("An transform error occurred during serialization of file: " + xmlFile.getAbsolutePath(),
+          e);
     }
   }
 
   /**
-   * Writes the specified document to the specified destination file.
-   * @param document - document to be written.
-   * @param destination - destination file for the document.
+   * @return the {@link DocumentBuilder} of the current thread. Reused for all files parsed by this thread so the
+   *         factory lookup and parser configuration is done only once per thread.
+   * @throws ParserConfigurationException if the {@link DocumentBuilder} could not be created.
    */
-  private void writeDocument(Document document, File destination) {
+  private static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
 
-    File parentDir = destination.getParentFile();
-    if (!parentDir.exists()) {
-      if (!parentDir.mkdirs()) {
-        Log.LOGGER.log(Level.ALL, "Could not create required directories for file: " + destination.getAbsolutePath());
-        return;
+    DocumentBuilder docBuilder = DOCUMENT_BUILDERS.get();
+    if (docBuilder == null) {
+      synchronized (DOCUMENT_BUILDER_FACTORY) {
+        docBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
       }
+      DOCUMENT_BUILDERS.set(docBuilder);
+    } else {
+      docBuilder.reset();
     }
+    return docBuilder;
+  }
 
+  /**
+   * @return the {@link Transformer} of the current thread. Reused for all files serialized by this thread so the
+   *         factory lookup is done only once per thread.
+   * @throws TransformerException if the {@link Transformer} could not be created.
+   */
+  private static Transformer getTransformer() throws TransformerException {
+
+    Transformer transformer = TRANSFORMERS.get();
+    if (transformer == null) {
+      synchronized (TRANSFORMER_FACTORY) {
+        transformer = TRANSFORMER_FACTORY.newTransformer();
+      }
+      TRANSFORMERS.set(transformer);
+    } else {
+      transformer.reset();
+    }
+    return transformer;
+  }
+
+  /**
+   * Merges the given resolved content into the existing destination file so only the changed elements and attributes
+   * are applied and everything else of the destination (e.g. additions of the user) is kept.
+   * @see XmlElementMerger
+   * @param content - the {@link #resolve(File) resolved} content of the update template.
+   * @param previousContent - the resolved content of the update template applied before or <code>null</code> if
+   *        unknown. Used to remove elements that have been removed from the update template.
+   * @param destination - the existing destination file.
+   * @return the merged content to {@link #write(byte[], File) write} or <code>null</code> if the destination already
+   *         contains the content and is left unchanged.
+   * @throws IOException if the destination could not be read or one of the files could not be parsed.
+   */
+  public byte[] merge(byte[] content, byte[] previousContent, File destination) throws IOException {
+
+    Document existing;
+    Document template;
+    Document previous = null;
+    long start = Metrics.start();
+    try {
+      Metrics.addBytesRead(destination.length());
+      existing = getDocumentBuilder().parse(destination);
+      template = getDocumentBuilder().parse(new ByteArrayInputStream(content), destination.toURI().toString());
+      if (previousContent != null) {
+        previous =
+            getDocumentBuilder().parse(new ByteArrayInputStream(previousContent), destination.toURI().toString());
+      }
+    } catch (ParserConfigurationException e) {
+      throw createIOException("An parse error occurred during read of file: " + destination.getAbsolutePath(), e);
+    } catch (SAXException e) {
+      throw createIOException("Malformed XML in file: " + destination.getAbsolutePath(), e);
+    } finally {
+      Metrics.stop(Metrics.Phase.READ, start);
+    }
+    start = Metrics.start();
     try {
-      TransformerFactory transformerFactory = TransformerFactory.newInstance();
-      Transformer transformer = transformerFactory.newTransformer();
-      DOMSource source = new DOMSource(document);
-      StreamResult result = new StreamResult(destination);
-      transformer.transform(source, result);
+      if (!this.elementMerger.merge(existing, template, previous)) {
+        return null;
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + (int) destination.length());
+      getTransformer().transform(new DOMSource(existing), new StreamResult(out));
+      return out.toByteArray();
     } catch (TransformerException e) {
-      Log.LOGGER.log(Level.ALL, "An transform error occurred during creatrion of file: " + destination.getAbsolutePath(),
-          e.getStackTrace());
+      throw createIOException("An transform error occurred during serialization of file: "
+          + destination.getAbsolutePath(), e);
+    } finally {
+      Metrics.stop(Metrics.Phase.RESOLVE, start);
     }
   }
 
+  /**
+   * Writes the given resolved content to the specified destination file.
+   * @param content - the {@link #resolve(File) resolved} content to be written.
+   * @param destination - destination file for the content.
+   * @throws IOException if the destination could not be written.
+   */
+  public void write(byte[] content, File destination) throws IOException {
+
+    this.fileWriter.write(destination, content);
+  }
+
+  /**
+   * Checks if the destination file already has the given resolved content so {@link #write(byte[], File) writing} it
+   * would not change anything.
+   * @param content - the {@link #resolve(File) resolved} content.
+   * @param destination - the destination file to check.
+   * @return <code>true</code> if the destination exists and has exactly the given content, <code>false</code>
+   *         otherwise.
+   * @throws IOException if the destination could not be read.
+   */
+  public boolean hasContent(byte[] content, File destination) throws IOException {
+
+    if (!destination.isFile() || (destination.length() != content.length)) {
+      return false;
+    }
+    long start = Metrics.start();
+    byte[] existing = Files.readAllBytes(destination.toPath());
+    Metrics.addBytesRead(existing.length);
+    Metrics.stop(Metrics.Phase.READ, start);
+    return Arrays.equals(content, existing);
+  }
+
+  /**
+   * @param message is the error message.
+   * @param cause is the original {@link Exception}.
+   * @return an {@link IOException} with the given message and cause.
+   */
+  private static IOException createIOException(String message, Exception cause) {
+
+    IOException e = new IOException(message);
+    e.initCause(cause);
+    return e;
+  }
+
   /**
    * Calls {@link #resolveElement(Element)} for every element in the document.
    * @param document - xml document to be resolved.
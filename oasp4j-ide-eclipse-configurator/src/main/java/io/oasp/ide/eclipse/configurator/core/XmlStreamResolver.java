@@ -0,0 +1,686 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * This class resolves the variables of an XML file in a single streaming pass (read, resolve, write) without building
+ * a DOM. The output is byte-identical to the DOM based serialization of {@link XmlHandler} (identity transformation of
+ * the JDK): UTF-8, XML declaration without line break, attributes sorted by name, empty elements collapsed and the
+ * same escaping rules. Documents this class can not reproduce exactly (DOCTYPE, XML 1.1, encodings other than UTF-8,
+ * etc.) are rejected before anything is written, so the caller can fall back to the DOM.
+ *
+ * @see XmlHandler#resolve(File, OutputStream)
+ */
+final class XmlStreamResolver {
+
+  /** The property of the JDK StAX implementation to report CDATA sections as such. */
+  private static final String PROPERTY_REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+  /**
+   * The {@link XMLInputFactory} of the current thread. The JDK implementation reuses its last reader, so a factory must
+   * not be shared between threads.
+   */
+  private static final ThreadLocal<XMLInputFactory> INPUT_FACTORIES = new ThreadLocal<XMLInputFactory>() {
+
+    @Override
+    protected XMLInputFactory initialValue() {
+
+      return createInputFactory();
+    }
+  };
+
+  /** The encoding of the output. */
+  private static final String ENCODING = "UTF-8";
+
+  /** Orders attributes (name and value pairs) by name like the DOM. */
+  private static final Comparator<String[]> ATTRIBUTE_NAME_COMPARATOR = new Comparator<String[]>() {
+
+    public int compare(String[] attribute1, String[] attribute2) {
+
+      return attribute1[0].compareTo(attribute2[0]);
+    }
+  };
+
+  /** The prefix of namespace declarations. */
+  private static final String XMLNS = "xmlns";
+
+  /** The reserved prefix that can not be (re)declared. */
+  private static final String XML = "xml";
+
+  /** The {@link Resolver} to resolve variables in attribute values, texts and CDATA sections. */
+  private final Resolver resolver;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param resolver is the {@link Resolver} to resolve variables.
+   */
+  XmlStreamResolver(Resolver resolver) {
+
+    super();
+    this.resolver = resolver;
+  }
+
+  /**
+   * Reads the given XML file, resolves its variables and writes the result to the given {@link OutputStream}.
+   *
+   * @param xmlFile is the XML file to resolve.
+   * @param content is the content of the XML file (e.g. of a {@link TemplateBundle}) or <code>null</code> to read the
+   *        file.
+   * @param out is the {@link OutputStream} to write to. Will be flushed but not closed.
+   * @return <code>true</code> if the file has been resolved, <code>false</code> if the file can not be streamed
+   *         identical to the DOM serialization. In the latter case nothing has been written to <code>out</code>.
+   * @throws IOException if the file could not be read, parsed or written.
+   */
+  boolean resolve(File xmlFile, ByteBuffer content, OutputStream out) throws IOException {
+
+    InputStream in;
+    if (content == null) {
+      in = new FileInputStream(xmlFile);
+    } else {
+      in = new ByteBufferInputStream(content);
+    }
+    try {
+      XMLStreamReader reader = INPUT_FACTORIES.get().createXMLStreamReader(xmlFile.toURI().toString(), in);
+      try {
+        return new Pass(reader, out).run();
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
+      IOException ioException = new IOException("Malformed XML in file: " + xmlFile.getAbsolutePath());
+      ioException.initCause(e);
+      throw ioException;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @return a new {@link XMLInputFactory} configured like the (non namespace aware) DOM parser of {@link XmlHandler}.
+   */
+  private static XMLInputFactory createInputFactory() {
+
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    if (factory.isPropertySupported(PROPERTY_REPORT_CDATA)) {
+      factory.setProperty(PROPERTY_REPORT_CDATA, Boolean.TRUE);
+    }
+    return factory;
+  }
+
+  /**
+   * @param qualifiedName is the qualified name of an element or attribute.
+   * @return the prefix of the given name or the empty {@link String} if it has no prefix.
+   */
+  private static String getPrefix(String qualifiedName) {
+
+    int colonIndex = qualifiedName.indexOf(':');
+    if (colonIndex > 0) {
+      return qualifiedName.substring(0, colonIndex);
+    }
+    return "";
+  }
+
+  /**
+   * @param attributeName is the qualified name of a namespace declaration (e.g. "xmlns:xsi").
+   * @return the declared prefix (e.g. "xsi") or the empty {@link String} for the default namespace.
+   */
+  private static String getDeclaredPrefix(String attributeName) {
+
+    int colonIndex = attributeName.lastIndexOf(':');
+    if (colonIndex > 0) {
+      return attributeName.substring(colonIndex + 1);
+    }
+    return "";
+  }
+
+  /**
+   * @param reader is the {@link XMLStreamReader} positioned at the start of the document.
+   * @return the XML declaration to write or <code>null</code> if the document can not be streamed.
+   */
+  private static String getDeclaration(XMLStreamReader reader) {
+
+    String version = reader.getVersion();
+    if (version == null) {
+      version = "1.0";
+    } else if (!version.equals("1.0")) {
+      return null;
+    }
+    String encoding = reader.getCharacterEncodingScheme();
+    if (encoding == null) {
+      String detectedEncoding = reader.getEncoding();
+      if ((detectedEncoding != null) && !detectedEncoding.equalsIgnoreCase(ENCODING)) {
+        return null;
+      }
+      encoding = ENCODING;
+    } else if (!encoding.equalsIgnoreCase(ENCODING)) {
+      return null;
+    }
+    StringBuilder declaration = new StringBuilder();
+    declaration.append("<?xml version=\"").append(version).append("\" encoding=\"").append(encoding).append('"');
+    if (!reader.standaloneSet() || !reader.isStandalone()) {
+      declaration.append(" standalone=\"no\"");
+    }
+    declaration.append("?>");
+    return declaration.toString();
+  }
+
+  /**
+   * A single pass over one document.
+   */
+  private final class Pass {
+
+    /** The {@link XMLStreamReader} to read from. */
+    private final XMLStreamReader reader;
+
+    /** The {@link OutputStream} to write to. */
+    private final OutputStream out;
+
+    /** The {@link Writer} on {@link #out}. Created lazily with the root element. */
+    private Writer writer;
+
+    /** The XML declaration, comments and processing instructions preceding the root element. */
+    private StringBuilder prolog;
+
+    /** The pending character data (text or CDATA) that has not been written yet. */
+    private final StringBuilder characters;
+
+    /** <code>true</code> if {@link #characters} is a CDATA section, <code>false</code> if it is text. */
+    private boolean cdata;
+
+    /** <code>true</code> if the last start tag has not been closed yet (to write empty elements as "&lt;e/&gt;"). */
+    private boolean startTagOpen;
+
+    /** The current depth of the element nesting. */
+    private int depth;
+
+    /** The {@link NamespaceBinding}s in scope. */
+    private final List<NamespaceBinding> namespaces;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param reader is the {@link #reader}.
+     * @param out is the {@link #out}.
+     */
+    private Pass(XMLStreamReader reader, OutputStream out) {
+
+      super();
+      this.reader = reader;
+      this.out = out;
+      this.prolog = new StringBuilder();
+      this.characters = new StringBuilder();
+      this.namespaces = new ArrayList<NamespaceBinding>();
+      this.namespaces.add(new NamespaceBinding("", "", 0));
+      this.namespaces.add(new NamespaceBinding(XML, "http://www.w3.org/XML/1998/namespace", 0));
+    }
+
+    /**
+     * @return <code>true</code> if the document has been resolved, <code>false</code> if it can not be streamed.
+     * @throws XMLStreamException if the document is malformed.
+     * @throws IOException if the output could not be written.
+     */
+    private boolean run() throws XMLStreamException, IOException {
+
+      String declaration = getDeclaration(this.reader);
+      if (declaration == null) {
+        return false;
+      }
+      this.prolog.append(declaration);
+      while (this.reader.hasNext()) {
+        int event = this.reader.next();
+        switch (event) {
+          case XMLStreamConstants.START_ELEMENT:
+            flushCharacters();
+            startElement();
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            flushCharacters();
+            endElement();
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.SPACE:
+            characters(false);
+            break;
+          case XMLStreamConstants.CDATA:
+            characters(true);
+            break;
+          case XMLStreamConstants.COMMENT:
+            flushCharacters();
+            writeMarkup("<!--" + this.reader.getText() + "-->");
+            break;
+          case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            flushCharacters();
+            processingInstruction();
+            break;
+          case XMLStreamConstants.DTD:
+          case XMLStreamConstants.ENTITY_REFERENCE:
+            // the DOM would apply the DTD (default attributes, entities) and drop it on serialization
+            if (this.writer == null) {
+              return false;
+            }
+            throw new XMLStreamException("Unexpected DTD or entity reference.", this.reader.getLocation());
+          default:
+            // ignore (e.g. END_DOCUMENT)
+        }
+      }
+      if (this.writer != null) {
+        this.writer.flush();
+      }
+      return true;
+    }
+
+    /**
+     * Writes the given markup (comment or processing instruction). Before the root element it is collected in the
+     * {@link #prolog}.
+     *
+     * @param markup is the markup to write.
+     * @throws IOException if the output could not be written.
+     */
+    private void writeMarkup(String markup) throws IOException {
+
+      if (this.writer == null) {
+        this.prolog.append(markup);
+      } else {
+        closeStartTag();
+        this.writer.write(markup);
+      }
+    }
+
+    /**
+     * Writes a start tag (left open for {@link #endElement()}). The attributes are written in the order of the DOM
+     * serialization: namespace declarations first (redundant ones omitted), then the other attributes sorted by name.
+     *
+     * @throws XMLStreamException if the document uses an undeclared namespace prefix.
+     * @throws IOException if the output could not be written.
+     */
+    private void startElement() throws XMLStreamException, IOException {
+
+      closeStartTag();
+      boolean root = (this.writer == null);
+      if (root) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(this.out, ENCODING));
+        this.writer.write(this.prolog.toString());
+        this.prolog = null;
+      }
+      this.depth++;
+      String name = this.reader.getLocalName();
+      int attributeCount = this.reader.getAttributeCount();
+      String[][] attributes = new String[attributeCount][];
+      for (int i = 0; i < attributeCount; i++) {
+        String attributeName = this.reader.getAttributeLocalName(i);
+        String prefix = this.reader.getAttributePrefix(i);
+        if ((prefix != null) && (prefix.length() > 0)) {
+          attributeName = prefix + ":" + attributeName;
+        }
+        String value = XmlStreamResolver.this.resolver.resolveVariables(this.reader.getAttributeValue(i));
+        attributes[i] = new String[] { attributeName, value };
+      }
+      Arrays.sort(attributes, ATTRIBUTE_NAME_COMPARATOR);
+      Map<String, String> output = new LinkedHashMap<String, String>();
+      if (root) {
+        // the namespace of the root element itself is declared first
+        String elementPrefix = getPrefix(name);
+        for (String[] attribute : attributes) {
+          if (attribute[0].startsWith(XMLNS) && getDeclaredPrefix(attribute[0]).equals(elementPrefix)) {
+            if ((attribute[1].length() > 0) && !attribute[1].equals(lookupNamespace(elementPrefix))) {
+              pushNamespace(elementPrefix, attribute[1]);
+              if (elementPrefix.length() == 0) {
+                output.put(XMLNS, attribute[1]);
+              } else {
+                output.put(XMLNS + ":" + elementPrefix, attribute[1]);
+              }
+            }
+            break;
+          }
+        }
+      }
+      for (String[] attribute : attributes) {
+        if (attribute[0].startsWith(XMLNS)) {
+          String prefix = getDeclaredPrefix(attribute[0]);
+          if (pushNamespace(prefix, attribute[1])) {
+            if (prefix.length() == 0) {
+              output.put(XMLNS, attribute[1]);
+            } else if (attribute[1].length() > 0) {
+              output.put(XMLNS + ":" + prefix, attribute[1]);
+            }
+          }
+        }
+      }
+      for (String[] attribute : attributes) {
+        if (!attribute[0].startsWith(XMLNS)) {
+          output.put(normalizeAttributeName(attribute[0]), attribute[1]);
+        }
+      }
+      Writer w = this.writer;
+      w.write('<');
+      w.write(name);
+      for (Map.Entry<String, String> attribute : output.entrySet()) {
+        w.write(' ');
+        w.write(attribute.getKey());
+        w.write("=\"");
+        writeAttributeValue(attribute.getValue());
+        w.write('"');
+      }
+      this.startTagOpen = true;
+    }
+
+    /**
+     * @param attributeName is the qualified name of an attribute.
+     * @return the name as written by the DOM serialization (a prefix bound to the empty namespace is omitted).
+     * @throws XMLStreamException if the prefix of the attribute has not been declared.
+     */
+    private String normalizeAttributeName(String attributeName) throws XMLStreamException {
+
+      int lastColonIndex = attributeName.lastIndexOf(':');
+      if (lastColonIndex > 0) {
+        int firstColonIndex = attributeName.indexOf(':');
+        String prefix = attributeName.substring(0, firstColonIndex);
+        String localName = attributeName.substring(lastColonIndex + 1);
+        String uri = lookupNamespace(prefix);
+        if ((uri != null) && (uri.length() == 0)) {
+          return localName;
+        } else if (uri == null) {
+          throw new XMLStreamException("Namespace for prefix '" + prefix + "' has not been declared.",
+              this.reader.getLocation());
+        } else if (firstColonIndex != lastColonIndex) {
+          return prefix + ":" + localName;
+        }
+      }
+      return attributeName;
+    }
+
+    /**
+     * @param prefix is the namespace prefix.
+     * @return the namespace URI currently bound to the given prefix or <code>null</code> if not bound.
+     */
+    private String lookupNamespace(String prefix) {
+
+      for (int i = this.namespaces.size() - 1; i >= 0; i--) {
+        NamespaceBinding namespace = this.namespaces.get(i);
+        if (namespace.prefix.equals(prefix)) {
+          return namespace.uri;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Binds the given prefix to the given namespace URI for the current element (if not already bound).
+     *
+     * @param prefix is the namespace prefix.
+     * @param uri is the namespace URI.
+     * @return <code>true</code> if the binding has been added, <code>false</code> if it is redundant or the prefix is
+     *         reserved.
+     */
+    private boolean pushNamespace(String prefix, String uri) {
+
+      if (prefix.startsWith(XML) || uri.equals(lookupNamespace(prefix))) {
+        return false;
+      }
+      this.namespaces.add(new NamespaceBinding(prefix, uri, this.depth));
+      return true;
+    }
+
+    /**
+     * Writes an end tag or completes the open start tag as empty element.
+     *
+     * @throws IOException if the output could not be written.
+     */
+    private void endElement() throws IOException {
+
+      while (this.namespaces.get(this.namespaces.size() - 1).depth == this.depth) {
+        this.namespaces.remove(this.namespaces.size() - 1);
+      }
+      this.depth--;
+      if (this.startTagOpen) {
+        this.writer.write("/>");
+        this.startTagOpen = false;
+      } else {
+        this.writer.write("</");
+        this.writer.write(this.reader.getLocalName());
+        this.writer.write('>');
+      }
+    }
+
+    /**
+     * Closes the open start tag (if any).
+     *
+     * @throws IOException if the output could not be written.
+     */
+    private void closeStartTag() throws IOException {
+
+      if (this.startTagOpen) {
+        this.writer.write('>');
+        this.startTagOpen = false;
+      }
+    }
+
+    /**
+     * Collects the current character data. Adjacent text events are joined so variables are resolved on the same text
+     * as in the DOM. Each CDATA section is a node of its own in the DOM and is therefore written immediately.
+     *
+     * @param isCdata <code>true</code> for a CDATA section, <code>false</code> for text.
+     * @throws IOException if the output could not be written.
+     */
+    private void characters(boolean isCdata) throws IOException {
+
+      if (this.depth == 0) {
+        // whitespace outside of the root element is not part of the DOM
+        return;
+      }
+      if (isCdata || this.cdata) {
+        flushCharacters();
+      }
+      this.cdata = isCdata;
+      this.characters.append(this.reader.getTextCharacters(), this.reader.getTextStart(), this.reader.getTextLength());
+      if (isCdata) {
+        flushCharacters();
+      }
+    }
+
+    /**
+     * Writes the pending {@link #characters} (if any).
+     *
+     * @throws IOException if the output could not be written.
+     */
+    private void flushCharacters() throws IOException {
+
+      if (this.characters.length() == 0) {
+        return;
+      }
+      String value = XmlStreamResolver.this.resolver.resolveVariables(this.characters.toString());
+      this.characters.setLength(0);
+      if (value.length() == 0) {
+        return;
+      }
+      closeStartTag();
+      if (this.cdata) {
+        writeCdata(value);
+      } else {
+        writeText(value);
+      }
+    }
+
+    /**
+     * Writes the current processing instruction.
+     *
+     * @throws IOException if the output could not be written.
+     */
+    private void processingInstruction() throws IOException {
+
+      String data = this.reader.getPIData();
+      if ((data == null) || (data.length() == 0)) {
+        writeMarkup("<?" + this.reader.getPITarget() + "?>");
+      } else {
+        writeMarkup("<?" + this.reader.getPITarget() + " " + data + "?>");
+      }
+    }
+
+    /**
+     * Writes the given text with escaping.
+     *
+     * @param text is the text to write.
+     * @throws IOException if the output could not be written.
+     */
+    private void writeText(String text) throws IOException {
+
+      Writer w = this.writer;
+      int length = text.length();
+      int start = 0;
+      for (int i = 0; i < length; i++) {
+        char c = text.charAt(i);
+        String replacement;
+        if (c == '<') {
+          replacement = "&lt;";
+        } else if (c == '>') {
+          replacement = "&gt;";
+        } else if (c == '&') {
+          replacement = "&amp;";
+        } else if (c == '\r') {
+          replacement = "&#13;";
+        } else if (((c < 0x20) && (c != '\n') && (c != '\t')) || ((c >= 0x7F) && (c <= 0x9F))) {
+          replacement = "&#" + (int) c + ";";
+        } else if (Character.isHighSurrogate(c) && (i + 1 < length) && Character.isLowSurrogate(text.charAt(i + 1))) {
+          replacement = "&#" + Character.toCodePoint(c, text.charAt(i + 1)) + ";";
+        } else {
+          continue;
+        }
+        w.write(text, start, i - start);
+        w.write(replacement);
+        if (Character.isHighSurrogate(c)) {
+          i++;
+        }
+        start = i + 1;
+      }
+      w.write(text, start, length - start);
+    }
+
+    /**
+     * Writes the given CDATA section. Characters that can not be part of a CDATA section are written outside of it.
+     *
+     * @param text is the content of the CDATA section.
+     * @throws IOException if the output could not be written.
+     */
+    private void writeCdata(String text) throws IOException {
+
+      Writer w = this.writer;
+      boolean open = false;
+      int length = text.length();
+      for (int i = 0; i < length; i++) {
+        char c = text.charAt(i);
+        if (Character.isHighSurrogate(c) && (i + 1 < length)) {
+          w.write(c);
+          w.write(text.charAt(i + 1));
+          i++;
+        } else if ((c < 0x20) && (c != '\n') && (c != '\r') && (c != '\t')) {
+          w.write("&#" + (int) c + ";");
+        } else if ((c == ']') && text.startsWith("]]>", i)) {
+          w.write("]]]]><![CDATA[>");
+          i = i + 2;
+        } else {
+          if (!open) {
+            w.write("<![CDATA[");
+            open = true;
+          }
+          w.write(c);
+        }
+      }
+      if (open) {
+        w.write("]]>");
+      }
+    }
+
+    /**
+     * Writes the given attribute value with escaping.
+     *
+     * @param value is the attribute value to write.
+     * @throws IOException if the output could not be written.
+     */
+    private void writeAttributeValue(String value) throws IOException {
+
+      Writer w = this.writer;
+      int length = value.length();
+      int start = 0;
+      for (int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        String replacement;
+        if (c == '<') {
+          replacement = "&lt;";
+        } else if (c == '>') {
+          replacement = "&gt;";
+        } else if (c == '&') {
+          replacement = "&amp;";
+        } else if (c == '"') {
+          replacement = "&quot;";
+        } else if (c < 0x20) {
+          replacement = "&#" + (int) c + ";";
+        } else if (Character.isHighSurrogate(c) && (i + 1 < length) && Character.isLowSurrogate(value.charAt(i + 1))) {
+          replacement = "&#" + Character.toCodePoint(c, value.charAt(i + 1)) + ";";
+        } else {
+          continue;
+        }
+        w.write(value, start, i - start);
+        w.write(replacement);
+        if (Character.isHighSurrogate(c)) {
+          i++;
+        }
+        start = i + 1;
+      }
+      w.write(value, start, length - start);
+    }
+  }
+
+  /**
+   * The binding of a namespace prefix to a namespace URI.
+   */
+  private static final class NamespaceBinding {
+
+    /** The namespace prefix or the empty {@link String} for the default namespace. */
+    private final String prefix;
+
+    /** The namespace URI. */
+    private final String uri;
+
+    /** The depth of the element that declared this binding. */
+    private final int depth;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param prefix is the {@link #prefix}.
+     * @param uri is the {@link #uri}.
+     * @param depth is the {@link #depth}.
+     */
+    private NamespaceBinding(String prefix, String uri, int depth) {
+
+      super();
+      this.prefix = prefix;
+      this.uri = uri;
+      this.depth = depth;
+    }
+  }
+
+}
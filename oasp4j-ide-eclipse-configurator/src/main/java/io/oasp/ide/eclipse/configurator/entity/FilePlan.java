@@ -0,0 +1,213 @@
+package io.oasp.ide.eclipse.configurator.entity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The planned {@link Action} for a single configuration file of a workspace as computed by a dry-run. For .prefs and
+ * .properties files it also contains the {@link KeyChange}s of the individual preferences.
+ */
+public class FilePlan {
+
+  /** @see #getRelativePath() */
+  private final String relativePath;
+
+  /** @see #getAction() */
+  private final Action action;
+
+  /** @see #getKeyChanges() */
+  private final List<KeyChange> keyChanges;
+
+  /** @see #getError() */
+  private final String error;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param relativePath is the {@link #getRelativePath() relative path}.
+   * @param action is the planned {@link Action}.
+   */
+  public FilePlan(String relativePath, Action action) {
+
+    this(relativePath, action, null);
+  }
+
+  /**
+   * Creates a new instance.
+   *
+   * @param relativePath is the {@link #getRelativePath() relative path}.
+   * @param action is the planned {@link Action}.
+   * @param error is the {@link #getError() error message} or <code>null</code>.
+   */
+  public FilePlan(String relativePath, Action action, String error) {
+
+    super();
+    this.relativePath = relativePath;
+    this.action = action;
+    this.error = error;
+    this.keyChanges = new ArrayList<KeyChange>();
+  }
+
+  /**
+   * Creates a new instance for a file that could not be planned.
+   *
+   * @param relativePath is the {@link #getRelativePath() relative path}.
+   * @param cause is the {@link Throwable} that occurred.
+   * @return the new {@link FilePlan} with {@link Action#FAILED}.
+   */
+  public static FilePlan failed(String relativePath, Throwable cause) {
+
+    String message = cause.getMessage();
+    if (message == null) {
+      message = cause.getClass().getName();
+    }
+    return new FilePlan(relativePath, Action.FAILED, message);
+  }
+
+  /**
+   * @return the path relative to the workspace.
+   */
+  public String getRelativePath() {
+
+    return this.relativePath;
+  }
+
+  /**
+   * @return the planned {@link Action}.
+   */
+  public Action getAction() {
+
+    return this.action;
+  }
+
+  /**
+   * @return the {@link KeyChange}s of a .prefs or .properties file sorted by key as unmodifiable view. Will be empty
+   *         for other files.
+   */
+  public List<KeyChange> getKeyChanges() {
+
+    return Collections.unmodifiableList(this.keyChanges);
+  }
+
+  /**
+   * @param key is the {@link KeyChange#getKey() key} of the preference.
+   * @param oldValue is the {@link KeyChange#getOldValue() current value} or <code>null</code> if added.
+   * @param newValue is the {@link KeyChange#getNewValue() planned value}.
+   */
+  public void addKeyChange(String key, String oldValue, String newValue) {
+
+    this.keyChanges.add(new KeyChange(key, oldValue, newValue));
+  }
+
+  /**
+   * @return the error message if the {@link #getAction() action} is {@link Action#FAILED}, <code>null</code>
+   *         otherwise.
+   */
+  public String getError() {
+
+    return this.error;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+
+    return this.action + " " + this.relativePath;
+  }
+
+  /**
+   * The planned action for a configuration file.
+   */
+  public static enum Action {
+
+    /** The file does not exist in the workspace and will be created from the templates. */
+    CREATE,
+
+    /** The existing .prefs, .properties or XML file will be updated with the (resolved) templates. */
+    MERGE,
+
+    /** The existing file can not be merged and will be replaced with a copy of the template. */
+    COPY,
+
+    /** The file is already up-to-date or only has a setup template and will be left alone. */
+    UNCHANGED,
+
+    /** The file could not be planned (e.g. as a template could not be read). */
+    FAILED;
+
+    /**
+     * @return <code>true</code> if applying the plan would write the file, <code>false</code> otherwise.
+     */
+    public boolean isChange() {
+
+      return (this == CREATE) || (this == MERGE) || (this == COPY);
+    }
+  }
+
+  /**
+   * The planned change of a single preference in a .prefs or .properties file.
+   */
+  public static class KeyChange {
+
+    /** @see #getKey() */
+    private final String key;
+
+    /** @see #getOldValue() */
+    private final String oldValue;
+
+    /** @see #getNewValue() */
+    private final String newValue;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param key is the {@link #getKey() key}.
+     * @param oldValue is the {@link #getOldValue() old value}.
+     * @param newValue is the {@link #getNewValue() new value}.
+     */
+    public KeyChange(String key, String oldValue, String newValue) {
+
+      super();
+      this.key = key;
+      this.oldValue = oldValue;
+      this.newValue = newValue;
+    }
+
+    /**
+     * @return the key of the preference.
+     */
+    public String getKey() {
+
+      return this.key;
+    }
+
+    /**
+     * @return the current value in the workspace or <code>null</code> if the preference will be added.
+     */
+    public String getOldValue() {
+
+      return this.oldValue;
+    }
+
+    /**
+     * @return the value after applying the plan.
+     */
+    public String getNewValue() {
+
+      return this.newValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+
+      return this.key + ": " + this.oldValue + " -> " + this.newValue;
+    }
+  }
+
+}
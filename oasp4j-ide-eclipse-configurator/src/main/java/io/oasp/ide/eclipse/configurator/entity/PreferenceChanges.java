@@ -0,0 +1,98 @@
+package io.oasp.ide.eclipse.configurator.entity;
+
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The statistics of saving the changes of a workspace .prefs file back into its template: the keys with a changed
+ * value, the keys that have been added and if the template file actually had to be written.
+ */
+public class PreferenceChanges {
+
+  /** @see #getChangedKeys() */
+  private final SortedSet<String> changedKeys;
+
+  /** @see #getAddedKeys() */
+  private final SortedSet<String> addedKeys;
+
+  /** @see #isWritten() */
+  private boolean written;
+
+  /**
+   * Creates a new empty instance.
+   */
+  public PreferenceChanges() {
+
+    super();
+    this.changedKeys = new TreeSet<String>();
+    this.addedKeys = new TreeSet<String>();
+  }
+
+  /**
+   * @return the sorted keys of existing preferences whose value has changed as unmodifiable view.
+   */
+  public SortedSet<String> getChangedKeys() {
+
+    return Collections.unmodifiableSortedSet(this.changedKeys);
+  }
+
+  /**
+   * @return the sorted keys of preferences that have been added as unmodifiable view.
+   */
+  public SortedSet<String> getAddedKeys() {
+
+    return Collections.unmodifiableSortedSet(this.addedKeys);
+  }
+
+  /**
+   * @param key is the key of an existing preference whose value has changed.
+   */
+  public void addChangedKey(String key) {
+
+    this.changedKeys.add(key);
+  }
+
+  /**
+   * @param key is the key of a preference that has been added.
+   */
+  public void addAddedKey(String key) {
+
+    this.addedKeys.add(key);
+  }
+
+  /**
+   * @return <code>true</code> if there are neither changed nor added keys, <code>false</code> otherwise.
+   */
+  public boolean isEmpty() {
+
+    return this.changedKeys.isEmpty() && this.addedKeys.isEmpty();
+  }
+
+  /**
+   * @return <code>true</code> if the template file has been written, <code>false</code> if there were no changes or
+   *         the file was already up-to-date.
+   */
+  public boolean isWritten() {
+
+    return this.written;
+  }
+
+  /**
+   * @param written is the {@link #isWritten() written} flag to set.
+   */
+  public void setWritten(boolean written) {
+
+    this.written = written;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+
+    return this.changedKeys.size() + " changed and " + this.addedKeys.size() + " new properties";
+  }
+
+}
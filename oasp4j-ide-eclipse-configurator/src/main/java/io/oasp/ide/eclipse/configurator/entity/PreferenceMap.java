@@ -0,0 +1,178 @@
+package io.oasp.ide.eclipse.configurator.entity;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An ordered map of preferences (e.g. the content of an eclipse .prefs file) sorted ascending by their keys. Unlike
+ * {@link SortedProperties} it is not synchronized, keeps its keys sorted all the time instead of sorting them on every
+ * access and allows to {@link #transformValues(ValueTransformer) transform all values} in a single pass.
+ */
+public class PreferenceMap {
+
+  /** The preferences sorted by key. */
+  private final TreeMap<String, String> map;
+
+  /**
+   * Creates a new empty instance.
+   */
+  public PreferenceMap() {
+
+    super();
+    this.map = new TreeMap<String, String>();
+  }
+
+  /**
+   * Creates a new instance as copy of the given {@link PreferenceMap}. As the preferences are already sorted this takes
+   * linear time.
+   *
+   * @param preferences is the {@link PreferenceMap} to copy.
+   */
+  public PreferenceMap(PreferenceMap preferences) {
+
+    super();
+    this.map = new TreeMap<String, String>((SortedMap<String, String>) preferences.map);
+  }
+
+  /**
+   * @param key is the key of the preference.
+   * @return the value of the preference or <code>null</code> if not present.
+   */
+  public String get(String key) {
+
+    return this.map.get(key);
+  }
+
+  /**
+   * @param key is the key of the preference.
+   * @param value is the value of the preference.
+   * @return the previous value of the preference or <code>null</code> if not present.
+   */
+  public String put(String key, String value) {
+
+    return this.map.put(key, value);
+  }
+
+  /**
+   * Adds all preferences of the given {@link PreferenceMap} replacing existing values.
+   *
+   * @param preferences are the preferences to add.
+   */
+  public void putAll(PreferenceMap preferences) {
+
+    if (this.map.isEmpty()) {
+      // linear copy of sorted entries
+      this.map.putAll((SortedMap<String, String>) preferences.map);
+    } else {
+      this.map.putAll(preferences.map);
+    }
+  }
+
+  /**
+   * @param key is the key of the preference.
+   * @return the removed value of the preference or <code>null</code> if not present.
+   */
+  public String remove(String key) {
+
+    return this.map.remove(key);
+  }
+
+  /**
+   * @return the number of preferences.
+   */
+  public int size() {
+
+    return this.map.size();
+  }
+
+  /**
+   * @return <code>true</code> if there are no preferences, <code>false</code> otherwise.
+   */
+  public boolean isEmpty() {
+
+    return this.map.isEmpty();
+  }
+
+  /**
+   * @return the sorted keys as unmodifiable view.
+   */
+  public Set<String> keySet() {
+
+    return Collections.unmodifiableSet(this.map.keySet());
+  }
+
+  /**
+   * @return the preferences sorted by key as view. Values may be changed via {@link Map.Entry#setValue(Object)}.
+   */
+  public Set<Map.Entry<String, String>> entrySet() {
+
+    return this.map.entrySet();
+  }
+
+  /**
+   * Replaces every value with the result of the given {@link ValueTransformer} in a single pass without re-sorting.
+   *
+   * @param transformer is the {@link ValueTransformer} to apply.
+   */
+  public void transformValues(ValueTransformer transformer) {
+
+    for (Map.Entry<String, String> entry : this.map.entrySet()) {
+      String value = entry.getValue();
+      String transformed = transformer.transform(value);
+      if (transformed != value) {
+        entry.setValue(transformed);
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals(Object obj) {
+
+    if (obj == this) {
+      return true;
+    }
+    if ((obj == null) || (obj.getClass() != getClass())) {
+      return false;
+    }
+    return this.map.equals(((PreferenceMap) obj).map);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode() {
+
+    return this.map.hashCode();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+
+    return this.map.toString();
+  }
+
+  /**
+   * This is the interface for a transformation of preference values.
+   *
+   * @see PreferenceMap#transformValues(ValueTransformer)
+   */
+  public interface ValueTransformer {
+
+    /**
+     * @param value is the current value.
+     * @return the transformed value. May be the same instance if unchanged.
+     */
+    String transform(String value);
+  }
+
+}
@@ -0,0 +1,88 @@
+package io.oasp.ide.eclipse.configurator.entity;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a dry-run for a workspace: the {@link FilePlan}s of all its configuration files that tell what
+ * applying the templates would do without writing anything.
+ */
+public class WorkspacePlan {
+
+  /** @see #getWorkspacePath() */
+  private final String workspacePath;
+
+  /** @see #getFiles() */
+  private final List<FilePlan> files;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param workspacePath is the {@link #getWorkspacePath() workspace path}.
+   * @param files are the {@link #getFiles() file plans}.
+   */
+  public WorkspacePlan(String workspacePath, List<FilePlan> files) {
+
+    super();
+    this.workspacePath = workspacePath;
+    this.files = Collections.unmodifiableList(files);
+  }
+
+  /**
+   * @return the path to the workspace's plug-ins folder.
+   */
+  public String getWorkspacePath() {
+
+    return this.workspacePath;
+  }
+
+  /**
+   * @return the unmodifiable {@link List} of {@link FilePlan}s sorted by {@link FilePlan#getRelativePath() relative
+   *         path}.
+   */
+  public List<FilePlan> getFiles() {
+
+    return this.files;
+  }
+
+  /**
+   * @param action is the {@link FilePlan.Action} to count.
+   * @return the number of {@link #getFiles() files} with the given {@link FilePlan.Action}.
+   */
+  public int count(FilePlan.Action action) {
+
+    int count = 0;
+    for (FilePlan file : this.files) {
+      if (file.getAction() == action) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return <code>true</code> if applying the plan would write at least one file, <code>false</code> if the workspace
+   *         is up-to-date.
+   */
+  public boolean hasChanges() {
+
+    for (FilePlan file : this.files) {
+      if (file.getAction().isChange()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+
+    return this.workspacePath + ": " + count(FilePlan.Action.CREATE) + " to create, " + count(FilePlan.Action.MERGE)
+        + " to merge, " + count(FilePlan.Action.COPY) + " to copy, " + count(FilePlan.Action.UNCHANGED)
+        + " unchanged, " + count(FilePlan.Action.FAILED) + " failed";
+  }
+
+}
@@ -0,0 +1,434 @@
+package io.oasp.ide.eclipse.configurator.logging;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * This is a {@link Handler} that writes log records to files without blocking the logging thread. Records are put into
+ * a bounded queue together with the current {@link LogContext} and written, formatted and flushed by a single
+ * background thread. If the queue is full (the disk can not keep up) further records are dropped and counted instead
+ * of stalling the merge workers. Like {@link java.util.logging.FileHandler} it locks each log file while it is open and
+ * uses a unique name (<code>.1</code>, <code>.2</code>, ...) if the file is locked by another process, so concurrent
+ * configurator processes do not overwrite each other's logs.
+ */
+public class AsyncFileHandler extends Handler {
+
+  /** The default maximum number of records waiting to be written. */
+  public static final int DEFAULT_CAPACITY = 8192;
+
+  /** The {@link Entry} that tells the writer thread to stop. */
+  private static final Entry END = new Entry(null, null, null);
+
+  /** The maximum milliseconds {@link #close()} waits for pending records to be written. */
+  private static final long CLOSE_TIMEOUT = 5000;
+
+  /** The maximum number of unique names tried if a log file is locked (as by {@link java.util.logging.FileHandler}). */
+  private static final int MAX_UNIQUE = 100;
+
+  /** @see #getMode() */
+  private final Mode mode;
+
+  /** The directory of the log files. */
+  private final File directory;
+
+  /** The log file for records without workspace (or all records if not {@link Mode#WORKSPACE}). */
+  private final File runFile;
+
+  /** The records to write. */
+  private final BlockingQueue<Entry> queue;
+
+  /** @see #getDroppedRecords() */
+  private final AtomicLong droppedRecords;
+
+  /** The thread writing the records. */
+  private final Thread writerThread;
+
+  /** The open {@link Writer}s by log file. Only accessed by the {@link #writerThread}. */
+  private final Map<File, Writer> writers;
+
+  /** The format of the timestamps. Only accessed by the {@link #writerThread}. */
+  private final SimpleDateFormat dateFormat;
+
+  /** <code>true</code> if {@link #close() closed}. */
+  private volatile boolean closed;
+
+  /**
+   * The constructor.
+   *
+   * @param directory is the directory where to create the log files.
+   * @param mode is the {@link #getMode() mode}.
+   * @param capacity is the maximum number of records waiting to be written.
+   */
+  public AsyncFileHandler(File directory, Mode mode, int capacity) {
+
+    super();
+    this.mode = mode;
+    this.directory = directory;
+    if (mode == Mode.SHARED) {
+      this.runFile = new File(directory, Strings.APPLICATION_NAME + ".log");
+    } else {
+      String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+      this.runFile = new File(directory, Strings.APPLICATION_NAME + "-" + timestamp + "-" + getProcessId() + ".log");
+    }
+    this.queue = new ArrayBlockingQueue<Entry>(capacity);
+    this.droppedRecords = new AtomicLong();
+    this.writers = new HashMap<File, Writer>();
+    this.dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+    setLevel(Level.ALL);
+    setFormatter(new SimpleFormatter());
+    this.writerThread = new Thread(new Runnable() {
+
+      public void run() {
+
+        writeEntries();
+      }
+    }, Strings.APPLICATION_NAME + "-log-writer");
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+  }
+
+  /**
+   * @return the {@link Mode} that determines the log files.
+   */
+  public Mode getMode() {
+
+    return this.mode;
+  }
+
+  /**
+   * @return the number of records that have been dropped because the queue was full.
+   */
+  public long getDroppedRecords() {
+
+    return this.droppedRecords.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void publish(LogRecord record) {
+
+    if (this.closed || !isLoggable(record)) {
+      return;
+    }
+    Entry entry = new Entry(record, LogContext.get(), Thread.currentThread().getName());
+    if (!this.queue.offer(entry)) {
+      this.droppedRecords.incrementAndGet();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Does nothing as the writer thread flushes the files whenever there are no more pending records.
+   */
+  @Override
+  public void flush() {
+
+    // flushed by writer thread
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Waits for the pending records to be written (at most a few seconds) and closes the log files.
+   */
+  @Override
+  public void close() {
+
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    try {
+      if (this.queue.offer(END, CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+        this.writerThread.join(CLOSE_TIMEOUT);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * The loop of the writer thread.
+   */
+  private void writeEntries() {
+
+    List<Entry> entries = new ArrayList<Entry>();
+    boolean end = false;
+    while (!end) {
+      try {
+        entries.add(this.queue.take());
+      } catch (InterruptedException e) {
+        end = true;
+      }
+      this.queue.drainTo(entries);
+      for (Entry entry : entries) {
+        if (entry == END) {
+          end = true;
+        } else {
+          write(entry);
+        }
+      }
+      entries.clear();
+      flushWriters();
+    }
+    long dropped = this.droppedRecords.get();
+    if (dropped > 0) {
+      write(getWriter(this.runFile), dropped + " log record(s) dropped because the log queue was full.\n");
+    }
+    for (Writer writer : this.writers.values()) {
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          reportError("Could not close log file", e, ErrorManager.CLOSE_FAILURE);
+        }
+      }
+    }
+    this.writers.clear();
+  }
+
+  /**
+   * @param entry is the {@link Entry} to write.
+   */
+  private void write(Entry entry) {
+
+    File file = this.runFile;
+    if ((this.mode == Mode.WORKSPACE) && (entry.context != null) && (entry.context.getWorkspace() != null)) {
+      String workspace = toFileName(entry.context.getWorkspace());
+      file = new File(this.directory, Strings.APPLICATION_NAME + "-" + workspace + ".log");
+    }
+    Writer writer = getWriter(file);
+    if (writer != null) {
+      write(writer, format(entry));
+    }
+  }
+
+  /**
+   * @param entry is the {@link Entry} to format.
+   * @return the formatted record.
+   */
+  private String format(Entry entry) {
+
+    LogRecord record = entry.record;
+    StringBuilder buffer = new StringBuilder(128);
+    buffer.append(this.dateFormat.format(new Date(record.getMillis())));
+    buffer.append(' ').append(record.getLevel().getName());
+    buffer.append(" [").append(entry.threadName).append(']');
+    if (entry.context != null) {
+      if ((this.mode != Mode.WORKSPACE) && (entry.context.getWorkspace() != null)) {
+        buffer.append(" workspace=").append(entry.context.getWorkspace());
+      }
+      if (entry.context.getRelativePath() != null) {
+        buffer.append(" file=").append(entry.context.getRelativePath());
+      }
+    }
+    buffer.append(' ').append(getFormatter().formatMessage(record)).append('\n');
+    if (record.getThrown() != null) {
+      StringWriter stackTrace = new StringWriter();
+      record.getThrown().printStackTrace(new PrintWriter(stackTrace));
+      buffer.append(stackTrace);
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * @param file is the log file.
+   * @return the {@link Writer} for the given file or <code>null</code> if it could not be opened.
+   */
+  private Writer getWriter(File file) {
+
+    Writer writer = this.writers.get(file);
+    if ((writer == null) && !this.writers.containsKey(file)) {
+      try {
+        writer = new BufferedWriter(new OutputStreamWriter(openLocked(file), "UTF-8"));
+      } catch (IOException e) {
+        reportError("Could not open log file " + file.getPath(), e, ErrorManager.OPEN_FAILURE);
+      }
+      this.writers.put(file, writer);
+    }
+    return writer;
+  }
+
+  /**
+   * Opens the given log file and locks it until it is closed. If the file is locked by another process (e.g. a
+   * concurrent configurator logging to the {@link Mode#SHARED shared} log file) a unique name is used instead. The file
+   * is only truncated after it has been locked.
+   *
+   * @param file is the log file.
+   * @return the {@link FileOutputStream} to the locked log file.
+   * @throws IOException if the file could not be opened or all unique names are locked.
+   */
+  private static FileOutputStream openLocked(File file) throws IOException {
+
+    File logFile = file;
+    for (int unique = 1; unique <= MAX_UNIQUE; unique++) {
+      FileOutputStream out = new FileOutputStream(logFile, true);
+      boolean locked;
+      try {
+        FileLock lock = out.getChannel().tryLock();
+        locked = (lock != null);
+      } catch (OverlappingFileLockException e) {
+        // already locked by this process
+        locked = false;
+      } catch (IOException e) {
+        // locking is not supported by the file system, log anyway (as FileHandler does)
+        locked = true;
+      }
+      if (locked) {
+        try {
+          out.getChannel().truncate(0);
+        } catch (IOException e) {
+          out.close();
+          throw e;
+        }
+        return out;
+      }
+      out.close();
+      logFile = new File(file.getPath() + "." + unique);
+    }
+    throw new IOException("Could not lock log file " + file.getPath() + " or any of its unique names.");
+  }
+
+  /**
+   * @param writer is the {@link Writer} to write to. May be <code>null</code> if the file could not be opened.
+   * @param text is the text to write.
+   */
+  private void write(Writer writer, String text) {
+
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.write(text);
+    } catch (IOException e) {
+      reportError("Could not write log file", e, ErrorManager.WRITE_FAILURE);
+    }
+  }
+
+  /**
+   * Flushes all open {@link #writers}.
+   */
+  private void flushWriters() {
+
+    for (Writer writer : this.writers.values()) {
+      if (writer != null) {
+        try {
+          writer.flush();
+        } catch (IOException e) {
+          reportError("Could not flush log file", e, ErrorManager.FLUSH_FAILURE);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param workspace is the path of a workspace.
+   * @return the given path with all characters that are not safe in file names replaced.
+   */
+  private static String toFileName(String workspace) {
+
+    StringBuilder buffer = new StringBuilder(workspace.length());
+    for (int i = 0; i < workspace.length(); i++) {
+      char c = workspace.charAt(i);
+      if (((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')) || (c == '.')
+          || (c == '-')) {
+        buffer.append(c);
+      } else if ((buffer.length() > 0) && (buffer.charAt(buffer.length() - 1) != '_')) {
+        buffer.append('_');
+      }
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * @return the ID of this process or <code>0</code> if unknown.
+   */
+  private static String getProcessId() {
+
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    int atIndex = name.indexOf('@');
+    if (atIndex > 0) {
+      return name.substring(0, atIndex);
+    }
+    return "0";
+  }
+
+  /**
+   * The modes of the {@link AsyncFileHandler} that determine the log files.
+   */
+  public static enum Mode {
+
+    /** All processes log to {@link Strings#APPLICATION_NAME EclipseConfigurator}.log (as before). */
+    SHARED,
+
+    /** Each run logs to its own file named after the start time and process ID. */
+    RUN,
+
+    /**
+     * Like {@link #RUN} but records of a workspace (see {@link LogContext#getWorkspace()}) go to a file named after the
+     * workspace path.
+     */
+    WORKSPACE
+  }
+
+  /**
+   * A {@link LogRecord} with the {@link LogContext} and thread name captured when it was published.
+   */
+  private static final class Entry {
+
+    /** The {@link LogRecord}. */
+    private final LogRecord record;
+
+    /** The {@link LogContext} or <code>null</code>. */
+    private final LogContext context;
+
+    /** The name of the logging thread. */
+    private final String threadName;
+
+    /**
+     * The constructor.
+     *
+     * @param record is the {@link LogRecord}.
+     * @param context is the {@link LogContext} or <code>null</code>.
+     * @param threadName is the name of the logging thread.
+     */
+    private Entry(LogRecord record, LogContext context, String threadName) {
+
+      super();
+      this.record = record;
+      this.context = context;
+      this.threadName = threadName;
+    }
+  }
+
+}
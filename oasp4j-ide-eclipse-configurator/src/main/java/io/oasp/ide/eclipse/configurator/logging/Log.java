@@ -3,13 +3,13 @@ package io.oasp.ide.eclipse.configurator.logging;
 import io.oasp.ide.eclipse.configurator.constants.Strings;
 import io.oasp.ide.eclipse.configurator.core.Configurator;
 
-import java.util.logging.FileHandler;
-import java.util.logging.Level;
+import java.io.File;
+import java.util.Locale;
 import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
 
 /**
- * This class provides a {@link Logger} for logging purposes.
+ * This class provides a {@link Logger} for logging purposes. Log records are written asynchronously by an
+ * {@link AsyncFileHandler} to the log file(s) selected via {@link Strings#CONFIGURATOR_LOG_MODE}.
  * 
  * @author trippl
  * 
@@ -22,12 +22,17 @@ public class Log {
   public static final Logger LOGGER = Logger.getLogger(Configurator.class.getName());
 
   static {
-    FileHandler logFileHandler;
+    String mode = System.getenv(Strings.CONFIGURATOR_LOG_MODE);
+    AsyncFileHandler.Mode logMode = AsyncFileHandler.Mode.SHARED;
+    if ((mode != null) && (mode.trim().length() > 0)) {
+      try {
+        logMode = AsyncFileHandler.Mode.valueOf(mode.trim().toUpperCase(Locale.US));
+      } catch (IllegalArgumentException e) {
+        System.err.println("Invalid " + Strings.CONFIGURATOR_LOG_MODE + " " + mode + ", using shared log file");
+      }
+    }
     try {
-      logFileHandler = new FileHandler(Strings.APPLICATION_NAME + ".log");
-      logFileHandler.setLevel(Level.ALL);
-      logFileHandler.setFormatter(new SimpleFormatter());
-      LOGGER.addHandler(logFileHandler);
+      LOGGER.addHandler(new AsyncFileHandler(new File("."), logMode, AsyncFileHandler.DEFAULT_CAPACITY));
     } catch (Exception e) {
       System.err.println("Could not open log file");
     }
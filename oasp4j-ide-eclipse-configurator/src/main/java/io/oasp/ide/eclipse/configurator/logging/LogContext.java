@@ -0,0 +1,98 @@
+package io.oasp.ide.eclipse.configurator.logging;
+
+/**
+ * This class holds the workspace and the relative path of the configuration file that is currently processed by the
+ * calling thread. It is captured together with each log record by the {@link AsyncFileHandler} so the log shows which
+ * workspace and file a message belongs to even if several files or workspaces are processed concurrently. Instances are
+ * immutable and {@link #enter(String, String) entered} and {@link #restore(LogContext) restored} in a
+ * <code>try</code>/<code>finally</code> block.
+ */
+public final class LogContext {
+
+  /** The {@link LogContext} of the calling thread. */
+  private static final ThreadLocal<LogContext> CURRENT = new ThreadLocal<LogContext>();
+
+  /** @see #getWorkspace() */
+  private final String workspace;
+
+  /** @see #getRelativePath() */
+  private final String relativePath;
+
+  /**
+   * The constructor.
+   *
+   * @param workspace is the {@link #getWorkspace() workspace}.
+   * @param relativePath is the {@link #getRelativePath() relative path}.
+   */
+  private LogContext(String workspace, String relativePath) {
+
+    super();
+    this.workspace = workspace;
+    this.relativePath = relativePath;
+  }
+
+  /**
+   * @return the path of the workspace or <code>null</code> if not related to a workspace.
+   */
+  public String getWorkspace() {
+
+    return this.workspace;
+  }
+
+  /**
+   * @return the relative path of the configuration file or <code>null</code> if not related to a single file.
+   */
+  public String getRelativePath() {
+
+    return this.relativePath;
+  }
+
+  /**
+   * @return the {@link LogContext} of the calling thread or <code>null</code> if none is {@link #enter(String, String)
+   *         entered}.
+   */
+  public static LogContext get() {
+
+    return CURRENT.get();
+  }
+
+  /**
+   * Sets the {@link LogContext} of the calling thread.
+   *
+   * @param workspace is the {@link #getWorkspace() workspace}.
+   * @param relativePath is the {@link #getRelativePath() relative path} or <code>null</code> for the workspace itself.
+   * @return the previous {@link LogContext} to {@link #restore(LogContext) restore} afterwards.
+   */
+  public static LogContext enter(String workspace, String relativePath) {
+
+    LogContext previous = CURRENT.get();
+    CURRENT.set(new LogContext(workspace, relativePath));
+    return previous;
+  }
+
+  /**
+   * @param previous is the result of {@link #enter(String, String)} that shall be the {@link LogContext} of the
+   *        calling thread again.
+   */
+  public static void restore(LogContext previous) {
+
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+
+    if (this.relativePath == null) {
+      return String.valueOf(this.workspace);
+    }
+    return this.workspace + ":" + this.relativePath;
+  }
+
+}
@@ -0,0 +1,566 @@
+package io.oasp.ide.eclipse.configurator.logging;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class collects timing and volume metrics of a configurator run like {@link Log#LOGGER} collects its log
+ * messages: the time spent per {@link Phase}, the number of files and bytes read and written per file type, the hits
+ * and misses of each replacement variable and the slowest files. Bytes are attributed to the type of the file that is
+ * currently processed by the calling thread (see {@link #startFile(String)}). All methods are thread-safe and cheap so
+ * the metrics are {@link #isEnabled() enabled} by default: variables are counted per thread and only merged when a file
+ * is {@link #stopFile(String, long) stopped}. Phase times are exclusive, i.e. a phase {@link #start() started} while
+ * another one is running in the same thread is subtracted from the outer phase. Times of parallel workers are summed
+ * up so a phase may take longer than the {@link #getWallTime() wall time} of the run.
+ */
+public final class Metrics {
+
+  /** The number of {@link #getSlowestFiles() slowest files} that are kept. */
+  public static final int SLOWEST_FILE_COUNT = 10;
+
+  /** The file type for bytes read or written outside of a file (e.g. the template scan or the index). */
+  private static final String TYPE_OTHER = "(other)";
+
+  /** The file type for files without extension. */
+  private static final String TYPE_NONE = "(none)";
+
+  /** @see #isEnabled() */
+  private static volatile boolean enabled = true;
+
+  /** The start of the run in {@link System#nanoTime() nanos}. */
+  private static volatile long startNanos = System.nanoTime();
+
+  /** The nanos spent per {@link Phase} indexed by {@link Phase#ordinal()}. */
+  private static final AtomicLong[] PHASE_NANOS = createCounters(Phase.values().length);
+
+  /** The {@link TypeMetrics} by file type. */
+  private static final ConcurrentMap<String, TypeMetrics> TYPES = new ConcurrentHashMap<String, TypeMetrics>();
+
+  /** The hits and misses by variable name. */
+  private static final ConcurrentMap<String, AtomicLong[]> VARIABLES = new ConcurrentHashMap<String, AtomicLong[]>();
+
+  /** The slowest files with the fastest one as head. Guarded by synchronizing on this queue. */
+  private static final PriorityQueue<FileTime> SLOWEST_FILES = new PriorityQueue<FileTime>(SLOWEST_FILE_COUNT + 1,
+      FileTime.COMPARATOR);
+
+  /** The {@link TypeMetrics} of the file currently processed by the calling thread. */
+  private static final ThreadLocal<TypeMetrics> CURRENT_TYPE = new ThreadLocal<TypeMetrics>();
+
+  /** The nanos recorded for any {@link Phase} by the calling thread, used to make nested phases exclusive. */
+  private static final ThreadLocal<long[]> RECORDED_NANOS = new ThreadLocal<long[]>() {
+
+    @Override
+    protected long[] initialValue() {
+
+      return new long[1];
+    }
+  };
+
+  /** The hits and misses by variable name counted by the calling thread and not yet merged into {@link #VARIABLES}. */
+  private static final ThreadLocal<Map<String, long[]>> THREAD_VARIABLES = new ThreadLocal<Map<String, long[]>>() {
+
+    @Override
+    protected Map<String, long[]> initialValue() {
+
+      return new HashMap<String, long[]>();
+    }
+  };
+
+  /**
+   * Construction prohibited.
+   */
+  private Metrics() {
+
+    super();
+  }
+
+  /**
+   * @return <code>true</code> if metrics are collected (default), <code>false</code> otherwise.
+   */
+  public static boolean isEnabled() {
+
+    return enabled;
+  }
+
+  /**
+   * @param enabled - see {@link #isEnabled()}.
+   */
+  public static void setEnabled(boolean enabled) {
+
+    Metrics.enabled = enabled;
+  }
+
+  /**
+   * Discards all collected metrics and restarts the {@link #getWallTime() wall time}.
+   */
+  public static void reset() {
+
+    for (AtomicLong counter : PHASE_NANOS) {
+      counter.set(0);
+    }
+    TYPES.clear();
+    THREAD_VARIABLES.get().clear();
+    VARIABLES.clear();
+    synchronized (SLOWEST_FILES) {
+      SLOWEST_FILES.clear();
+    }
+    startNanos = System.nanoTime();
+  }
+
+  /**
+   * @return the start for {@link #stop(Phase, long)} or <code>0</code> if not {@link #isEnabled() enabled}. This is
+   *         the current time minus the nanos already recorded by the calling thread so nested phases can be
+   *         subtracted without keeping a stack.
+   */
+  public static long start() {
+
+    if (!enabled) {
+      return 0;
+    }
+    long start = System.nanoTime() - RECORDED_NANOS.get()[0];
+    if (start == 0) {
+      return 1;
+    }
+    return start;
+  }
+
+  /**
+   * Adds the time since the given start to the given {@link Phase} excluding the time recorded for phases nested in
+   * between by the calling thread.
+   *
+   * @param phase is the {@link Phase} to record.
+   * @param start is the result of {@link #start()}.
+   */
+  public static void stop(Phase phase, long start) {
+
+    if (start != 0) {
+      long[] recorded = RECORDED_NANOS.get();
+      long nanos = System.nanoTime() - recorded[0] - start;
+      recorded[0] += nanos;
+      PHASE_NANOS[phase.ordinal()].addAndGet(nanos);
+    }
+  }
+
+  /**
+   * Starts processing a file in the calling thread. Until {@link #stopFile(String, long)} all bytes read or written by
+   * this thread are attributed to the type (extension) of this file.
+   *
+   * @param relativePath is the relative path of the file.
+   * @return the start time for {@link #stopFile(String, long)} or <code>0</code> if not {@link #isEnabled() enabled}.
+   */
+  public static long startFile(String relativePath) {
+
+    if (!enabled) {
+      return 0;
+    }
+    TypeMetrics type = getTypeMetrics(getFileType(relativePath));
+    type.files.incrementAndGet();
+    CURRENT_TYPE.set(type);
+    return System.nanoTime();
+  }
+
+  /**
+   * Stops processing the current file of the calling thread.
+   *
+   * @param relativePath is the relative path of the file.
+   * @param start is the result of {@link #startFile(String)}.
+   */
+  public static void stopFile(String relativePath, long start) {
+
+    TypeMetrics type = CURRENT_TYPE.get();
+    CURRENT_TYPE.remove();
+    if ((start == 0) || (type == null)) {
+      return;
+    }
+    long nanos = System.nanoTime() - start;
+    type.nanos.addAndGet(nanos);
+    mergeVariables();
+    LogContext context = LogContext.get();
+    String workspace = null;
+    if (context != null) {
+      workspace = context.getWorkspace();
+    }
+    synchronized (SLOWEST_FILES) {
+      if ((SLOWEST_FILES.size() < SLOWEST_FILE_COUNT) || (SLOWEST_FILES.peek().nanos < nanos)) {
+        SLOWEST_FILES.add(new FileTime(workspace, relativePath, nanos));
+        if (SLOWEST_FILES.size() > SLOWEST_FILE_COUNT) {
+          SLOWEST_FILES.poll();
+        }
+      }
+    }
+  }
+
+  /**
+   * @param bytes is the number of bytes read by the calling thread.
+   */
+  public static void addBytesRead(long bytes) {
+
+    if (enabled) {
+      getCurrentType().bytesRead.addAndGet(bytes);
+    }
+  }
+
+  /**
+   * @param bytes is the number of bytes written by the calling thread.
+   */
+  public static void addBytesWritten(long bytes) {
+
+    if (enabled) {
+      getCurrentType().bytesWritten.addAndGet(bytes);
+    }
+  }
+
+  /**
+   * Counts the resolution of a variable. The count is kept in the calling thread until the current file is
+   * {@link #stopFile(String, long) stopped} so resolving variables does not contend on shared counters.
+   *
+   * @param variable is the name of the variable.
+   * @param hit - <code>true</code> if the variable was resolved, <code>false</code> if no replacement was found.
+   */
+  public static void countVariable(String variable, boolean hit) {
+
+    if (!enabled) {
+      return;
+    }
+    Map<String, long[]> variables = THREAD_VARIABLES.get();
+    long[] counts = variables.get(variable);
+    if (counts == null) {
+      counts = new long[2];
+      variables.put(variable, counts);
+    }
+    if (hit) {
+      counts[0]++;
+    } else {
+      counts[1]++;
+    }
+  }
+
+  /**
+   * Merges the variable counts of the calling thread into {@link #VARIABLES}.
+   */
+  private static void mergeVariables() {
+
+    Map<String, long[]> variables = THREAD_VARIABLES.get();
+    if (variables.isEmpty()) {
+      return;
+    }
+    for (Map.Entry<String, long[]> entry : variables.entrySet()) {
+      AtomicLong[] counters = VARIABLES.get(entry.getKey());
+      if (counters == null) {
+        counters = createCounters(2);
+        AtomicLong[] existing = VARIABLES.putIfAbsent(entry.getKey(), counters);
+        if (existing != null) {
+          counters = existing;
+        }
+      }
+      long[] counts = entry.getValue();
+      counters[0].addAndGet(counts[0]);
+      counters[1].addAndGet(counts[1]);
+    }
+    variables.clear();
+  }
+
+  /**
+   * @return the milliseconds since the start of the run (or the last {@link #reset()}).
+   */
+  public static long getWallTime() {
+
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * @param phase is the {@link Phase}.
+   * @return the milliseconds spent in the given {@link Phase} summed up over all threads.
+   */
+  public static long getPhaseTime(Phase phase) {
+
+    return TimeUnit.NANOSECONDS.toMillis(PHASE_NANOS[phase.ordinal()].get());
+  }
+
+  /**
+   * @return the {@link FileTime}s of the slowest files sorted descending by time.
+   */
+  public static List<FileTime> getSlowestFiles() {
+
+    List<FileTime> files;
+    synchronized (SLOWEST_FILES) {
+      files = new ArrayList<FileTime>(SLOWEST_FILES);
+    }
+    Collections.sort(files, Collections.reverseOrder(FileTime.COMPARATOR));
+    return files;
+  }
+
+  /**
+   * @return the human readable summary of the collected metrics.
+   */
+  public static String getSummary() {
+
+    mergeVariables();
+    StringBuilder buffer = new StringBuilder();
+    buffer.append("Metrics of run (").append(getWallTime()).append(" ms):");
+    for (Phase phase : Phase.values()) {
+      buffer.append("\n  phase ").append(phase.name().toLowerCase(Locale.US)).append(": ").append(getPhaseTime(phase))
+          .append(" ms");
+    }
+    for (Map.Entry<String, TypeMetrics> entry : new TreeMap<String, TypeMetrics>(TYPES).entrySet()) {
+      TypeMetrics type = entry.getValue();
+      buffer.append("\n  type ").append(entry.getKey()).append(": ").append(type.files.get()).append(" files in ")
+          .append(TimeUnit.NANOSECONDS.toMillis(type.nanos.get())).append(" ms, ").append(type.bytesRead.get())
+          .append(" bytes read, ").append(type.bytesWritten.get()).append(" bytes written");
+    }
+    for (Map.Entry<String, AtomicLong[]> entry : new TreeMap<String, AtomicLong[]>(VARIABLES).entrySet()) {
+      buffer.append("\n  variable ").append(entry.getKey()).append(": ").append(entry.getValue()[0].get())
+          .append(" hits, ").append(entry.getValue()[1].get()).append(" misses");
+    }
+    for (FileTime file : getSlowestFiles()) {
+      buffer.append("\n  slow file: ").append(file.getMillis()).append(" ms ");
+      if (file.getWorkspace() != null) {
+        buffer.append(file.getWorkspace()).append(": ");
+      }
+      buffer.append(file.getRelativePath());
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * Writes the collected metrics as JSON.
+   *
+   * @param writer is the {@link Writer} where to write the JSON to. Will not be closed.
+   * @throws IOException if writing failed.
+   */
+  public static void writeJson(Writer writer) throws IOException {
+
+    mergeVariables();
+    writer.write("{\n  \"wallTimeMillis\": " + getWallTime() + ",\n  \"phases\": {");
+    String separator = "\n";
+    for (Phase phase : Phase.values()) {
+      writer.write(separator + "    \"" + phase.name().toLowerCase(Locale.US) + "\": " + getPhaseTime(phase));
+      separator = ",\n";
+    }
+    writer.write("\n  },\n  \"types\": {");
+    separator = "\n";
+    for (Map.Entry<String, TypeMetrics> entry : new TreeMap<String, TypeMetrics>(TYPES).entrySet()) {
+      TypeMetrics type = entry.getValue();
+      writer.write(separator + "    " + toJsonString(entry.getKey()) + ": {\"files\": " + type.files.get()
+          + ", \"millis\": " + TimeUnit.NANOSECONDS.toMillis(type.nanos.get()) + ", \"bytesRead\": "
+          + type.bytesRead.get() + ", \"bytesWritten\": " + type.bytesWritten.get() + "}");
+      separator = ",\n";
+    }
+    writer.write("\n  },\n  \"variables\": {");
+    separator = "\n";
+    for (Map.Entry<String, AtomicLong[]> entry : new TreeMap<String, AtomicLong[]>(VARIABLES).entrySet()) {
+      writer.write(separator + "    " + toJsonString(entry.getKey()) + ": {\"hits\": " + entry.getValue()[0].get()
+          + ", \"misses\": " + entry.getValue()[1].get() + "}");
+      separator = ",\n";
+    }
+    writer.write("\n  },\n  \"slowestFiles\": [");
+    separator = "\n";
+    for (FileTime file : getSlowestFiles()) {
+      writer.write(separator + "    {");
+      if (file.getWorkspace() != null) {
+        writer.write("\"workspace\": " + toJsonString(file.getWorkspace()) + ", ");
+      }
+      writer.write("\"path\": " + toJsonString(file.getRelativePath()) + ", \"millis\": " + file.getMillis() + "}");
+      separator = ",\n";
+    }
+    writer.write("\n  ]\n}\n");
+  }
+
+  /**
+   * @param value is the {@link String} to quote.
+   * @return the given value as JSON string literal.
+   */
+  private static String toJsonString(String value) {
+
+    StringBuilder buffer = new StringBuilder(value.length() + 2);
+    buffer.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if ((c == '"') || (c == '\\')) {
+        buffer.append('\\').append(c);
+      } else if (c < 0x20) {
+        buffer.append(String.format("\\u%04x", Integer.valueOf(c)));
+      } else {
+        buffer.append(c);
+      }
+    }
+    return buffer.append('"').toString();
+  }
+
+  /**
+   * @param relativePath is the relative path of a file.
+   * @return the type of the file (its extension including the dot).
+   */
+  private static String getFileType(String relativePath) {
+
+    int start = Math.max(relativePath.lastIndexOf('/'), relativePath.lastIndexOf('\\')) + 1;
+    int dotIndex = relativePath.lastIndexOf('.');
+    if (dotIndex <= start) {
+      return TYPE_NONE;
+    }
+    return relativePath.substring(dotIndex);
+  }
+
+  /**
+   * @return the {@link TypeMetrics} of the file currently processed by the calling thread.
+   */
+  private static TypeMetrics getCurrentType() {
+
+    TypeMetrics type = CURRENT_TYPE.get();
+    if (type == null) {
+      type = getTypeMetrics(TYPE_OTHER);
+    }
+    return type;
+  }
+
+  /**
+   * @param type is the file type.
+   * @return the {@link TypeMetrics} for the given type.
+   */
+  private static TypeMetrics getTypeMetrics(String type) {
+
+    TypeMetrics metrics = TYPES.get(type);
+    if (metrics == null) {
+      metrics = new TypeMetrics();
+      TypeMetrics existing = TYPES.putIfAbsent(type, metrics);
+      if (existing != null) {
+        metrics = existing;
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * @param count is the number of counters.
+   * @return an array with the given number of new counters.
+   */
+  private static AtomicLong[] createCounters(int count) {
+
+    AtomicLong[] counters = new AtomicLong[count];
+    for (int i = 0; i < count; i++) {
+      counters[i] = new AtomicLong();
+    }
+    return counters;
+  }
+
+  /**
+   * The phases of a run that are timed.
+   */
+  public static enum Phase {
+
+    /** Scanning the template trees. */
+    SCAN,
+
+    /** Reading and parsing files (templates, workspace files and hashes). */
+    READ,
+
+    /** Resolving and re-resolving variables (for XML files including parsing and serializing). */
+    RESOLVE,
+
+    /** Writing, syncing and renaming files. */
+    WRITE,
+
+    /** Copying or linking files that are not merged excluding the nested {@link #WRITE}. */
+    COPY
+  }
+
+  /**
+   * The counters of a file type.
+   */
+  private static final class TypeMetrics {
+
+    /** The number of files. */
+    private final AtomicLong files = new AtomicLong();
+
+    /** The nanos spent to process the files. */
+    private final AtomicLong nanos = new AtomicLong();
+
+    /** The number of bytes read. */
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    /** The number of bytes written. */
+    private final AtomicLong bytesWritten = new AtomicLong();
+  }
+
+  /**
+   * The time spent to process a file.
+   */
+  public static final class FileTime {
+
+    /** The {@link Comparator} by {@link #getMillis() time}. */
+    private static final Comparator<FileTime> COMPARATOR = new Comparator<FileTime>() {
+
+      public int compare(FileTime file1, FileTime file2) {
+
+        if (file1.nanos < file2.nanos) {
+          return -1;
+        } else if (file1.nanos > file2.nanos) {
+          return 1;
+        }
+        return 0;
+      }
+    };
+
+    /** @see #getWorkspace() */
+    private final String workspace;
+
+    /** @see #getRelativePath() */
+    private final String relativePath;
+
+    /** The time in nanos. */
+    private final long nanos;
+
+    /**
+     * The constructor.
+     *
+     * @param workspace is the {@link #getWorkspace() workspace}.
+     * @param relativePath is the {@link #getRelativePath() relative path}.
+     * @param nanos is the time in nanos.
+     */
+    private FileTime(String workspace, String relativePath, long nanos) {
+
+      super();
+      this.workspace = workspace;
+      this.relativePath = relativePath;
+      this.nanos = nanos;
+    }
+
+    /**
+     * @return the path of the workspace of the file or <code>null</code> if unknown.
+     */
+    public String getWorkspace() {
+
+      return this.workspace;
+    }
+
+    /**
+     * @return the relative path of the file.
+     */
+    public String getRelativePath() {
+
+      return this.relativePath;
+    }
+
+    /**
+     * @return the time in milliseconds spent to process the file.
+     */
+    public long getMillis() {
+
+      return TimeUnit.NANOSECONDS.toMillis(this.nanos);
+    }
+  }
+
+}
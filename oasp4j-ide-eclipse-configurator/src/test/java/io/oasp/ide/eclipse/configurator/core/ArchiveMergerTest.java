@@ -0,0 +1,245 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+import io.oasp.ide.eclipse.configurator.entity.FilePlan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test of {@link ArchiveMerger}.
+ */
+public class ArchiveMergerTest {
+
+  /** The encoding of the text entries. */
+  private static final String ENCODING = "UTF-8";
+
+  /** The relative path of the merged archive. */
+  private static final String RELATIVE_PATH = ".metadata/repositories.xml.zip";
+
+  /** A modification time long before the test. */
+  private static final long OLD_TIME = 1000000000000L;
+
+  /** The temporary folder with the templates and the workspace. */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Tests that an archive whose entries have the CRCs of the resolved template is not rewritten, even if it differs
+   * in compression and timestamps.
+   *
+   * @throws IOException if reading or writing failed.
+   */
+  @Test
+  public void testSkipUnchangedCrc() throws IOException {
+
+    writeZip(getFile("templates/update/" + RELATIVE_PATH), "repositories.xml", "<url>${home}/repo</url>", "readme.txt",
+        "plain");
+    File workspaceFile = getFile("workspace/" + RELATIVE_PATH);
+    writeStoredZip(workspaceFile, "readme.txt", "plain", "repositories.xml", "<url>/opt/repo</url>");
+    workspaceFile.setLastModified(OLD_TIME);
+    byte[] existing = Files.readAllBytes(workspaceFile.toPath());
+
+    assertEquals(FilePlan.Action.UNCHANGED, merge("/opt"));
+
+    assertEquals(OLD_TIME, workspaceFile.lastModified());
+    assertArrayEquals(existing, Files.readAllBytes(workspaceFile.toPath()));
+  }
+
+  /**
+   * Tests that an archive is rewritten with the resolved entries if the CRC of an entry changed.
+   *
+   * @throws IOException if reading or writing failed.
+   */
+  @Test
+  public void testRewriteChangedCrc() throws IOException {
+
+    writeZip(getFile("templates/update/" + RELATIVE_PATH), "repositories.xml", "<url>${home}/repo</url>", "readme.txt",
+        "plain");
+    File workspaceFile = getFile("workspace/" + RELATIVE_PATH);
+    writeZip(workspaceFile, "repositories.xml", "<url>/old/repo</url>", "readme.txt", "plain");
+    workspaceFile.setLastModified(OLD_TIME);
+
+    assertEquals(FilePlan.Action.COPY, merge("/opt"));
+
+    assertFalse(OLD_TIME == workspaceFile.lastModified());
+    Map<String, String> entries = readZip(workspaceFile);
+    assertEquals("<url>/opt/repo</url>", entries.get("repositories.xml"));
+    assertEquals("plain", entries.get("readme.txt"));
+    assertEquals(2, entries.size());
+  }
+
+  /**
+   * Tests that an archive is rewritten if it has additional entries even though all entries of the template match.
+   *
+   * @throws IOException if reading or writing failed.
+   */
+  @Test
+  public void testRewriteAdditionalEntry() throws IOException {
+
+    writeZip(getFile("templates/update/" + RELATIVE_PATH), "repositories.xml", "<url>${home}/repo</url>");
+    File workspaceFile = getFile("workspace/" + RELATIVE_PATH);
+    writeZip(workspaceFile, "repositories.xml", "<url>/opt/repo</url>", "obsolete.txt", "old");
+
+    assertEquals(FilePlan.Action.COPY, merge("/opt"));
+
+    Map<String, String> entries = readZip(workspaceFile);
+    assertEquals("<url>/opt/repo</url>", entries.get("repositories.xml"));
+    assertEquals(1, entries.size());
+  }
+
+  /**
+   * Tests that an archive written by the merger itself is skipped by the next merge.
+   *
+   * @throws IOException if reading or writing failed.
+   */
+  @Test
+  public void testSkipAfterMerge() throws IOException {
+
+    writeZip(getFile("templates/update/" + RELATIVE_PATH), "repositories.xml", "<url>${home}/repo</url>");
+    File workspaceFile = getFile("workspace/" + RELATIVE_PATH);
+
+    assertEquals(FilePlan.Action.CREATE, merge("/opt"));
+    workspaceFile.setLastModified(OLD_TIME);
+    assertEquals(FilePlan.Action.UNCHANGED, merge("/opt"));
+
+    assertEquals(OLD_TIME, workspaceFile.lastModified());
+    assertEquals("<url>/opt/repo</url>", readZip(workspaceFile).get("repositories.xml"));
+  }
+
+  /**
+   * {@link ArchiveMerger#plan(Configurator.EclipseWorkspaceFile, WorkspaceTemplates) Plans} and
+   * {@link ArchiveMerger#merge(Configurator.EclipseWorkspaceFile, WorkspaceTemplates, AtomicFileWriter) merges} the
+   * {@link #RELATIVE_PATH archive} of the templates into the workspace.
+   *
+   * @param home is the value of the variable "home".
+   * @return the planned {@link FilePlan.Action}.
+   * @throws IOException if reading or writing failed.
+   */
+  private FilePlan.Action merge(String home) throws IOException {
+
+    Properties replacementPatterns = new Properties();
+    replacementPatterns.setProperty("home", home);
+    Resolver resolver = new Resolver(replacementPatterns, Strings.REPLACEMENT_REG_EX);
+    File templatesFolder = getFile("templates");
+    new File(templatesFolder, Strings.FOLDER_SETUP).mkdirs();
+    new File(templatesFolder, Strings.FOLDER_UPDATE).mkdirs();
+    WorkspaceTemplates templates = new WorkspaceTemplates(templatesFolder.getPath(), resolver);
+    Configurator configurator = new Configurator(getFile("workspace").getPath(), templates);
+    Configurator.EclipseWorkspaceFile file = configurator.new EclipseWorkspaceFile(RELATIVE_PATH);
+    ArchiveMerger merger = new ArchiveMerger();
+    FilePlan.Action action = merger.plan(file, templates).getAction();
+    merger.merge(file, templates, new AtomicFileWriter());
+    return action;
+  }
+
+  /**
+   * @param path is the path relative to the {@link #folder}.
+   * @return the {@link File}.
+   */
+  private File getFile(String path) {
+
+    return new File(this.folder.getRoot(), path);
+  }
+
+  /**
+   * Writes a deflated archive.
+   *
+   * @param file is the archive {@link File} to write.
+   * @param entries are the names and contents of the entries in alternating order.
+   * @throws IOException if writing failed.
+   */
+  private static void writeZip(File file, String... entries) throws IOException {
+
+    file.getParentFile().mkdirs();
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+    try {
+      for (int i = 0; i < entries.length; i = i + 2) {
+        out.putNextEntry(new ZipEntry(entries[i]));
+        out.write(entries[i + 1].getBytes(ENCODING));
+        out.closeEntry();
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes an archive with uncompressed entries.
+   *
+   * @param file is the archive {@link File} to write.
+   * @param entries are the names and contents of the entries in alternating order.
+   * @throws IOException if writing failed.
+   */
+  private static void writeStoredZip(File file, String... entries) throws IOException {
+
+    file.getParentFile().mkdirs();
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+    try {
+      out.setMethod(ZipOutputStream.STORED);
+      for (int i = 0; i < entries.length; i = i + 2) {
+        byte[] content = entries[i + 1].getBytes(ENCODING);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        ZipEntry entry = new ZipEntry(entries[i]);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        entry.setCrc(crc.getValue());
+        entry.setTime(OLD_TIME);
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @param file is the archive {@link File} to read.
+   * @return the contents of the entries by name.
+   * @throws IOException if reading failed.
+   */
+  private static Map<String, String> readZip(File file) throws IOException {
+
+    Map<String, String> entries = new LinkedHashMap<String, String>();
+    ZipInputStream in = new ZipInputStream(new FileInputStream(file));
+    try {
+      ZipEntry entry = in.getNextEntry();
+      while (entry != null) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int length = in.read(buffer);
+        while (length != -1) {
+          content.write(buffer, 0, length);
+          length = in.read(buffer);
+        }
+        entries.put(entry.getName(), content.toString(ENCODING));
+        entry = in.getNextEntry();
+      }
+    } finally {
+      in.close();
+    }
+    return entries;
+  }
+
+}
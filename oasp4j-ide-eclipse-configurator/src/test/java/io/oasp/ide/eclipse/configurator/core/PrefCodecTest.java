@@ -0,0 +1,145 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import io.oasp.ide.eclipse.configurator.entity.PreferenceMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link PrefCodec} that checks the format against {@link Properties} as reference.
+ */
+public class PrefCodecTest {
+
+  /** The encoding of .prefs files read by {@link PrefCodec}. */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** The dummy {@link File} for error messages. */
+  private static final File FILE = new File("test.prefs");
+
+  /**
+   * Tests that keys and values with characters that need escaping survive {@link PrefCodec#encode(PreferenceMap)}
+   * loaded via {@link Properties#load(java.io.InputStream)} and a round-trip through {@link PrefCodec}.
+   *
+   * @throws IOException if reading failed.
+   */
+  @Test
+  public void testEncodeEscapes() throws IOException {
+
+    PreferenceMap preferences = new PreferenceMap();
+    preferences.put("simple", "value");
+    preferences.put("key with spaces", " leading and trailing ");
+    preferences.put("separators=:", "a=b:c");
+    preferences.put("#comment!", "!not a comment#");
+    preferences.put("control", "tab\tnewline\ncarriage\rformfeed\f");
+    preferences.put("backslash", "C:\\Users\\path\\");
+    preferences.put("unicode.\u00e4\u00f6\u00fc", "\u00df\u20ac\u4e2d\ud83d\ude00");
+    preferences.put("low", "\u0001\u001f");
+    preferences.put("", "empty key");
+    preferences.put("empty.value", "");
+
+    byte[] encoded = PrefCodec.encode(preferences);
+    Properties properties = new Properties();
+    properties.load(new ByteArrayInputStream(encoded));
+    assertEquals(preferences, toPreferenceMap(properties));
+
+    PreferenceMap decoded = read(encoded);
+    assertEquals(preferences, decoded);
+    assertArrayEquals(encoded, PrefCodec.encode(decoded));
+  }
+
+  /**
+   * Tests that the output of {@link Properties#store(java.io.OutputStream, String)} is read like
+   * {@link Properties#load(java.io.InputStream)} does.
+   *
+   * @throws IOException if reading or writing failed.
+   */
+  @Test
+  public void testReadStoredProperties() throws IOException {
+
+    Properties properties = new Properties();
+    properties.setProperty("key with spaces", " value ");
+    properties.setProperty("a=b", "c:d");
+    properties.setProperty("unicode.\u00e4", "\u20ac\u4e2d");
+    properties.setProperty("path", "C:\\temp\\new");
+    properties.setProperty("multi", "line1\nline2\r\n");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    properties.store(out, "comment with # and !");
+
+    assertEquals(toPreferenceMap(properties), read(out.toByteArray()));
+  }
+
+  /**
+   * Tests that escapes, unicode and continuation lines are parsed like {@link Properties#load(java.io.Reader)} does.
+   *
+   * @throws IOException if reading failed.
+   */
+  @Test
+  public void testReadLikeProperties() throws IOException {
+
+    String content = "# comment\n" //
+        + "! other comment\n" //
+        + "   \n" //
+        + "plain=value\n" //
+        + "colon:value\n" //
+        + "space value\n" //
+        + "  indented  =  spaced  \n" //
+        + "escaped\\ key\\=\\:=escaped\\ value\\\\\n" //
+        + "unicode=\\u00e4\\u00F6\\u20ac\n" //
+        + "raw=\u00e4\u00f6\u20ac\n" //
+        + "control=\\t\\n\\r\\f\\x\n" //
+        + "continued=first \\\n" //
+        + "      second \\\n" //
+        + "\tthird\n" //
+        + "continued.empty=\\\n" //
+        + "\n" //
+        + "crlf=one\\\r\n" //
+        + "  two\r\n" //
+        + "cr=three\r" //
+        + "even.backslashes=end\\\\\n" //
+        + "no.separator\n" //
+        + "last=no newline\\";
+
+    Properties properties = new Properties();
+    properties.load(new StringReader(content));
+
+    assertEquals(toPreferenceMap(properties), read(content.getBytes(UTF_8)));
+  }
+
+  /**
+   * @param content is the content of a .prefs file.
+   * @return the {@link PreferenceMap} {@link PrefCodec#read(ByteBuffer, File, PreferenceMap) read} from the content.
+   * @throws IOException if the content is malformed.
+   */
+  private static PreferenceMap read(byte[] content) throws IOException {
+
+    PreferenceMap preferences = new PreferenceMap();
+    PrefCodec.read(ByteBuffer.wrap(content), FILE, preferences);
+    return preferences;
+  }
+
+  /**
+   * @param properties are the {@link Properties} to convert.
+   * @return the {@link PreferenceMap} with the same entries.
+   */
+  private static PreferenceMap toPreferenceMap(Properties properties) {
+
+    PreferenceMap preferences = new PreferenceMap();
+    for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+      preferences.put((String) entry.getKey(), (String) entry.getValue());
+    }
+    return preferences;
+  }
+
+}
@@ -0,0 +1,162 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import static org.junit.Assert.assertEquals;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test of {@link PropertiesMerger}.
+ */
+public class PropertiesMergerTest {
+
+  /** The encoding of .properties files. */
+  private static final String ENCODING = "ISO-8859-1";
+
+  /** The relative path of the merged file. */
+  private static final String RELATIVE_PATH = "conf/app.properties";
+
+  /** The temporary folder with the templates and the workspace. */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Tests that comments, blank lines, order, formatting and properties only present in the workspace are kept while
+   * changed values are replaced in place and new properties are appended.
+   *
+   * @throws IOException if reading or writing failed.
+   */
+  @Test
+  public void testMergeKeepsCommentsAndOrder() throws IOException {
+
+    write("templates/update/" + RELATIVE_PATH, "# update template\n" //
+        + "changed=${home}/new\n" //
+        + "unchanged = same\n" //
+        + "added=value\n");
+    write("workspace/" + RELATIVE_PATH, "# header comment\n" //
+        + "\n" //
+        + "user.only : kept\n" //
+        + "! other comment\n" //
+        + "unchanged   same\n" //
+        + "changed = old \\\n" //
+        + "    continued\n" //
+        + "# trailing comment\n" //
+        + "last=no newline");
+
+    merge();
+
+    assertEquals("# header comment\n" //
+        + "\n" //
+        + "user.only : kept\n" //
+        + "! other comment\n" //
+        + "unchanged   same\n" //
+        + "changed=/opt/new\n" //
+        + "# trailing comment\n" //
+        + "last=no newline\n" //
+        + "added=value\n", read("workspace/" + RELATIVE_PATH));
+  }
+
+  /**
+   * Tests that a workspace file that is already up-to-date is left unchanged, byte by byte.
+   *
+   * @throws IOException if reading or writing failed.
+   */
+  @Test
+  public void testMergeUpToDate() throws IOException {
+
+    write("templates/update/" + RELATIVE_PATH, "key=${home}\n");
+    String existing = "# comment\r\nkey : /opt\r\nother=1\r\n";
+    write("workspace/" + RELATIVE_PATH, existing);
+
+    merge();
+
+    assertEquals(existing, read("workspace/" + RELATIVE_PATH));
+  }
+
+  /**
+   * Tests that properties appended to a file with CRLF line terminators also use CRLF.
+   *
+   * @throws IOException if reading or writing failed.
+   */
+  @Test
+  public void testMergeKeepsLineSeparator() throws IOException {
+
+    write("templates/update/" + RELATIVE_PATH, "b=2\n");
+    write("workspace/" + RELATIVE_PATH, "# comment\r\na=1\r\n");
+
+    merge();
+
+    assertEquals("# comment\r\na=1\r\nb=2\r\n", read("workspace/" + RELATIVE_PATH));
+  }
+
+  /**
+   * Tests that a missing workspace file is created from the setup template including its comments and order.
+   *
+   * @throws IOException if reading or writing failed.
+   */
+  @Test
+  public void testCreateFromSetup() throws IOException {
+
+    write("templates/setup/" + RELATIVE_PATH, "# setup template in ${home}\n" //
+        + "z=last\n" //
+        + "a = ${home}/first\n");
+    write("templates/update/" + RELATIVE_PATH, "m=middle\n");
+
+    merge();
+
+    assertEquals("# setup template in /opt\n" //
+        + "z=last\n" //
+        + "a=/opt/first\n" //
+        + "m=middle\n", read("workspace/" + RELATIVE_PATH));
+  }
+
+  /**
+   * Merges the {@link #RELATIVE_PATH file} of the templates into the workspace.
+   *
+   * @throws IOException if reading or writing failed.
+   */
+  private void merge() throws IOException {
+
+    Properties replacementPatterns = new Properties();
+    replacementPatterns.setProperty("home", "/opt");
+    Resolver resolver = new Resolver(replacementPatterns, Strings.REPLACEMENT_REG_EX);
+    File templatesFolder = new File(this.folder.getRoot(), "templates");
+    new File(templatesFolder, Strings.FOLDER_SETUP).mkdirs();
+    new File(templatesFolder, Strings.FOLDER_UPDATE).mkdirs();
+    WorkspaceTemplates templates = new WorkspaceTemplates(templatesFolder.getPath(), resolver);
+    Configurator configurator = new Configurator(new File(this.folder.getRoot(), "workspace").getPath(), templates);
+    Configurator.EclipseWorkspaceFile file = configurator.new EclipseWorkspaceFile(RELATIVE_PATH);
+    new PropertiesMerger().merge(file, templates, new AtomicFileWriter());
+  }
+
+  /**
+   * @param path is the path relative to the {@link #folder}.
+   * @param content is the content to write.
+   * @throws IOException if writing failed.
+   */
+  private void write(String path, String content) throws IOException {
+
+    File file = new File(this.folder.getRoot(), path);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes(ENCODING));
+  }
+
+  /**
+   * @param path is the path relative to the {@link #folder}.
+   * @return the content of the file.
+   * @throws IOException if reading failed.
+   */
+  private String read(String path) throws IOException {
+
+    return new String(Files.readAllBytes(new File(this.folder.getRoot(), path).toPath()), ENCODING);
+  }
+
+}
@@ -0,0 +1,152 @@
+package io.oasp.ide.eclipse.configurator.core;
+
+import static org.junit.Assert.assertEquals;
+
+import io.oasp.ide.eclipse.configurator.constants.Strings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link ReplacementValueMatcher} that checks overlapping values against a brute-force reference.
+ */
+public class ReplacementValueMatcherTest {
+
+  /** The characters of the random values and data. A small alphabet produces many overlapping matches. */
+  private static final String ALPHABET = "abc/";
+
+  /**
+   * Tests overlapping values where the longest match has to win.
+   */
+  @Test
+  public void testLongestMatch() {
+
+    Map<String, String> patterns = new HashMap<String, String>();
+    patterns.put("home", "/home/user");
+    patterns.put("project", "/home/user/project");
+    patterns.put("user", "user/project/src");
+    patterns.put("src", "src");
+
+    assertEquals("${project}/${src}/main", replace(patterns, "/home/user/project/src/main"));
+    assertEquals("${home}/other", replace(patterns, "/home/user/other"));
+    assertEquals("x${user}", replace(patterns, "xuser/project/src"));
+    assertReference(patterns, "/home/user/project/src/home/user/projec/home/user");
+  }
+
+  /**
+   * Tests that the alphabetically first variable wins if several variables have the same value.
+   */
+  @Test
+  public void testAlphabeticalTieBreak() {
+
+    Map<String, String> patterns = new HashMap<String, String>();
+    patterns.put("zeta", "value");
+    patterns.put("alpha", "value");
+    patterns.put("beta", "value");
+
+    assertEquals("${alpha} and ${alpha}", replace(patterns, "value and value"));
+  }
+
+  /**
+   * Tests random overlapping values against the brute-force reference.
+   */
+  @Test
+  public void testRandomAgainstReference() {
+
+    Random random = new Random(4711);
+    for (int round = 0; round < 500; round++) {
+      Map<String, String> patterns = new HashMap<String, String>();
+      int count = 1 + random.nextInt(8);
+      for (int i = 0; i < count; i++) {
+        patterns.put("var" + random.nextInt(10), randomString(random, 1 + random.nextInt(5)));
+      }
+      for (int i = 0; i < 10; i++) {
+        assertReference(patterns, randomString(random, random.nextInt(40)));
+      }
+    }
+  }
+
+  /**
+   * @param patterns are the replacement patterns.
+   * @param data is the {@link String} to process.
+   */
+  private static void assertReference(Map<String, String> patterns, String data) {
+
+    assertEquals("patterns " + patterns + " for " + data, replaceBruteForce(patterns, data), replace(patterns, data));
+  }
+
+  /**
+   * @param patterns are the replacement patterns.
+   * @param data is the {@link String} to process.
+   * @return the result of {@link ReplacementValueMatcher#replace(String)}.
+   */
+  private static String replace(Map<String, String> patterns, String data) {
+
+    return new ReplacementValueMatcher(patterns).replace(data);
+  }
+
+  /**
+   * Replaces the values by trying all patterns at every position: the longest value wins and for equal values the
+   * alphabetically first variable.
+   *
+   * @param patterns are the replacement patterns.
+   * @param data is the {@link String} to process.
+   * @return the expected result of {@link ReplacementValueMatcher#replace(String)}.
+   */
+  private static String replaceBruteForce(Map<String, String> patterns, String data) {
+
+    List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>(patterns.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, String>>() {
+
+      public int compare(Map.Entry<String, String> entry1, Map.Entry<String, String> entry2) {
+
+        int diff = entry2.getValue().length() - entry1.getValue().length();
+        if (diff != 0) {
+          return diff;
+        }
+        return entry1.getKey().compareTo(entry2.getKey());
+      }
+    });
+    StringBuilder buffer = new StringBuilder();
+    int i = 0;
+    while (i < data.length()) {
+      Map.Entry<String, String> match = null;
+      for (Map.Entry<String, String> entry : entries) {
+        if ((entry.getValue().length() > 0) && data.startsWith(entry.getValue(), i)) {
+          match = entry;
+          break;
+        }
+      }
+      if (match == null) {
+        buffer.append(data.charAt(i));
+        i++;
+      } else {
+        buffer.append(Strings.PATTERN_PREFIX).append(match.getKey()).append(Strings.PATTERN_SUFFIX);
+        i = i + match.getValue().length();
+      }
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * @param random is the {@link Random} to use.
+   * @param length is the length of the {@link String}.
+   * @return a random {@link String} of the {@link #ALPHABET}.
+   */
+  private static String randomString(Random random, int length) {
+
+    StringBuilder buffer = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      buffer.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+    }
+    return buffer.toString();
+  }
+
+}